@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.net.URL;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The Recorder that makes flight recorder events. It can only be loaded if jdk.jfr is there, 
+ * so nothing but Recorder.load refers to it, and only by name.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+final class JfrRecorder extends Recorder {
+	static final String REQUEST_EVENT = "com.simularity.javapengine.Request";
+	static final String RETRY_EVENT = "com.simularity.javapengine.Retry";
+	static final String STATE_EVENT = "com.simularity.javapengine.StateTransition";
+	
+	@Name(REQUEST_EVENT)
+	@Label("Pengine Request")
+	@Description("A request to a pengine server, from sending it to handling the answer")
+	@Category({"JavaPengine"})
+	static final class RequestEvent extends Event {
+		@Label("Step")
+		@Description("create, ask, next, stop, destroy, pull_response or keepalive")
+		String step;
+		
+		@Label("Pengine ID")
+		String pengineID;
+		
+		@Label("Server")
+		String server;
+		
+		@Label("Chunk")
+		@Description("The number of answers asked for, or 0")
+		int chunk;
+		
+		@Label("Bytes Sent")
+		@DataAmount
+		long bytesSent;
+		
+		@Label("Bytes Received")
+		@Description("The length of the response, or -1 if the server didn't give one")
+		@DataAmount
+		long bytesReceived;
+		
+		@Label("Proofs")
+		int proofs;
+		
+		@Label("Answer")
+		@Description("The event the server answered with, destroy/success for a success wrapped in a destroy")
+		String answer;
+	}
+	
+	@Name(RETRY_EVENT)
+	@Label("Pengine Retry")
+	@Description("A request to a pengine server failed and is being sent again")
+	@Category({"JavaPengine"})
+	static final class RetryEvent extends Event {
+		@Label("Pengine ID")
+		String pengineID;
+		
+		@Label("Server")
+		String server;
+		
+		@Label("Attempt")
+		int attempt;
+		
+		@Label("Cause")
+		String cause;
+	}
+	
+	@Name(STATE_EVENT)
+	@Label("Pengine State Transition")
+	@Category({"JavaPengine"})
+	@StackTrace(false)
+	static final class StateEvent extends Event {
+		@Label("Pengine ID")
+		String pengineID;
+		
+		@Label("From")
+		String from;
+		
+		@Label("To")
+		String to;
+	}
+	
+	@Override
+	Object begin() {
+		RequestEvent event = new RequestEvent();
+		if(!event.isEnabled())
+			return null;
+		
+		event.begin();
+		return event;
+	}
+	
+	@Override
+	void request(Object event, String step, String pengineID, URL url, int chunk, 
+			long bytesSent, long bytesReceived, int proofs, String answer) {
+		RequestEvent e = (RequestEvent)event;
+		e.end();
+		if(!e.shouldCommit())
+			return;
+		
+		e.step = step;
+		e.pengineID = pengineID;
+		e.server = url.getAuthority();
+		e.chunk = chunk;
+		e.bytesSent = bytesSent;
+		e.bytesReceived = bytesReceived;
+		e.proofs = proofs;
+		e.answer = answer;
+		e.commit();
+	}
+	
+	@Override
+	void retry(String pengineID, URL url, int attempt, Exception cause) {
+		RetryEvent e = new RetryEvent();
+		if(!e.shouldCommit())
+			return;
+		
+		e.pengineID = pengineID;
+		e.server = url.getAuthority();
+		e.attempt = attempt;
+		e.cause = cause.toString();
+		e.commit();
+	}
+	
+	@Override
+	void state(String pengineID, PengineState.PSt from, PengineState.PSt to) {
+		StateEvent e = new StateEvent();
+		if(!e.shouldCommit())
+			return;
+		
+		e.pengineID = pengineID;
+		e.from = from.toString();
+		e.to = to.toString();
+		e.commit();
+	}
+}
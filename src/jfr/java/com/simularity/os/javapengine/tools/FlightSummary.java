@@ -0,0 +1,221 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine.tools;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Summarizes the JavaPengine events in a Java Flight Recorder recording as a timeline per query.
+ * 
+ * Record with, for example, -XX:StartFlightRecording=filename=run.jfr, then
+ * 
+ * <pre>
+ * java -cp javapengine.jar com.simularity.os.javapengine.tools.FlightSummary run.jfr [pengine id ...]
+ * </pre>
+ * 
+ * Events are grouped by pengine, and a pengine's events are split into queries at each ask (or create that asks). 
+ * Each query gets a line with its total time, requests, retries and proofs, followed by its requests and state 
+ * transitions in order, timed from the start of the query. Naming pengines shows only those.
+ * 
+ * Needs jdk.jfr - Java 11 or later, or 8u262 or later.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+public final class FlightSummary {
+	private static final String REQUEST_EVENT = "com.simularity.javapengine.Request";
+	private static final String RETRY_EVENT = "com.simularity.javapengine.Retry";
+	private static final String STATE_EVENT = "com.simularity.javapengine.StateTransition";
+	
+	private static final String NOT_CREATED = "(not created)";
+	
+	/**
+	 * the events of one query on one pengine, or of a pengine between queries
+	 */
+	private static final class Timeline {
+		private final boolean query;
+		private final List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+		private int requests = 0;
+		private int retries = 0;
+		private long proofs = 0;
+		
+		Timeline(boolean query) {
+			this.query = query;
+		}
+		
+		void add(RecordedEvent e) {
+			events.add(e);
+			String type = e.getEventType().getName();
+			if(type.equals(REQUEST_EVENT)) {
+				requests++;
+				proofs += e.getInt("proofs");
+			} else if(type.equals(RETRY_EVENT)) {
+				retries++;
+			}
+		}
+		
+		Instant start() {
+			return events.get(0).getStartTime();
+		}
+		
+		Instant end() {
+			Instant end = start();
+			for(RecordedEvent e : events) {
+				if(e.getEndTime().isAfter(end))
+					end = e.getEndTime();
+			}
+			return end;
+		}
+	}
+	
+	private FlightSummary() {
+	}
+	
+	/**
+	 * @param args the recording, then optionally the ids of the pengines to show
+	 */
+	public static void main(String[] args) {
+		if(args.length < 1) {
+			System.err.println("usage: FlightSummary RECORDING.jfr [pengine id ...]");
+			System.exit(2);
+		}
+		
+		try {
+			Map<String, List<Timeline>> pengines = read(Paths.get(args[0]));
+			List<String> only = new ArrayList<String>();
+			for(int i = 1 ; i < args.length ; i++)
+				only.add(args[i]);
+			
+			if(pengines.isEmpty())
+				System.out.println("no JavaPengine events in " + args[0]);
+			
+			for(Map.Entry<String, List<Timeline>> pengine : pengines.entrySet()) {
+				if(only.isEmpty() || only.contains(pengine.getKey()))
+					print(pengine.getKey(), pengine.getValue());
+			}
+		} catch (IOException e) {
+			System.err.println("can't read " + args[0] + ": " + e.getMessage());
+			System.exit(1);
+		}
+	}
+	
+	/**
+	 * @param recording the recording file
+	 * @return the timelines of each pengine, in the order the pengines first appear
+	 * @throws IOException if the recording can't be read
+	 */
+	private static Map<String, List<Timeline>> read(Path recording) throws IOException {
+		List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+		for(RecordedEvent e : RecordingFile.readAllEvents(recording)) {
+			if(e.getEventType().getName().startsWith("com.simularity.javapengine."))
+				events.add(e);
+		}
+		Collections.sort(events, new Comparator<RecordedEvent>() {
+			@Override
+			public int compare(RecordedEvent a, RecordedEvent b) {
+				return a.getStartTime().compareTo(b.getStartTime());
+			}
+		});
+		
+		Map<String, List<Timeline>> pengines = new LinkedHashMap<String, List<Timeline>>();
+		for(RecordedEvent e : events) {
+			String id = e.getString("pengineID");
+			if(id == null)
+				id = NOT_CREATED;
+			
+			List<Timeline> timelines = pengines.get(id);
+			if(timelines == null) {
+				timelines = new ArrayList<Timeline>();
+				pengines.put(id, timelines);
+			}
+			
+			boolean asks = e.getEventType().getName().equals(REQUEST_EVENT) && 
+					(e.getString("step").equals("ask") || (e.getString("step").equals("create") && e.getInt("chunk") > 0));
+			if(asks || timelines.isEmpty()) {
+				Timeline t = new Timeline(asks);
+				// the pengine goes to ASK just before it sends the ask
+				if(!timelines.isEmpty()) {
+					List<RecordedEvent> last = timelines.get(timelines.size() - 1).events;
+					RecordedEvent prev = last.get(last.size() - 1);
+					if(prev.getEventType().getName().equals(STATE_EVENT) && prev.getString("to").equals("ASK"))
+						t.events.add(last.remove(last.size() - 1));
+				}
+				timelines.add(t);
+			}
+			timelines.get(timelines.size() - 1).add(e);
+		}
+		return pengines;
+	}
+	
+	private static void print(String id, List<Timeline> timelines) {
+		System.out.println("pengine " + id);
+		int n = 0;
+		for(Timeline t : timelines) {
+			if(t.query) {
+				n++;
+				System.out.println(String.format("  query %d: %.1f ms, %d requests, %d retries, %d proofs", 
+						n, millis(t.start(), t.end()), t.requests, t.retries, t.proofs));
+			} else {
+				System.out.println("  outside a query:");
+			}
+			
+			for(RecordedEvent e : t.events)
+				System.out.println("    " + describe(t.start(), e));
+		}
+	}
+	
+	private static String describe(Instant start, RecordedEvent e) {
+		String offset = String.format("+%9.1f ms  ", millis(start, e.getStartTime()));
+		String type = e.getEventType().getName();
+		if(type.equals(STATE_EVENT))
+			return offset + "state " + e.getString("from") + " -> " + e.getString("to");
+		
+		if(type.equals(RETRY_EVENT))
+			return offset + "retry " + e.getInt("attempt") + " to " + e.getString("server") + ": " + e.getString("cause");
+		
+		String chunk = e.getInt("chunk") > 0 ? " chunk " + e.getInt("chunk") : "";
+		return offset + String.format("%-13s %8.1f ms", e.getString("step"), e.getDuration().toNanos() / 1e6) + 
+				"  " + e.getString("server") + chunk +
+				", sent " + e.getLong("bytesSent") + " bytes, received " + 
+				(e.getLong("bytesReceived") < 0 ? "?" : Long.toString(e.getLong("bytesReceived"))) + " bytes, " +
+				e.getInt("proofs") + " proofs, " + (e.getString("answer") == null ? "no answer" : e.getString("answer"));
+	}
+	
+	private static double millis(Instant from, Instant to) {
+		return Duration.between(from, to).toNanos() / 1e6;
+	}
+}
@@ -0,0 +1,207 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import javax.json.JsonReaderFactory;
+import javax.json.JsonValue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.simularity.os.javapengine.term.Atom;
+import com.simularity.os.javapengine.term.Compound;
+import com.simularity.os.javapengine.term.FloatTerm;
+import com.simularity.os.javapengine.term.IntegerTerm;
+import com.simularity.os.javapengine.term.ListTerm;
+import com.simularity.os.javapengine.term.StringTerm;
+import com.simularity.os.javapengine.term.Term;
+import com.simularity.os.javapengine.term.TermReader;
+
+/**
+ * Compares decoding a success answer in the json format with the prolog format, for a few
+ * shapes of answer. The setup prints the payload size of each format.
+ * 
+ * Both answers are made from the same terms, the way the server writes them, so they carry the same
+ * bindings. Decoding goes as far as the proofs a Query hands out.
+ * 
+ * mvn -Pbenchmark clean package
+ * java -jar target/javapengine-0.0.1-SNAPSHOT-benchmarks.jar AnswerFormatBenchmark -prof gc
+ * 
+ * @author Anne Ogborn
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnswerFormatBenchmark {
+	private static final String ID = "2204d4b2-de94-4946-965c-e7aaf12a1a8b";
+	private static final int SOLUTIONS = 100;
+	
+	/**
+	 * atoms - employee(Name, Position) style rows of atoms and strings
+	 * numbers - rows of integers and floats
+	 * nested - each binding is a compound a few levels deep
+	 * longlist - one solution bound to a 1000 element list
+	 */
+	@Param({"atoms", "numbers", "nested", "longlist"})
+	public String shape;
+	
+	private final JsonReaderFactory jsonReaderFactory = Json.createReaderFactory(null);
+	private String json;
+	private String prolog;
+	
+	@Setup
+	public void setup() {
+		List<List<Term[]>> solutions = new ArrayList<List<Term[]>>();
+		if(shape.equals("longlist")) {
+			List<Term> elements = new ArrayList<Term>();
+			for(int i = 0 ; i < 1000 ; i++)
+				elements.add(new IntegerTerm(i * 7919L));
+			solutions.add(row(binding("L", new ListTerm(elements))));
+		} else {
+			for(int i = 0 ; i < SOLUTIONS ; i++) {
+				if(shape.equals("atoms")) {
+					solutions.add(row(
+							binding("Name", new Atom("employee_" + i)),
+							binding("Position", new Atom("Senior Engineer")),
+							binding("Note", new StringTerm("hired in " + (2000 + i % 20)))));
+				} else if(shape.equals("numbers")) {
+					solutions.add(row(
+							binding("Id", new IntegerTerm(i)),
+							binding("Salary", new IntegerTerm(50000L + i * 113)),
+							binding("Rate", new FloatTerm(i / 7.0))));
+				} else {
+					Term t = new Atom("leaf");
+					for(int depth = 0 ; depth < 4 ; depth++)
+						t = new Compound("node", new IntegerTerm(depth), t, new Atom("x" + i));
+					solutions.add(row(binding("T", t)));
+				}
+			}
+		}
+		
+		json = jsonAnswer(solutions);
+		prolog = prologAnswer(solutions);
+		System.out.println();
+		System.out.println(shape + " payload json " + json.getBytes(StandardCharsets.UTF_8).length + 
+				" bytes, prolog " + prolog.getBytes(StandardCharsets.UTF_8).length + " bytes");
+	}
+	
+	static Term[] binding(String name, Term value) {
+		return new Term[] { new Atom(name), value };
+	}
+	
+	static List<Term[]> row(Term[]... bindings) {
+		List<Term[]> row = new ArrayList<Term[]>();
+		for(Term[] b : bindings)
+			row.add(b);
+		return row;
+	}
+	
+	/**
+	 * what the server sends for format=json
+	 */
+	static String jsonAnswer(List<List<Term[]>> solutions) {
+		JsonArrayBuilder data = Json.createArrayBuilder();
+		for(List<Term[]> solution : solutions) {
+			JsonObjectBuilder job = Json.createObjectBuilder();
+			for(Term[] b : solution)
+				job.add(((Atom)b[0]).getName(), b[1].toJson());
+			data.add(job);
+		}
+		
+		return Json.createObjectBuilder()
+				.add("data", data)
+				.add("event", "success")
+				.add("id", ID)
+				.add("more", false)
+				.add("projection", Json.createArrayBuilder())
+				.add("time", 0.000123)
+				.build().toString();
+	}
+	
+	/**
+	 * what the server sends for format=prolog with the template made by PrologAnswer.bindingsTemplate
+	 */
+	static String prologAnswer(List<List<Term[]>> solutions) {
+		List<Term> data = new ArrayList<Term>();
+		for(List<Term[]> solution : solutions) {
+			List<Term> bindings = new ArrayList<Term>();
+			for(Term[] b : solution)
+				bindings.add(new Compound("=", b[0], b[1]));
+			data.add(new ListTerm(bindings));
+		}
+		
+		return new Compound("success", 
+				new Atom(ID), 
+				new ListTerm(data), 
+				ListTerm.EMPTY, 
+				new FloatTerm(0.000123), 
+				new Atom("false")).toString();
+	}
+	
+	@Benchmark
+	public void decodeJson(Blackhole bh) {
+		try (JsonReader jr = jsonReaderFactory.createReader(new StringReader(json))) {
+			JsonObject answer = jr.readObject();
+			JsonArray data = answer.getJsonArray("data");
+			for(JsonValue v : data) {
+				Proof proof = new Proof((JsonObject)v);
+				bh.consume(proof.getValues());
+			}
+		}
+	}
+	
+	@Benchmark
+	public void decodeProlog(Blackhole bh) throws Exception {
+		Term answer = TermReader.parse(prolog);
+		for(Proof proof : PrologAnswer.proofs(PrologAnswer.arg(answer, 1))) {
+			bh.consume(proof.getTerms());
+		}
+	}
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonReaderFactory;
+import javax.json.JsonValue;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParserFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.simularity.os.javapengine.term.Atom;
+import com.simularity.os.javapengine.term.FloatTerm;
+import com.simularity.os.javapengine.term.IntegerTerm;
+import com.simularity.os.javapengine.term.Term;
+
+/**
+ * Decodes a chunk of 10000 analytics style solutions - an id, a category and a price - 
+ * into arrays, by way of Proofs the way a caller has to with next(), and straight into 
+ * columns the way collectColumns does.
+ * 
+ * mvn -Pbenchmark clean package
+ * java -jar target/javapengine-0.0.1-SNAPSHOT-benchmarks.jar ColumnsBenchmark -prof gc
+ * 
+ * @author Anne Ogborn
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColumnsBenchmark {
+	private static final int SOLUTIONS = 10000;
+	
+	private final JsonReaderFactory jsonReaderFactory = Json.createReaderFactory(null);
+	private final JsonParserFactory jsonParserFactory = Json.createParserFactory(null);
+	private byte[] answer;
+	
+	@Setup
+	public void setup() {
+		List<List<Term[]>> solutions = new ArrayList<List<Term[]>>();
+		for(int i = 0 ; i < SOLUTIONS ; i++) {
+			solutions.add(AnswerFormatBenchmark.row(
+					AnswerFormatBenchmark.binding("Id", new IntegerTerm(i)),
+					AnswerFormatBenchmark.binding("Category", new Atom("category_" + (i % 20))),
+					AnswerFormatBenchmark.binding("Price", new FloatTerm(i * 0.25 + 0.01))));
+		}
+		answer = AnswerFormatBenchmark.jsonAnswer(solutions).getBytes(StandardCharsets.UTF_8);
+	}
+	
+	@Benchmark
+	public void proofs(Blackhole bh) throws Exception {
+		int[] ids = new int[SOLUTIONS];
+		String[] categories = new String[SOLUTIONS];
+		double[] prices = new double[SOLUTIONS];
+		int n = 0;
+		try (JsonReader jr = jsonReaderFactory.createReader(
+				new InputStreamReader(new ByteArrayInputStream(answer), StandardCharsets.UTF_8))) {
+			for(JsonValue v : jr.readObject().getJsonArray("data")) {
+				Proof proof = new Proof((JsonObject)v);
+				ids[n] = proof.getInt("Id");
+				categories[n] = proof.getString("Category");
+				prices[n] = proof.getDouble("Price");
+				n++;
+			}
+		}
+		bh.consume(ids);
+		bh.consume(categories);
+		bh.consume(prices);
+	}
+	
+	@Benchmark
+	public void columns(Blackhole bh) throws Exception {
+		ResultColumns columns = new ResultColumns();
+		columns.ensureCapacity(SOLUTIONS);
+		try (JsonParser parser = jsonParserFactory.createParser(new ByteArrayInputStream(answer), StandardCharsets.UTF_8)) {
+			bh.consume(ColumnarAnswer.read(parser, columns));
+		}
+		bh.consume(columns.getInts("Id"));
+		bh.consume(columns.getCodes("Category"));
+		bh.consume(columns.getDoubles("Price"));
+	}
+}
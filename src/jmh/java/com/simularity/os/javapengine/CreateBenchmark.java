@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the latency of making a pengine whose code is loaded on the server as an application with 
+ * one whose code is sent as src_text, and compiled, on every create. Each create asks true, so the
+ * server destroys the pengine when it's answered - one round trip per pengine.
+ * 
+ * Unlike the other benchmarks this needs a server, with an application that has the same code 
+ * loaded - the src_text is lines of fact(I, 'name_I', I.5). for I from 0 to facts - 1. For example
+ * 
+ * <pre>
+ * :- pengine_application(bench).
+ * :- bench:consult('facts.pl').
+ * </pre>
+ * 
+ * mvn -Pbenchmark clean package
+ * java -jar target/javapengine-0.0.1-SNAPSHOT-benchmarks.jar CreateBenchmark -p server=http://localhost:3030/ -p application=bench
+ * 
+ * @author Anne Ogborn
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CreateBenchmark {
+	/**
+	 * the pengine server
+	 */
+	@Param({"http://localhost:3030/"})
+	public String server;
+	
+	/**
+	 * the application that has the facts loaded
+	 */
+	@Param({"pengine_sandbox"})
+	public String application;
+	
+	/**
+	 * application - make pengines in the application, sending no code
+	 * srctext - make pengines in pengine_sandbox, sending the facts as src_text
+	 */
+	@Param({"application", "srctext"})
+	public String source;
+	
+	/**
+	 * how many facts the src_text has
+	 */
+	@Param({"1000", "10000"})
+	public int facts;
+	
+	private PengineBuilder builder;
+	
+	@Setup
+	public void setup() throws Exception {
+		builder = new PengineBuilder();
+		builder.setServer(new URL(server));
+		builder.setAsk("true");
+		if(source.equals("application")) {
+			builder.setApplication(application);
+		} else {
+			StringBuilder sb = new StringBuilder(facts * 32);
+			for(int i = 0 ; i < facts ; i++)
+				sb.append("fact(").append(i).append(", 'name_").append(i).append("', ").append(i).append(".5).\n");
+			builder.setSrctext(sb.toString());
+			System.out.println();
+			System.out.println("src_text " + sb.length() + " characters");
+		}
+		
+		// fail now, not in the first iteration, if the server isn't there
+		builder.newPengine();
+	}
+	
+	@Benchmark
+	public Pengine create() throws Exception {
+		return builder.newPengine();
+	}
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonReaderFactory;
+import javax.json.JsonValue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.simularity.os.javapengine.term.Atom;
+import com.simularity.os.javapengine.term.Compound;
+import com.simularity.os.javapengine.term.IntegerTerm;
+import com.simularity.os.javapengine.term.ListTerm;
+import com.simularity.os.javapengine.term.Term;
+import com.simularity.os.javapengine.term.TermReader;
+
+/**
+ * Measures what a projection saves on a wide query - one that binds a dozen variables, two of them
+ * to big intermediate terms, when the caller reads only two small ones.
+ * 
+ * The full answer is what the server sends with its default template. The projected answer is 
+ * what it sends for ask(goal, "Name", "Salary"). The setup prints the payload sizes.
+ * 
+ * mvn -Pbenchmark clean package
+ * java -jar target/javapengine-0.0.1-SNAPSHOT-benchmarks.jar ProjectionBenchmark -prof gc
+ * 
+ * @author Anne Ogborn
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProjectionBenchmark {
+	private static final int SOLUTIONS = 100;
+	
+	@Param({"json", "prolog"})
+	public String format;
+	
+	private final JsonReaderFactory jsonReaderFactory = Json.createReaderFactory(null);
+	private String full;
+	private String projected;
+	
+	@Setup
+	public void setup() {
+		List<List<Term[]>> wide = new ArrayList<List<Term[]>>();
+		List<List<Term[]>> narrow = new ArrayList<List<Term[]>>();
+		
+		for(int i = 0 ; i < SOLUTIONS ; i++) {
+			Term name = new Atom("employee_" + i);
+			Term salary = new IntegerTerm(50000L + i * 113);
+			
+			List<Term[]> row = AnswerFormatBenchmark.row(
+					AnswerFormatBenchmark.binding("Name", name),
+					AnswerFormatBenchmark.binding("Salary", salary));
+			for(int v = 0 ; v < 8 ; v++)
+				row.add(AnswerFormatBenchmark.binding("V" + v, new Compound("dept", new Atom("d" + v), new IntegerTerm(i))));
+			row.add(AnswerFormatBenchmark.binding("History", history(i, 100)));
+			row.add(AnswerFormatBenchmark.binding("Reports", history(i + 1, 50)));
+			wide.add(row);
+			
+			narrow.add(AnswerFormatBenchmark.row(
+					AnswerFormatBenchmark.binding("Name", name),
+					AnswerFormatBenchmark.binding("Salary", salary)));
+		}
+		
+		if(format.equals("json")) {
+			full = AnswerFormatBenchmark.jsonAnswer(wide);
+			projected = AnswerFormatBenchmark.jsonAnswer(narrow);
+		} else {
+			full = AnswerFormatBenchmark.prologAnswer(wide);
+			projected = AnswerFormatBenchmark.prologAnswer(narrow);
+		}
+		System.out.println();
+		System.out.println(format + " payload full " + full.getBytes(StandardCharsets.UTF_8).length + 
+				" bytes, projected " + projected.getBytes(StandardCharsets.UTF_8).length + " bytes");
+	}
+	
+	/**
+	 * a big intermediate term - a list of salary(Year, Amount)
+	 */
+	private static Term history(int seed, int length) {
+		List<Term> elements = new ArrayList<Term>(length);
+		for(int i = 0 ; i < length ; i++)
+			elements.add(new Compound("salary", new IntegerTerm(1990 + i), new IntegerTerm(seed * 1000L + i)));
+		return new ListTerm(elements);
+	}
+	
+	private void decode(String answer, Blackhole bh) throws Exception {
+		if(format.equals("json")) {
+			try (JsonReader jr = jsonReaderFactory.createReader(new StringReader(answer))) {
+				for(JsonValue v : jr.readObject().getJsonArray("data")) {
+					Proof proof = new Proof((JsonObject)v);
+					bh.consume(proof.getString("Name"));
+					bh.consume(proof.getInt("Salary"));
+				}
+			}
+		} else {
+			Term event = TermReader.parse(answer);
+			for(Proof proof : PrologAnswer.proofs(PrologAnswer.arg(event, 1))) {
+				bh.consume(proof.getTerm("Name"));
+				bh.consume(proof.getTerm("Salary"));
+			}
+		}
+	}
+	
+	@Benchmark
+	public void decodeFull(Blackhole bh) throws Exception {
+		decode(full, bh);
+	}
+	
+	@Benchmark
+	public void decodeProjected(Blackhole bh) throws Exception {
+		decode(projected, bh);
+	}
+}
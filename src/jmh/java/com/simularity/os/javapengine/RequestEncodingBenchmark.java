@@ -0,0 +1,167 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares encoding requests the way Pengine used to - resolving the URL through the builder
+ * and building the body as a String for every send - with the compiled {@link PengineConfig}.
+ * 
+ * Run with the gc profiler to see the allocation per request:
+ * 
+ * mvn -Pbenchmark clean package
+ * java -jar target/javapengine-0.0.1-SNAPSHOT-benchmarks.jar RequestEncodingBenchmark -prof gc
+ * 
+ * @author Anne Ogborn
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestEncodingBenchmark {
+	private static final String ID = "2204d4b2-de94-4946-965c-e7aaf12a1a8b";
+	private static final String ASK = "employee_info('Zo\u00eb M\u00fcller', Position, Salary)";
+	private static final String NAME = "Zo\u00eb M\u00fcller";
+	
+	/**
+	 * stands in for the socket, so we measure only the encoding
+	 */
+	private static final class NullOutputStream extends OutputStream {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+	
+	private PengineBuilder builder;
+	private PengineConfig config;
+	private URL sendURL;
+	private RequestBuffer buffer;
+	private OutputStream sink;
+	private PreparedQuery prepared;
+	private StringBuilder goal;
+	
+	@Setup
+	public void setup() throws Exception {
+		builder = new PengineBuilder();
+		builder.setServer("http://localhost:3030/");
+		builder.setChunk(10);
+		config = new PengineConfig(builder);
+		sendURL = config.pengineURL("send", ID);
+		buffer = new RequestBuffer(256);
+		sink = new NullOutputStream();
+		prepared = PengineBuilder.prepare("employee_info(?, Position, Salary)");
+		goal = new StringBuilder(256);
+	}
+	
+	@Benchmark
+	public void askLegacy(Blackhole bh) throws Exception {
+		URL url = builder.getActualURL("send", ID);
+		DataOutputStream wr = new DataOutputStream(sink);
+		wr.writeBytes(builder.getRequestBodyAsk(ID, ASK, builder.getChunk()));
+		wr.flush();
+		bh.consume(url);
+	}
+	
+	@Benchmark
+	public void askCompiled(Blackhole bh) throws IOException {
+		config.encodeAsk(buffer, ASK, null, config.getChunk());
+		buffer.writeTo(sink);
+		bh.consume(sendURL);
+	}
+	
+	/**
+	 * the goal built by concatenation, with the quoting done by hand, the way callers had to before prepared queries
+	 */
+	@Benchmark
+	public void askConcatenated(Blackhole bh) throws IOException {
+		String ask = "employee_info('" + NAME.replace("\\", "\\\\").replace("'", "\\'") + "', Position, Salary)";
+		config.encodeAsk(buffer, ask, null, config.getChunk());
+		buffer.writeTo(sink);
+		bh.consume(sendURL);
+	}
+	
+	@Benchmark
+	public void askPrepared(Blackhole bh) throws IOException {
+		goal.setLength(0);
+		prepared.appendTo(goal, NAME);
+		config.encodeAsk(buffer, goal, null, config.getChunk());
+		buffer.writeTo(sink);
+		bh.consume(sendURL);
+	}
+	
+	@Benchmark
+	public void nextLegacy(Blackhole bh) throws Exception {
+		URL url = builder.getActualURL("send", ID);
+		DataOutputStream wr = new DataOutputStream(sink);
+		wr.writeBytes(builder.getRequestBodyNext());
+		wr.flush();
+		bh.consume(url);
+	}
+	
+	@Benchmark
+	public void nextCompiled(Blackhole bh) throws IOException {
+		sink.write(PengineConfig.BODY_NEXT, 0, PengineConfig.BODY_NEXT.length);
+		bh.consume(sendURL);
+	}
+	
+	@Benchmark
+	public void createLegacy(Blackhole bh) throws Exception {
+		URL url = builder.getActualURL("create");
+		DataOutputStream wr = new DataOutputStream(sink);
+		wr.writeBytes(builder.getRequestBodyCreate());
+		wr.flush();
+		bh.consume(url);
+	}
+	
+	@Benchmark
+	public void createCompiled(Blackhole bh) throws IOException {
+		byte[] body = config.getCreateBody();
+		sink.write(body, 0, body.length);
+		bh.consume(config.getCreateURL());
+	}
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.simularity.os.javapengine.exception.CouldNotCreateException;
+import com.simularity.os.javapengine.exception.PengineNotReadyException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Asks for a big result set in a single chunk and reads it with Query.next(), with and without 
+ * a result heap budget - the path a real query takes, response parsing included.
+ * 
+ * The answer comes from a stand in server in this JVM that writes each solution as it goes, so 
+ * the only thing holding the proofs is the query. Each invocation reports its peak heap. 
+ * Without a budget, 10 million proofs don't fit in 3g - run with -p solutions=1000000 to compare.
+ * Only the json format is parsed as it's read, so that's the one measured.
+ * 
+ * mvn -Pbenchmark clean package
+ * java -jar target/javapengine-0.0.1-SNAPSHOT-benchmarks.jar SpillBenchmark
+ * 
+ * @author Anne Ogborn
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g", "-Xmn256m", "-XX:+UseParallelGC"})
+public class SpillBenchmark {
+	@Param({"10000000"})
+	public int solutions;
+	
+	/**
+	 * 0 keeps everything on the heap
+	 */
+	@Param({"0", "16777216"})
+	public long budget;
+	
+	private HttpServer server;
+	private PengineBuilder builder;
+	
+	@Setup(Level.Trial)
+	public void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/pengine/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				answer(exchange);
+			}
+		});
+		server.start();
+		
+		builder = new PengineBuilder();
+		builder.setServer("http://localhost:" + server.getAddress().getPort() + "/");
+		builder.setChunk(solutions);
+		builder.setResultHeapBudget(budget);
+	}
+	
+	@TearDown(Level.Trial)
+	public void stopServer() {
+		server.stop(0);
+	}
+	
+	@Setup(Level.Invocation)
+	public void resetPeak() {
+		System.gc();
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if(pool.getType() == MemoryType.HEAP)
+				pool.resetPeakUsage();
+	}
+	
+	/**
+	 * Peak heap counts garbage the young collections haven't got to yet. What the query
+	 * holds on to ends up in the old generation - the fork keeps the young generation small - 
+	 * so its peak is the number to watch.
+	 */
+	@TearDown(Level.Invocation)
+	public void reportPeak() {
+		long peak = 0;
+		long old = 0;
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if(pool.getType() != MemoryType.HEAP)
+				continue;
+			peak += pool.getPeakUsage().getUsed();
+			if(pool.getName().contains("Old") || pool.getName().contains("Tenured"))
+				old += pool.getPeakUsage().getUsed();
+		}
+		System.out.println();
+		System.out.println("budget " + budget + " peak heap " + (peak >> 20) + " MB, old generation " + (old >> 20) + " MB");
+	}
+	
+	@Benchmark
+	public long bigChunk(Blackhole bh) throws CouldNotCreateException, PengineNotReadyException {
+		Pengine p = builder.newPengine();
+		Query q = p.ask("employee(X, Name)");
+		
+		long sum = 0;
+		for(Proof proof = q.next() ; proof != null ; proof = q.next()) {
+			sum += proof.getInt("X");
+			bh.consume(proof);
+		}
+		return sum;
+	}
+	
+	/**
+	 * the server's side - a create, then the whole result set as the last answer of a pengine that's destroyed with it
+	 */
+	private void answer(HttpExchange exchange) throws IOException {
+		String body = read(exchange.getRequestBody());
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+		// length 0 sends it chunked, as it's written
+		exchange.sendResponseHeaders(200, 0);
+		try (Writer w = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), 65536)) {
+			if(exchange.getRequestURI().getPath().endsWith("/create")) {
+				w.write("{\"event\":\"create\",\"id\":\"spill\",\"slave_limit\":3}");
+			} else if(body.startsWith("ask(")) {
+				w.write("{\"event\":\"destroy\",\"id\":\"spill\",\"data\":{\"event\":\"success\",\"id\":\"spill\",\"data\":[");
+				for(int i = 0 ; i < solutions ; i++) {
+					if(i > 0)
+						w.write(',');
+					w.write("{\"X\":");
+					w.write(Integer.toString(i));
+					w.write(",\"Name\":\"employee_");
+					w.write(Integer.toString(i));
+					w.write("\"}");
+				}
+				w.write("],\"more\":false}}");
+			} else {
+				w.write("{\"event\":\"destroy\",\"id\":\"spill\"}");
+			}
+		}
+	}
+	
+	private static String read(InputStream in) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		byte[] buf = new byte[4096];
+		for(int n = in.read(buf) ; n >= 0 ; n = in.read(buf))
+			sb.append(new String(buf, 0, n, StandardCharsets.UTF_8));
+		in.close();
+		return sb.toString();
+	}
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+/**
+ * The format the pengine server sends answers in.
+ * 
+ * @see PengineBuilder#setFormat(AnswerFormat)
+ * 
+ * @author Anne Ogborn
+ *
+ */
+public enum AnswerFormat {
+	/**
+	 * Answers are JSON objects, and Prolog terms are converted to JSON - atoms and strings both become JSON strings
+	 */
+	JSON("json"),
+	/**
+	 * Answers are Prolog terms, which keep their structure. Proofs are {@link com.simularity.os.javapengine.term.Term}s
+	 */
+	PROLOG("prolog");
+	
+	private final String formatName;
+	
+	private AnswerFormat(String formatName) {
+		this.formatName = formatName;
+	}
+	
+	/**
+	 * @return the name the Pengines protocol uses for this format
+	 */
+	public String getFormatName() {
+		return formatName;
+	}
+}
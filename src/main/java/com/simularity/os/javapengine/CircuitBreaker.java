@@ -0,0 +1,409 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops sending requests to a server that's failing, so callers fail at once instead of each waiting out 
+ * its own retries and timeouts, and the server isn't swamped as it comes back.
+ * 
+ * There's one breaker per server (scheme, host and port), shared by every pengine whose builder has 
+ * setCircuitBreaker(true). It's
+ * <ul>
+ * <li>CLOSED - requests go through. The outcome of the last getWindow requests is kept, and once there are at 
+ * least getMinimumCalls of them, if the failure rate or the slow call rate reaches its threshold, it opens.</li>
+ * <li>OPEN - requests fail at once with CircuitOpenException. After getOpenTime it's half open.</li>
+ * <li>HALF_OPEN - up to getTrials requests at a time go through. If getTrials of them in a row succeed it closes, 
+ * and if one fails it opens again.</li>
+ * </ul>
+ * 
+ * A failure is a request that got no response - it couldn't connect, the connection broke, or it timed out - or 
+ * one answered 502, 503 or 504. Any other response, even an error, means the server is up.
+ * A slow call is one that took longer than getSlowCallTime, if that's set.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+public final class CircuitBreaker {
+	public static enum State {
+		CLOSED,
+		OPEN,
+		HALF_OPEN
+	};
+	
+	private static final ConcurrentHashMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+	
+	private final String server;
+	private State state = State.CLOSED;
+	// the outcomes of the last window requests, as a ring
+	private boolean[] failed = new boolean[50];
+	private boolean[] slow = new boolean[50];
+	private int calls = 0;
+	private int next = 0;
+	private int failures = 0;
+	private int slows = 0;
+	
+	private int minimumCalls = 10;
+	private double failureRateThreshold = 0.5;
+	private double slowCallRateThreshold = 1.0;
+	private long slowCallTime = 0;
+	private long openTime = TimeUnit.SECONDS.toNanos(30);
+	private int trials = 3;
+	
+	// System.nanoTime() it opened
+	private long openedAt = 0;
+	// half open - requests going through, and how many in a row have succeeded
+	private int trialsRunning = 0;
+	private int trialsPassed = 0;
+	
+	private long opened = 0;
+	private long rejected = 0;
+	
+	/**
+	 * thrown from penginePost when the breaker's open, and turned into a CircuitOpenException
+	 */
+	static final class OpenException extends IOException {
+		private static final long serialVersionUID = -4273904475591437129L;
+		
+		OpenException(String message) {
+			super(message);
+		}
+	}
+	
+	private CircuitBreaker(String server) {
+		this.server = server;
+	}
+	
+	/**
+	 * @param server a URL on the server
+	 * @return the server's breaker, made if need be
+	 */
+	public static CircuitBreaker forServer(URL server) {
+		String key = server.getProtocol() + "://" + server.getHost() + ":" + 
+				Integer.toString(server.getPort() < 0 ? server.getDefaultPort() : server.getPort());
+		CircuitBreaker b = breakers.get(key);
+		if(b == null) {
+			breakers.putIfAbsent(key, new CircuitBreaker(key));
+			b = breakers.get(key);
+		}
+		return b;
+	}
+	
+	/**
+	 * @return every breaker made so far, by server, for monitoring
+	 */
+	public static Map<String, CircuitBreaker> getBreakers() {
+		return new TreeMap<String, CircuitBreaker>(breakers);
+	}
+	
+	/**
+	 * @return the server, as scheme://host:port
+	 */
+	public String getServer() {
+		return server;
+	}
+	
+	/**
+	 * @return the state, moving from open to half open if the open time is up
+	 */
+	public synchronized State getState() {
+		if(state == State.OPEN && System.nanoTime() - openedAt >= openTime)
+			halfOpen();
+		return state;
+	}
+	
+	/**
+	 * @return the failure rate, 0 to 1, of the requests in the window
+	 */
+	public synchronized double getFailureRate() {
+		return calls == 0 ? 0.0 : (double)failures / calls;
+	}
+	
+	/**
+	 * @return the slow call rate, 0 to 1, of the requests in the window
+	 */
+	public synchronized double getSlowCallRate() {
+		return calls == 0 ? 0.0 : (double)slows / calls;
+	}
+	
+	/**
+	 * @return how many times it's opened
+	 */
+	public synchronized long getOpened() {
+		return opened;
+	}
+	
+	/**
+	 * @return how many requests it's failed without sending
+	 */
+	public synchronized long getRejected() {
+		return rejected;
+	}
+	
+	/**
+	 * @return the number of requests whose outcomes are kept
+	 */
+	public synchronized int getWindow() {
+		return failed.length;
+	}
+	
+	/**
+	 * @param window the number of requests whose outcomes are kept, 50 by default. The window is emptied
+	 */
+	public synchronized void setWindow(int window) {
+		if(window < 1)
+			throw new IllegalArgumentException("window must be at least 1");
+		failed = new boolean[window];
+		slow = new boolean[window];
+		clear();
+	}
+	
+	/**
+	 * @return how many requests must be in the window before it can open
+	 */
+	public synchronized int getMinimumCalls() {
+		return minimumCalls;
+	}
+	
+	/**
+	 * @param minimumCalls how many requests must be in the window before it can open, 10 by default
+	 */
+	public synchronized void setMinimumCalls(int minimumCalls) {
+		if(minimumCalls < 1)
+			throw new IllegalArgumentException("minimum calls must be at least 1");
+		this.minimumCalls = minimumCalls;
+	}
+	
+	/**
+	 * @return the failure rate, 0 to 1, at which it opens
+	 */
+	public synchronized double getFailureRateThreshold() {
+		return failureRateThreshold;
+	}
+	
+	/**
+	 * @param threshold the failure rate, above 0 and at most 1, at which it opens. 0.5 by default
+	 */
+	public synchronized void setFailureRateThreshold(double threshold) {
+		if(threshold <= 0.0 || threshold > 1.0)
+			throw new IllegalArgumentException("failure rate threshold must be above 0 and at most 1");
+		this.failureRateThreshold = threshold;
+	}
+	
+	/**
+	 * @return the slow call rate, 0 to 1, at which it opens
+	 */
+	public synchronized double getSlowCallRateThreshold() {
+		return slowCallRateThreshold;
+	}
+	
+	/**
+	 * @param threshold the slow call rate, above 0 and at most 1, at which it opens. 1 by default
+	 */
+	public synchronized void setSlowCallRateThreshold(double threshold) {
+		if(threshold <= 0.0 || threshold > 1.0)
+			throw new IllegalArgumentException("slow call rate threshold must be above 0 and at most 1");
+		this.slowCallRateThreshold = threshold;
+	}
+	
+	/**
+	 * @return the time a request can take before it's slow, in milliseconds, or 0 if none are
+	 */
+	public synchronized long getSlowCallTime() {
+		return TimeUnit.NANOSECONDS.toMillis(slowCallTime);
+	}
+	
+	/**
+	 * @param time how long a request can take before it's slow, or 0 (the default) to not count slow requests
+	 * @param unit the unit of time
+	 */
+	public synchronized void setSlowCallTime(long time, TimeUnit unit) {
+		if(time < 0)
+			throw new IllegalArgumentException("slow call time can't be negative");
+		this.slowCallTime = unit.toNanos(time);
+	}
+	
+	/**
+	 * @return how long it stays open before it's half open, in milliseconds
+	 */
+	public synchronized long getOpenTime() {
+		return TimeUnit.NANOSECONDS.toMillis(openTime);
+	}
+	
+	/**
+	 * @param time how long it stays open before it's half open, 30 seconds by default
+	 * @param unit the unit of time
+	 */
+	public synchronized void setOpenTime(long time, TimeUnit unit) {
+		if(time < 0)
+			throw new IllegalArgumentException("open time can't be negative");
+		this.openTime = unit.toNanos(time);
+	}
+	
+	/**
+	 * @return how many trial requests it lets through at a time when half open, and how many must succeed to close
+	 */
+	public synchronized int getTrials() {
+		return trials;
+	}
+	
+	/**
+	 * @param trials how many trial requests it lets through at a time when half open, and how many must succeed 
+	 *   to close. 3 by default
+	 */
+	public synchronized void setTrials(int trials) {
+		if(trials < 1)
+			throw new IllegalArgumentException("trials must be at least 1");
+		this.trials = trials;
+	}
+	
+	/**
+	 * Close it, and forget the requests in the window
+	 */
+	public synchronized void reset() {
+		if(state != State.CLOSED)
+			System.err.println("circuit breaker for " + server + " reset");
+		state = State.CLOSED;
+		clear();
+	}
+	
+	/**
+	 * Get permission to send a request. Every request that gets it must then report to done.
+	 * 
+	 * @return true if it's one of the half open trial requests
+	 * @throws OpenException if it's open, or half open with all its trials running
+	 */
+	synchronized boolean acquire() throws OpenException {
+		switch(getState()) {
+		case CLOSED:
+			return false;
+		case HALF_OPEN:
+			if(trialsRunning < trials) {
+				trialsRunning++;
+				return true;
+			}
+			rejected++;
+			throw new OpenException("circuit breaker for " + server + " is half open, waiting for its trial requests");
+		default:
+			rejected++;
+			throw new OpenException("circuit breaker for " + server + " is open");
+		}
+	}
+	
+	/**
+	 * Report what happened to a request that acquire let through
+	 * 
+	 * @param ok true if it got a response, false if it failed, null if it was given up without an outcome, 
+	 *   eg aborted
+	 * @param trial what acquire returned
+	 * @param nanos how long it took
+	 */
+	synchronized void done(Boolean ok, boolean trial, long nanos) {
+		boolean isSlow = slowCallTime > 0 && nanos > slowCallTime;
+		
+		if(state == State.HALF_OPEN) {
+			// a request let through while it was closed says nothing about the trials
+			if(!trial)
+				return;
+			// it may have gone half open again since this trial started
+			if(trialsRunning > 0)
+				trialsRunning--;
+			if(ok == null)
+				return;
+			if(!ok.booleanValue() || isSlow) {
+				open();
+			} else if(++trialsPassed >= trials) {
+				state = State.CLOSED;
+				clear();
+				System.err.println("circuit breaker for " + server + " closed");
+			}
+			return;
+		}
+		
+		// a request let through before it opened
+		if(state != State.CLOSED || ok == null)
+			return;
+		
+		if(calls == failed.length) {
+			if(failed[next])
+				failures--;
+			if(slow[next])
+				slows--;
+		} else {
+			calls++;
+		}
+		failed[next] = !ok.booleanValue();
+		slow[next] = isSlow;
+		if(failed[next])
+			failures++;
+		if(isSlow)
+			slows++;
+		next = (next + 1) % failed.length;
+		
+		if(calls >= minimumCalls && 
+				((double)failures / calls >= failureRateThreshold || (double)slows / calls >= slowCallRateThreshold))
+			open();
+	}
+	
+	private void open() {
+		System.err.println("circuit breaker for " + server + " opened, failure rate " + 
+				Double.toString(getFailureRate()) + ", slow call rate " + Double.toString(getSlowCallRate()));
+		state = State.OPEN;
+		openedAt = System.nanoTime();
+		opened++;
+	}
+	
+	private void halfOpen() {
+		state = State.HALF_OPEN;
+		trialsRunning = 0;
+		trialsPassed = 0;
+	}
+	
+	private void clear() {
+		calls = 0;
+		next = 0;
+		failures = 0;
+		slows = 0;
+		for(int i = 0 ; i < failed.length ; i++) {
+			failed[i] = false;
+			slow[i] = false;
+		}
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString() {
+		return server + " " + getState().toString() + " failure rate " + Double.toString(getFailureRate()) + 
+				" slow call rate " + Double.toString(getSlowCallRate()) + " opened " + Long.toString(opened) + 
+				" rejected " + Long.toString(rejected);
+	}
+}
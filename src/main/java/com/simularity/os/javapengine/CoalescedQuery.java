@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.util.Iterator;
+
+import com.simularity.os.javapengine.exception.PengineNotReadyException;
+
+/**
+ * One caller's view of a query it may be sharing with others, see QueryCoalescer.
+ * 
+ * Each view goes through every answer from the first, at its own pace, however many other views there are
+ * and whenever it was made. Stopping a view doesn't affect the others - the query on the server is stopped
+ * when every view has been stopped or got to the end. Stop views you don't read to the end.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+public final class CoalescedQuery implements Iterator<Proof> {
+	private final QueryCoalescer.Flight flight;
+	private final boolean joined;
+	private int index = 0;
+	private boolean left = false;
+	private PengineNotReadyException failure = null;
+	
+	CoalescedQuery(QueryCoalescer.Flight flight, boolean joined) {
+		this.flight = flight;
+		this.joined = joined;
+	}
+	
+	/**
+	 * @return true if there is, or might be, another answer. Like Query, it's possible for next to
+	 *   return null after this returns true
+	 */
+	@Override
+	public synchronized boolean hasNext() {
+		return !left && flight.has(index);
+	}
+	
+	/**
+	 * return the next answer, waiting for the server if no view has got it yet
+	 * 
+	 * @return the next answer, or null if there are no more or the query failed - see getFailure
+	 */
+	@Override
+	public synchronized Proof next() {
+		if(left)
+			return null;
+		
+		try {
+			Proof proof = flight.get(index);
+			if(proof == null) {
+				stop();
+				return null;
+			}
+			index++;
+			return proof;
+		} catch (PengineNotReadyException e) {
+			failure = e;
+			stop();
+			return null;
+		}
+	}
+	
+	/**
+	 * This view doesn't want any more answers
+	 */
+	public synchronized void stop() {
+		if(left)
+			return;
+		
+		left = true;
+		flight.leave();
+	}
+	
+	/**
+	 * @return true if this view joined a query that someone else started
+	 */
+	public boolean isJoined() {
+		return joined;
+	}
+	
+	/**
+	 * @return why the query failed, or null if it hasn't
+	 */
+	public PengineNotReadyException getFailure() {
+		return failure;
+	}
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.io.IOException;
+
+import javax.json.Json;
+import javax.json.JsonBuilderFactory;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+
+/**
+ * Reads a json format answer with a parser, putting the solutions straight into ResultColumns.
+ * 
+ * What's returned is the answer without its solutions, which the usual answer handling 
+ * can deal with - it sees a success with no data. No Proof or JsonObject is made per solution.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+final class ColumnarAnswer {
+	private static final JsonBuilderFactory jsonBuilderFactory = Json.createBuilderFactory(null);
+	
+	/**
+	 * only static members
+	 */
+	private ColumnarAnswer() {
+	}
+	
+	/**
+	 * Read an answer. If it can't be read, no solutions are added.
+	 * 
+	 * @param parser a parser at the start of the answer
+	 * @param columns where to put the solutions
+	 * @return the answer, without the solutions
+	 * 
+	 * @throws IOException if the answer isn't a json event
+	 */
+	static JsonObject read(JsonParser parser, ResultColumns columns) throws IOException {
+		int mark = columns.size();
+		try {
+			if(!parser.hasNext() || parser.next() != Event.START_OBJECT)
+				throw new IOException("answer is not a json object");
+			return readEvent(parser, columns, mark);
+		} catch (JsonException e) {
+			columns.truncate(mark);
+			throw new IOException("cannot parse answer " + e.getMessage(), e);
+		} catch (IOException e) {
+			columns.truncate(mark);
+			throw e;
+		}
+	}
+	
+	/**
+	 * read an event object, the parser just past its start. destroy events carry the last answer 
+	 * as their data, which is read the same way
+	 */
+	private static JsonObject readEvent(JsonParser parser, ResultColumns columns, int mark) throws IOException {
+		JsonObjectBuilder job = jsonBuilderFactory.createObjectBuilder();
+		String event = null;
+		boolean hadSolutions = false;
+		
+		// the keys can come in any order, so we don't know it's a success until we're done
+		for(Event e = parser.next() ; e != Event.END_OBJECT ; e = parser.next()) {
+			String key = parser.getString();
+			Event value = parser.next();
+			if(key.equals("data") && value == Event.START_ARRAY) {
+				readSolutions(parser, columns);
+				hadSolutions = true;
+			} else if(key.equals("data") && value == Event.START_OBJECT) {
+				job.add(key, readEvent(parser, columns, mark));
+			} else {
+				JsonValue v = parser.getValue();
+				if(key.equals("event") && value == Event.VALUE_STRING)
+					event = parser.getString();
+				job.add(key, v);
+			}
+		}
+		
+		if(hadSolutions && !"success".equals(event)) {
+			// only success has solutions. Output events can send a list, which we don't keep
+			columns.truncate(mark);
+		}
+		return job.build();
+	}
+	
+	private static void readSolutions(JsonParser parser, ResultColumns columns) throws IOException {
+		for(Event e = parser.next() ; e != Event.END_ARRAY ; e = parser.next()) {
+			if(e != Event.START_OBJECT)
+				throw new IOException("solution is not a json object");
+			
+			columns.startRow();
+			for(Event k = parser.next() ; k != Event.END_OBJECT ; k = parser.next()) {
+				String name = parser.getString();
+				switch(parser.next()) {
+				case VALUE_NUMBER:
+					columns.addNumber(name, parser.getString(), parser.isIntegralNumber());
+					break;
+				case VALUE_STRING:
+					columns.addString(name, parser.getString());
+					break;
+				case VALUE_TRUE:
+					columns.addValue(name, JsonValue.TRUE);
+					break;
+				case VALUE_FALSE:
+					columns.addValue(name, JsonValue.FALSE);
+					break;
+				case VALUE_NULL:
+					columns.addValue(name, JsonValue.NULL);
+					break;
+				default:
+					// a list or compound term
+					columns.addValue(name, parser.getValue());
+				}
+			}
+			columns.endRow();
+		}
+	}
+}
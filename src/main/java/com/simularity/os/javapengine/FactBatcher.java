@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.util.Iterator;
+
+import com.simularity.os.javapengine.term.TermWriter;
+
+/**
+ * Cuts a stream of facts into batches, each written as one goal that asserts them:
+ * 
+ * assertz(employee(1,'Bob')),assertz(employee(2,'Mary'))
+ * 
+ * Each assertz has its fact written out, rather than asserting a variable bound to each of a list, 
+ * so the server's sandbox can check every clause. It refuses to assert a variable.
+ * 
+ * A batch ends when it has the most facts allowed, or its text has reached the length limit. 
+ * A fact is never split, so a single fact longer than the limit makes a batch on its own.
+ * 
+ * Not thread safe - it reads the iterator.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+final class FactBatcher {
+	private final Iterator<Object[]> facts;
+	private final int batchSize;
+	private final int maxLength;
+	// how each fact starts - assertz( and the functor, written as Prolog
+	private final String prefix;
+	private long count = 0;
+	
+	/**
+	 * @param functor the name of the facts, optionally module qualified, eg employee or db:employee
+	 * @param facts the arguments of each fact
+	 * @param batchSize the most facts in a batch
+	 * @param maxLength the length of goal text at which a batch is ended
+	 */
+	FactBatcher(String functor, Iterator<Object[]> facts, int batchSize, int maxLength) {
+		if(batchSize < 1)
+			throw new IllegalArgumentException("batch size must be at least 1");
+		
+		this.facts = facts;
+		this.batchSize = batchSize;
+		this.maxLength = maxLength;
+		
+		int colon = functor.indexOf(':');
+		StringBuilder sb = new StringBuilder("assertz(");
+		if(colon >= 0)
+			TermWriter.writeAtom(sb, functor.substring(0, colon)).append(':');
+		this.prefix = TermWriter.writeAtom(sb, functor.substring(colon + 1)).toString();
+	}
+	
+	/**
+	 * @param functor a functor as passed to the constructor
+	 * @return true if it's module qualified
+	 */
+	static boolean isQualified(String functor) {
+		return functor.indexOf(':') >= 0;
+	}
+	
+	/**
+	 * Write the goal for the next batch
+	 * 
+	 * @param sb where to write it. It's cleared first
+	 * @return the number of facts in the batch, 0 if there are no more facts, and nothing was written
+	 * 
+	 * @throws IllegalArgumentException if an argument can't be written as a Prolog term
+	 */
+	int next(StringBuilder sb) {
+		sb.setLength(0);
+		if(!facts.hasNext())
+			return 0;
+		
+		int n = 0;
+		while(n < batchSize && facts.hasNext() && (n == 0 || sb.length() < maxLength)) {
+			if(n > 0)
+				sb.append(',');
+			writeFact(sb, facts.next());
+			n++;
+		}
+		
+		count += n;
+		return n;
+	}
+	
+	private void writeFact(StringBuilder sb, Object[] args) {
+		sb.append(prefix);
+		if(args != null && args.length > 0) {
+			sb.append('(');
+			for(int i = 0 ; i < args.length ; i++) {
+				if(i > 0)
+					sb.append(',');
+				TermWriter.writeValue(sb, args[i]);
+			}
+			sb.append(')');
+		}
+		sb.append(')');
+	}
+	
+	/**
+	 * @return the number of facts batched so far
+	 */
+	long getCount() {
+		return count;
+	}
+}
@@ -0,0 +1,290 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.simularity.os.javapengine.exception.PengineNotReadyException;
+
+/**
+ * Independent goals run at once on a few pengines, their results given as each goal finishes.
+ * 
+ * The goals share a PenginePool made for them, so a pengine runs goal after goal instead of 
+ * being made and destroyed for each. There are never more pengines than the server's slave_limit - 
+ * one pengine's made first to find out what it is - nor more than MAX_PENGINES if the server doesn't say.
+ * The pengines are destroyed when every goal's finished or it's closed.
+ * 
+ * If it's cancelling on failure, the first goal to throw ends it - the goals that are running are stopped
+ * and those that haven't started never are. Only the results of goals that had already finished come after it.
+ * 
+ * Made by PengineBuilder.invokeAll
+ * 
+ * @author Anne Ogborn
+ *
+ */
+public final class FanOut extends ParallelResults<FanOut.Result> {
+	/**
+	 * the most pengines a fan out uses if the server doesn't tell us its slave_limit
+	 */
+	public static final int MAX_PENGINES = 16;
+	
+	// a goal that was skipped because we've been cancelled
+	private static final Object SKIPPED = new Object();
+	// posted by close to wake a consumer waiting for a result
+	private static final Object CLOSED = new Object();
+	
+	private final PenginePool pool;
+	private final List<String> goals;
+	private final boolean cancelOnFailure;
+	private final BlockingQueue<Object> results = new LinkedBlockingQueue<Object>();
+	private final AtomicInteger nextGoal = new AtomicInteger(0);
+	private final AtomicInteger finished = new AtomicInteger(0);
+	private volatile boolean cancelled = false;
+	private volatile boolean started = false;
+	
+	// the consumer's side
+	private int ended = 0;
+	
+	/**
+	 * The answer to one goal - all its solutions, or what went wrong
+	 */
+	public static final class Result {
+		private final int index;
+		private final String goal;
+		private final List<Proof> proofs;
+		private final Exception failure;
+		
+		private Result(int index, String goal, List<Proof> proofs, Exception failure) {
+			this.index = index;
+			this.goal = goal;
+			this.proofs = proofs;
+			this.failure = failure;
+		}
+		
+		/**
+		 * @return the goal's place in the list passed to invokeAll
+		 */
+		public int getIndex() {
+			return index;
+		}
+		
+		/**
+		 * @return the goal
+		 */
+		public String getGoal() {
+			return goal;
+		}
+		
+		/**
+		 * @return the goal's solutions, empty if it failed or threw
+		 */
+		public List<Proof> getProofs() {
+			return proofs;
+		}
+		
+		/**
+		 * @return what the goal threw, or null if it didn't
+		 */
+		public Exception getFailure() {
+			return failure;
+		}
+		
+		/**
+		 * @return true if the goal threw
+		 */
+		public boolean isFailed() {
+			return failure != null;
+		}
+		
+		/**
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return Integer.toString(index) + " " + goal + (failure == null ? " " + proofs.toString() : " threw " + failure.toString());
+		}
+	}
+	
+	/**
+	 * Start running the goals
+	 * 
+	 * @param builder makes the pengines
+	 * @param goals the goals
+	 * @param cancelOnFailure true to stop at the first goal that throws
+	 * 
+	 * @throws PengineNotReadyException if the builder can't be cloned
+	 */
+	FanOut(PengineBuilder builder, List<String> goals, boolean cancelOnFailure) throws PengineNotReadyException {
+		super("fanout");
+		this.goals = new ArrayList<String>(goals);
+		this.cancelOnFailure = cancelOnFailure;
+		// a pengine per goal, until the first pengine's told us the slave_limit
+		this.pool = new PenginePool(builder, Math.max(1, this.goals.size()));
+		
+		if(this.goals.isEmpty()) {
+			end();
+			executor.shutdown();
+			pool.close();
+			return;
+		}
+		
+		// one worker until then
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				work();
+			}
+		});
+	}
+	
+	/**
+	 * a worker - runs goals until there are none left. Every goal gets a result or SKIPPED, 
+	 * so the consumer's never left waiting
+	 */
+	private void work() {
+		for(int i = nextGoal.getAndIncrement() ; i < goals.size() ; i = nextGoal.getAndIncrement()) {
+			Object result = SKIPPED;
+			if(!cancelled) {
+				try {
+					List<Proof> proofs = run(goals.get(i));
+					if(proofs != null)
+						result = new Result(i, goals.get(i), proofs, null);
+				} catch (Exception e) {
+					if(cancelOnFailure)
+						cancelled = true;
+					result = new Result(i, goals.get(i), Collections.<Proof>emptyList(), e);
+				}
+			}
+			results.add(result);
+			if(finished.incrementAndGet() == goals.size())
+				pool.close();
+		}
+		executor.shutdown();
+	}
+	
+	/**
+	 * @return the goal's solutions, or null if we were cancelled
+	 */
+	private List<Proof> run(final String goal) throws Exception {
+		final List<Proof> proofs = new ArrayList<Proof>();
+		boolean complete = solve(pool, pool.getChunk(), new Solver() {
+			@Override
+			public Query ask(Pengine p) throws PengineNotReadyException {
+				if(!started)
+					startWorkers(p);
+				return p.ask(goal);
+			}
+			
+			@Override
+			public boolean solution(Proof proof) {
+				proofs.add(proof);
+				return true;
+			}
+		});
+		return complete ? proofs : null;
+	}
+	
+	/**
+	 * the first pengine's been made, so the pool knows the slave_limit - start as many more workers 
+	 * as it allows. Only the first worker's running when this is called
+	 * 
+	 * @param first the first pengine
+	 */
+	private void startWorkers(Pengine first) {
+		started = true;
+		if(first.getSlaveLimit() <= 0)
+			pool.limit(MAX_PENGINES);
+		int workers = Math.min(goals.size(), pool.getSize());
+		for(int i = 1 ; i < workers ; i++) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					work();
+				}
+			});
+		}
+	}
+	
+	@Override
+	boolean stopped() {
+		return cancelled;
+	}
+	
+	@Override
+	Result advance() throws InterruptedException {
+		while(ended < goals.size()) {
+			Object o = results.take();
+			if(o == CLOSED || closed)
+				return null;
+			ended++;
+			if(o != SKIPPED)
+				return (Result)o;
+		}
+		return null;
+	}
+	
+	/**
+	 * Wait for every goal to finish
+	 * 
+	 * @return the results, in the order of the goals. A goal skipped because we were cancelled has no result - its place is null
+	 */
+	public List<Result> getAll() {
+		List<Result> all = new ArrayList<Result>(Collections.<Result>nCopies(goals.size(), null));
+		for(Result r = next() ; r != null ; r = next())
+			all.set(r.getIndex(), r);
+		return all;
+	}
+	
+	/**
+	 * @return the number of goals
+	 */
+	public int getGoals() {
+		return goals.size();
+	}
+	
+	/**
+	 * @return true if a goal's failure has cancelled the rest
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+	
+	/**
+	 * Running goals are stopped, goals that haven't started never are, and the pengines are destroyed
+	 */
+	@Override
+	void closing() {
+		cancelled = true;
+		// not interrupted - a worker may be destroying pengines, and the pool wakes any waiting to borrow
+		executor.shutdown();
+		pool.close();
+		results.clear();
+		results.add(CLOSED);
+	}
+}
@@ -0,0 +1,301 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.simularity.os.javapengine.exception.CouldNotCreateException;
+import com.simularity.os.javapengine.exception.PengineNotAvailableException;
+import com.simularity.os.javapengine.exception.PengineNotReadyException;
+
+/**
+ * Runs one-shot queries - create, ask, get every answer, destroy - with hedging, to cut the tail latency
+ * a slow server causes.
+ * 
+ * Each query goes to the builder's server. If that hasn't given the complete answer by the time
+ * most queries have (the hedge percentile of the latencies seen so far), or fails, the same query goes
+ * to one of the builder's replicas. Whichever finishes first wins, and the other's pengine is destroyed.
+ * The latencies are the builder's server's, won or lost - a query it was still running when a replica
+ * won counts as having taken as long as it had, so the slow ones that get hedged still count.
+ * 
+ * Only hedge queries that are safe to run twice - ones that don't change anything on the server.
+ * 
+ * <pre>
+ * PengineBuilder pb = new PengineBuilder();
+ * pb.setServer("http://pengines1.example.com/");
+ * pb.setReplicas("http://pengines2.example.com/");
+ * Hedger hedger = new Hedger(pb);
+ * List&lt;Proof&gt; answers = hedger.ask("member(X, [a,b,c])");
+ * </pre>
+ * 
+ * @author Anne Ogborn
+ *
+ */
+public class Hedger {
+	/**
+	 * until we've seen this many queries, hedge after the initial delay
+	 */
+	static final int MIN_SAMPLES = 20;
+	
+	private static final AtomicInteger threadCount = new AtomicInteger(0);
+	
+	private final PengineBuilder builder;
+	private final URL[] replicas;
+	private final LatencyHistogram latencies = new LatencyHistogram();
+	private final AtomicInteger nextReplica = new AtomicInteger(0);
+	private final AtomicLong hedges = new AtomicLong();
+	private final AtomicLong hedgeWins = new AtomicLong();
+	private final ExecutorService executor;
+	private volatile double percentile = 95.0;
+	private volatile long initialDelay = TimeUnit.MILLISECONDS.toNanos(100);
+	
+	/**
+	 * @param builder the server, replicas and everything else about the queries. It's cloned, and each query's
+	 *   pengine is destroyed at the end of the query
+	 * @throws PengineNotReadyException if the builder can't be cloned
+	 */
+	public Hedger(PengineBuilder builder) throws PengineNotReadyException {
+		try {
+			this.builder = builder.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new PengineNotReadyException("PengineBuilder must be clonable");
+		}
+		this.builder.setDestroy(true);
+		this.replicas = builder.getReplicas();
+		
+		executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "JavaPengine-hedge-" + threadCount.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	
+	/**
+	 * @param percentile the percentile of latency, 0 to 100, after which a query is hedged. The default is 95, 
+	 *   so about one query in twenty is sent twice
+	 */
+	public void setPercentile(double percentile) {
+		if(percentile <= 0.0 || percentile > 100.0)
+			throw new IllegalArgumentException("hedge percentile must be above 0 and at most 100");
+		this.percentile = percentile;
+	}
+	
+	/**
+	 * @return the percentile of latency after which a query is hedged
+	 */
+	public double getPercentile() {
+		return percentile;
+	}
+	
+	/**
+	 * @param delay how long to wait before hedging, until there are enough latencies to go by. The default is 100ms
+	 * @param unit the unit of delay
+	 */
+	public void setInitialDelay(long delay, TimeUnit unit) {
+		this.initialDelay = unit.toNanos(delay);
+	}
+	
+	/**
+	 * @return the latencies of the builder's server, from create to last answer, won or lost. The replicas' aren't recorded
+	 */
+	public LatencyHistogram getLatencies() {
+		return latencies;
+	}
+	
+	/**
+	 * @return how many queries have been sent to a replica
+	 */
+	public long getHedges() {
+		return hedges.get();
+	}
+	
+	/**
+	 * @return how many queries the replica answered first
+	 */
+	public long getHedgeWins() {
+		return hedgeWins.get();
+	}
+	
+	/**
+	 * @return how long a query waits before it's hedged, in nanoseconds
+	 */
+	public long getHedgeDelay() {
+		if(latencies.getCount() < MIN_SAMPLES)
+			return initialDelay;
+		return latencies.getPercentile(percentile);
+	}
+	
+	/**
+	 * Run a one-shot query, hedging it if it's slow
+	 * 
+	 * @param goal the query
+	 * @return every answer
+	 * 
+	 * @throws PengineNotReadyException if the query fails everywhere it's sent
+	 * @throws CouldNotCreateException if no server can make a pengine
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public List<Proof> ask(String goal) throws PengineNotReadyException, CouldNotCreateException, InterruptedException {
+		CompletionService<List<Proof>> done = new ExecutorCompletionService<List<Proof>>(executor);
+		List<Attempt> attempts = new ArrayList<Attempt>(2);
+		
+		long start = System.nanoTime();
+		Attempt first = new Attempt(builder.getServer(), goal, start, true);
+		attempts.add(first);
+		done.submit(first);
+		int running = 1;
+		
+		Exception failure = null;
+		try {
+			Future<List<Proof>> f = done.poll(getHedgeDelay(), TimeUnit.NANOSECONDS);
+			if(f != null) {
+				running--;
+				try {
+					return f.get();
+				} catch (ExecutionException e) {
+					failure = e;
+				}
+			}
+			
+			// slow or failed, hedge
+			if(replicas.length > 0) {
+				Attempt hedge = new Attempt(replicas[Math.abs(nextReplica.getAndIncrement() % replicas.length)], goal, start, false);
+				attempts.add(hedge);
+				done.submit(hedge);
+				running++;
+				hedges.incrementAndGet();
+			}
+			
+			for( ; running > 0 ; running--) {
+				f = done.take();
+				try {
+					List<Proof> proofs = f.get();
+					if(attempts.size() > 1 && attempts.get(1).isDone() && !attempts.get(0).isDone())
+						hedgeWins.incrementAndGet();
+					return proofs;
+				} catch (ExecutionException e) {
+					if(failure == null)
+						failure = e;
+				}
+			}
+		} finally {
+			for(Attempt a : attempts)
+				a.cancel();
+		}
+		
+		Throwable cause = failure.getCause();
+		if(cause instanceof PengineNotReadyException)
+			throw (PengineNotReadyException)cause;
+		if(cause instanceof CouldNotCreateException)
+			throw (CouldNotCreateException)cause;
+		throw new PengineNotAvailableException("hedged query failed " + String.valueOf(cause));
+	}
+	
+	/**
+	 * stop the threads. Queries in progress carry on, but no more can be made
+	 */
+	public void close() {
+		executor.shutdown();
+	}
+	
+	/**
+	 * one server's try at the query
+	 */
+	private final class Attempt implements Callable<List<Proof>> {
+		private final URL server;
+		private final String goal;
+		// System.nanoTime() the query was asked, not when this attempt started
+		private final long start;
+		// the first try, whose latency decides when to hedge
+		private final boolean primary;
+		private volatile boolean cancelled = false;
+		private volatile boolean finished = false;
+		
+		private Attempt(URL server, String goal, long start, boolean primary) {
+			this.server = server;
+			this.goal = goal;
+			this.start = start;
+			this.primary = primary;
+		}
+		
+		@Override
+		public List<Proof> call() throws Exception {
+			PengineBuilder b = builder.clone();
+			b.setServer(server);
+			b.setAsk(goal);
+			
+			Pengine p = b.newPengine();
+			try {
+				List<Proof> proofs = new ArrayList<Proof>();
+				Query q = p.getCurrentQuery();
+				while(q != null && !cancelled) {
+					for(Proof proof = q.poll() ; proof != null ; proof = q.poll())
+						proofs.add(proof);
+					if(!q.hasNext())
+						break;
+					q.fetch(b.getChunk());
+				}
+				// the primary lost, it took at least this long
+				if(cancelled) {
+					if(primary)
+						latencies.record(System.nanoTime() - start);
+					return null;
+				}
+				
+				if(primary)
+					latencies.record(System.nanoTime() - start);
+				finished = true;
+				return proofs;
+			} finally {
+				// the loser, or a query that went wrong, still has a pengine on the server
+				if(!finished)
+					p.destroyAsync();
+			}
+		}
+		
+		private boolean isDone() {
+			return finished;
+		}
+		
+		private void cancel() {
+			cancelled = true;
+		}
+	}
+}
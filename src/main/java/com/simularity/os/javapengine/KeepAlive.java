@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.simularity.os.javapengine.exception.PengineNotReadyException;
+
+/**
+ * Keeps idle pengines alive, so the server doesn't destroy them at its idle limit (by default 300 seconds in SWI-Prolog).
+ * 
+ * Pengines made with PengineBuilder.setKeepAlive and setDestroy(false) are checked by one scheduler, with a few daemon 
+ * threads, shared by every pengine in the JVM. A pengine that hasn't talked to the server for the keepalive interval is sent a trivial query.
+ * A pengine that's in use is left alone. Checks are spread out by a random jitter, so pengines made together aren't
+ * all pinged together.
+ * 
+ * The scheduler only holds weak references, so it never keeps a pengine from being garbage collected.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+public final class KeepAlive {
+	/**
+	 * checks are moved by up to this fraction of the interval either way
+	 */
+	static final double JITTER = 0.1;
+	
+	/**
+	 * threads the scheduler sends keepalives on. Each keepalive is a round trip, so one thread
+	 * can only keep interval / round trip time pengines alive
+	 */
+	static final int THREADS = 4;
+	
+	private static final AtomicLong pings = new AtomicLong();
+	private static final AtomicLong lost = new AtomicLong();
+	private static final AtomicLong tracked = new AtomicLong();
+	private static ScheduledExecutorService scheduler = null;
+	
+	private KeepAlive() {
+	}
+	
+	/**
+	 * @return how many keepalive queries have been sent
+	 */
+	public static long getPingsSent() {
+		return pings.get();
+	}
+	
+	/**
+	 * @return how many pengines a keepalive found were gone from the server (or couldn't reach it)
+	 */
+	public static long getPenginesLost() {
+		return lost.get();
+	}
+	
+	/**
+	 * @return how many pengines are being kept alive now
+	 */
+	public static long getTracked() {
+		return tracked.get();
+	}
+	
+	/**
+	 * start keeping a pengine alive
+	 * 
+	 * @param p the pengine
+	 * @param interval nanoseconds a pengine can be idle before it's pinged
+	 */
+	static void register(Pengine p, long interval) {
+		tracked.incrementAndGet();
+		Check check = new Check(p, interval);
+		check.schedule(interval);
+	}
+	
+	private static synchronized ScheduledExecutorService scheduler() {
+		if(scheduler == null) {
+			ScheduledThreadPoolExecutor stpe = new ScheduledThreadPoolExecutor(THREADS, new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger(0);
+				
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "JavaPengine-keepalive-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			// don't keep a pile of checks for pengines that are long gone
+			stpe.setRemoveOnCancelPolicy(true);
+			scheduler = stpe;
+		}
+		return scheduler;
+	}
+	
+	/**
+	 * the next check on one pengine
+	 */
+	private static final class Check implements Runnable {
+		private final WeakReference<Pengine> pengine;
+		private final long interval;
+		
+		private Check(Pengine p, long interval) {
+			this.pengine = new WeakReference<Pengine>(p);
+			this.interval = interval;
+		}
+		
+		/**
+		 * @param delay nanoseconds to the check, before jitter
+		 */
+		private void schedule(long delay) {
+			long jitter = (long)(interval * JITTER * (2.0 * ThreadLocalRandom.current().nextDouble() - 1.0));
+			scheduler().schedule(this, Math.max(0, delay + jitter), TimeUnit.NANOSECONDS);
+		}
+		
+		@Override
+		public void run() {
+			Pengine p = pengine.get();
+			if(p == null || p.isDestroyed()) {
+				tracked.decrementAndGet();
+				return;
+			}
+			
+			long idle = System.nanoTime() - p.getLastUsed();
+			if(idle >= interval - (long)(interval * JITTER)) {
+				try {
+					if(p.keepAlive())
+						pings.incrementAndGet();
+					idle = System.nanoTime() - p.getLastUsed();
+				} catch (PengineNotReadyException e) {
+					pings.incrementAndGet();
+					lost.incrementAndGet();
+					tracked.decrementAndGet();
+					System.err.println("keepalive lost pengine " + e.getMessage());
+					return;
+				} catch (RuntimeException e) {
+					// never let one pengine stop the scheduler
+					e.printStackTrace();
+				}
+			}
+			
+			// p goes out of scope here, so the wait doesn't keep it reachable
+			schedule(Math.max(0, interval - idle));
+		}
+	}
+}
@@ -0,0 +1,198 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread safe histogram of latencies, in nanoseconds, for percentiles.
+ * 
+ * Buckets are log scaled - each power of two is split into 32 - so a percentile is
+ * accurate to about 3% from a nanosecond to centuries, in 16K of counts.
+ * Recording is a couple of atomic increments, and never allocates.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+public final class LatencyHistogram {
+	private static final int SUB_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+	
+	/**
+	 * @param nanos a latency. Negative values count as 0
+	 */
+	public void record(long nanos) {
+		if(nanos < 0)
+			nanos = 0;
+		counts.incrementAndGet(bucket(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+		for(long m = max.get() ; nanos > m && !max.compareAndSet(m, nanos) ; m = max.get())
+			;
+	}
+	
+	/**
+	 * @param latency a latency
+	 * @param unit the unit it's in
+	 */
+	public void record(long latency, TimeUnit unit) {
+		record(unit.toNanos(latency));
+	}
+	
+	/**
+	 * Record a latency measured by a closed loop - one that waits for each request before sending the next - 
+	 * correcting for coordinated omission, like HdrHistogram's recordValueWithExpectedInterval. 
+	 * 
+	 * While a slow request held the loop up, the requests it would have sent weren't, so their latencies 
+	 * were never seen. For a latency longer than the expected interval between requests, those missing 
+	 * latencies - latency less one interval, less two, and so on - are recorded too.
+	 * 
+	 * @param nanos a latency
+	 * @param expectedInterval nanoseconds expected between requests, or 0 to not correct
+	 */
+	public void recordCorrected(long nanos, long expectedInterval) {
+		record(nanos);
+		if(expectedInterval <= 0)
+			return;
+		for(long missing = nanos - expectedInterval ; missing >= expectedInterval ; missing -= expectedInterval)
+			record(missing);
+	}
+	
+	/**
+	 * @return how many latencies have been recorded
+	 */
+	public long getCount() {
+		return count.get();
+	}
+	
+	/**
+	 * @return the biggest latency recorded, in nanoseconds, exactly
+	 */
+	public long getMax() {
+		return max.get();
+	}
+	
+	/**
+	 * @return the mean latency in nanoseconds, or 0 if there are none
+	 */
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0.0 : (double)total.get() / n;
+	}
+	
+	/**
+	 * While latencies are being recorded this is approximate - it's not a snapshot.
+	 * 
+	 * @param percent the percentile, from 0 to 100, eg 99.9
+	 * @return the latency in nanoseconds that percent of the latencies are at or below, 
+	 *   or 0 if there are none
+	 */
+	public long getPercentile(double percent) {
+		if(percent < 0.0 || percent > 100.0)
+			throw new IllegalArgumentException("percentile must be from 0 to 100");
+		
+		long n = count.get();
+		if(n == 0)
+			return 0;
+		
+		long rank = Math.max(1, (long)Math.ceil(percent / 100.0 * n));
+		long seen = 0;
+		for(int i = 0 ; i < counts.length() ; i++) {
+			seen += counts.get(i);
+			if(seen >= rank)
+				return Math.min(highest(i), max.get());
+		}
+		return max.get();
+	}
+	
+	/**
+	 * Add another histogram's counts to this one
+	 * 
+	 * @param other the histogram to add
+	 */
+	public void add(LatencyHistogram other) {
+		for(int i = 0 ; i < counts.length() ; i++) {
+			long c = other.counts.get(i);
+			if(c != 0)
+				counts.addAndGet(i, c);
+		}
+		count.addAndGet(other.count.get());
+		total.addAndGet(other.total.get());
+		long m = other.max.get();
+		for(long mine = max.get() ; m > mine && !max.compareAndSet(mine, m) ; mine = max.get())
+			;
+	}
+	
+	/**
+	 * forget everything recorded
+	 */
+	public void reset() {
+		for(int i = 0 ; i < counts.length() ; i++)
+			counts.set(i, 0);
+		count.set(0);
+		total.set(0);
+		max.set(0);
+	}
+	
+	@Override
+	public String toString() {
+		return Long.toString(getCount()) + " latencies, p50 " + millis(getPercentile(50.0)) +
+				" p99 " + millis(getPercentile(99.0)) + " p99.9 " + millis(getPercentile(99.9)) + 
+				" max " + millis(getMax()) + " ms";
+	}
+	
+	private static String millis(long nanos) {
+		return String.format("%.3f", nanos / 1e6);
+	}
+	
+	/**
+	 * values below SUB_BUCKETS get a bucket each, above that each power of two gets SUB_BUCKETS
+	 */
+	private static int bucket(long v) {
+		if(v < SUB_BUCKETS)
+			return (int)v;
+		int exponent = 63 - Long.numberOfLeadingZeros(v);
+		int sub = (int)(v >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+	
+	/**
+	 * @return the highest value that goes in bucket i
+	 */
+	private static long highest(int i) {
+		if(i < SUB_BUCKETS)
+			return i;
+		int exponent = i / SUB_BUCKETS + SUB_BITS - 1;
+		long sub = i % SUB_BUCKETS;
+		long lowest = (1L << exponent) | (sub << (exponent - SUB_BITS));
+		return lowest + (1L << (exponent - SUB_BITS)) - 1;
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a bulk load did, and how fast.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+public final class LoadReport {
+	private final long facts;
+	private final int batches;
+	private final long bytes;
+	private final long elapsedNanos;
+	
+	/**
+	 * @param facts the number of facts loaded
+	 * @param batches the number of requests they were sent in
+	 * @param bytes the total size of the request bodies
+	 * @param elapsedNanos how long the load took
+	 */
+	LoadReport(long facts, int batches, long bytes, long elapsedNanos) {
+		this.facts = facts;
+		this.batches = batches;
+		this.bytes = bytes;
+		this.elapsedNanos = elapsedNanos;
+	}
+	
+	/**
+	 * @return the number of facts loaded
+	 */
+	public long getFacts() {
+		return facts;
+	}
+	
+	/**
+	 * @return the number of requests the facts were sent in
+	 */
+	public int getBatches() {
+		return batches;
+	}
+	
+	/**
+	 * @return the total size of the request bodies, in bytes
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+	
+	/**
+	 * @param unit the unit to return the time in
+	 * @return how long the load took, from the first fact read to the last batch confirmed
+	 */
+	public long getElapsed(TimeUnit unit) {
+		return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * @return the throughput in facts per second
+	 */
+	public double getFactsPerSecond() {
+		if(elapsedNanos <= 0)
+			return 0.0;
+		return facts * 1.0e9 / elapsedNanos;
+	}
+	
+	/**
+	 * @return eg 100000 facts in 100 batches (3456789 bytes) in 2.345 s, 42644 facts/s
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return Long.toString(facts) + " facts in " + Integer.toString(batches) + " batches (" + 
+				Long.toString(bytes) + " bytes) in " + String.format("%.3f", elapsedNanos / 1.0e9) + " s, " + 
+				String.format("%.0f", getFactsPerSecond()) + " facts/s";
+	}
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.simularity.os.javapengine.exception.PengineNotReadyException;
+
+/**
+ * What FanOut, PartitionedQuery and PipelineQuery have in common - worker threads running queries
+ * on pooled pengines, and a consumer taking their results one at a time, waiting for them if need be.
+ * 
+ * A subclass gives its next result from advance, which may block. close sets closed and calls closing 
+ * before it takes the lock - hasNext holds the lock while advance waits, and closing is what wakes it.
+ * 
+ * @author Anne Ogborn
+ *
+ * @param <T> the results
+ */
+abstract class ParallelResults<T> implements Iterator<T>, Closeable {
+	private static final AtomicInteger threadCount = new AtomicInteger(0);
+	
+	/**
+	 * runs the workers
+	 */
+	final ExecutorService executor;
+	volatile boolean closed = false;
+	
+	// the consumer's side
+	private T lookahead = null;
+	private boolean done = false;
+	
+	/**
+	 * One query for solve to run
+	 */
+	interface Solver {
+		/**
+		 * @param p the pengine borrowed for the query
+		 * @return the query, asked on p
+		 * @throws PengineNotReadyException if it can't be asked
+		 */
+		Query ask(Pengine p) throws PengineNotReadyException;
+		
+		/**
+		 * @param proof the query's next solution
+		 * @return false to stop the query
+		 * @throws InterruptedException if interrupted passing it on
+		 */
+		boolean solution(Proof proof) throws InterruptedException;
+	}
+	
+	/**
+	 * @param name what the worker threads are called, after JavaPengine-
+	 */
+	ParallelResults(final String name) {
+		executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "JavaPengine-" + name + "-" + threadCount.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	
+	/**
+	 * The consumer's side - the next result, waiting for it if need be. Called with the lock held
+	 * 
+	 * @return the next result, or null if there are no more or we've been closed
+	 * @throws InterruptedException if interrupted while waiting. It's closed
+	 */
+	abstract T advance() throws InterruptedException;
+	
+	/**
+	 * Stop the workers and wake a consumer waiting in advance. Called by close, without the lock
+	 */
+	abstract void closing();
+	
+	/**
+	 * @return true if the queries running should stop. Closing stops them
+	 */
+	boolean stopped() {
+		return closed;
+	}
+	
+	/**
+	 * There are no results, eg nothing to run
+	 */
+	synchronized void end() {
+		done = true;
+	}
+	
+	/**
+	 * Run a query on one of the pool's pengines, handing on each solution as it comes, a chunk at a time
+	 * 
+	 * @param pool where to get the pengine
+	 * @param chunk how many solutions to ask for at a time
+	 * @param solver asks the query and takes its solutions
+	 * @return true if the query ran to its end, false if it was stopped
+	 * 
+	 * @throws Exception if the pengine can't be had, or the query fails
+	 */
+	boolean solve(PenginePool pool, int chunk, Solver solver) throws Exception {
+		Pengine p = pool.borrow();
+		try {
+			Query q = solver.ask(p);
+			while(!stopped()) {
+				q.fetch(chunk);
+				for(Proof proof = q.poll() ; proof != null ; proof = q.poll()) {
+					if(!solver.solution(proof))
+						return false;
+				}
+				if(!q.hasNext())
+					return true;
+			}
+			return false;
+		} finally {
+			pool.release(p);
+		}
+	}
+	
+	/**
+	 * Waits for the next result if need be
+	 * 
+	 * @return true if there's another result
+	 */
+	@Override
+	public synchronized boolean hasNext() {
+		if(lookahead != null)
+			return true;
+		if(done)
+			return false;
+		
+		try {
+			lookahead = advance();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			close();
+		}
+		if(lookahead == null)
+			done = true;
+		return lookahead != null;
+	}
+	
+	/**
+	 * @return the next result, or null if there are no more
+	 */
+	@Override
+	public synchronized T next() {
+		if(!hasNext())
+			return null;
+		
+		T r = lookahead;
+		lookahead = null;
+		return r;
+	}
+	
+	/**
+	 * Stop. Running queries are stopped, and the results not yet taken are dropped
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		// before taking the lock - hasNext holds it while it waits, and this is what wakes it
+		closing();
+		synchronized(this) {
+			done = true;
+			lookahead = null;
+		}
+	}
+}
@@ -0,0 +1,296 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.simularity.os.javapengine.exception.PengineNotReadyException;
+
+/**
+ * The solutions of a goal extracted a partition at a time by a PenginePool's pengines, in parallel.
+ * 
+ * Unordered, the solutions come as they arrive, through a bounded queue - a slow consumer
+ * slows the extraction rather than filling the heap.
+ * In order, they come a partition at a time, partition 0 first. The later partitions are
+ * fetched while the earlier ones are consumed, so they're buffered whole - set a result heap
+ * budget on the pool's builder to spill them to disk.
+ * 
+ * If a partition fails the solutions just end - check getFailure(). Close it to stop early.
+ * 
+ * Made by PenginePool.extract
+ * 
+ * @author Anne Ogborn
+ *
+ */
+public final class PartitionedQuery extends ParallelResults<Proof> {
+	// marks the end of a partition in its queue
+	private static final Object END = new Object();
+	
+	private final PenginePool pool;
+	private final List<String> goals;
+	private final String[] projection;
+	private final boolean ordered;
+	private final int chunk;
+	private final BlockingQueue<Object> queue;  // unordered
+	private final List<Partition> partitions;   // ordered
+	private final AtomicInteger nextPartition = new AtomicInteger(0);
+	private final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+	
+	// the consumer's side
+	private int partition = 0;  // ordered, the partition being read
+	private int ended = 0;      // unordered, how many partitions have ended
+	
+	/**
+	 * Start extracting
+	 * 
+	 * @param pool the pool whose pengines run the partitions
+	 * @param goals the goal for each partition
+	 * @param projection the projection each partition is asked with, or none for all the bindings
+	 * @param ordered true to give the solutions a partition at a time, in order
+	 */
+	PartitionedQuery(PenginePool pool, List<String> goals, String[] projection, boolean ordered) {
+		super("partition");
+		this.pool = pool;
+		this.goals = goals;
+		this.projection = projection;
+		this.ordered = ordered;
+		this.chunk = pool.getChunk();
+		
+		if(ordered) {
+			queue = null;
+			partitions = new ArrayList<Partition>(goals.size());
+			for(int i = 0 ; i < goals.size() ; i++)
+				partitions.add(new Partition(pool.newProofBuffer()));
+		} else {
+			queue = new ArrayBlockingQueue<Object>(Math.max(2 * chunk, 1000));
+			partitions = null;
+		}
+		
+		int workers = Math.min(goals.size(), pool.getSize());
+		if(workers == 0)
+			end();
+		for(int i = 0 ; i < workers ; i++) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					work();
+				}
+			});
+		}
+		executor.shutdown();
+	}
+	
+	/**
+	 * a worker - runs partitions until there are none left. Every partition gets an END,
+	 * even after a failure, so the consumer's never left waiting
+	 */
+	private void work() {
+		for(int i = nextPartition.getAndIncrement() ; i < goals.size() ; i = nextPartition.getAndIncrement()) {
+			try {
+				if(!closed && failure.get() == null)
+					extract(i);
+			} catch (InterruptedException e) {
+				// we've been closed
+				return;
+			} catch (Exception e) {
+				failure.compareAndSet(null, e);
+			}
+			
+			if(ordered) {
+				partitions.get(i).end();
+			} else {
+				try {
+					queue.put(END);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+	
+	private void extract(final int partition) throws Exception {
+		final String goal = goals.get(partition);
+		solve(pool, chunk, new Solver() {
+			@Override
+			public Query ask(Pengine p) throws PengineNotReadyException {
+				return projection.length == 0 ? p.ask(goal) : p.ask(goal, projection);
+			}
+			
+			@Override
+			public boolean solution(Proof proof) throws InterruptedException {
+				if(ordered)
+					partitions.get(partition).add(proof);
+				else
+					queue.put(proof);
+				return true;
+			}
+		});
+	}
+	
+	@Override
+	Proof advance() throws InterruptedException {
+		try {
+			for(;;) {
+				Object o;
+				if(ordered) {
+					if(partition >= partitions.size())
+						return null;
+					o = partitions.get(partition).take();
+				} else {
+					if(ended >= goals.size())
+						return null;
+					o = queue.take();
+				}
+				
+				// close woke us
+				if(closed)
+					return null;
+				
+				if(o == END) {
+					if(failure.get() != null) {
+						System.err.println("partition failed, ending the extraction " + failure.get().toString());
+						close();
+						return null;
+					}
+					if(ordered)
+						partitions.get(partition++).close();
+					else
+						ended++;
+					continue;
+				}
+				
+				return (Proof)o;
+			}
+		} catch (IOException e) {
+			// a spilled solution's lost, the rest of its partition can't be given as if it weren't
+			failure.compareAndSet(null, e);
+			System.err.println("partition failed, ending the extraction " + e.toString());
+			close();
+			return null;
+		}
+	}
+	
+	/**
+	 * @return the solutions as a stream. Closing the stream closes this
+	 */
+	public Stream<Proof> stream() {
+		int characteristics = Spliterator.NONNULL | (ordered ? Spliterator.ORDERED : 0);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, characteristics), false)
+				.onClose(new Runnable() {
+					@Override
+					public void run() {
+						close();
+					}
+				});
+	}
+	
+	/**
+	 * @return the number of partitions
+	 */
+	public int getPartitions() {
+		return goals.size();
+	}
+	
+	/**
+	 * @return what made a partition fail, or null if none has
+	 */
+	public Exception getFailure() {
+		return failure.get();
+	}
+	
+	/**
+	 * Running partitions are stopped and their pengines go back to the pool
+	 */
+	@Override
+	void closing() {
+		executor.shutdownNow();
+		if(ordered) {
+			for(Partition p : partitions)
+				p.close();
+		} else {
+			queue.clear();
+			queue.offer(END);
+		}
+	}
+	
+	/**
+	 * one partition's solutions, in order. Never blocks the worker adding to it
+	 */
+	private static final class Partition {
+		private final ProofBuffer proofs;
+		private boolean ended = false;
+		private boolean closed = false;
+		
+		private Partition(ProofBuffer proofs) {
+			this.proofs = proofs;
+		}
+		
+		private synchronized void add(Proof proof) {
+			if(closed)
+				return;
+			proofs.add(proof);
+			notifyAll();
+		}
+		
+		private synchronized void end() {
+			ended = true;
+			notifyAll();
+		}
+		
+		/**
+		 * @return the next proof, or END
+		 * @throws IOException if a spilled proof can't be read back
+		 */
+		private synchronized Object take() throws InterruptedException, IOException {
+			for(;;) {
+				Proof p = proofs.poll();
+				if(p != null)
+					return p;
+				if(ended)
+					return END;
+				wait();
+			}
+		}
+		
+		/**
+		 * let go of the proofs, and any spill file
+		 */
+		private synchronized void close() {
+			proofs.clear();
+			ended = true;
+			closed = true;
+			notifyAll();
+		}
+	}
+}
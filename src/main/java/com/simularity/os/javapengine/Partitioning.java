@@ -0,0 +1,155 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.simularity.os.javapengine.exception.CouldNotCreateException;
+import com.simularity.os.javapengine.exception.PengineNotReadyException;
+import com.simularity.os.javapengine.term.Variable;
+
+/**
+ * How PenginePool.extract splits a goal into disjoint partitions, each run on its own pengine.
+ * 
+ * Either way the server does more work than for the plain goal - the point is to use more of
+ * its cores, not fewer cycles.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+public abstract class Partitioning {
+	private final int partitions;
+	
+	/**
+	 * @param partitions how many partitions
+	 */
+	Partitioning(int partitions) {
+		if(partitions < 1)
+			throw new IllegalArgumentException("there must be at least one partition");
+		this.partitions = partitions;
+	}
+	
+	/**
+	 * Split the solutions into consecutive windows of the same size, with library(solution_sequences)
+	 * offset/2 and limit/2. The goal's counted first, on one pengine, to size the windows.
+	 * 
+	 * Each window's pengine runs the goal up to the end of its window, skipping the solutions before it, 
+	 * so this suits goals whose solutions are cheap to skip. The goal must find the same solutions 
+	 * in the same order every time.
+	 * In order, the windows give the solutions in the goal's order.
+	 * 
+	 * @param partitions how many windows
+	 * @return the partitioning
+	 */
+	public static Partitioning windows(int partitions) {
+		return new Windows(partitions);
+	}
+	
+	/**
+	 * Split the solutions by a hash of what one variable is bound to, with term_hash/2.
+	 * 
+	 * Each partition's pengine finds every solution, and keeps the ones whose hash is its own,
+	 * so this suits goals where making the solutions is cheap and sending them isn't.
+	 * The variable must be bound to a ground term in every solution.
+	 * 
+	 * @param variable the variable to hash
+	 * @param partitions how many partitions
+	 * @return the partitioning
+	 * @throws IllegalArgumentException if variable isn't a variable name
+	 */
+	public static Partitioning hash(String variable, int partitions) {
+		return new Hash(variable, partitions);
+	}
+	
+	/**
+	 * @return the number of partitions asked for
+	 */
+	public int getPartitions() {
+		return partitions;
+	}
+	
+	/**
+	 * make the goal for each partition
+	 * 
+	 * @param goal the goal to split
+	 * @param pool the pool, for any query needed to plan the partitions
+	 * @return a goal per partition. There may be fewer than asked for
+	 * 
+	 * @throws PengineNotReadyException if a planning query fails
+	 * @throws CouldNotCreateException if the pool can't make a pengine
+	 * @throws InterruptedException if interrupted waiting for a pengine
+	 */
+	abstract List<String> goals(String goal, PenginePool pool) 
+			throws PengineNotReadyException, CouldNotCreateException, InterruptedException;
+	
+	private static final class Windows extends Partitioning {
+		private Windows(int partitions) {
+			super(partitions);
+		}
+		
+		@Override
+		List<String> goals(String goal, PenginePool pool) 
+				throws PengineNotReadyException, CouldNotCreateException, InterruptedException {
+			long count = pool.count(goal);
+			
+			List<String> goals = new ArrayList<String>(getPartitions());
+			long size = (count + getPartitions() - 1) / getPartitions();
+			for(long offset = 0 ; offset < count ; offset += size) {
+				goals.add("limit(" + Long.toString(size) + ", offset(" + Long.toString(offset) + ", (" + goal + ")))");
+			}
+			return goals;
+		}
+		
+		@Override
+		public String toString() {
+			return Integer.toString(getPartitions()) + " windows";
+		}
+	}
+	
+	private static final class Hash extends Partitioning {
+		private final String variable;
+		
+		private Hash(String variable, int partitions) {
+			super(partitions);
+			this.variable = new Variable(variable).getName();
+		}
+		
+		@Override
+		List<String> goals(String goal, PenginePool pool) {
+			List<String> goals = new ArrayList<String>(getPartitions());
+			for(int i = 0 ; i < getPartitions() ; i++) {
+				// _ variables aren't in the answers
+				goals.add("(" + goal + "), term_hash(" + variable + ", _PartitionHash), _PartitionHash mod " + 
+						Integer.toString(getPartitions()) + " =:= " + Integer.toString(i));
+			}
+			return goals;
+		}
+		
+		@Override
+		public String toString() {
+			return Integer.toString(getPartitions()) + " partitions by hash of " + variable;
+		}
+	}
+}
@@ -23,12 +23,13 @@ THE SOFTWARE.
  */
 package com.simularity.os.javapengine;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.StringReader;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
 
 /*
  * Copyright (c) 2015 Simularity, Inc.
@@ -53,19 +54,36 @@ THE SOFTWARE.
  * 
  */
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonNumber;
 import javax.json.JsonObject;
 import javax.json.JsonReader;
 import javax.json.JsonReaderFactory;
 import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParserFactory;
 
 import com.simularity.os.javapengine.PengineState.PSt;
+import com.simularity.os.javapengine.exception.CircuitOpenException;
 import com.simularity.os.javapengine.exception.CouldNotCreateException;
 import com.simularity.os.javapengine.exception.PengineNotAvailableException;
 import com.simularity.os.javapengine.exception.PengineNotReadyException;
+import com.simularity.os.javapengine.exception.PengineTimeoutException;
 import com.simularity.os.javapengine.exception.SyntaxErrorException;
+import com.simularity.os.javapengine.term.Atom;
+import com.simularity.os.javapengine.term.IntegerTerm;
+import com.simularity.os.javapengine.term.ListTerm;
+import com.simularity.os.javapengine.term.Term;
+import com.simularity.os.javapengine.term.TermReader;
 
 /**
  * A reference to a remote pengine slave.
@@ -84,11 +102,48 @@ import com.simularity.os.javapengine.exception.SyntaxErrorException;
  *
  */
 public final class Pengine {
-	// we copy the passed in object to make it immutable
-	private final PengineBuilder po;
+	private static final JsonReaderFactory jsonReaderFactory = Json.createReaderFactory(null);
+	private static final JsonParserFactory jsonParserFactory = Json.createParserFactory(null);
+	/**
+	 * how long abort waits for the request it's aborting to get the server's answer, in milliseconds, 
+	 * before it closes the connection
+	 */
+	static final int ABORT_GRACE = 2000;
+	
+	// we compile the passed in object to make it immutable
+	private final PengineConfig po;
 	private final String pengineID;
+	// worked out once we know our id
+	private URL sendURL = null;
+	private URL pullResponseURL = null;
+	// ask and next bodies are encoded into this, reused for every request
+	private final RequestBuffer requestBuffer = new RequestBuffer(256);
+	// the goal of a prepared query, with its values filled in
+	private final StringBuilder goalBuffer = new StringBuilder(256);
 	
 	private PengineState state = new PengineState();
+	// System.nanoTime() the requests of the current call must be done by, or 0 to give each request the builder's timeout
+	private long deadline = 0;
+	// the server stopped the last goal at its time limit
+	private boolean timeLimitExceeded = false;
+	// held while starting a query or destroying, so a keepalive never goes out in the middle of one
+	private final ReentrantLock conversation = new ReentrantLock();
+	// System.nanoTime() of our last request to the server
+	private volatile long lastUsed = System.nanoTime();
+	// our entry with the reaper, once we're created
+	private Reaper.Tracked tracked = null;
+	// the connection of the request in flight, so abort can close it. Notified when it's done
+	private volatile HttpURLConnection activeConnection = null;
+	private final Object requestDone = new Object();
+	// abort is being sent, and the request in flight hasn't seen it yet
+	private volatile boolean aborting = false;
+	// the connection abort closed, so its request knows it was aborted rather than lost
+	private volatile HttpURLConnection abortedConnection = null;
+	// what the answer to the last request was, for the flight recorder - the event, the number of proofs, 
+	// and the length of the response, or -1 if the server didn't say
+	private String answerEvent = null;
+	private int answerProofs = 0;
+	private long responseBytes = -1;
 	
 	/**
 	 * Pengines are created, used, and destroyed. 
@@ -123,113 +178,346 @@ public final class Pengine {
 	 * Create a new pengine object from a {@link PengineBuilder}.
 	 * 
 	 * @param poo the PengineBuilder that's creating this Pengine
+	 * @param timeout nanoseconds the create has, or 0 for the builder's timeout
 	 * 
 	 * @throws CouldNotCreateException  if for any reason the pengine cannot be created
 	 */
-	Pengine(final PengineBuilder poo) throws CouldNotCreateException {
+	Pengine(final PengineBuilder poo, long timeout) throws CouldNotCreateException {
 		try {
-			this.po = (PengineBuilder) poo.clone();
-		} catch (CloneNotSupportedException e) {
+			this.po = new PengineConfig(poo);
+		} catch (PengineNotReadyException e) {
 			state.destroy();
-			throw new CouldNotCreateException("PengineBuilder must be clonable");
+			throw new CouldNotCreateException(e.getMessage());
 		}
 		
 		try {
-			pengineID = create(po);
+			long prev = setDeadline(timeout);
+			try {
+				pengineID = create(po);
+			} finally {
+				restoreDeadline(prev);
+			}
+			sendURL = po.pengineURL("send", pengineID);
+			pullResponseURL = po.pengineURL("pull_response", pengineID);
+			if(!state.isIn(PSt.DESTROYED))
+				track();
 		} catch (PengineNotReadyException e) {
 			state.destroy();
 			throw new CouldNotCreateException("Pengine wasnt ready????");
 		}
 	}
 	
+	/**
+	 * Reattach to a pengine made earlier, maybe by another process, that's still on the server.
+	 * It's sent a trivial query to check it's there. See PengineRegistry.
+	 * 
+	 * @param poo a builder like the one that made the pengine
+	 * @param id the pengine's id
+	 * 
+	 * @throws CouldNotCreateException if the pengine's gone, or busy, or the builder can't be used
+	 */
+	Pengine(final PengineBuilder poo, String id) throws CouldNotCreateException {
+		try {
+			this.po = new PengineConfig(poo);
+			pengineID = id;
+			state.setPengineID(id);
+			sendURL = po.pengineURL("send", pengineID);
+			pullResponseURL = po.pengineURL("pull_response", pengineID);
+			state.setState(PSt.IDLE);
+			if(!keepAlive())
+				throw new PengineNotReadyException("pengine " + id + " did not answer");
+			track();
+		} catch (PengineNotReadyException e) {
+			state.destroy();
+			CouldNotCreateException cnce = new CouldNotCreateException("could not reattach to pengine " + id + " " + e.getMessage());
+			cnce.initCause(e);
+			throw cnce;
+		}
+	}
+	
+	/**
+	 * Keep track of a newly made or reattached pengine - in the builder's registry if it's persistent, 
+	 * else with the reaper, so it's destroyed if it's lost or the JVM exits - and keep it alive if we've been asked to
+	 */
+	private void track() {
+		PengineRegistry registry = po.getRegistry();
+		if(registry != null)
+			registry.add(pengineID, po);
+		else
+			tracked = Reaper.track(this, po.getDestroyAllURL(), sendURL, pengineID, state);
+		if(po.getKeepAliveNanos() > 0)
+			KeepAlive.register(this, po.getKeepAliveNanos());
+	}
+	
+	/**
+	 * thrown from penginePost when abort closed the request's connection
+	 */
+	private static final class AbortedException extends IOException {
+		private static final long serialVersionUID = 6512270947301145583L;
+		
+		AbortedException(String message) {
+			super(message);
+		}
+	}
+	
+	/**
+	 * Reads the body of a successful response
+	 */
+	private interface ResponseReader<T> {
+		T read(InputStream in) throws IOException;
+	}
+	
+	private static final ResponseReader<JsonObject> JSON_RESPONSE = new ResponseReader<JsonObject>() {
+		@Override
+		public JsonObject read(InputStream in) throws IOException {
+			try (JsonReader jr = jsonReaderFactory.createReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+				return jr.readObject();
+			}
+		}
+	};
+	
+	private static final ResponseReader<String> TEXT_RESPONSE = new ResponseReader<String>() {
+		@Override
+		public String read(InputStream in) throws IOException {
+			try (Reader r = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+				StringBuilder sb = new StringBuilder(1024);
+				char[] buf = new char[4096];
+				for(int n = r.read(buf) ; n >= 0 ; n = r.read(buf))
+					sb.append(buf, 0, n);
+				return sb.toString();
+			}
+		}
+	};
+	
+	/**
+	 * Send a request on our send or pull_response URL, and handle the answer in whatever format we asked for
+	 * 
+	 * @param step what the request is, for the flight recorder - Recorder.ASK and so on
+	 * @param chunk the number of answers asked for, or 0
+	 * @param url the URL
+	 * @param body the body of the POST request
+	 * 
+	 * @throws IOException if we can't talk to the server
+	 * @throws SyntaxErrorException if the answer doesn't make sense
+	 */
+	private void send(String step, int chunk, URL url, byte[] body) throws IOException, SyntaxErrorException {
+		send(step, chunk, url, body, body.length);
+	}
+	
+	/**
+	 * Send a request on our send or pull_response URL, and handle the answer in whatever format we asked for
+	 * 
+	 * @param step what the request is, for the flight recorder - Recorder.ASK and so on
+	 * @param chunk the number of answers asked for, or 0
+	 * @param url the URL
+	 * @param body the body of the POST request
+	 * 
+	 * @throws IOException if we can't talk to the server
+	 * @throws SyntaxErrorException if the answer doesn't make sense
+	 */
+	private void send(String step, int chunk, URL url, RequestBuffer body) throws IOException, SyntaxErrorException {
+		send(step, chunk, url, body.array(), body.length());
+	}
+	
+	private void send(String step, int chunk, URL url, byte[] body, int length) throws IOException, SyntaxErrorException {
+		Object event = beginRequest();
+		try {
+			if(po.getFormat() == AnswerFormat.PROLOG) {
+				handleAnswer(TermReader.parse(
+						penginePost(url, PengineConfig.CONTENT_TYPE_PROLOG, body, length, TEXT_RESPONSE)));
+			} else {
+				handleAnswer(penginePost(url, PengineConfig.CONTENT_TYPE_PROLOG, body, length, jsonResponse()));
+			}
+		} finally {
+			endRequest(event, step, url, chunk, length);
+		}
+	}
+	
+	/**
+	 * @return a reader that puts the solutions straight into the current query's buffer as they're parsed,
+	 *   so a big chunk is never all in memory, or JSON_RESPONSE if there's no query to put them in
+	 */
+	private ResponseReader<JsonObject> jsonResponse() {
+		Query query = currentQuery;
+		final ProofBuffer proofs = query == null ? null : query.getProofBuffer();
+		// the query only asks for more when it's used up what it has, so it's empty but for odd cases
+		if(proofs == null || !proofs.isEmpty())
+			return JSON_RESPONSE;
+		
+		return new ResponseReader<JsonObject>() {
+			@Override
+			public JsonObject read(InputStream in) throws IOException {
+				try (JsonParser parser = jsonParserFactory.createParser(in, StandardCharsets.UTF_8)) {
+					JsonObject answer = StreamedAnswer.read(parser, proofs);
+					answerProofs += proofs.size();
+					return answer;
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Start a flight recorder event for a request
+	 * 
+	 * @return the event, or null if no one's recording
+	 */
+	private Object beginRequest() {
+		Object event = Recorder.RECORDER.begin();
+		if(event != null) {
+			answerEvent = null;
+			answerProofs = 0;
+		}
+		return event;
+	}
+	
+	/**
+	 * Commit the event beginRequest returned, if it returned one
+	 */
+	private void endRequest(Object event, String step, URL url, int chunk, int length) {
+		if(event != null)
+			Recorder.RECORDER.request(event, step, pengineID, url, chunk, length, responseBytes, answerProofs, answerEvent);
+	}
+	
+	/**
+	 * note the event the server answered with, for the flight recorder
+	 * 
+	 * @param event the event's name
+	 */
+	private void answered(String event) {
+		answerEvent = answerEvent == null ? event : answerEvent + "/" + event;
+	}
+	
 	/**
 	 * Low level famulus to abstract out some of the HTTP handling common to all requests
 	 * 
 	 * @param url   The actual url to httpRequest
 	 * @param contentType  The value string of the Content-Type header
-	 * @param body    the body of the POST request
-	 * @return  the returned JSON object
+	 * @param body    an array holding the UTF-8 encoded body of the POST request
+	 * @param length  the number of bytes of body to send
+	 * @param reader  reads the response
+	 * @return  the response, as read by reader
 	 * 
-	 * @throws CouldNotCreateException
+	 * @throws SocketTimeoutException if the deadline passes
+	 * @throws CircuitBreaker.OpenException if the server's circuit breaker is open
+	 * @throws AbortedException if abort closed the connection
 	 * @throws IOException 
 	 */
-	private JsonObject penginePost(
+	private <T> T penginePost(
 			URL url,
 			String contentType,
-			String body
+			byte[] body,
+			int length,
+			ResponseReader<T> reader
 			) throws IOException {
-		StringBuffer response;
-
         int maxRetries = 5;
-        while (maxRetries > 0) {
+        TrafficLog log = po.getTrafficLog();
+        CircuitBreaker breaker = po.getCircuitBreaker();
+        while (true) {
+            // whether the breaker let this through as one of its half open trials
+            boolean trial = breaker != null && breaker.acquire();
+            long start = System.nanoTime();
+            // what to tell the breaker - null if we gave up without hearing from the server
+            Boolean ok = Boolean.FALSE;
             try {
                 HttpURLConnection con = (HttpURLConnection) url.openConnection();
                 // above should get us an HttpsURLConnection if it's https://...
+                activeConnection = con;
+                
+                // a read timeout is per read, not for the whole response, so a server that 
+                // trickles an answer can overrun the deadline by up to one more timeout
+                int millis = requestTimeout();
+                con.setConnectTimeout(millis);
+                con.setReadTimeout(millis);
 
                 //add request header
                 con.setRequestMethod("POST");
                 con.setRequestProperty("User-Agent", "JavaPengine");
-                con.setRequestProperty("Accept", "application/json");
+                con.setRequestProperty("Accept", po.getAccept());
                 con.setRequestProperty("Accept-Language", "en-US,en;q=0.5");
                 con.setRequestProperty("Content-type", contentType);
 
                 // Send post request
                 con.setDoOutput(true);
-                try (DataOutputStream wr = new DataOutputStream(con.getOutputStream())) {
-                    wr.writeBytes(body);
+                con.setFixedLengthStreamingMode(length);
+                try (OutputStream wr = con.getOutputStream()) {
+                    wr.write(body, 0, length);
                     wr.flush();
                 }
 
                 int responseCode = con.getResponseCode();
+                // any answer but the gateway's says the server's up
+                ok = responseCode < 502 || responseCode > 504;
+                responseBytes = con.getContentLengthLong();
+                // recording reads the response first, bad or not
+                InputStream recorded = log == null ? null : log.record(url, body, length, con, start);
                 if(responseCode < 200 || responseCode > 299) {
-                    throw new IOException("bad response code (if 500, query was invalid? query threw Prolog exception?) " + Integer.toString(responseCode) + " " + url.toString() + " " + body);
+                    throw new IOException("bad response code (if 500, query was invalid? query threw Prolog exception?) " + Integer.toString(responseCode) + " " + url.toString() + " " + new String(body, 0, length, StandardCharsets.UTF_8));
                 }
 
-                BufferedReader in = new BufferedReader(
-                        new InputStreamReader(con.getInputStream()));
-                String inputLine;
-                response = new StringBuffer();
-                try {
-                    while ((inputLine = in.readLine()) != null) {
-                        response.append(inputLine);
-                    }
-                } finally {
-                    in.close();
-                }
-                
-                JsonReaderFactory jrf = Json.createReaderFactory(null);
-                JsonReader jr = jrf.createReader(new StringReader(response.toString()));
-                JsonObject respObject = jr.readObject();
-                
-                return respObject;
+                T response = reader.read(recorded == null ? con.getInputStream() : recorded);
+                lastUsed = System.nanoTime();
+                return response;
+            } catch (SocketTimeoutException e) {
+                // retrying can't help, we're out of time
+                throw e;
             } catch (IOException e) {
-                if (--maxRetries < 0) {
+                if (aborting || (abortedConnection != null && abortedConnection == activeConnection)) {
+                    // abort closed the connection under us
+                    ok = null;
+                    abortedConnection = null;
+                    throw new AbortedException(e.getMessage());
+                }
+                if (--maxRetries <= 0) {
                     state.destroy();
                     throw e;
                 }
+                Recorder.RECORDER.retry(pengineID, url, 5 - maxRetries, e);
+            } finally {
+                if(breaker != null)
+                    breaker.done(ok, trial, System.nanoTime() - start);
+                activeConnection = null;
+                synchronized(requestDone) {
+                    requestDone.notifyAll();
+                }
             }
         }
-        return null;
 	}
 	
-
 	/**
 	 * does the actual creation, as a famulus of the constructor.
 	 * 
-	 * @param po the cloned PengineOptions
+	 * @param po the compiled PengineBuilder
 	 * @return the ID of the created pengine
 	 * 
 	 * @throws CouldNotCreateException if we can't make the pengine
 	 * @throws PengineNotReadyException 
 	 */
-	private String create(PengineBuilder po) throws CouldNotCreateException, PengineNotReadyException {
+	private String create(PengineConfig po) throws CouldNotCreateException, PengineNotReadyException {
 		state.must_be_in(PSt.NOT_CREATED);
 		
+		byte[] body = po.getCreateBody(po.timeLimit(remainingTime()));
+		po.noteCreate();
+		Object event = beginRequest();
+		String id = null;
 		try{
+			if(po.getFormat() == AnswerFormat.PROLOG) {
+				id = handleCreate(TermReader.parse(penginePost(
+						po.getCreateURL(), 
+						PengineConfig.CONTENT_TYPE_JSON, 
+						body, body.length, TEXT_RESPONSE)));
+				return id;
+			}
+			
 			JsonObject respObject = penginePost(
-					po.getActualURL("create"), 
-					"application/json", 
-					po.getRequestBodyCreate());
+					po.getCreateURL(), 
+					PengineConfig.CONTENT_TYPE_JSON, 
+					body, body.length, JSON_RESPONSE);
+			
+			JsonValue idjson = respObject.get("id");
+			if(!(idjson instanceof JsonString)) 
+				throw new CouldNotCreateException("no pengine id in create message");
+			id = ((JsonString)idjson).getString();
+			state.setPengineID(id);
 				
 			if(respObject.containsKey("slave_limit")) {
 				this.slave_limit  = respObject.getJsonNumber("slave_limit").intValue();
@@ -237,6 +525,7 @@ public final class Pengine {
 			
 			JsonString eventjson = (JsonString)respObject.get("event");
 			String evtstr = eventjson.getString();
+			answered(evtstr);
 			
 			if(evtstr.equals("destroy")) {
 				state.setState(PSt.DESTROYED);
@@ -254,20 +543,181 @@ public final class Pengine {
 			if(respObject.containsKey("answer")) {
 				handleAnswer(respObject.getJsonObject("answer"));
 			}
-	
-			String id = ((JsonString)respObject.get("id")).getString();
-			if(id == null) 
-				throw new CouldNotCreateException("no pengine id in create message");
+			
 			return id;
+		} catch (CircuitBreaker.OpenException e) {
+			state.destroy();
+			CouldNotCreateException cnce = new CouldNotCreateException(e.getMessage());
+			cnce.initCause(new CircuitOpenException(e.getMessage()));
+			throw cnce;
+		} catch (SocketTimeoutException e) {
+			// we don't know the id, so we can't destroy it - the server will at its idle limit
+			state.destroy();
+			CouldNotCreateException cnce = new CouldNotCreateException("timed out creating pengine " + e.getMessage());
+			cnce.initCause(new PengineTimeoutException(e.getMessage()));
+			throw cnce;
 		} catch (IOException e) {
 			state.destroy();
 			throw new CouldNotCreateException(e.getMessage());
 		} catch(SyntaxErrorException e) {
 			state.destroy();
-			throw new CouldNotCreateException(e.getMessage());
-		} 
+			CouldNotCreateException cnce = new CouldNotCreateException(e.getMessage());
+			if(timeLimitExceeded)
+				cnce.initCause(new PengineTimeoutException(e.getMessage()));
+			throw cnce;
+		} finally {
+			if(event != null)
+				Recorder.RECORDER.request(event, Recorder.CREATE, id, po.getCreateURL(), po.hasAsk() ? po.getChunk() : 0, 
+						body.length, responseBytes, answerProofs, answerEvent);
+		}
+	}
+	
+	/**
+	 * Make the requests until restoreDeadline share a deadline
+	 * 
+	 * @param timeout nanoseconds from now, or 0 to give each request the builder's timeout instead
+	 * @return the deadline we replaced, for restoreDeadline
+	 */
+	long setDeadline(long timeout) {
+		long prev = deadline;
+		if(timeout > 0) {
+			deadline = System.nanoTime() + timeout;
+			if(deadline == 0)
+				deadline = 1;
+		} else {
+			deadline = 0;
+		}
+		return prev;
+	}
+	
+	/**
+	 * @param prev the deadline setDeadline returned
+	 */
+	void restoreDeadline(long prev) {
+		deadline = prev;
+	}
+	
+	/**
+	 * @return nanoseconds left for the current request, or 0 if there's no limit. Never negative - 
+	 *   if the deadline's passed it's 1
+	 */
+	private long remainingTime() {
+		if(deadline == 0)
+			return po.getTimeoutNanos();
+		return Math.max(1, deadline - System.nanoTime());
+	}
+	
+	/**
+	 * @return the connect and read timeout for the next request, in milliseconds, or 0 for none
+	 * @throws SocketTimeoutException if the deadline's already passed
+	 */
+	private int requestTimeout() throws SocketTimeoutException {
+		if(deadline == 0)
+			return (int)Math.min(Integer.MAX_VALUE, po.getTimeoutNanos() / 1000000L);
+		
+		long left = deadline - System.nanoTime();
+		if(left <= 0)
+			throw new SocketTimeoutException("deadline passed");
+		return (int)Math.min(Integer.MAX_VALUE, Math.max(1, left / 1000000L));
+	}
+	
+	/**
+	 * Turn a failed request into the exception to throw. The pengine's no good to us any more either way.
+	 * If we ran out of time, the server may still be working for it, so a destroy is sent in the background.
+	 * 
+	 * If the request was aborted, it's the end of the query, not of the pengine, unless it's destroyed at the end of 
+	 * its query.
+	 * 
+	 * @param e what went wrong
+	 * @return a PengineTimeoutException if we ran out of time, a PengineNotReadyException if we were aborted, 
+	 *   a CircuitOpenException if the server's circuit breaker is open, else a PengineNotAvailableException
+	 */
+	private PengineNotReadyException failed(Exception e) {
+		if(e instanceof CircuitBreaker.OpenException) {
+			state.destroy();
+			return new CircuitOpenException(e.getMessage());
+		}
+		
+		if(e instanceof AbortedException) {
+			aborted();
+			// the server destroys it after the abort, we just never heard
+			if(po.isDestroy())
+				state.destroy();
+			return new PengineNotReadyException("query was aborted");
+		}
+		
+		boolean timedOut = e instanceof SocketTimeoutException || timeLimitExceeded;
+		timeLimitExceeded = false;
+		if(!timedOut || state.isIn(PSt.DESTROYED) || state.isIn(PSt.NOT_CREATED)) {
+			state.destroy();
+			return timedOut ? new PengineTimeoutException(e.getMessage()) : new PengineNotAvailableException(e.getMessage());
+		}
+		
+		state.destroy();
+		Reaper.destroyLater(tracked);
+		return new PengineTimeoutException(e.getMessage());
+	}
+
+	/**
+	 * handle the response to a create request in the prolog format, create(ID, Features)
+	 * 
+	 * @param resp the response
+	 * @return the ID of the created pengine
+	 * 
+	 * @throws CouldNotCreateException if the response isn't a create or destroy
+	 * @throws SyntaxErrorException if the answer makes no sense
+	 * @throws PengineNotReadyException 
+	 */
+	private String handleCreate(Term resp) throws CouldNotCreateException, SyntaxErrorException, PengineNotReadyException {
+		String evtstr = PrologAnswer.eventName(resp);
+		answered(evtstr);
+		
+		Term answer = null;
+		Term features = PrologAnswer.arg(resp, 1);
+		if(features instanceof ListTerm) {
+			for(Term feature : ((ListTerm)features).getElements()) {
+				String name = PrologAnswer.eventName(feature);
+				Term value = PrologAnswer.arg(feature, 0);
+				if(name.equals("slave_limit") && value instanceof IntegerTerm) {
+					this.slave_limit = ((IntegerTerm)value).intValueExact();
+				} else if(name.equals("answer")) {
+					answer = value;
+				}
+			}
+		}
+		
+		Term id = PrologAnswer.arg(resp, 0);
+		if(!(id instanceof Atom)) 
+			throw new CouldNotCreateException("no pengine id in create message");
+		state.setPengineID(((Atom)id).getName());
+		
+		if(evtstr.equals("destroy")) {
+			state.setState(PSt.DESTROYED);
+		} else if(evtstr.equals("create")) {
+			state.setState(PSt.IDLE);
+		} else {
+			throw new CouldNotCreateException("create request event was" + evtstr + " must be create or destroy");
+		}
+		
+		if(po.hasAsk()) {
+			this.currentQuery = new Query(this, po.getAsk(), false);
+			state.setState(PSt.ASK);
+		}
+		
+		if(answer != null) {
+			handleAnswer(answer);
+		}
+		
+		return ((Atom)id).getName();
 	}
 
+	/**
+	 * @return a buffer for a new query's proofs, set up per the builder's result heap budget
+	 */
+	ProofBuffer newProofBuffer() {
+		return po.newProofBuffer();
+	}
+	
 	/**
 	 * @return the maximum number of pengines allowed by server
 	 */
@@ -284,11 +734,15 @@ public final class Pengine {
 	private void handleAnswer(JsonObject answer) throws SyntaxErrorException {
 		try {
 			if(answer.containsKey("event")) {
-				switch( ((JsonString)answer.get("event")).getString()) {
+				String event = ((JsonString)answer.get("event")).getString();
+				answered(event);
+				switch(event) {
 				case	"success":
                     currentQuery.succeeded();
 					if(answer.containsKey("data")) {
-						currentQuery.addNewData(answer.getJsonArray("data"));
+						JsonArray data = answer.getJsonArray("data");
+						answerProofs += data.size();
+						currentQuery.addNewData(data);
 					}
 					if(answer.containsKey("more")) {
 						if(!answer.getBoolean("more")) {
@@ -317,6 +771,10 @@ public final class Pengine {
 					break;
 					
 				case	"error":
+					if(String.valueOf(answer.get("data")).contains("time_limit_exceeded")) {
+						timeLimitExceeded = true;
+						throw new SyntaxErrorException("the goal ran past its time limit on the server");
+					}
 					throw new SyntaxErrorException("Error - probably invalid Prolog query?");
 					
 				case	"output":
@@ -325,6 +783,10 @@ public final class Pengine {
 					availOutput.add(data);
 					break;
 					
+				case	"abort":
+					aborted();
+					break;
+					
 				case	"died":
 					// returned by pull_response if we're after the death
 					state.setState(PSt.DESTROYED);
@@ -339,6 +801,87 @@ public final class Pengine {
 		}
 	}
 
+	/**
+	 * handle the result of a send in the prolog format
+	 * 
+	 * @param answer the event term
+	 * @throws SyntaxErrorException if the event makes no sense
+	 */
+	private void handleAnswer(Term answer) throws SyntaxErrorException {
+		try {
+			String event = PrologAnswer.eventName(answer);
+			answered(event);
+			switch(event) {
+			case	"success":
+				// success(ID, Solutions, Projection, Time, More) - older servers leave out Projection
+				currentQuery.succeeded();
+				Term data = PrologAnswer.arg(answer, 1);
+				if(data != null) {
+					List<Proof> proofs = PrologAnswer.proofs(data);
+					answerProofs += proofs.size();
+					currentQuery.addNewProofs(proofs);
+				}
+				for(int i = 2 ; PrologAnswer.arg(answer, i) != null ; i++) {
+					Term more = PrologAnswer.arg(answer, i);
+					if(more instanceof Atom) {
+						if(((Atom)more).getName().equals("false"))
+							currentQuery.noMore();
+						break;
+					}
+				}
+				break;
+				
+			case	"destroy":
+				// destroy(ID) or destroy(ID, Event) with the last answer
+				Term last = PrologAnswer.arg(answer, 1);
+				if(last != null) {
+					currentQuery.succeeded();
+					handleAnswer(last);
+				}
+				if(currentQuery != null)
+					currentQuery.noMore();
+				state.setState(PSt.DESTROYED);
+				break;
+				
+			case	"failure":
+				currentQuery.noMore();
+				break;
+				
+			case	"stop":
+				currentQuery.noMore();
+				break;
+				
+			case	"error":
+				if(String.valueOf(PrologAnswer.arg(answer, 1)).contains("time_limit_exceeded")) {
+					timeLimitExceeded = true;
+					throw new SyntaxErrorException("the goal ran past its time limit on the server");
+				}
+				throw new SyntaxErrorException("Error - probably invalid Prolog query? " + 
+						String.valueOf(PrologAnswer.arg(answer, 1)));
+				
+			case	"output":
+				// same as the json format gives us
+				Term out = PrologAnswer.arg(answer, 1);
+				availOutput.add(out == null ? "" : out.toJson().toString());
+				break;
+				
+			case	"abort":
+				aborted();
+				break;
+				
+			case	"died":
+				// returned by pull_response if we're after the death
+				state.setState(PSt.DESTROYED);
+				break;
+				
+			default:
+				throw new SyntaxErrorException("Bad event in answer " + answer.toString());
+			}
+		} catch (PengineNotReadyException e) {
+			throw new SyntaxErrorException(e.getMessage());
+		}
+	}
+
 	/**
 	 * 
 	 */
@@ -366,9 +909,259 @@ public final class Pengine {
 		if(this.currentQuery != null)
 			throw new PengineNotReadyException("Have not extracted all answers from previous query (or stopped it)");
 		
-		this.currentQuery = new Query(this, query, true);
+		// doAsk makes it the current query. Don't set it here - if the ask's already over, it's been cleared
+		return new Query(this, query, true);
+	}
+	
+	/**
+	 * Ask a query, giving up if the first answers haven't come back in time.
+	 * 
+	 * If the builder has setServerTimeLimit, the server's told to stop the goal at the deadline too.
+	 * 
+	 * @param query   the Prolog query to be made
+	 * @param timeout how long to wait, or 0 for the builder's timeout
+	 * @param unit the unit of timeout
+	 * 
+	 * @return  a new Query object
+	 * 
+	 * @throws PengineTimeoutException if the deadline passed. The pengine is destroyed
+	 * @throws PengineNotReadyException if the pengine cannot construct the query (eg if it's been destroyed or the previous query is still active)
+	 */
+	public Query ask(String query, long timeout, TimeUnit unit) throws PengineNotReadyException {
+		long prev = setDeadline(unit.toNanos(timeout));
+		try {
+			return ask(query);
+		} finally {
+			restoreDeadline(prev);
+		}
+	}
+	
+	/**
+	 * Ask a query, but only send back some of its bindings.
+	 * 
+	 * Each item of the projection is a variable name, like Name, or Key=Term, like Emp=employee(Name, Pos).
+	 * The server sends only those, so big bindings we don't need never cross the wire. The proofs
+	 * have the projection's keys, in order.
+	 * 
+	 * @param query   the Prolog query to be made
+	 * @param projection   the variable names or Key=Term items to send back
+	 * 
+	 * @return  a new Query object
+	 * 
+	 * @throws PengineNotReadyException if the pengine cannot construct the query (eg if it's been destroyed or the previous query is still active),
+	 *   or if the projection isn't valid Prolog
+	 */
+	public Query ask(String query, String... projection) throws PengineNotReadyException {
+		state.must_be_in(PSt.IDLE);
+		
+		if(this.currentQuery != null)
+			throw new PengineNotReadyException("Have not extracted all answers from previous query (or stopped it)");
+		
+		String template;
+		try {
+			template = new Projection(projection).template(po.getFormat());
+		} catch (SyntaxErrorException e) {
+			throw new PengineNotReadyException(e.getMessage());
+		}
+		
+		Query q = new Query(this, query, false);
+		// doAsk makes q the current query
+		doAsk(q, query, template);
+		
+		return q;
+	}
+	
+	/**
+	 * Ask a query with its solutions paged, de-duplicated or sorted on the server.
+	 * 
+	 * @param query   the Prolog query to be made
+	 * @param options   the limit, offset, distinct and order to wrap the query in
+	 * 
+	 * @return  a new Query object
+	 * 
+	 * @throws PengineNotReadyException if the pengine cannot construct the query (eg if it's been destroyed or the previous query is still active)
+	 */
+	public Query ask(String query, QueryOptions options) throws PengineNotReadyException {
+		return ask(options.wrap(query));
+	}
+	
+	/**
+	 * Ask a query with its solutions paged, de-duplicated or sorted on the server, only sending back some of its 
+	 * bindings. See ask(String, String...)
+	 * 
+	 * @param query   the Prolog query to be made
+	 * @param options   the limit, offset, distinct and order to wrap the query in
+	 * @param projection   the variable names or Key=Term items to send back
+	 * 
+	 * @return  a new Query object
+	 * 
+	 * @throws PengineNotReadyException if the pengine cannot construct the query (eg if it's been destroyed or the previous query is still active),
+	 *   or if the projection isn't valid Prolog
+	 */
+	public Query ask(String query, QueryOptions options, String... projection) throws PengineNotReadyException {
+		return ask(options.wrap(query), projection);
+	}
+	
+	/**
+	 * Ask a prepared query, with values in place of its placeholders.
+	 * 
+	 * The goal was checked when it was prepared, and the values are written as Prolog terms
+	 * straight into the request, so nothing is read or quoted by hand here.
+	 * 
+	 * @param query the prepared query, from PengineBuilder.prepare
+	 * @param args the values for the query's placeholders, in order. See TermWriter.writeValue for how they're written
+	 * 
+	 * @return  a new Query object
+	 * 
+	 * @throws PengineNotReadyException if the pengine cannot construct the query (eg if it's been destroyed or the previous query is still active)
+	 * @throws IllegalArgumentException if there are the wrong number of values, or one can't be written as a Prolog term
+	 */
+	public Query ask(PreparedQuery query, Object... args) throws PengineNotReadyException {
+		state.must_be_in(PSt.IDLE);
+		
+		if(this.currentQuery != null)
+			throw new PengineNotReadyException("Have not extracted all answers from previous query (or stopped it)");
+		
+		goalBuffer.setLength(0);
+		query.appendTo(goalBuffer, args);
+		
+		Query q = new Query(this, query.getGoal(), false);
+		// doAsk makes q the current query
+		doAsk(q, goalBuffer, query.getTemplate(po.getFormat()));
+		
+		return q;
+	}
+	
+	/**
+	 * Count the solutions of a goal on the server, with aggregate_all(count, ...), so only the count
+	 * crosses the wire, in one round trip.
+	 * 
+	 * @param goal the goal
+	 * @return the number of solutions
+	 * 
+	 * @throws PengineNotReadyException if the pengine isn't idle, or the query fails
+	 */
+	public long count(String goal) throws PengineNotReadyException {
+		Proof proof = askOnce("aggregate_all(count, (" + goal + "), _AggregateCount)", "Count=_AggregateCount");
+		JsonValue v = proof == null ? null : proof.getValue("Count");
+		if(!(v instanceof JsonNumber))
+			throw new PengineNotAvailableException("cannot count the solutions of " + goal);
+		return ((JsonNumber)v).longValue();
+	}
+	
+	/**
+	 * Find out if a goal has a solution, with once/1, so the server stops at the first and none of its
+	 * bindings cross the wire.
+	 * 
+	 * @param goal the goal
+	 * @return true if it has a solution
+	 * 
+	 * @throws PengineNotReadyException if the pengine isn't idle, or the query fails
+	 */
+	public boolean exists(String goal) throws PengineNotReadyException {
+		return askOnce("once((" + goal + "))", "Found=true") != null;
+	}
+	
+	/**
+	 * Get the first solution of a goal, with once/1, so the server stops at the first.
+	 * 
+	 * @param goal the goal
+	 * @param projection the variable names or Key=Term items to send back, or none for all the bindings.
+	 *   See ask(String, String...)
+	 * @return the first solution, or null if there isn't one
+	 * 
+	 * @throws PengineNotReadyException if the pengine isn't idle, or the query fails
+	 */
+	public Proof first(String goal, String... projection) throws PengineNotReadyException {
+		return askOnce("once((" + goal + "))", projection);
+	}
+	
+	/**
+	 * Get every solution of a goal as one list, with findall/3, in one round trip
+	 * whatever the chunk size.
+	 * 
+	 * @param goal the goal
+	 * @param template the term to collect for each solution, eg X or X-Y
+	 * @return the instances of the template, in the order the goal found them
+	 * 
+	 * @throws PengineNotReadyException if the pengine isn't idle, or the query fails
+	 */
+	public List<Term> collectAll(String goal, String template) throws PengineNotReadyException {
+		Proof proof = askOnce("findall(" + template + ", (" + goal + "), _AggregateAll)", "All=_AggregateAll");
+		Term all = proof == null ? null : proof.getTerm("All");
+		if(!(all instanceof ListTerm))
+			throw new PengineNotAvailableException("cannot collect the solutions of " + goal);
+		return ((ListTerm)all).getElements();
+	}
+	
+	/**
+	 * ask a goal with at most one solution, and get it
+	 * 
+	 * @return the solution, or null if it failed
+	 */
+	private Proof askOnce(String goal, String... projection) throws PengineNotReadyException {
+		Query q = projection.length == 0 ? ask(goal) : ask(goal, projection);
+		Proof proof = q.next(0, TimeUnit.MILLISECONDS);
+		if(q.hasNext() && !isDestroyed())
+			q.stop();
+		return proof;
+	}
+	
+	/**
+	 * Assert a stream of facts in this pengine, in batches of many facts per request.
+	 * 
+	 * Each batch is written straight from the iterator into the request, so the facts are never all in memory,
+	 * unlike putting them in src_text. The batch size is set by PengineBuilder.setLoadBatchSize and 
+	 * setLoadBatchLength. 
+	 * 
+	 * The pengine has to outlive its queries (PengineBuilder.setDestroy(false)). The facts go in this pengine's
+	 * own module, unless the functor is module qualified - the sandbox only allows that if the server application
+	 * declares the predicate safe to assert, see PenginePool.loadFacts. To load in parallel over several pengines, 
+	 * see PenginePool.loadFacts.
+	 * 
+	 * @param functor the name of the facts, eg employee. Each array of arguments makes one employee(...) fact
+	 * @param facts the arguments of each fact. Values are written as in TermWriter.writeValue
+	 * @return how much was loaded, and how fast
+	 * 
+	 * @throws PengineNotReadyException if the pengine isn't idle, would be destroyed by the first batch, or a batch fails.
+	 *   Batches sent before the failure stay loaded
+	 * @throws IllegalArgumentException if a value can't be written as a Prolog term
+	 */
+	public LoadReport loadFacts(String functor, Iterator<Object[]> facts) throws PengineNotReadyException {
+		if(po.isDestroy())
+			throw new PengineNotReadyException("loadFacts needs a pengine that isn't destroyed after its first query - setDestroy(false)");
+		
+		long start = System.nanoTime();
+		FactBatcher batcher = new FactBatcher(functor, facts, po.getLoadBatchSize(), po.getLoadBatchLength());
+		int batches = 0;
+		long bytes = 0;
+		while(batcher.next(goalBuffer) > 0) {
+			bytes += loadBatch(goalBuffer);
+			batches++;
+		}
+		return new LoadReport(batcher.getCount(), batches, bytes, System.nanoTime() - start);
+	}
+	
+	/**
+	 * Send one batch of a fact load and wait for it to be done
+	 * 
+	 * @param goal the goal that asserts the batch
+	 * @return the size of the request body, in bytes
+	 * 
+	 * @throws PengineNotReadyException if the pengine isn't idle, or the batch fails
+	 */
+	int loadBatch(CharSequence goal) throws PengineNotReadyException {
+		state.must_be_in(PSt.IDLE);
+		
+		Query q = new Query(this, "loadFacts", false);
+		doAsk(q, goal, po.getEmptyTemplate());
+		int bytes = requestBuffer.length();
 		
-		return this.currentQuery;
+		if(q.next() == null)
+			throw new PengineNotAvailableException("loading a batch of facts failed");
+		while(q.hasNext())
+			q.next();
+		return bytes;
 	}
 	
 	/**
@@ -383,26 +1176,91 @@ public final class Pengine {
 	 * 
 	 */
 	void doAsk(Query query, String ask) throws PengineNotReadyException {
-		state.must_be_in(PSt.IDLE);
-		if(currentQuery == null)
-			this.currentQuery = query;		
-		else
-			throw new PengineNotReadyException("You already have a query in process");
+		String template = null;
+		if(po.getFormat() == AnswerFormat.PROLOG) {
+			try {
+				template = PrologAnswer.bindingsTemplate(ask);
+			} catch (SyntaxErrorException e) {
+				throw new PengineNotReadyException(e.getMessage());
+			}
+		}
 		
-		state.setState(PSt.ASK);
+		doAsk(query, ask, template);
+	}
+	
+	/**
+	 * @param query The Query object
+	 * @param ask  The Prolog query
+	 * @param template the template option, or null to leave it to the server
+	 * 
+	 * @throws PengineNotReadyException if we have a query in process, the pengine's destroyed, etc
+	 */
+	private void doAsk(Query query, CharSequence ask, String template) throws PengineNotReadyException {
+		conversation.lock();
 		try {
-			JsonObject answer =  penginePost(
-					po.getActualURL("send", this.getID()),
-					"application/x-prolog; charset=UTF-8",
-					po.getRequestBodyAsk(this.getID(), ask, po.getChunk()));
+			state.must_be_in(PSt.IDLE);
+			if(currentQuery != null)
+				throw new PengineNotReadyException("You already have a query in process");
 			
-			handleAnswer(answer);
+			this.currentQuery = query;
+			state.setState(PSt.ASK);
+			po.encodeAsk(requestBuffer, ask, template, po.getChunk(), po.timeLimit(remainingTime()));
+			send(Recorder.ASK, po.getChunk(), sendURL, requestBuffer);
 		} catch (IOException e) {
-			state.destroy();
-			throw new PengineNotAvailableException(e.getMessage());
+			throw failed(e);
 		} catch(SyntaxErrorException e) {
+			throw failed(e);
+		} finally {
+			conversation.unlock();
+		}
+	}
+	
+	/**
+	 * @return System.nanoTime() of our last request to the server
+	 */
+	long getLastUsed() {
+		return lastUsed;
+	}
+	
+	/**
+	 * Send a trivial query, so the server doesn't destroy us for being idle. 
+	 * Does nothing if we're in the middle of something, which keeps us alive anyway.
+	 * 
+	 * The answer isn't handed to a Query - the pengine's state never changes, unless it's gone.
+	 * 
+	 * @return true if the query was sent
+	 * @throws PengineNotAvailableException if the pengine's gone from the server. It's destroyed
+	 */
+	boolean keepAlive() throws PengineNotAvailableException {
+		if(!conversation.tryLock())
+			return false;
+		
+		try {
+			if(!state.isIn(PSt.IDLE) || currentQuery != null)
+				return false;
+			
+			byte[] body = po.getKeepAliveBody();
+			Object event = beginRequest();
+			try {
+				String resp = penginePost(sendURL, PengineConfig.CONTENT_TYPE_PROLOG, body, body.length, TEXT_RESPONSE);
+				// "success" in both formats
+				if(!resp.contains("success")) {
+					state.destroy();
+					throw new PengineNotAvailableException("keepalive got " + resp);
+				}
+				answered("success");
+				return true;
+			} finally {
+				endRequest(event, Recorder.KEEPALIVE, sendURL, 0, body.length);
+			}
+		} catch (CircuitBreaker.OpenException e) {
+			// not sent - we'll try again next time round
+			return false;
+		} catch (IOException e) {
 			state.destroy();
 			throw new PengineNotAvailableException(e.getMessage());
+		} finally {
+			conversation.unlock();
 		}
 	}
 
@@ -435,26 +1293,87 @@ public final class Pengine {
 	 * 
 	 */
 	void doNext(Query query) throws PengineNotReadyException {
+		doNext(query, 0);
+	}
+
+	/**
+	 * Perform the next protocol, asking for up to chunk answers
+	 * 
+	 * @param query The Query in process
+	 * @param chunk the number of answers to fetch, or 0 to use the chunk size the query was asked with
+	 * 
+	 * @throws PengineNotReadyException if the pengine's dead or processing a different query
+	 * 
+	 */
+	void doNext(Query query, int chunk) throws PengineNotReadyException {
 		state.must_be_in(PSt.ASK);
 		if(!query.equals(currentQuery)) {
 			throw new PengineNotReadyException("Cannot advance more than one query - finish one before starting next");
 		}
 		
 		try {
-			JsonObject respObject =  penginePost(
-					po.getActualURL("send", this.getID()),
-					"application/x-prolog; charset=UTF-8",
-					po.getRequestBodyNext());
-			
-			handleAnswer(respObject);
+			if(chunk > 0) {
+				po.encodeNext(requestBuffer, chunk);
+				send(Recorder.NEXT, chunk, sendURL, requestBuffer);
+			} else {
+				send(Recorder.NEXT, 0, sendURL, PengineConfig.BODY_NEXT);
+			}
 		} catch (IOException e) {
-			state.destroy();
-			throw new PengineNotAvailableException(e.getMessage());
+			throw failed(e);
 		} catch(SyntaxErrorException e) {
-			state.destroy();
-			throw new PengineNotAvailableException(e.getMessage());
+			throw failed(e);
+		}
+	}
+
+	/**
+	 * Perform the next protocol, putting the answers straight into columns. 
+	 * Only for the json format - there's nothing to gain with the prolog format,
+	 * which is parsed into terms either way.
+	 * 
+	 * @param query The Query in process
+	 * @param chunk the number of answers to fetch
+	 * @param columns where the answers go
+	 * 
+	 * @throws PengineNotReadyException if the pengine's dead or processing a different query
+	 */
+	void doNextColumns(Query query, int chunk, final ResultColumns columns) throws PengineNotReadyException {
+		state.must_be_in(PSt.ASK);
+		if(!query.equals(currentQuery)) {
+			throw new PengineNotReadyException("Cannot advance more than one query - finish one before starting next");
+		}
+		
+		po.encodeNext(requestBuffer, chunk);
+		Object event = beginRequest();
+		int before = columns.size();
+		try {
+			handleAnswer(penginePost(sendURL, PengineConfig.CONTENT_TYPE_PROLOG, 
+					requestBuffer.array(), requestBuffer.length(), 
+					new ResponseReader<JsonObject>() {
+						@Override
+						public JsonObject read(InputStream in) throws IOException {
+							try (JsonParser parser = jsonParserFactory.createParser(in, StandardCharsets.UTF_8)) {
+								return ColumnarAnswer.read(parser, columns);
+							}
+						}
+					}));
+		} catch (IOException e) {
+			throw failed(e);
+		} catch(SyntaxErrorException e) {
+			throw failed(e);
+		} finally {
+			if(event != null) {
+				answerProofs += columns.size() - before;
+				endRequest(event, Recorder.NEXT, sendURL, chunk, requestBuffer.length());
+			}
 		}
 	}
+	
+	/**
+	 * @return the format answers come in
+	 */
+	AnswerFormat getFormat() {
+		return po.getFormat();
+	}
 
 	/**
 	 * 
@@ -481,15 +1400,14 @@ public final class Pengine {
 			return;
 		}
 			
-		state.must_be_in(PSt.ASK, PSt.IDLE);
-		
+		conversation.lock();
 		try {
-			JsonObject respObject =  penginePost(
-					po.getActualURL("send", this.getID()),
-					"application/x-prolog; charset=UTF-8",
-					po.getRequestBodyDestroy());
+			if(state.isIn(PSt.DESTROYED))
+				return;
+			state.must_be_in(PSt.ASK, PSt.IDLE);
+			
+			send(Recorder.DESTROY, 0, sendURL, PengineConfig.BODY_DESTROY);
 			
-			handleAnswer(respObject);
 		} catch (IOException e) {
 			// for various reasons the pengine can be already destroyed. We ignore the errors
 			
@@ -498,10 +1416,156 @@ public final class Pengine {
 		} catch(SyntaxErrorException e) {
 			//e.printStackTrace();
 			//throw new PengineNotAvailableException(e.getMessage());
-		} catch (PengineNotReadyException e) {
-			//e.printStackTrace();
 		} finally {
 			state.destroy();
+			conversation.unlock();
+			PengineRegistry registry = po.getRegistry();
+			if(registry != null)
+				registry.remove(pengineID);
+		}
+	}
+	
+	/**
+	 * Abort the current query at once, even if the server's in the middle of working on it - 
+	 * like ctrl-c in the interactor. Unlike Query.stop, which the server only sees after the current
+	 * answer, this stops a runaway goal.
+	 * 
+	 * Call it from another thread than the one waiting on the query. The abort goes on its own connection.
+	 * The waiting request gets the server's abort event, or if it hasn't after a couple of seconds,
+	 * its connection is closed. Either way the query is finished and any pending output is thrown away.
+	 * The pengine is then idle and can be asked again, or destroyed if it's destroyed at the end of its query.
+	 * The thread waiting on the query sees the end of its answers (from Query.next()) or a PengineNotReadyException. 
+	 * 
+	 * If the request in flight finishes with an answer before the abort reaches it, the answer's delivered as usual
+	 * and the query isn't finished here - it ends when a later request gets the server's abort event, or carries on
+	 * if the server had nothing left to abort. Call Query.stop to be sure it's over.
+	 * 
+	 * If no request is in flight, the query is just stopped.
+	 * 
+	 * @throws PengineNotAvailableException if the abort can't be sent. The pengine is destroyed
+	 */
+	public void abort() throws PengineNotReadyException {
+		availOutput.clear();
+		Query q = currentQuery;
+		if(q == null || !state.isIn(PSt.ASK))
+			return;
+		
+		HttpURLConnection con = activeConnection;
+		if(con == null) {
+			// the server's waiting for us, so stop is enough
+			q.stop();
+			return;
+		}
+		
+		aborting = true;
+		try {
+			URL abortURL = po.pengineURL("abort", pengineID);
+			HttpURLConnection ac = (HttpURLConnection)abortURL.openConnection();
+			int millis = po.getTimeoutNanos() > 0 ? (int)Math.min(Integer.MAX_VALUE, po.getTimeoutNanos() / 1000000L) : Reaper.TIMEOUT;
+			ac.setConnectTimeout(millis);
+			ac.setReadTimeout(millis);
+			ac.setRequestProperty("User-Agent", "JavaPengine");
+			ac.setRequestProperty("Accept", po.getAccept());
+			int responseCode = ac.getResponseCode();
+			if(responseCode < 200 || responseCode > 299)
+				throw new IOException("bad response code to abort " + Integer.toString(responseCode));
+			TEXT_RESPONSE.read(ac.getInputStream());
+			
+			// give the request in flight the chance to get the abort event, so the server and we agree where we are
+			long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ABORT_GRACE);
+			synchronized(requestDone) {
+				for(long left = end - System.nanoTime() ; activeConnection == con && left > 0 ; left = end - System.nanoTime())
+					requestDone.wait(Math.max(1, left / 1000000L));
+			}
+		} catch (IOException e) {
+			state.destroy();
+			Reaper.destroyLater(tracked);
+			throw new PengineNotAvailableException("could not abort " + e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			// still waiting - close it, and tell its request why
+			if(activeConnection == con) {
+				abortedConnection = con;
+				con.disconnect();
+			}
+			aborting = false;
+		}
+	}
+	
+	/**
+	 * the server's aborted the current query, or we've given up waiting to hear it has.
+	 * If the pengine's destroyed at the end of its query, the server's abort comes inside a destroy event
+	 */
+	private void aborted() {
+		aborting = false;
+		abortedConnection = null;
+		availOutput.clear();
+		Query q = currentQuery;
+		if(q != null) {
+			q.succeeded();
+			q.noMore();
+		}
+	}
+	
+	/**
+	 * Destroy the pengine without waiting for the server. 
+	 * 
+	 * The pengine is destroyed here at once, and a background thread tells the server,
+	 * along with any other pengines destroyed about the same time.
+	 */
+	public void destroyAsync() {
+		if(state.isIn(PSt.DESTROYED))
+			return;
+		
+		if(state.isIn(PSt.NOT_CREATED)) {
+			state.destroy();
+			return;
+		}
+		
+		conversation.lock();
+		try {
+			if(state.isIn(PSt.DESTROYED))
+				return;
+			state.destroy();
+			Reaper.destroyLater(tracked);
+		} finally {
+			conversation.unlock();
+		}
+	}
+	
+	/**
+	 * Destroy every pengine this JVM has made that isn't destroyed yet, using each server's 
+	 * destroy_all. Waits until the servers have been told.
+	 * 
+	 * This is also done by a shutdown hook when the JVM exits.
+	 */
+	public static void destroyAll() {
+		Reaper.destroyAll();
+	}
+	
+	/**
+	 * A pengine that's garbage collected without being destroyed is reported on System.err, with 
+	 * where it was made, and destroyed.
+	 * 
+	 * @return how many pengines have been garbage collected without being destroyed
+	 */
+	public static long getLeaked() {
+		return Reaper.getLeaks();
+	}
+	
+	/**
+	 * Destroy the pengine, giving up on telling the server if it takes longer than timeout.
+	 * 
+	 * @param timeout how long to wait, or 0 for the builder's timeout
+	 * @param unit the unit of timeout
+	 */
+	public void destroy(long timeout, TimeUnit unit) {
+		long prev = setDeadline(unit.toNanos(timeout));
+		try {
+			destroy();
+		} finally {
+			restoreDeadline(prev);
 		}
 	}
 	
@@ -518,18 +1582,12 @@ public final class Pengine {
 		state.must_be_in(PSt.ASK);
 		
 		try {
-			JsonObject respObject =  penginePost(
-					po.getActualURL("send", this.getID()),
-					"application/x-prolog; charset=UTF-8",
-					po.getRequestBodyStop());
+			send(Recorder.STOP, 0, sendURL, PengineConfig.BODY_STOP);
 			
-			handleAnswer(respObject); // we might destroy it
 		} catch (IOException e) {
-			state.destroy();
-			throw new PengineNotAvailableException(e.getMessage());
+			throw failed(e);
 		} catch(SyntaxErrorException e) {
-			state.destroy();
-			throw new PengineNotAvailableException(e.getMessage());
+			throw failed(e);
 		}
 	}
 
@@ -545,18 +1603,12 @@ public final class Pengine {
 			return;
 		
 		try {
-			JsonObject respObject =  penginePost(
-					po.getActualURL("pull_response", this.getID()),
-					"application/x-prolog; charset=UTF-8",
-					po.getRequestBodyPullResponse());
+			send(Recorder.PULL_RESPONSE, 0, pullResponseURL, PengineConfig.BODY_PULL_RESPONSE);
 			
-			handleAnswer(respObject); // we might destroy it
 		} catch (IOException e) {
-			state.destroy();
-			throw new PengineNotAvailableException(e.getMessage());
+			throw failed(e);
 		} catch(SyntaxErrorException e) {
-			state.destroy();
-			throw new PengineNotAvailableException(e.getMessage());
+			throw failed(e);
 		}
 	}
 
@@ -1,18 +1,24 @@
 package com.simularity.os.javapengine;
 
+import java.io.File;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import javax.json.Json;
 import javax.json.JsonBuilderFactory;
 import javax.json.JsonObjectBuilder;
 
 import com.simularity.os.javapengine.exception.CouldNotCreateException;
+import com.simularity.os.javapengine.exception.PengineNotAvailableException;
 import com.simularity.os.javapengine.exception.PengineNotReadyException;
+import com.simularity.os.javapengine.exception.SyntaxErrorException;
 
 /*
  * Copyright (c) 2016 Simularity Inc.
@@ -57,15 +63,29 @@ THE SOFTWARE.
  *
  */
 public final class PengineBuilder implements Cloneable {
+	private static final JsonBuilderFactory jsonBuilderFactory = Json.createBuilderFactory(null);
+	
 	private URL server = null;
+	private URL[] replicas = new URL[0];
 	private String application = "pengine_sandbox";
 	private String ask = null;
 	private int chunk = 1;
 	private boolean destroy = true;
 	private String srctext = null;
 	private URL srcurl = null;
-	private final String format = "json";
+	private AnswerFormat format = AnswerFormat.JSON;
+	private String[] projection = null;
+	private int loadBatchSize = 1000;
+	private int loadBatchLength = 1000000;
+	private long resultHeapBudget = 0;
+	private File spillDirectory = null;
 	private String alias = null;
+	private long timeout = 0;
+	private boolean serverTimeLimit = false;
+	private long keepAlive = 0;
+	private TrafficLog trafficLog = null;
+	private boolean circuitBreaker = false;
+	private PengineRegistry registry = null;
 	
 	
 	/**
@@ -139,7 +159,7 @@ public final class PengineBuilder implements Cloneable {
 			
 			URI relative;
 			try {
-				relative = new URI("/pengine/" + action + "?format=json&id=" + URLEncoder.encode(id, "UTF-8"));
+				relative = new URI("/pengine/" + action + "?format=" + format.getFormatName() + "&id=" + URLEncoder.encode(id, "UTF-8"));
 			} catch (UnsupportedEncodingException e) {
 				// stupid checked exception
 				e.printStackTrace();
@@ -161,8 +181,24 @@ public final class PengineBuilder implements Cloneable {
 	 * @return a string representation of the request body for the create action
 	 */
 	synchronized String getRequestBodyCreate() {
-		JsonBuilderFactory factory = Json.createBuilderFactory(null);
-		JsonObjectBuilder job = factory.createObjectBuilder();
+		return getRequestBodyCreate(null);
+	}
+	
+	/**
+	 * @param template the template for the ask, or null to let the server use its default
+	 * @return a string representation of the request body for the create action
+	 */
+	synchronized String getRequestBodyCreate(String template) {
+		return getRequestBodyCreate(template, null);
+	}
+	
+	/**
+	 * @param template the template for the ask, or null to let the server use its default
+	 * @param timeLimit seconds, the time limit to run the ask with, or null for none
+	 * @return a string representation of the request body for the create action
+	 */
+	synchronized String getRequestBodyCreate(String template, String timeLimit) {
+		JsonObjectBuilder job = jsonBuilderFactory.createObjectBuilder();
 		
 		if(!this.destroy) {
 			job.add("destroy", "false");
@@ -170,7 +206,10 @@ public final class PengineBuilder implements Cloneable {
 		if(this.chunk > 1) {
 			job.add("chunk", this.chunk);
 		}
-		job.add("format", this.format);
+		job.add("format", this.format.getFormatName());
+		if(this.application != null) {
+			job.add("application", this.application);
+		}
 
 		if(this.srctext != null) {
 			job.add("src_text", this.srctext);
@@ -180,7 +219,13 @@ public final class PengineBuilder implements Cloneable {
 		}
 		
 		if(this.ask != null) {
-			job.add("ask", this.ask);
+			if(timeLimit != null)
+				job.add("ask", "call_with_time_limit(" + timeLimit + ",(" + this.ask + "))");
+			else
+				job.add("ask", this.ask);
+			if(template != null) {
+				job.add("template", template);
+			}
 		}
 		
 		return job.build().toString();
@@ -210,6 +255,27 @@ public final class PengineBuilder implements Cloneable {
 		return server;
 	}
 
+	/**
+	 * Set other servers that serve the same application, for Hedger to send a query to
+	 * when the server is slow.
+	 * 
+	 * @param urlstrings the replica server URLs, like the server's. None for no replicas
+	 * @throws MalformedURLException if one isn't a URL
+	 */
+	synchronized public void setReplicas(String... urlstrings) throws MalformedURLException {
+		URL[] urls = new URL[urlstrings.length];
+		for(int i = 0 ; i < urls.length ; i++)
+			urls[i] = new URL(urlstrings[i]);
+		this.replicas = urls;
+	}
+
+	/**
+	 * @return the replica servers, maybe none
+	 */
+	public URL[] getReplicas() {
+		return replicas.clone();
+	}
+
 
 	/**
 	 * A pengine server can have different applications with different exposed API's
@@ -221,7 +287,11 @@ public final class PengineBuilder implements Cloneable {
 	}
 
 	/**
-	 * @param application the application to set
+	 * Make the pengines in a server application. An application is a module of code loaded, and compiled, 
+	 * on the server when it starts (pengine_application/1 in SWI-Prolog), so a pengine made in it 
+	 * has its knowledgebase at once, without sending src_text and compiling it on every create.
+	 * 
+	 * @param application the application's name, pengine_sandbox by default, or null to let the server choose
 	 */
 	synchronized public void setApplication(String application) {
 		this.application = application;
@@ -297,6 +367,118 @@ public final class PengineBuilder implements Cloneable {
 		this.srcurl = srcurl;
 	}
 
+	/**
+	 * @return the format answers are sent in
+	 */
+	public AnswerFormat getFormat() {
+		return format;
+	}
+
+	/**
+	 * Set the format the server sends answers in. The default is {@link AnswerFormat#JSON}.
+	 * 
+	 * With {@link AnswerFormat#PROLOG} answers keep their term structure and are
+	 * available from {@link Proof#getTerm(String)}. The client has to read each goal to find its
+	 * variables, so goals must only use SWI-Prolog's default operators.
+	 * 
+	 * @param format the answer format
+	 */
+	synchronized public void setFormat(AnswerFormat format) {
+		this.format = format;
+	}
+
+	/**
+	 * @return the most facts Pengine.loadFacts sends in one request
+	 */
+	public int getLoadBatchSize() {
+		return loadBatchSize;
+	}
+
+	/**
+	 * @param loadBatchSize the most facts Pengine.loadFacts sends in one request - defaults to 1000
+	 */
+	synchronized public void setLoadBatchSize(int loadBatchSize) {
+		if(loadBatchSize < 1)
+			throw new IllegalArgumentException("load batch size must be at least 1");
+		this.loadBatchSize = loadBatchSize;
+	}
+
+	/**
+	 * @return the length, in characters of Prolog text, at which Pengine.loadFacts ends a batch
+	 */
+	public int getLoadBatchLength() {
+		return loadBatchLength;
+	}
+
+	/**
+	 * Bound the size of the requests Pengine.loadFacts makes, so big facts don't make huge requests.
+	 * A batch ends at whichever of this and the load batch size comes first.
+	 * 
+	 * @param loadBatchLength the length, in characters of Prolog text, at which a batch is ended - defaults to a million
+	 */
+	synchronized public void setLoadBatchLength(int loadBatchLength) {
+		if(loadBatchLength < 1)
+			throw new IllegalArgumentException("load batch length must be at least 1");
+		this.loadBatchLength = loadBatchLength;
+	}
+
+	/**
+	 * @return the estimated bytes of received proofs a query keeps on the heap, or 0 for no limit
+	 */
+	public long getResultHeapBudget() {
+		return resultHeapBudget;
+	}
+
+	/**
+	 * Bound the memory a query uses for proofs it's received but that haven't been consumed yet.
+	 * Past the budget, proofs are written to a memory mapped temp file and read back as they're needed,
+	 * so a big chunk size (or a slow consumer) doesn't have to fit in the heap.
+	 * The file is deleted when the query's finished or stopped.
+	 * 
+	 * The size of a proof is estimated, not measured.
+	 * 
+	 * @param resultHeapBudget the budget in bytes, or 0 (the default) to keep every proof on the heap
+	 */
+	synchronized public void setResultHeapBudget(long resultHeapBudget) {
+		if(resultHeapBudget < 0)
+			throw new IllegalArgumentException("result heap budget can't be negative");
+		this.resultHeapBudget = resultHeapBudget;
+	}
+
+	/**
+	 * @return the directory spill files are made in, or null for the default temp directory
+	 */
+	public File getSpillDirectory() {
+		return spillDirectory;
+	}
+
+	/**
+	 * @param spillDirectory the directory to make spill files in, or null (the default) for java.io.tmpdir
+	 * @see #setResultHeapBudget(long)
+	 */
+	synchronized public void setSpillDirectory(File spillDirectory) {
+		this.spillDirectory = spillDirectory;
+	}
+
+	/**
+	 * @return the projection for the query sent along with the create, or null if it gets all the bindings
+	 */
+	public String[] getProjection() {
+		return projection == null ? null : projection.clone();
+	}
+
+	/**
+	 * Only send back some of the bindings of the query sent along with the create.
+	 * 
+	 * Each item is a variable name, like Name, or Key=Term, like Emp=employee(Name, Pos).
+	 * The proofs have just those keys. See Pengine.ask(String, String...)
+	 * 
+	 * @param projection the items, or null to get all the bindings
+	 */
+	synchronized public void setProjection(String... projection) {
+		this.projection = projection == null ? null : projection.clone();
+	}
+
 	/**
 	 * @return the alias or null
 	 */
@@ -311,8 +493,234 @@ public final class PengineBuilder implements Cloneable {
 		this.alias = alias;
 	}
 
+	/**
+	 * @return the deadline for each request to the server, in milliseconds, or 0 for none
+	 */
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Set the default deadline for each request to the server - create, ask, next, stop, destroy. 
+	 * It's used as the socket connect and read timeouts. Calls that take a timeout, like 
+	 * Pengine.ask(String, long, TimeUnit), use theirs instead.
+	 * 
+	 * A request that runs out of time throws PengineTimeoutException, and the pengine is destroyed.
+	 * 
+	 * @param timeout the deadline, or 0 (the default) to wait as long as it takes
+	 * @param unit the unit of timeout
+	 */
+	synchronized public void setTimeout(long timeout, TimeUnit unit) {
+		if(timeout < 0)
+			throw new IllegalArgumentException("timeout can't be negative");
+		this.timeout = unit.toMillis(timeout);
+		if(timeout > 0 && this.timeout == 0)
+			this.timeout = 1;
+	}
+
+	/**
+	 * @return true if asks with a deadline are sent with it as a time limit on the goal
+	 */
+	public boolean isServerTimeLimit() {
+		return serverTimeLimit;
+	}
+
+	/**
+	 * Also send the deadline of an ask to the server, as call_with_time_limit(Seconds, Goal), so
+	 * the server stops working on the goal when we stop waiting for it. 
+	 * 
+	 * call_with_time_limit runs the goal as once/1, so only use this for queries with a single 
+	 * answer - aggregate_all, findall and the like - or you'll only get the first.
+	 * 
+	 * @param serverTimeLimit true to send the time limit, false (the default) to only time out here
+	 */
+	synchronized public void setServerTimeLimit(boolean serverTimeLimit) {
+		this.serverTimeLimit = serverTimeLimit;
+	}
+
+	/**
+	 * @return how long a pengine can be idle before it's kept alive, in milliseconds, or 0 if it isn't
+	 */
+	public long getKeepAlive() {
+		return keepAlive;
+	}
+
+	/**
+	 * Keep pengines that outlive their queries (setDestroy(false)) from being destroyed by the server
+	 * when they're idle. A pengine that hasn't talked to the server for interval is sent a trivial query.
+	 * All pengines share one scheduler - see {@link KeepAlive} for how many were sent and lost.
+	 * 
+	 * Make the interval comfortably less than the server's idle limit (300 seconds by default in SWI-Prolog).
+	 * 
+	 * @param interval how long a pengine can be idle, or 0 (the default) to not keep pengines alive
+	 * @param unit the unit of interval
+	 */
+	synchronized public void setKeepAlive(long interval, TimeUnit unit) {
+		if(interval < 0)
+			throw new IllegalArgumentException("keepalive interval can't be negative");
+		this.keepAlive = unit.toMillis(interval);
+		if(interval > 0 && this.keepAlive == 0)
+			this.keepAlive = 1;
+	}
+
+	/**
+	 * @return the log requests are recorded to, or null if they aren't
+	 */
+	public TrafficLog getTrafficLog() {
+		return trafficLog;
+	}
+
+	/**
+	 * Record every request the pengines send, and the responses, to replay later with tools.ReplayServer.
+	 * Clones of this builder share the log.
+	 * 
+	 * @param trafficLog the log to record to, or null (the default) to not record
+	 */
+	synchronized public void setTrafficLog(TrafficLog trafficLog) {
+		this.trafficLog = trafficLog;
+	}
+
+	/**
+	 * @return true if requests go through the server's circuit breaker
+	 */
+	public boolean isCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	/**
+	 * Send requests through the server's {@link CircuitBreaker}, shared with every other pengine that does,
+	 * so they fail at once with CircuitOpenException while the server's failing instead of each retrying 
+	 * and timing out. Set the thresholds with CircuitBreaker.forServer.
+	 * 
+	 * @param circuitBreaker true to use the breaker, false (the default) to not
+	 */
+	synchronized public void setCircuitBreaker(boolean circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	/**
+	 * @return the registry persistent pengines are kept in, or null
+	 */
+	public PengineRegistry getRegistry() {
+		return registry;
+	}
+
+	/**
+	 * Keep the pengines this builder makes in a registry, so they can be reattached after a restart.
+	 * Only pengines that aren't destroyed at the end of their query (setDestroy(false)) are kept. 
+	 * Clones of this builder share the registry.
+	 * 
+	 * @param registry the registry, or null (the default) to not keep them
+	 */
+	synchronized public void setRegistry(PengineRegistry registry) {
+		this.registry = registry;
+	}
+
 	synchronized public Pengine newPengine() throws CouldNotCreateException {
-		return new Pengine(this);
+		return new Pengine(this, 0);
+	}
+
+	/**
+	 * Make a pengine, giving up if the server hasn't made it in time. If the builder has an ask,
+	 * the deadline covers its first answers too.
+	 * 
+	 * @param timeout how long to wait, or 0 for the builder's timeout
+	 * @param unit the unit of timeout
+	 * @return the new pengine
+	 * @throws CouldNotCreateException if the pengine can't be made. If it timed out, the cause is a PengineTimeoutException
+	 */
+	synchronized public Pengine newPengine(long timeout, TimeUnit unit) throws CouldNotCreateException {
+		return new Pengine(this, unit.toNanos(timeout));
+	}
+	
+	/**
+	 * Run independent goals at once, on as many pengines as the server's slave_limit allows, 
+	 * reusing them from goal to goal. See FanOut.
+	 * 
+	 * <pre>
+	 * FanOut f = builder.invokeAll(goals, true);
+	 * try {
+	 *     for(FanOut.Result r = f.next() ; r != null ; r = f.next())
+	 *         ...
+	 * } finally {
+	 *     f.close();
+	 * }
+	 * </pre>
+	 * 
+	 * @param goals the goals
+	 * @param cancelOnFailure true to stop running the goals when one throws
+	 * @return the goals' results, in the order they finish
+	 * 
+	 * @throws PengineNotReadyException if the builder can't be cloned
+	 */
+	public FanOut invokeAll(List<String> goals, boolean cancelOnFailure) throws PengineNotReadyException {
+		return new FanOut(this, goals, cancelOnFailure);
+	}
+	
+	/**
+	 * Run independent goals at once, as invokeAll does, and get the first to succeed. The rest are stopped.
+	 * 
+	 * @param goals the goals
+	 * @return the result of the first goal to finish with at least one solution, or null if none did
+	 * 
+	 * @throws PengineNotReadyException if every goal threw - this is the first one's exception
+	 * @throws CouldNotCreateException if every goal threw and the first couldn't make its pengine
+	 */
+	public FanOut.Result invokeAny(List<String> goals) throws PengineNotReadyException, CouldNotCreateException {
+		FanOut f = new FanOut(this, goals, false);
+		Exception failure = null;
+		boolean answered = false;
+		try {
+			for(FanOut.Result r = f.next() ; r != null ; r = f.next()) {
+				if(r.isFailed()) {
+					if(failure == null)
+						failure = r.getFailure();
+				} else if(!r.getProofs().isEmpty()) {
+					return r;
+				} else {
+					answered = true;
+				}
+			}
+		} finally {
+			f.close();
+		}
+		
+		if(answered || failure == null)
+			return null;
+		if(failure instanceof PengineNotReadyException)
+			throw (PengineNotReadyException)failure;
+		if(failure instanceof CouldNotCreateException)
+			throw (CouldNotCreateException)failure;
+		throw new PengineNotAvailableException("goal failed " + failure.toString());
+	}
+	
+	/**
+	 * Prepare a goal with ? placeholders for values, like employee(?, Name, Position).
+	 * 
+	 * The goal is read here, so a syntax error shows up now, not as a server error on every ask.
+	 * Ask it with Pengine.ask(PreparedQuery, Object...)
+	 * 
+	 * @param goal the Prolog goal, with a ? in place of each value
+	 * @return the prepared query
+	 * 
+	 * @throws SyntaxErrorException if the goal isn't valid Prolog
+	 */
+	public static PreparedQuery prepare(String goal) throws SyntaxErrorException {
+		return new PreparedQuery(goal, null);
+	}
+	
+	/**
+	 * Prepare a goal with ? placeholders, that only sends back some of its bindings.
+	 * See Pengine.ask(String, String...) for the projection
+	 * 
+	 * @param goal the Prolog goal, with a ? in place of each value
+	 * @param projection variable names or Key=Term items
+	 * @return the prepared query
+	 * 
+	 * @throws SyntaxErrorException if the goal or the projection isn't valid Prolog
+	 */
+	public static PreparedQuery prepare(String goal, String... projection) throws SyntaxErrorException {
+		return new PreparedQuery(goal, new Projection(projection));
 	}
 
 	/**
@@ -341,6 +749,33 @@ public final class PengineBuilder implements Cloneable {
 		return sb.toString();
 	}
 
+	/**
+	 * return the POST body for a /pengines/ask request of ask, with its solutions paged, de-duplicated
+	 * or sorted on the server
+	 * 
+	 * @param id   The pengine id that is transmitting
+	 * @param ask   The Prolog query
+	 * @param chunk   the number of answers to return at a time
+	 * @param options   the limit, offset, distinct and order to wrap the query in
+	 * @return   the body
+	 */
+	public String getRequestBodyAsk(String id, String ask, int chunk, QueryOptions options) {
+		return getRequestBodyAsk(id, options.wrap(ask), chunk);
+	}
+
+	/**
+	 * return the POST body for a /pengines/ask request of a prepared query
+	 * 
+	 * @param id   The pengine id that is transmitting
+	 * @param query   The prepared query
+	 * @param chunk   the number of answers to return at a time
+	 * @param args   the values for the query's placeholders
+	 * @return   the body
+	 */
+	public String getRequestBodyAsk(String id, PreparedQuery query, int chunk, Object... args) {
+		return getRequestBodyAsk(id, query.bind(args), chunk);
+	}
+
 	/**
 	 * @return the POST body for next operation
 	 */
@@ -348,6 +783,14 @@ public final class PengineBuilder implements Cloneable {
 		return "next.";
 	}
 
+	/**
+	 * @param chunk the number of answers to return with this next, overriding the chunk size the query was asked with
+	 * @return the POST body for a next operation that returns up to chunk answers
+	 */
+	public String getRequestBodyNext(int chunk) {
+		return "next(" + Integer.toString(chunk) + ").";
+	}
+
 	/**
 	 * @return the POST body for destroy operation
 	 */
@@ -364,12 +807,31 @@ public final class PengineBuilder implements Cloneable {
 		System.err.println("application " + this.application);
 		System.err.println("ask " + this.ask);
 		System.err.println("chunk size " + Integer.toString(this.chunk));
+		System.err.println("format " + this.format.getFormatName());
+		System.err.println("projection " + (this.projection == null ? null : Arrays.toString(this.projection)));
+		System.err.println("load batches of " + Integer.toString(this.loadBatchSize) + " facts, " + 
+				Integer.toString(this.loadBatchLength) + " characters");
+		if(this.resultHeapBudget > 0)
+			System.err.println("result heap budget " + Long.toString(this.resultHeapBudget) + " bytes, spill to " + 
+				(this.spillDirectory == null ? System.getProperty("java.io.tmpdir") : this.spillDirectory.getPath()));
 		if(this.destroy)
 			System.err.println("destroy at end of query");
 		else
 			System.err.println("retain at end of query");
 		
+		if(this.timeout > 0)
+			System.err.println("timeout " + Long.toString(this.timeout) + "ms" + (this.serverTimeLimit ? ", sent as goal time limit" : ""));
+		if(this.keepAlive > 0)
+			System.err.println("keep alive after " + Long.toString(this.keepAlive) + "ms idle");
+		if(this.trafficLog != null)
+			System.err.println("recording to " + this.trafficLog.getFile().getPath());
+		if(this.circuitBreaker)
+			System.err.println("using circuit breaker");
+		if(this.registry != null)
+			System.err.println("registering pengines in " + this.registry.getFile().getPath());
 		System.err.println("server " + this.server);
+		if(this.replicas.length > 0)
+			System.err.println("replicas " + Arrays.toString(this.replicas));
 		System.err.println("srctext " + this.srctext);
 		System.err.println("srcurl " + this.srcurl);
 		System.err.println("--- end PengineBuilder ---");
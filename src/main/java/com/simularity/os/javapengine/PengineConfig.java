@@ -0,0 +1,393 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.math.BigDecimal;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.simularity.os.javapengine.exception.PengineNotReadyException;
+import com.simularity.os.javapengine.exception.SyntaxErrorException;
+
+/**
+ * Internal, immutable form of a {@link PengineBuilder}, compiled once when a Pengine is made.
+ * 
+ * Everything that's the same for every request - the URLs, the create body, the constant
+ * bodies for next, stop, destroy and pull_response - is worked out here once, so sending
+ * a request doesn't have to resolve URIs or rebuild strings.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+final class PengineConfig {
+	static final String CONTENT_TYPE_JSON = "application/json";
+	static final String CONTENT_TYPE_PROLOG = "application/x-prolog; charset=UTF-8";
+	
+	static final byte[] BODY_NEXT = utf8("next.");
+	static final byte[] BODY_STOP = utf8("stop.");
+	static final byte[] BODY_DESTROY = utf8("destroy.");
+	static final byte[] BODY_PULL_RESPONSE = utf8("pull_response.");
+	
+	private static final byte[] ASK_OPEN = utf8("ask((");
+	private static final byte[] ASK_OPTIONS_OPEN = utf8("),[");
+	private static final byte[] ASK_TEMPLATE_OPEN = utf8("template(");
+	private static final byte[] ASK_CHUNK_OPEN = utf8("chunk(");
+	private static final byte[] ASK_OPTIONS_CLOSE = utf8("]).");
+	private static final byte[] TIME_LIMIT_OPEN = utf8("call_with_time_limit(");
+	private static final byte[] TIME_LIMIT_GOAL = utf8(",(");
+	private static final byte[] TIME_LIMIT_CLOSE = utf8("))");
+	private static final byte[] NEXT_OPEN = utf8("next(");
+	private static final byte[] NEXT_CLOSE = utf8(").");
+	
+	/**
+	 * src_text at least this many characters long is counted, to warn when the same program is sent over and over
+	 */
+	static final int LARGE_SRC_TEXT = 16 * 1024;
+	
+	/**
+	 * how many creates can send the same large src_text before we warn
+	 */
+	static final int REPEATED_UPLOADS = 10;
+	
+	// length and hash of each large src_text sent -> creates that sent it. Cleared if it gets big
+	private static final ConcurrentHashMap<String, AtomicInteger> uploads = new ConcurrentHashMap<String, AtomicInteger>();
+	
+	// private copy, never mutated, kept for the getters and debug dumps
+	private final PengineBuilder builder;
+	private final URL createURL;
+	private final URL destroyAllURL;
+	// the server's circuit breaker, or null if we don't use one
+	private final CircuitBreaker circuitBreaker;
+	private final byte[] createBody;
+	// the template sent with the create's ask, so the body can be remade with a time limit
+	private final String createTemplate;
+	private final int chunk;
+	private final AnswerFormat format;
+	// template for asks whose bindings we don't want
+	private final String emptyTemplate;
+	// the trivial ask that keeps an idle pengine alive
+	private final byte[] keepAliveBody;
+	
+	/**
+	 * @param po the builder to compile. It's cloned, so later changes to it don't affect us
+	 * 
+	 * @throws PengineNotReadyException if the builder can't make a valid request, eg no server set
+	 */
+	PengineConfig(PengineBuilder po) throws PengineNotReadyException {
+		try {
+			this.builder = po.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new PengineNotReadyException("PengineBuilder must be clonable");
+		}
+		
+		this.createURL = builder.getActualURL("create");
+		this.destroyAllURL = builder.getActualURL("destroy_all");
+		this.circuitBreaker = builder.isCircuitBreaker() ? CircuitBreaker.forServer(createURL) : null;
+		this.chunk = builder.getChunk();
+		this.format = builder.getFormat();
+		
+		String template = null;
+		try {
+			this.emptyTemplate = new Projection().template(format);
+
+			String[] projection = builder.getProjection();
+			if(builder.hasAsk() && projection != null) {
+				template = new Projection(projection).template(format);
+			} else if(format == AnswerFormat.PROLOG && builder.hasAsk()) {
+				template = PrologAnswer.bindingsTemplate(builder.getAsk());
+			}
+		} catch (SyntaxErrorException e) {
+			throw new PengineNotReadyException(e.getMessage());
+		}
+		RequestBuffer buf = new RequestBuffer(64);
+		encodeAsk(buf, "true", emptyTemplate, 1);
+		this.keepAliveBody = Arrays.copyOf(buf.array(), buf.length());
+		
+		this.createTemplate = template;
+		this.createBody = utf8(builder.getRequestBodyCreate(template));
+	}
+	
+	private static byte[] utf8(String s) {
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * @return the URL to POST the create request to
+	 */
+	URL getCreateURL() {
+		return createURL;
+	}
+	
+	/**
+	 * @return the server's destroy_all URL, without the ids
+	 */
+	URL getDestroyAllURL() {
+		return destroyAllURL;
+	}
+	
+	/**
+	 * Work out the URL for one of a pengine's endpoints. 
+	 * Pengines call this once per endpoint when they're created, not per request.
+	 * 
+	 * @param action the URI endpoint name - send, pull_response, etc
+	 * @param id the pengine id
+	 * @return the URL
+	 * 
+	 * @throws PengineNotReadyException if the URL can't be formed
+	 */
+	URL pengineURL(String action, String id) throws PengineNotReadyException {
+		return builder.getActualURL(action, id);
+	}
+	
+	/**
+	 * @return the UTF-8 encoded body of the create request. Do not modify it
+	 */
+	byte[] getCreateBody() {
+		return createBody;
+	}
+	
+	/**
+	 * Note that a create is being sent. If it sends a large src_text that's already been sent REPEATED_UPLOADS times,
+	 * warn, once, that it'd be better loaded on the server
+	 */
+	void noteCreate() {
+		String srctext = builder.getSrctext();
+		if(srctext == null || srctext.length() < LARGE_SRC_TEXT)
+			return;
+		
+		// clones of a builder share the string, so its hash is only worked out once
+		String key = Integer.toString(srctext.length()) + ":" + Integer.toString(srctext.hashCode());
+		AtomicInteger count = uploads.get(key);
+		if(count == null) {
+			if(uploads.size() > 1000)
+				uploads.clear();
+			uploads.putIfAbsent(key, new AtomicInteger());
+			count = uploads.get(key);
+		}
+		if(count.incrementAndGet() == REPEATED_UPLOADS)
+			System.err.println("JavaPengine: the same " + Integer.toString(srctext.length()) + " character src_text has been sent with " + 
+					Integer.toString(REPEATED_UPLOADS) + " creates, and compiled by the server each time. " +
+					"Load it on the server as an application (PengineBuilder.setApplication), or use a pool of persistent pengines");
+	}
+	
+	/**
+	 * @param timeLimit the time limit for the create's ask, as from {@link #timeLimit(long)}, or null for none
+	 * @return the UTF-8 encoded body of the create request. Do not modify it
+	 */
+	byte[] getCreateBody(String timeLimit) {
+		if(timeLimit == null || !builder.hasAsk())
+			return createBody;
+		return utf8(builder.getRequestBodyCreate(createTemplate, timeLimit));
+	}
+	
+	/**
+	 * @return the UTF-8 encoded body of the ask that keeps an idle pengine alive. Do not modify it
+	 */
+	byte[] getKeepAliveBody() {
+		return keepAliveBody;
+	}
+	
+	/**
+	 * @return nanoseconds a pengine can be idle before it's kept alive, or 0 if it isn't
+	 */
+	long getKeepAliveNanos() {
+		return builder.isDestroy() ? 0 : builder.getKeepAlive() * 1000000L;
+	}
+	
+	/**
+	 * @return the builder's deadline for each request, in nanoseconds, or 0 for none
+	 */
+	long getTimeoutNanos() {
+		return builder.getTimeout() * 1000000L;
+	}
+	
+	/**
+	 * The time limit to send the server for a goal, if we've been asked to send one
+	 * 
+	 * The server's clock starts when it gets the ask, after the request's been in flight for a while,
+	 * so it's only an approximation of our deadline.
+	 * 
+	 * @param remainingNanos the time left before the deadline, or 0 for no deadline
+	 * @return the time limit in seconds as a Prolog number, or null if there's none to send
+	 */
+	String timeLimit(long remainingNanos) {
+		if(!builder.isServerTimeLimit() || remainingNanos <= 0)
+			return null;
+		// a little less than we'll wait, so the server's error gets back before our socket times out
+		return BigDecimal.valueOf(Math.max(1, remainingNanos / 1000000L * 9 / 10), 3).toPlainString();
+	}
+	
+	/**
+	 * @return the chunk size queries are asked with
+	 */
+	int getChunk() {
+		return chunk;
+	}
+	
+	/**
+	 * @return the format answers come back in
+	 */
+	AnswerFormat getFormat() {
+		return format;
+	}
+	
+	/**
+	 * @return the Accept header for our answer format
+	 */
+	String getAccept() {
+		return format == AnswerFormat.PROLOG ? "text/x-prolog" : "application/json";
+	}
+	
+	/**
+	 * @return true if the create request carries an ask
+	 */
+	boolean hasAsk() {
+		return builder.hasAsk();
+	}
+	
+	/**
+	 * @return the ask sent with the create request, or null
+	 */
+	String getAsk() {
+		return builder.getAsk();
+	}
+	
+	/**
+	 * @return true if the pengine is destroyed at the end of its first query
+	 */
+	boolean isDestroy() {
+		return builder.isDestroy();
+	}
+	
+	/**
+	 * @return the log to record requests to, or null
+	 */
+	TrafficLog getTrafficLog() {
+		return builder.getTrafficLog();
+	}
+	
+	/**
+	 * @return the registry to keep the pengine in, or null if it's not kept - it's destroyed at the end of its query, 
+	 *   or the builder has no registry
+	 */
+	PengineRegistry getRegistry() {
+		return builder.isDestroy() ? null : builder.getRegistry();
+	}
+	
+	/**
+	 * @return the server's circuit breaker, or null if we don't use one
+	 */
+	CircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+	
+	/**
+	 * @return a template with no bindings, for asks we only want to know succeeded
+	 */
+	String getEmptyTemplate() {
+		return emptyTemplate;
+	}
+	
+	/**
+	 * @return the most facts in a load batch
+	 */
+	int getLoadBatchSize() {
+		return builder.getLoadBatchSize();
+	}
+	
+	/**
+	 * @return the length of Prolog text at which a load batch is ended
+	 */
+	int getLoadBatchLength() {
+		return builder.getLoadBatchLength();
+	}
+	
+	/**
+	 * @return a buffer for the proofs a query receives, with the configured heap budget
+	 */
+	ProofBuffer newProofBuffer() {
+		return new ProofBuffer(builder.getResultHeapBudget(), builder.getSpillDirectory());
+	}
+	
+	/**
+	 * encode the body of an ask request. Without a template, these are the same bytes as 
+	 * {@link PengineBuilder#getRequestBodyAsk(String, String, int)}
+	 * 
+	 * @param buf  the buffer to encode into. It's reset first
+	 * @param ask  the Prolog query
+	 * @param template the template option, or null for none
+	 * @param chunk the chunk size
+	 */
+	void encodeAsk(RequestBuffer buf, CharSequence ask, String template, int chunk) {
+		encodeAsk(buf, ask, template, chunk, null);
+	}
+	
+	/**
+	 * encode the body of an ask request, with the goal run under a time limit
+	 * 
+	 * @param buf  the buffer to encode into. It's reset first
+	 * @param ask  the Prolog query
+	 * @param template the template option, or null for none
+	 * @param chunk the chunk size
+	 * @param timeLimit the time limit, as from {@link #timeLimit(long)}, or null for none
+	 */
+	void encodeAsk(RequestBuffer buf, CharSequence ask, String template, int chunk, String timeLimit) {
+		buf.reset().append(ASK_OPEN);
+		if(timeLimit != null) {
+			buf.append(TIME_LIMIT_OPEN).append(timeLimit).append(TIME_LIMIT_GOAL).append(ask).append(TIME_LIMIT_CLOSE);
+		} else {
+			buf.append(ask);
+		}
+		buf.append(ASK_OPTIONS_OPEN);
+		if(template != null) {
+			buf.append(ASK_TEMPLATE_OPEN).append(template).appendAscii(')');
+		}
+		if(chunk > 1) {
+			if(template != null)
+				buf.appendAscii(',');
+			buf.append(ASK_CHUNK_OPEN).append(chunk).appendAscii(')');
+		}
+		buf.append(ASK_OPTIONS_CLOSE);
+	}
+	
+	/**
+	 * encode the body of a next request that asks for chunk answers
+	 * 
+	 * @param buf  the buffer to encode into. It's reset first
+	 * @param chunk the number of answers
+	 */
+	void encodeNext(RequestBuffer buf, int chunk) {
+		buf.reset().append(NEXT_OPEN).append(chunk).append(NEXT_CLOSE);
+	}
+	
+	/**
+	 * dump some debug information
+	 */
+	void dumpDebugState() {
+		builder.dumpDebugState();
+	}
+}
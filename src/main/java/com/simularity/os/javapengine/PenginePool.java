@@ -0,0 +1,447 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.simularity.os.javapengine.exception.CouldNotCreateException;
+import com.simularity.os.javapengine.exception.PengineNotAvailableException;
+import com.simularity.os.javapengine.exception.PengineNotReadyException;
+import com.simularity.os.javapengine.exception.SyntaxErrorException;
+import com.simularity.os.javapengine.term.Term;
+
+/**
+ * A pool of persistent pengines made from one PengineBuilder, for running many queries 
+ * without paying for a create and destroy each time.
+ * 
+ * Pengines are made as they're needed, up to the pool size. The server limits how many pengines
+ * one client can have (its slave_limit), so the pool never grows past that either.
+ * 
+ * Borrow a pengine, use it, and release it, in a finally block:
+ * 
+ * <pre>
+ * Pengine p = pool.borrow();
+ * try {
+ *     ...
+ * } finally {
+ *     pool.release(p);
+ * }
+ * </pre>
+ * 
+ * @author Anne Ogborn
+ *
+ */
+public class PenginePool {
+	private final PengineBuilder builder;
+	private int size;
+	private int created = 0;
+	private boolean closed = false;
+	private final Deque<Pengine> idle = new ArrayDeque<Pengine>();
+	
+	/**
+	 * @param builder makes the pengines. It's cloned, and the pool's pengines are never destroyed at the end of a query
+	 * @param size the most pengines the pool will have at once
+	 * 
+	 * @throws PengineNotReadyException if the builder can't be cloned
+	 */
+	public PenginePool(PengineBuilder builder, int size) throws PengineNotReadyException {
+		if(size < 1)
+			throw new IllegalArgumentException("pool size must be at least 1");
+		
+		try {
+			this.builder = builder.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new PengineNotReadyException("PengineBuilder must be clonable");
+		}
+		this.builder.setDestroy(false);
+		this.builder.setAsk(null);
+		this.size = size;
+	}
+	
+	/**
+	 * @return the most pengines the pool will have at once. This can drop when the first pengine 
+	 * tells us the server's slave_limit
+	 */
+	public synchronized int getSize() {
+		return size;
+	}
+	
+	/**
+	 * Lower the most pengines the pool will have at once, eg to a limit of our own when the server 
+	 * doesn't say what its slave_limit is. Pengines past it are destroyed as they're released
+	 * 
+	 * @param size the new size, if it's smaller
+	 */
+	synchronized void limit(int size) {
+		if(size >= 1 && size < this.size)
+			this.size = size;
+	}
+	
+	/**
+	 * @return the number of pengines the pool has now, borrowed or idle
+	 */
+	public synchronized int getCreated() {
+		return created;
+	}
+	
+	/**
+	 * @return the chunk size the pool's pengines ask with
+	 */
+	int getChunk() {
+		return builder.getChunk();
+	}
+	
+	/**
+	 * @return a buffer for proofs, with the result heap budget of the pool's builder
+	 */
+	ProofBuffer newProofBuffer() {
+		return new ProofBuffer(builder.getResultHeapBudget(), builder.getSpillDirectory());
+	}
+	
+	/**
+	 * Get a pengine to use, making one if there are none idle and the pool isn't full.
+	 * Waits for one to be released if the pool is full.
+	 * 
+	 * @return an idle pengine
+	 * 
+	 * @throws CouldNotCreateException if we need a new pengine and can't make one
+	 * @throws InterruptedException if interrupted while waiting
+	 * @throws IllegalStateException if the pool is closed
+	 */
+	public Pengine borrow() throws CouldNotCreateException, InterruptedException {
+		synchronized(this) {
+			for(;;) {
+				if(closed)
+					throw new IllegalStateException("pengine pool is closed");
+				if(!idle.isEmpty())
+					return idle.pop();
+				if(created < size) {
+					created++;
+					break;
+				}
+				wait();
+			}
+		}
+		
+		// make it outside the lock, it's a round trip
+		Pengine p;
+		try {
+			p = builder.newPengine();
+		} catch (CouldNotCreateException e) {
+			synchronized(this) {
+				created--;
+				notifyAll();
+			}
+			throw e;
+		}
+		
+		synchronized(this) {
+			int limit = p.getSlaveLimit();
+			if(limit > 0 && limit < size)
+				size = limit;
+		}
+		return p;
+	}
+	
+	/**
+	 * Give back a borrowed pengine. If it's still running a query the query is stopped.
+	 * If it's been destroyed the pool makes a new one next time it needs one.
+	 * 
+	 * @param pengine the pengine, from borrow
+	 */
+	public void release(Pengine pengine) {
+		Query q = pengine.getCurrentQuery();
+		if(q != null && !pengine.isDestroyed()) {
+			try {
+				q.stop();
+			} catch (PengineNotReadyException e) {
+				// can't get it back to idle, so don't give it to anyone else
+				pengine.destroy();
+			}
+		}
+		
+		boolean destroy;
+		synchronized(this) {
+			destroy = closed || created > size;
+			if(destroy || pengine.isDestroyed()) {
+				created--;
+			} else {
+				idle.push(pengine);
+			}
+			notifyAll();
+		}
+		
+		if(destroy)
+			pengine.destroy();
+	}
+	
+	/**
+	 * Destroy the idle pengines, and any borrowed ones as they're released. The pool can't be used after this.
+	 */
+	public void close() {
+		List<Pengine> toDestroy;
+		synchronized(this) {
+			closed = true;
+			toDestroy = new ArrayList<Pengine>(idle);
+			created -= idle.size();
+			idle.clear();
+			notifyAll();
+		}
+		
+		for(Pengine p : toDestroy)
+			p.destroy();
+	}
+	
+	/**
+	 * Count the solutions of a goal, on whichever of the pool's pengines is free. See Pengine.count
+	 * 
+	 * @param goal the goal
+	 * @return the number of solutions
+	 * 
+	 * @throws PengineNotReadyException if the query fails
+	 * @throws CouldNotCreateException if the pool can't make a pengine
+	 * @throws InterruptedException if interrupted waiting for a pengine
+	 */
+	public long count(String goal) throws PengineNotReadyException, CouldNotCreateException, InterruptedException {
+		Pengine p = borrow();
+		try {
+			return p.count(goal);
+		} finally {
+			release(p);
+		}
+	}
+	
+	/**
+	 * Find out if a goal has a solution, on whichever of the pool's pengines is free. See Pengine.exists
+	 * 
+	 * @param goal the goal
+	 * @return true if it has a solution
+	 * 
+	 * @throws PengineNotReadyException if the query fails
+	 * @throws CouldNotCreateException if the pool can't make a pengine
+	 * @throws InterruptedException if interrupted waiting for a pengine
+	 */
+	public boolean exists(String goal) throws PengineNotReadyException, CouldNotCreateException, InterruptedException {
+		Pengine p = borrow();
+		try {
+			return p.exists(goal);
+		} finally {
+			release(p);
+		}
+	}
+	
+	/**
+	 * Get the first solution of a goal, on whichever of the pool's pengines is free. See Pengine.first
+	 * 
+	 * @param goal the goal
+	 * @param projection the variable names or Key=Term items to send back, or none for all the bindings
+	 * @return the first solution, or null if there isn't one
+	 * 
+	 * @throws PengineNotReadyException if the query fails
+	 * @throws CouldNotCreateException if the pool can't make a pengine
+	 * @throws InterruptedException if interrupted waiting for a pengine
+	 */
+	public Proof first(String goal, String... projection) 
+			throws PengineNotReadyException, CouldNotCreateException, InterruptedException {
+		Pengine p = borrow();
+		try {
+			return p.first(goal, projection);
+		} finally {
+			release(p);
+		}
+	}
+	
+	/**
+	 * Get every solution of a goal as one list, on whichever of the pool's pengines is free. See Pengine.collectAll
+	 * 
+	 * @param goal the goal
+	 * @param template the term to collect for each solution
+	 * @return the instances of the template
+	 * 
+	 * @throws PengineNotReadyException if the query fails
+	 * @throws CouldNotCreateException if the pool can't make a pengine
+	 * @throws InterruptedException if interrupted waiting for a pengine
+	 */
+	public List<Term> collectAll(String goal, String template) 
+			throws PengineNotReadyException, CouldNotCreateException, InterruptedException {
+		Pengine p = borrow();
+		try {
+			return p.collectAll(goal, template);
+		} finally {
+			release(p);
+		}
+	}
+	
+	/**
+	 * Load facts in parallel, each batch on whichever of the pool's pengines is free. 
+	 * 
+	 * Each pengine has its own module, so facts asserted by one pengine aren't seen by the others.
+	 * So this is only safe for facts that go somewhere all the pengines share - the functor must be module 
+	 * qualified, like db:employee. The sandbox won't assert into another module, so the builder must name a 
+	 * server application (setApplication) that declares the predicate dynamic and lets pengines assert it:
+	 * 
+	 * <pre>
+	 * :- dynamic db:employee/2.
+	 * :- multifile sandbox:safe_primitive/1.
+	 * sandbox:safe_primitive(assertz(db:employee(_,_))).
+	 * </pre>
+	 * 
+	 * Batches are sent in parallel, so the facts may not be asserted in order.
+	 * 
+	 * For facts only one pengine will query, use Pengine.loadFacts.
+	 * 
+	 * @param functor the module qualified name of the facts, eg db:employee
+	 * @param facts the arguments of each fact. Values are written as in TermWriter.writeValue
+	 * @return how much was loaded, and how fast
+	 * 
+	 * @throws PengineNotReadyException if the builder uses the default pengine_sandbox application, 
+	 *   or a batch can't be loaded. Batches sent before the failure stay loaded
+	 * @throws CouldNotCreateException if the pool can't make a pengine
+	 * @throws InterruptedException if interrupted while waiting for a batch
+	 * @throws IllegalArgumentException if the functor isn't module qualified, or a value can't be written as a Prolog term
+	 */
+	public LoadReport loadFacts(String functor, Iterator<Object[]> facts) 
+			throws PengineNotReadyException, CouldNotCreateException, InterruptedException {
+		if(!FactBatcher.isQualified(functor))
+			throw new IllegalArgumentException("loading in parallel needs a module qualified functor, like db:" + functor);
+		String application = builder.getApplication();
+		if(application == null || application.equals("pengine_sandbox"))
+			throw new PengineNotReadyException("loading in parallel needs a server application that declares " + functor + 
+					" dynamic and safe to assert - setApplication");
+		
+		long start = System.nanoTime();
+		FactBatcher batcher = new FactBatcher(functor, facts, builder.getLoadBatchSize(), builder.getLoadBatchLength());
+		
+		// we never have more batches in memory than we can send at once
+		final int parallel = getSize();
+		final Semaphore inFlight = new Semaphore(parallel);
+		final AtomicInteger batches = new AtomicInteger();
+		final AtomicLong bytes = new AtomicLong();
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		ExecutorService exec = Executors.newFixedThreadPool(parallel);
+		
+		try {
+			for(;;) {
+				inFlight.acquire();
+				final StringBuilder goal = new StringBuilder(4096);
+				if(failure.get() != null || batcher.next(goal) == 0) {
+					inFlight.release();
+					break;
+				}
+				
+				exec.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							Pengine p = borrow();
+							try {
+								bytes.addAndGet(p.loadBatch(goal));
+								batches.incrementAndGet();
+							} finally {
+								release(p);
+							}
+						} catch (Exception e) {
+							failure.compareAndSet(null, e);
+						} finally {
+							inFlight.release();
+						}
+					}
+				});
+			}
+			
+			// wait for the last batches
+			inFlight.acquire(parallel);
+		} finally {
+			exec.shutdownNow();
+		}
+		
+		Exception e = failure.get();
+		if(e instanceof PengineNotReadyException)
+			throw (PengineNotReadyException)e;
+		if(e instanceof CouldNotCreateException)
+			throw (CouldNotCreateException)e;
+		if(e instanceof InterruptedException)
+			throw (InterruptedException)e;
+		if(e != null)
+			throw new PengineNotAvailableException("loading a batch failed " + e.toString());
+		
+		return new LoadReport(batcher.getCount(), batches.get(), bytes.get(), System.nanoTime() - start);
+	}
+	
+	/**
+	 * Extract the solutions of a goal in parallel, splitting it into partitions that each run on one of the pool's pengines.
+	 * 
+	 * There are never more partitions running than the pool has pengines, and so never more than the server's slave_limit. 
+	 * Set a big chunk size on the pool's builder - each partition asks for that many solutions at a time.
+	 * In order, partitions ahead of the one being read are buffered whole; a result heap budget on the builder
+	 * spills them to disk.
+	 * Each pengine has its own module, so the goal has to query data they all share, like the server's predicates
+	 * or a module loaded with PenginePool.loadFacts.
+	 * 
+	 * <pre>
+	 * PartitionedQuery q = pool.extract("employee(Name, Salary)", Partitioning.hash("Name", 4), false);
+	 * try {
+	 *     for(Proof p = q.next() ; p != null ; p = q.next())
+	 *         ...
+	 * } finally {
+	 *     q.close();
+	 * }
+	 * </pre>
+	 * 
+	 * @param goal the goal
+	 * @param partitioning how to split it
+	 * @param ordered true to get the solutions a partition at a time, in order, false for as they arrive
+	 * @param projection the bindings to send back, as for Pengine.ask(String, String...), or none for them all
+	 * @return the solutions, being extracted in the background
+	 * 
+	 * @throws PengineNotReadyException if planning the partitions fails, or the projection isn't valid
+	 * @throws CouldNotCreateException if the pool can't make a pengine to plan the partitions
+	 * @throws InterruptedException if interrupted while planning the partitions
+	 * @throws IllegalStateException if the pool is closed
+	 */
+	public PartitionedQuery extract(String goal, Partitioning partitioning, boolean ordered, String... projection) 
+			throws PengineNotReadyException, CouldNotCreateException, InterruptedException {
+		synchronized(this) {
+			if(closed)
+				throw new IllegalStateException("pengine pool is closed");
+		}
+		try {
+			new Projection(projection);
+		} catch (SyntaxErrorException e) {
+			throw new PengineNotReadyException(e.getMessage());
+		}
+		
+		return new PartitionedQuery(this, partitioning.goals(goal, this), projection.clone(), ordered);
+	}
+}
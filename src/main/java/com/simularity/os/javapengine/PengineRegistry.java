@@ -0,0 +1,257 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.simularity.os.javapengine.exception.CouldNotCreateException;
+import com.simularity.os.javapengine.exception.PengineNotReadyException;
+
+/**
+ * Remembers the persistent pengines we've made in a local file, so after a restart we can 
+ * reattach to them instead of making new ones and loading their source again.
+ * 
+ * <pre>
+ * PengineRegistry registry = new PengineRegistry(new File("pengines.reg"));
+ * builder.setDestroy(false);
+ * builder.setRegistry(registry);
+ * List&lt;Pengine&gt; pengines = registry.reattach(builder);
+ * </pre>
+ * 
+ * A pengine made by a builder with a registry, and not destroyed at the end of its query, is written
+ * to the file with its server and a hash of the builder's settings, and removed when it's destroyed. 
+ * Registered pengines are meant to outlive the JVM, so they're not destroyed when it exits, by 
+ * Pengine.destroyAll, or if they're garbage collected. Destroy them yourself when you're done with them.
+ * 
+ * The file is rewritten on each change - it's meant for tens or hundreds of pengines.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+public final class PengineRegistry {
+	private final File file;
+	// id -> entry, in the order they were made
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+	private long reattached = 0;
+	private long recreated = 0;
+	
+	private static final class Entry {
+		private final String id;
+		private final String server;
+		private final String configHash;
+		
+		private Entry(String id, String server, String configHash) {
+			this.id = id;
+			this.server = server;
+			this.configHash = configHash;
+		}
+	}
+	
+	/**
+	 * @param file where to keep the registry. If it exists, the pengines in it are read
+	 * 
+	 * @throws IOException if the file exists and can't be read
+	 */
+	public PengineRegistry(File file) throws IOException {
+		this.file = file;
+		if(!file.exists())
+			return;
+		
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+			for(String line = in.readLine() ; line != null ; line = in.readLine()) {
+				String[] fields = line.split("\t");
+				if(fields.length != 3) {
+					System.err.println("ignoring bad line in pengine registry " + file.getPath() + ": " + line);
+					continue;
+				}
+				entries.put(fields[0], new Entry(fields[0], fields[1], fields[2]));
+			}
+		}
+	}
+	
+	/**
+	 * Get back the registered pengines that the builder would make - same server, same settings. 
+	 * Each is checked with a trivial query; those that answer are reattached, and those that don't 
+	 * are removed and replaced with new ones.
+	 * 
+	 * @param builder the builder that made the pengines. It must not destroy them at the end of a query. 
+	 *   The pengines, reattached or new, are registered here whatever the builder's registry
+	 * @return the pengines
+	 * 
+	 * @throws CouldNotCreateException if a replacement can't be made, or the builder can't be used
+	 * @throws IllegalArgumentException if the builder destroys its pengines at the end of a query
+	 */
+	public List<Pengine> reattach(PengineBuilder builder) throws CouldNotCreateException {
+		if(builder.isDestroy())
+			throw new IllegalArgumentException("only pengines that aren't destroyed at the end of a query can be reattached");
+		
+		PengineBuilder ours;
+		String server;
+		String configHash;
+		try {
+			ours = builder.clone();
+			ours.setRegistry(this);
+			PengineConfig po = new PengineConfig(ours);
+			server = po.getCreateURL().toString();
+			configHash = configHash(po);
+		} catch (CloneNotSupportedException e) {
+			throw new CouldNotCreateException("PengineBuilder must be clonable");
+		} catch (PengineNotReadyException e) {
+			throw new CouldNotCreateException(e.getMessage());
+		}
+		
+		List<String> ids = new ArrayList<String>();
+		synchronized(this) {
+			for(Entry e : entries.values()) {
+				if(e.server.equals(server) && e.configHash.equals(configHash))
+					ids.add(e.id);
+			}
+		}
+		
+		List<Pengine> pengines = new ArrayList<Pengine>(ids.size());
+		for(String id : ids) {
+			try {
+				pengines.add(new Pengine(ours, id));
+				synchronized(this) {
+					reattached++;
+				}
+			} catch (CouldNotCreateException e) {
+				System.err.println("pengine " + id + " is gone, making a new one: " + e.getMessage());
+				remove(id);
+				pengines.add(ours.newPengine());
+				synchronized(this) {
+					recreated++;
+				}
+			}
+		}
+		return pengines;
+	}
+	
+	/**
+	 * @return the file the registry is kept in
+	 */
+	public File getFile() {
+		return file;
+	}
+	
+	/**
+	 * @return the number of pengines registered
+	 */
+	public synchronized int getSize() {
+		return entries.size();
+	}
+	
+	/**
+	 * @return the ids of the registered pengines, in the order they were made
+	 */
+	public synchronized List<String> getIds() {
+		return new ArrayList<String>(entries.keySet());
+	}
+	
+	/**
+	 * @return how many pengines reattach has got back
+	 */
+	public synchronized long getReattached() {
+		return reattached;
+	}
+	
+	/**
+	 * @return how many pengines reattach has had to make again
+	 */
+	public synchronized long getRecreated() {
+		return recreated;
+	}
+	
+	/**
+	 * Register a pengine
+	 * 
+	 * @param id the pengine's id
+	 * @param po the config that made it
+	 */
+	void add(String id, PengineConfig po) {
+		synchronized(this) {
+			entries.put(id, new Entry(id, po.getCreateURL().toString(), configHash(po)));
+		}
+		save();
+	}
+	
+	/**
+	 * Forget a pengine, if it's registered
+	 * 
+	 * @param id the pengine's id
+	 */
+	void remove(String id) {
+		synchronized(this) {
+			if(entries.remove(id) == null)
+				return;
+		}
+		save();
+	}
+	
+	/**
+	 * Write the registry to a temp file and move it over the old one, so a crash can't leave half a file.
+	 * A registry that can't be saved is reported and otherwise ignored - the pengines still work
+	 */
+	private synchronized void save() {
+		File tmp = new File(file.getPath() + ".tmp");
+		try {
+			try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+				for(Entry e : entries.values()) {
+					out.write(e.id);
+					out.write('\t');
+					out.write(e.server);
+					out.write('\t');
+					out.write(e.configHash);
+					out.write('\n');
+				}
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.err.println("could not save pengine registry " + file.getPath() + " " + e.toString());
+		}
+	}
+	
+	/**
+	 * @return a hex SHA-256 of what the create request sends, so the pengines of a builder 
+	 *   with other source or settings don't match
+	 */
+	private static String configHash(PengineConfig po) {
+		return Sha256.hex(po.getCreateURL().toString().getBytes(StandardCharsets.UTF_8), po.getCreateBody());
+	}
+}
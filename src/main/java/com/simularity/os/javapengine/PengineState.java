@@ -87,6 +87,8 @@ class PengineState {
 	}
 	
 	private PSt state = PSt.NOT_CREATED;
+	// for the flight recorder, null until the pengine's created
+	private String pengineID = null;
 	
 	/**
 	 * 
@@ -100,6 +102,7 @@ class PengineState {
 			return;
 		
 		if(allowed.contains(new Transition(this.state, newstate)))  {
+			Recorder.RECORDER.state(pengineID, state, newstate);
 			state = newstate;
 		} else {
 			throw new PengineNotReadyException("Darn it can't transition from" + this.state.toString() + " to " + newstate.toString());
@@ -152,8 +155,17 @@ class PengineState {
 	 * this bypasses the normal state transition matrix
 	 */
 	void destroy() {
+		if(this.state != PSt.DESTROYED)
+			Recorder.RECORDER.state(pengineID, state, PSt.DESTROYED);
 		this.state = PSt.DESTROYED; 
 	}
+	
+	/**
+	 * @param id the id of the pengine whose state this is, to report transitions under
+	 */
+	void setPengineID(String id) {
+		this.pengineID = id;
+	}
 
 	/**
 	 * dump the state
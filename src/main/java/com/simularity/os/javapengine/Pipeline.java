@@ -0,0 +1,145 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.simularity.os.javapengine.exception.PengineNotReadyException;
+
+/**
+ * A chain of queries where each solution of one stage parameterizes a query of the next, 
+ * like a nested loop join done on the server.
+ * 
+ * <pre>
+ * Pipeline p = new Pipeline(builder, "employee(Name, Dept)");
+ * p.addStage(PengineBuilder.prepare("salary(?, Salary)"), 4, "Name");
+ * p.addStage(PengineBuilder.prepare("dept_budget(?, Budget)"), 2, "Dept");
+ * PipelineQuery q = p.start();
+ * try {
+ *     for(Proof proof = q.next() ; proof != null ; proof = q.next())
+ *         ... proof has Name, Dept, Salary and Budget
+ * } finally {
+ *     q.close();
+ * }
+ * </pre>
+ * 
+ * Run sequentially, every step waits out a round trip. Started, each stage runs on its own 
+ * pool of pengines and asks its goal for each solution of the stage before as soon as it arrives, 
+ * so the stages overlap. A stage runs at most its concurrency queries at once, and only a few solutions 
+ * are buffered between stages - a slow stage slows the stages before it rather than filling the heap.
+ * 
+ * A stage's solutions carry the bindings of the solution that parameterized them, plus their own.
+ * Solutions come in the order they're found, not in the order of the source.
+ * 
+ * The pipeline needs the source's pengine plus every stage's concurrency pengines at once. Keep the total 
+ * within the server's slave_limit.
+ * 
+ * A Pipeline can be started any number of times.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+public final class Pipeline {
+	private final PengineBuilder builder;
+	private final String source;
+	private final List<Stage> stages = new ArrayList<Stage>();
+	
+	/**
+	 * one step of the pipeline
+	 */
+	static final class Stage {
+		final PreparedQuery goal;
+		final int concurrency;
+		final String[] parameters;
+		
+		private Stage(PreparedQuery goal, int concurrency, String[] parameters) {
+			this.goal = goal;
+			this.concurrency = concurrency;
+			this.parameters = parameters;
+		}
+	}
+	
+	/**
+	 * @param builder makes the pengines. It's cloned when the pipeline starts
+	 * @param source the goal whose solutions feed the first stage
+	 */
+	public Pipeline(PengineBuilder builder, String source) {
+		this.builder = builder;
+		this.source = source;
+	}
+	
+	/**
+	 * Add a stage to the end of the pipeline
+	 * 
+	 * @param goal the goal to ask for each solution of the stage before
+	 * @param concurrency the most queries of this stage at once, and so the number of pengines it uses
+	 * @param parameters the variables of the stage before whose values fill in the goal's placeholders, in order
+	 * 
+	 * @throws IllegalArgumentException if concurrency is less than 1 or there aren't as many parameters as placeholders
+	 */
+	public synchronized void addStage(PreparedQuery goal, int concurrency, String... parameters) {
+		if(concurrency < 1)
+			throw new IllegalArgumentException("stage concurrency must be at least 1");
+		if(parameters.length != goal.getParameterCount())
+			throw new IllegalArgumentException(goal.getGoal() + " needs " + Integer.toString(goal.getParameterCount()) + 
+					" parameters, not " + Integer.toString(parameters.length));
+		stages.add(new Stage(goal, concurrency, parameters.clone()));
+	}
+	
+	/**
+	 * @return the goal whose solutions feed the first stage
+	 */
+	public String getSource() {
+		return source;
+	}
+	
+	/**
+	 * @return the number of stages, not counting the source
+	 */
+	public synchronized int getStages() {
+		return stages.size();
+	}
+	
+	/**
+	 * @return the number of pengines the pipeline uses when it's running
+	 */
+	public synchronized int getPengines() {
+		int n = 1;
+		for(Stage s : stages)
+			n += s.concurrency;
+		return n;
+	}
+	
+	/**
+	 * Start running the pipeline
+	 * 
+	 * @return the solutions of the last stage, being found in the background
+	 * 
+	 * @throws PengineNotReadyException if the builder can't be cloned
+	 */
+	public synchronized PipelineQuery start() throws PengineNotReadyException {
+		return new PipelineQuery(builder, source, new ArrayList<Stage>(stages));
+	}
+}
@@ -0,0 +1,245 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.simularity.os.javapengine.exception.PengineNotReadyException;
+import com.simularity.os.javapengine.term.Term;
+
+/**
+ * The solutions of a running Pipeline's last stage.
+ * 
+ * If a query fails the solutions just end - check getFailure(). Close it to stop early; 
+ * the pipeline's pengines are destroyed when it's done or closed.
+ * 
+ * Made by Pipeline.start
+ * 
+ * @author Anne Ogborn
+ *
+ */
+public final class PipelineQuery extends ParallelResults<Proof> {
+	// marks the end of a stage's input
+	private static final Object END = new Object();
+	// how often a blocked worker checks whether we've been closed
+	private static final long POLL_MILLIS = 100;
+	
+	private final List<PenginePool> pools = new ArrayList<PenginePool>();
+	private final BlockingQueue<Object> output;
+	private final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+	
+	/**
+	 * Start the pipeline
+	 * 
+	 * @param builder makes the pengines
+	 * @param source the goal whose solutions feed the first stage
+	 * @param stages the stages
+	 * 
+	 * @throws PengineNotReadyException if the builder can't be cloned
+	 */
+	PipelineQuery(PengineBuilder builder, final String source, List<Pipeline.Stage> stages) throws PengineNotReadyException {
+		super("pipeline");
+		final PenginePool sourcePool = new PenginePool(builder, 1);
+		pools.add(sourcePool);
+		for(Pipeline.Stage s : stages)
+			pools.add(new PenginePool(builder, s.concurrency));
+		
+		// each stage reads from the queue before it, the last stage writes to output
+		List<BlockingQueue<Object>> queues = new ArrayList<BlockingQueue<Object>>();
+		for(Pipeline.Stage s : stages)
+			queues.add(new ArrayBlockingQueue<Object>(Math.max(16, 2 * s.concurrency)));
+		output = new ArrayBlockingQueue<Object>(Math.max(16, 2 * sourcePool.getChunk()));
+		queues.add(output);
+		
+		final BlockingQueue<Object> first = queues.get(0);
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					ask(sourcePool, source, null, null, first, null);
+				} catch (Exception e) {
+					fail(e);
+				}
+				put(first, END);
+				sourcePool.close();
+			}
+		});
+		
+		for(int i = 0 ; i < stages.size() ; i++) {
+			final Pipeline.Stage stage = stages.get(i);
+			final PenginePool pool = pools.get(i + 1);
+			final BlockingQueue<Object> in = queues.get(i);
+			final BlockingQueue<Object> out = queues.get(i + 1);
+			final AtomicInteger running = new AtomicInteger(stage.concurrency);
+			for(int j = 0 ; j < stage.concurrency ; j++) {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						work(stage, pool, in, out, running);
+					}
+				});
+			}
+		}
+		executor.shutdown();
+	}
+	
+	/**
+	 * a stage's worker - asks the stage's goal for each solution that comes in, until the END. 
+	 * The last of the stage's workers to finish passes the END on
+	 */
+	private void work(Pipeline.Stage stage, PenginePool pool, BlockingQueue<Object> in, BlockingQueue<Object> out, 
+			AtomicInteger running) {
+		for(Object o = take(in) ; o != null ; o = take(in)) {
+			if(o == END) {
+				// for the stage's other workers
+				put(in, END);
+				break;
+			}
+			
+			try {
+				Proof upstream = (Proof)o;
+				Object[] args = new Object[stage.parameters.length];
+				for(int i = 0 ; i < args.length ; i++) {
+					args[i] = upstream.getTerm(stage.parameters[i]);
+					if(args[i] == null)
+						throw new PengineNotReadyException("no " + stage.parameters[i] + " for " + stage.goal.getGoal() + 
+								" in " + upstream.toString());
+				}
+				ask(pool, null, stage.goal, args, out, upstream);
+			} catch (Exception e) {
+				fail(e);
+				break;
+			}
+		}
+		
+		if(running.decrementAndGet() == 0) {
+			put(out, END);
+			pool.close();
+		}
+	}
+	
+	/**
+	 * ask a goal on one of the pool's pengines, and pass its solutions on as they come
+	 * 
+	 * @param upstream the solution that parameterized the goal, whose bindings its solutions get, or null
+	 */
+	private void ask(final PenginePool pool, final String goal, final PreparedQuery prepared, final Object[] args, 
+			final BlockingQueue<Object> out, final Proof upstream) throws Exception {
+		solve(pool, pool.getChunk(), new Solver() {
+			@Override
+			public Query ask(Pengine p) throws PengineNotReadyException {
+				return prepared == null ? p.ask(goal) : p.ask(prepared, args);
+			}
+			
+			@Override
+			public boolean solution(Proof proof) {
+				return put(out, upstream == null ? proof : merge(upstream, proof));
+			}
+		});
+	}
+	
+	/**
+	 * @return a solution with the bindings of both, the downstream ones winning
+	 */
+	private static Proof merge(Proof upstream, Proof downstream) {
+		Map<String, Term> terms = new LinkedHashMap<String, Term>(upstream.getTerms());
+		terms.putAll(downstream.getTerms());
+		return new Proof(terms);
+	}
+	
+	/**
+	 * @return false if we've been closed
+	 */
+	private boolean put(BlockingQueue<Object> queue, Object o) {
+		try {
+			while(!closed) {
+				if(queue.offer(o, POLL_MILLIS, TimeUnit.MILLISECONDS))
+					return true;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			close();
+		}
+		return false;
+	}
+	
+	/**
+	 * @return the next object, or null if we've been closed
+	 */
+	private Object take(BlockingQueue<Object> queue) {
+		try {
+			while(!closed) {
+				Object o = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if(o != null)
+					return o;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			close();
+		}
+		return null;
+	}
+	
+	/**
+	 * end the pipeline because a query threw. Once it's closed the pools are closed too, 
+	 * so what the workers throw then isn't a failure
+	 */
+	private void fail(Exception e) {
+		if(closed)
+			return;
+		if(failure.compareAndSet(null, e))
+			System.err.println("pipeline query failed, ending the pipeline " + e.toString());
+		close();
+	}
+	
+	@Override
+	Proof advance() {
+		Object o = take(output);
+		return o == END ? null : (Proof)o;
+	}
+	
+	/**
+	 * @return what made a query fail, or null if none has
+	 */
+	public Exception getFailure() {
+		return failure.get();
+	}
+	
+	/**
+	 * Running queries are stopped and the pengines are destroyed. A consumer waiting in take sees closed
+	 */
+	@Override
+	void closing() {
+		for(PenginePool pool : pools)
+			pool.close();
+	}
+}
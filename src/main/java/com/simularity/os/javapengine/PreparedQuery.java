@@ -0,0 +1,180 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import com.simularity.os.javapengine.exception.SyntaxErrorException;
+import com.simularity.os.javapengine.term.TermReader;
+import com.simularity.os.javapengine.term.TermWriter;
+
+/**
+ * A goal with ? placeholders for values, like employee(?, Name, Position)
+ * 
+ * Get one from PengineBuilder.prepare. The goal is checked when it's prepared, so a malformed goal
+ * never gets sent to the server. Values are written as properly quoted Prolog terms (see TermWriter.writeValue),
+ * so a value with quotes in it can't change the meaning of the goal.
+ * 
+ * A placeholder is a ? on its own. ?- and ?= are still operators, and a ? in a quoted atom or string is 
+ * just a character.
+ * 
+ * A PreparedQuery is immutable, and can be shared between threads and pengines.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+public final class PreparedQuery {
+	private final String goal;
+	// the goal text around the placeholders
+	private final String[] segments;
+	// whether a value needs a space before or after it to keep it from running into the goal text
+	private final boolean[] spaceBefore;
+	private final boolean[] spaceAfter;
+	// the templates for each answer format, null to let the server use its default
+	private final String jsonTemplate;
+	private final String prologTemplate;
+	
+	/**
+	 * @param goal the goal, with ? placeholders
+	 * @param projection the bindings to send back, or null for all of them
+	 * 
+	 * @throws SyntaxErrorException if the goal isn't a valid Prolog term with a variable in place of each ?
+	 */
+	PreparedQuery(String goal, Projection projection) throws SyntaxErrorException {
+		this.goal = goal;
+		this.segments = TermReader.splitPlaceholders(goal);
+		
+		int n = segments.length - 1;
+		this.spaceBefore = new boolean[n];
+		this.spaceAfter = new boolean[n];
+		
+		// read the goal with an anonymous variable standing in for each value
+		StringBuilder check = new StringBuilder(goal.length() + 3 * n);
+		check.append(segments[0]);
+		for(int i = 0 ; i < n ; i++) {
+			String before = segments[i];
+			String after = segments[i + 1];
+			spaceBefore[i] = !before.isEmpty() && joins(before.charAt(before.length() - 1));
+			spaceAfter[i] = !after.isEmpty() && joins(after.charAt(0));
+			check.append(" _ ").append(after);
+		}
+		String bindings;
+		try {
+			bindings = PrologAnswer.bindingsTemplate(check.toString());
+		} catch (SyntaxErrorException e) {
+			// the position is in the goal with _ for each ?
+			throw new SyntaxErrorException(e.getMessage() + " in prepared goal " + goal);
+		}
+		
+		if(projection == null) {
+			this.jsonTemplate = null;
+			this.prologTemplate = bindings;
+		} else {
+			this.jsonTemplate = projection.template(AnswerFormat.JSON);
+			this.prologTemplate = projection.template(AnswerFormat.PROLOG);
+		}
+	}
+	
+	/**
+	 * @param c a character next to a placeholder
+	 * @return true if a value written next to c might run into it
+	 */
+	private static boolean joins(char c) {
+		switch(c) {
+		case '(': case ')': case '[': case ']': case '{': case '}': case ',': case '|':
+			return false;
+		default:
+			return !Character.isWhitespace(c);
+		}
+	}
+	
+	/**
+	 * @return the goal as prepared, with its ? placeholders
+	 */
+	public String getGoal() {
+		return goal;
+	}
+	
+	/**
+	 * @return the number of ? placeholders, which is the number of values bind takes
+	 */
+	public int getParameterCount() {
+		return segments.length - 1;
+	}
+	
+	/**
+	 * Make the goal with values in place of the placeholders
+	 * 
+	 * @param args one value per placeholder, in order
+	 * @return the goal
+	 * 
+	 * @throws IllegalArgumentException if there are the wrong number of values, or one can't be written as a Prolog term
+	 */
+	public String bind(Object... args) {
+		return appendTo(new StringBuilder(goal.length() + 16 * args.length), args).toString();
+	}
+	
+	/**
+	 * Append the goal, with values in place of the placeholders. This doesn't read anything,
+	 * it's just appending the pieces.
+	 * 
+	 * @param sb where to write the goal
+	 * @param args one value per placeholder, in order
+	 * @return sb
+	 * 
+	 * @throws IllegalArgumentException if there are the wrong number of values, or one can't be written as a Prolog term
+	 */
+	public StringBuilder appendTo(StringBuilder sb, Object... args) {
+		if(args.length != segments.length - 1)
+			throw new IllegalArgumentException(goal + " needs " + Integer.toString(segments.length - 1) + 
+					" values, not " + Integer.toString(args.length));
+		
+		sb.append(segments[0]);
+		for(int i = 0 ; i < args.length ; i++) {
+			if(spaceBefore[i])
+				sb.append(' ');
+			TermWriter.writeValue(sb, args[i]);
+			if(spaceAfter[i])
+				sb.append(' ');
+			sb.append(segments[i + 1]);
+		}
+		return sb;
+	}
+	
+	/**
+	 * @param format the answer format
+	 * @return the template to ask with, or null to let the server use its default
+	 */
+	String getTemplate(AnswerFormat format) {
+		return format == AnswerFormat.PROLOG ? prologTemplate : jsonTemplate;
+	}
+
+	/**
+	 * @return the goal as prepared
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return goal;
+	}
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.util.Arrays;
+
+import com.simularity.os.javapengine.exception.SyntaxErrorException;
+import com.simularity.os.javapengine.term.Atom;
+import com.simularity.os.javapengine.term.Compound;
+import com.simularity.os.javapengine.term.Term;
+import com.simularity.os.javapengine.term.TermReader;
+import com.simularity.os.javapengine.term.TermWriter;
+import com.simularity.os.javapengine.term.Variable;
+
+/**
+ * The answer template for a query that only wants some of its bindings.
+ * 
+ * Each item of a projection is either a variable name, like Name, or Key=Term, like Emp=employee(Name, Pos).
+ * The proofs then have just those keys. The server instantiates the template, so bindings we don't ask for,
+ * like big intermediate terms, are never sent.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+final class Projection {
+	private final String[] keys;
+	// the text of the term for each key
+	private final String[] values;
+	
+	/**
+	 * @param projection the items of the projection
+	 * 
+	 * @throws SyntaxErrorException if an item isn't a variable or Key=Term, or a key is used twice
+	 */
+	Projection(String... projection) throws SyntaxErrorException {
+		keys = new String[projection.length];
+		values = new String[projection.length];
+		
+		for(int i = 0 ; i < projection.length ; i++) {
+			TermReader reader = new TermReader(projection[i]);
+			Term item = reader.readGoal();
+			
+			if(item instanceof Variable && !((Variable)item).getName().equals("_")) {
+				keys[i] = ((Variable)item).getName();
+				values[i] = keys[i];
+			} else if(item instanceof Compound && ((Compound)item).hasFunctor("=", 2)) {
+				Term key = ((Compound)item).getArg(0);
+				if(key instanceof Variable)
+					keys[i] = ((Variable)key).getName();
+				else if(key instanceof Atom)
+					keys[i] = ((Atom)key).getName();
+				else
+					throw new SyntaxErrorException("the key of projection " + projection[i] + " must be a name");
+				values[i] = ((Compound)item).getArg(1).toString();
+			} else {
+				throw new SyntaxErrorException("projection " + projection[i] + " must be a variable or Key=Term");
+			}
+			
+			for(int j = 0 ; j < i ; j++) {
+				if(keys[j].equals(keys[i]))
+					throw new SyntaxErrorException("projection has " + keys[i] + " twice");
+			}
+		}
+	}
+	
+	/**
+	 * @return the keys the proofs will have, in order
+	 */
+	String[] getKeys() {
+		return keys.clone();
+	}
+	
+	/**
+	 * The template term. In the json format that's a dict, which the server sends as a JSON object,
+	 * like it does its own default template. In the prolog format it's a list of Key=Value
+	 * 
+	 * @param format the answer format
+	 * @return the template, eg json{'Name':Name} or ['Name'=Name]
+	 */
+	String template(AnswerFormat format) {
+		StringBuilder sb = new StringBuilder(format == AnswerFormat.JSON ? "json{" : "[");
+		for(int i = 0 ; i < keys.length ; i++) {
+			if(i > 0)
+				sb.append(',');
+			TermWriter.writeAtom(sb, keys[i]).append(format == AnswerFormat.JSON ? ':' : '=').append(values[i]);
+		}
+		return sb.append(format == AnswerFormat.JSON ? '}' : ']').toString();
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(keys);
+	}
+}
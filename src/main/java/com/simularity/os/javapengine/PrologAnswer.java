@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.simularity.os.javapengine.exception.SyntaxErrorException;
+import com.simularity.os.javapengine.term.Atom;
+import com.simularity.os.javapengine.term.Compound;
+import com.simularity.os.javapengine.term.ListTerm;
+import com.simularity.os.javapengine.term.Term;
+import com.simularity.os.javapengine.term.TermReader;
+import com.simularity.os.javapengine.term.TermWriter;
+
+/**
+ * Internal helpers for the prolog answer format.
+ * 
+ * In the prolog format the server answers with instances of the ask's template, which
+ * by default is the whole goal. So we read the goal here, and send a template of
+ * ['Name'=Name, ...] for its named variables, just as the json format does on the server side.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+final class PrologAnswer {
+	
+	/**
+	 * only static methods
+	 */
+	private PrologAnswer() {
+	}
+	
+	/**
+	 * Work out the template that makes the server answer with variable bindings
+	 * 
+	 * @param goal the Prolog goal
+	 * @return the template, eg ['X'=X,'Y'=Y]
+	 * 
+	 * @throws SyntaxErrorException if the goal can't be read
+	 */
+	static String bindingsTemplate(String goal) throws SyntaxErrorException {
+		TermReader reader = new TermReader(goal);
+		reader.readGoal();
+		
+		StringBuilder sb = new StringBuilder("[");
+		for(String name : reader.getVariables().keySet()) {
+			// like the json format, leave out _Named variables
+			if(name.startsWith("_"))
+				continue;
+			if(sb.length() > 1)
+				sb.append(',');
+			TermWriter.writeAtom(sb, name).append('=').append(name);
+		}
+		return sb.append(']').toString();
+	}
+	
+	/**
+	 * Turn the solutions from a success event into proofs
+	 * 
+	 * @param solutions the list of template instances
+	 * @return the proofs
+	 * 
+	 * @throws SyntaxErrorException if they aren't lists of Name=Value
+	 */
+	static List<Proof> proofs(Term solutions) throws SyntaxErrorException {
+		if(!(solutions instanceof ListTerm))
+			throw new SyntaxErrorException("success data is not a list " + solutions.toString());
+		
+		ListTerm list = (ListTerm)solutions;
+		List<Proof> proofs = new ArrayList<Proof>(list.size());
+		for(Term solution : list.getElements()) {
+			proofs.add(new Proof(bindings(solution)));
+		}
+		return proofs;
+	}
+	
+	private static Map<String, Term> bindings(Term solution) throws SyntaxErrorException {
+		if(!(solution instanceof ListTerm))
+			throw new SyntaxErrorException("solution is not a list of bindings " + solution.toString());
+		
+		ListTerm list = (ListTerm)solution;
+		Map<String, Term> bindings = new LinkedHashMap<String, Term>(list.size() * 2);
+		for(Term binding : list.getElements()) {
+			if(!(binding instanceof Compound) || !((Compound)binding).hasFunctor("=", 2) ||
+					!(((Compound)binding).getArg(0) instanceof Atom))
+				throw new SyntaxErrorException("solution is not a list of bindings " + solution.toString());
+			
+			Compound eq = (Compound)binding;
+			bindings.put(((Atom)eq.getArg(0)).getName(), eq.getArg(1));
+		}
+		return bindings;
+	}
+	
+	/**
+	 * @param event an answer event
+	 * @param i the argument number, from 0
+	 * @return the argument, or null if the event isn't a compound with that many arguments
+	 */
+	static Term arg(Term event, int i) {
+		if(event instanceof Compound && ((Compound)event).getArity() > i)
+			return ((Compound)event).getArg(i);
+		return null;
+	}
+	
+	/**
+	 * @param event an answer event
+	 * @return the event name - the functor name or the atom
+	 */
+	static String eventName(Term event) {
+		if(event instanceof Compound)
+			return ((Compound)event).getName();
+		if(event instanceof Atom)
+			return ((Atom)event).getName();
+		return "";
+	}
+}
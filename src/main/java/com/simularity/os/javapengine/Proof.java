@@ -23,11 +23,19 @@ THE SOFTWARE.
  */
 package com.simularity.os.javapengine;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import javax.json.JsonNumber;
 import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
 import javax.json.JsonString;
 import javax.json.JsonValue;
 import javax.json.JsonValue.ValueType;
+import javax.json.spi.JsonProvider;
+
+import com.simularity.os.javapengine.term.Term;
 
 /**
  * A single 'proof' - a result from Prolog
@@ -38,7 +46,12 @@ import javax.json.JsonValue.ValueType;
  *
  */
 public class Proof {
-	JsonObject json;
+	// the static Json methods look the provider up on every call
+	private static final JsonProvider jsonProvider = JsonProvider.provider();
+	
+	private JsonObject json;
+	private Map<String, Term> terms;
+	private final boolean prologAnswer;
 	
 	/**
 	 * Constructor based on the returned JSON data element
@@ -47,6 +60,24 @@ public class Proof {
 	 */
 	Proof(JsonObject jsonValue) {
 		json = jsonValue;
+		prologAnswer = false;
+	}
+	
+	/**
+	 * Constructor based on the bindings from a prolog format answer
+	 * 
+	 * @param terms map from variable name to the term it's bound to
+	 */
+	Proof(Map<String, Term> terms) {
+		this.terms = terms;
+		prologAnswer = true;
+	}
+	
+	/**
+	 * @return the bindings as Terms if the answer came in the prolog format, else null
+	 */
+	Map<String, Term> rawTerms() {
+		return prologAnswer ? terms : null;
 	}
 
 	/**
@@ -56,7 +87,7 @@ public class Proof {
 	 */
 	@Override
 	public String toString() {
-		return json.toString();
+		return getValues().toString();
 	}
 	
 	/**
@@ -67,18 +98,58 @@ public class Proof {
 	 * @return the JsonValue
 	 */
 	public JsonValue getValue(String key) {
-		return json.get(key);
+		return getValues().get(key);
 	}
 	
 	/**
 	 * Return the set of values as a JSON object
 	 * 
+	 * If the answer came in the prolog format this is made on first use,
+	 * the same way the server makes the json format
+	 * 
 	 * @return the JSON object
 	 */
-	public JsonObject getValues() {
+	public synchronized JsonObject getValues() {
+		if(json == null) {
+			JsonObjectBuilder job = jsonProvider.createObjectBuilder();
+			for(Map.Entry<String, Term> e : terms.entrySet()) {
+				job.add(e.getKey(), e.getValue().toJson());
+			}
+			json = job.build();
+		}
 		return json;
 	}
 	
+	/**
+	 * given a key, which is a string representing the Prolog variable, return the Term
+	 * it is bound to
+	 * 
+	 * Answers that came in the json format are converted, which can't tell strings from atoms.
+	 * Use the prolog format (see PengineBuilder.setFormat) if that matters.
+	 * 
+	 * @param key the Prolog variable, a string with an uppercase first letter
+	 * @return the Term, or null if there's no such variable
+	 */
+	public Term getTerm(String key) {
+		return getTerms().get(key);
+	}
+	
+	/**
+	 * Return the set of values as Terms
+	 * 
+	 * @return unmodifiable map from variable name to Term, in the order the variables appear in the query
+	 */
+	public synchronized Map<String, Term> getTerms() {
+		if(terms == null) {
+			Map<String, Term> t = new LinkedHashMap<String, Term>(json.size() * 2);
+			for(Map.Entry<String, JsonValue> e : json.entrySet()) {
+				t.put(e.getKey(), Term.fromJson(e.getValue()));
+			}
+			terms = t;
+		}
+		return Collections.unmodifiableMap(terms);
+	}
+	
 	/**
 	 * Convenience method to getValue that coerces the JSON value to a string.
 	 * Usually you'd only use this if you're expecting a string
@@ -86,11 +157,11 @@ public class Proof {
 	 * 
 	 */
 	public String getString(String key) {
-		switch (json.get(key).getValueType()) {
+		switch (getValue(key).getValueType()) {
 		case STRING:
-			return ((JsonString)json.get(key)).getString();
+			return ((JsonString)getValue(key)).getString();
 		default:
-			return json.get(key).toString();
+			return getValue(key).toString();
 		}
 	}
 	
@@ -104,8 +175,8 @@ public class Proof {
 	 * 
 	 */
 	public int getInt(String key) {
-		if (json.get(key).getValueType() == ValueType.NUMBER)
-			return ((JsonNumber)json.get(key)).intValueExact();
+		if (getValue(key).getValueType() == ValueType.NUMBER)
+			return ((JsonNumber)getValue(key)).intValueExact();
 		else
 			return Integer.parseInt(getString(key));
 	}
@@ -121,8 +192,8 @@ public class Proof {
 	 * 
 	 */
 	public int getNearestInt(String key) {
-		if (json.get(key).getValueType() == ValueType.NUMBER)
-			return ((JsonNumber)json.get(key)).intValue();
+		if (getValue(key).getValueType() == ValueType.NUMBER)
+			return ((JsonNumber)getValue(key)).intValue();
 		else
 			return Integer.parseInt(getString(key));
 	}
@@ -136,8 +207,8 @@ public class Proof {
 	 * 
 	 */
 	public double getDouble(String key) {
-		if (json.get(key).getValueType() == ValueType.NUMBER)
-			return ((JsonNumber)json.get(key)).doubleValue();
+		if (getValue(key).getValueType() == ValueType.NUMBER)
+			return ((JsonNumber)getValue(key)).doubleValue();
 		else
 			return Double.parseDouble(getString(key));
 	}
@@ -0,0 +1,206 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+/**
+ * The proofs a Query has received but not yet handed out.
+ * 
+ * With a heap budget, once the proofs held in memory would exceed it the rest go to a
+ * SpillFile, and are read back one at a time as the ones in memory are used up.
+ * Proofs always come out in the order they went in. If a spilled proof can't be read back, 
+ * every poll fails from then on, rather than skipping to the proofs after it.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+final class ProofBuffer {
+	private final ArrayDeque<Proof> heap = new ArrayDeque<Proof>();
+	private final long budget;
+	private final File spillDirectory;
+	private long heapBytes = 0;
+	private SpillFile spill = null;
+	private ProofCodec.Encoder encoder = null;
+	private ProofCodec.Decoder decoder = null;
+	// why spilled proofs were lost, until it's cleared
+	private IOException broken = null;
+	
+	/**
+	 * @param budget estimated bytes of proofs to keep on the heap, or 0 to keep them all
+	 * @param spillDirectory where to make the spill file, or null for the default temp directory
+	 */
+	ProofBuffer(long budget, File spillDirectory) {
+		this.budget = budget;
+		this.spillDirectory = spillDirectory;
+	}
+	
+	/**
+	 * add a proof at the end
+	 * 
+	 * @param proof the proof. Dropped if spilled proofs before it were lost
+	 */
+	synchronized void add(Proof proof) {
+		if(broken != null)
+			return;
+		if(budget <= 0) {
+			heap.add(proof);
+			return;
+		}
+		
+		long size = ProofCodec.estimateHeap(proof);
+		if((spill == null || spill.size() == 0) && heapBytes + size <= budget) {
+			heap.add(proof);
+			heapBytes += size;
+			return;
+		}
+		
+		try {
+			if(spill == null) {
+				spill = new SpillFile(spillDirectory);
+				encoder = new ProofCodec.Encoder();
+				decoder = new ProofCodec.Decoder();
+			}
+			int length = encoder.encode(proof);
+			spill.write(encoder.array(), length);
+		} catch (IOException e) {
+			System.err.println("cannot spill proof to disk, keeping it in memory " + e.getMessage());
+			if(spill != null && spill.size() > 0) {
+				// keep the order, bring the spilled ones back first
+				drainSpill();
+				if(broken != null)
+					return;
+			}
+			heap.add(proof);
+			heapBytes += size;
+		}
+	}
+	
+	/**
+	 * remove the first proof
+	 * 
+	 * @return the proof, or null if there are none
+	 * @throws IOException if a spilled proof can't be read back. The proofs after it are dropped
+	 */
+	synchronized Proof poll() throws IOException {
+		if(broken != null)
+			throw new IOException("spilled proofs lost " + broken.getMessage(), broken);
+		
+		Proof p = heap.poll();
+		if(p != null) {
+			if(budget > 0)
+				heapBytes -= ProofCodec.estimateHeap(p);
+			return p;
+		}
+		
+		if(spill == null || spill.size() == 0)
+			return null;
+		
+		try {
+			return decoder.decode(spill.read());
+		} catch (IOException e) {
+			lose(e);
+			throw e;
+		}
+	}
+	
+	/**
+	 * @return true if there are no proofs. Not if spilled proofs were lost - poll says so
+	 */
+	synchronized boolean isEmpty() {
+		return broken == null && heap.isEmpty() && (spill == null || spill.size() == 0);
+	}
+	
+	/**
+	 * @return how many proofs there are
+	 */
+	synchronized int size() {
+		return heap.size() + (spill == null ? 0 : spill.size());
+	}
+	
+	/**
+	 * @return how many proofs are in the spill file
+	 */
+	synchronized int spilled() {
+		return spill == null ? 0 : spill.size();
+	}
+	
+	/**
+	 * drop all the proofs and delete the spill file, if any.
+	 * 
+	 * The buffer can still be used afterwards.
+	 */
+	synchronized void clear() {
+		heap.clear();
+		heapBytes = 0;
+		broken = null;
+		if(spill != null) {
+			spill.close();
+			spill = null;
+			encoder = null;
+			decoder = null;
+		}
+	}
+	
+	private void drainSpill() {
+		try {
+			byte[] data;
+			while((data = spill.read()) != null) {
+				Proof p = decoder.decode(data);
+				heap.add(p);
+				heapBytes += ProofCodec.estimateHeap(p);
+			}
+		} catch (IOException e) {
+			lose(e);
+			return;
+		}
+		spill.close();
+		spill = null;
+		encoder = null;
+		decoder = null;
+	}
+	
+	/**
+	 * a spilled proof couldn't be read back. Drop it and everything after it, and fail every poll from now on
+	 */
+	private void lose(IOException e) {
+		System.err.println("cannot read spilled proof " + e.getMessage());
+		heap.clear();
+		heapBytes = 0;
+		spill.close();
+		spill = null;
+		encoder = null;
+		decoder = null;
+		broken = e;
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return Integer.toString(heap.size()) + " proofs in memory (about " + Long.toString(heapBytes) + " bytes of " +
+				(budget > 0 ? Long.toString(budget) : "unlimited") + ")" +
+				(spill == null ? "" : ", spilled " + spill.toString());
+	}
+}
@@ -0,0 +1,509 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.spi.JsonProvider;
+
+import com.simularity.os.javapengine.term.Atom;
+import com.simularity.os.javapengine.term.Compound;
+import com.simularity.os.javapengine.term.FloatTerm;
+import com.simularity.os.javapengine.term.IntegerTerm;
+import com.simularity.os.javapengine.term.ListTerm;
+import com.simularity.os.javapengine.term.StringTerm;
+import com.simularity.os.javapengine.term.Term;
+import com.simularity.os.javapengine.term.Variable;
+
+/**
+ * Compact binary encoding of proofs, for spilling them to disk.
+ * 
+ * A proof is a kind byte (json or term), the number of bindings, then each binding's key and value.
+ * Keys repeat in every proof, so each is written once and then referred to by number - which means
+ * proofs must be decoded in the order they were encoded, by a decoder paired with the encoder.
+ * Numbers are zigzag varints, strings are a varint length and UTF-8.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+final class ProofCodec {
+	// the static Json methods look the provider up on every call
+	private static final JsonProvider jsonProvider = JsonProvider.provider();
+	
+	private static final byte KIND_JSON = 'J';
+	private static final byte KIND_TERM = 'T';
+	
+	// json values
+	private static final byte J_NULL = 0;
+	private static final byte J_TRUE = 1;
+	private static final byte J_FALSE = 2;
+	private static final byte J_LONG = 3;
+	private static final byte J_DECIMAL = 4;
+	private static final byte J_STRING = 5;
+	private static final byte J_ARRAY = 6;
+	private static final byte J_OBJECT = 7;
+	
+	// terms
+	private static final byte T_ATOM = 16;
+	private static final byte T_LONG = 17;
+	private static final byte T_BIG = 18;
+	private static final byte T_FLOAT = 19;
+	private static final byte T_STRING = 20;
+	private static final byte T_COMPOUND = 21;
+	private static final byte T_LIST = 22;
+	private static final byte T_PARTIAL_LIST = 23;
+	private static final byte T_VARIABLE = 24;
+	
+	/**
+	 * only static members
+	 */
+	private ProofCodec() {
+	}
+	
+	/**
+	 * Encodes proofs, one at a time, into a reused array
+	 */
+	static final class Encoder {
+		private final Map<String, Integer> keys = new HashMap<String, Integer>();
+		private byte[] buf = new byte[256];
+		private int length = 0;
+		
+		/**
+		 * @param proof the proof
+		 * @return the number of bytes encoded, which are in array()
+		 */
+		int encode(Proof proof) {
+			length = 0;
+			Map<String, Term> terms = proof.rawTerms();
+			if(terms != null) {
+				put(KIND_TERM);
+				putVarint(terms.size());
+				for(Map.Entry<String, Term> e : terms.entrySet()) {
+					putKey(e.getKey());
+					putTerm(e.getValue());
+				}
+			} else {
+				JsonObject json = proof.getValues();
+				put(KIND_JSON);
+				putVarint(json.size());
+				for(Map.Entry<String, JsonValue> e : json.entrySet()) {
+					putKey(e.getKey());
+					putJson(e.getValue());
+				}
+			}
+			return length;
+		}
+		
+		/**
+		 * @return the encoding, valid up to the length encode returned and until the next encode
+		 */
+		byte[] array() {
+			return buf;
+		}
+		
+		private void ensure(int n) {
+			if(length + n > buf.length) {
+				byte[] bigger = new byte[Math.max(buf.length * 2, length + n)];
+				System.arraycopy(buf, 0, bigger, 0, length);
+				buf = bigger;
+			}
+		}
+		
+		private void put(byte b) {
+			ensure(1);
+			buf[length++] = b;
+		}
+		
+		private void putVarint(long v) {
+			ensure(10);
+			while((v & ~0x7FL) != 0) {
+				buf[length++] = (byte)((v & 0x7F) | 0x80);
+				v >>>= 7;
+			}
+			buf[length++] = (byte)v;
+		}
+		
+		private void putZigzag(long v) {
+			putVarint((v << 1) ^ (v >> 63));
+		}
+		
+		private void putString(String s) {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			putVarint(bytes.length);
+			ensure(bytes.length);
+			System.arraycopy(bytes, 0, buf, length, bytes.length);
+			length += bytes.length;
+		}
+		
+		private void putDouble(double d) {
+			long bits = Double.doubleToRawLongBits(d);
+			ensure(8);
+			for(int i = 0 ; i < 8 ; i++) {
+				buf[length++] = (byte)bits;
+				bits >>>= 8;
+			}
+		}
+		
+		private void putKey(String key) {
+			Integer n = keys.get(key);
+			if(n == null) {
+				keys.put(key, keys.size() + 1);
+				putVarint(0);
+				putString(key);
+			} else {
+				putVarint(n);
+			}
+		}
+		
+		private void putJson(JsonValue v) {
+			switch(v.getValueType()) {
+			case NULL:
+				put(J_NULL);
+				break;
+			case TRUE:
+				put(J_TRUE);
+				break;
+			case FALSE:
+				put(J_FALSE);
+				break;
+			case NUMBER:
+				JsonNumber num = (JsonNumber)v;
+				if(num.isIntegral() && num.bigIntegerValue().bitLength() < 64) {
+					put(J_LONG);
+					putZigzag(num.longValue());
+				} else {
+					put(J_DECIMAL);
+					putString(num.bigDecimalValue().toString());
+				}
+				break;
+			case STRING:
+				put(J_STRING);
+				putString(((JsonString)v).getString());
+				break;
+			case ARRAY:
+				JsonArray array = (JsonArray)v;
+				put(J_ARRAY);
+				putVarint(array.size());
+				for(JsonValue element : array)
+					putJson(element);
+				break;
+			case OBJECT:
+				JsonObject obj = (JsonObject)v;
+				put(J_OBJECT);
+				putVarint(obj.size());
+				for(Map.Entry<String, JsonValue> e : obj.entrySet()) {
+					putString(e.getKey());
+					putJson(e.getValue());
+				}
+				break;
+			}
+		}
+		
+		private void putTerm(Term t) {
+			switch(t.getType()) {
+			case ATOM:
+				put(T_ATOM);
+				putString(((Atom)t).getName());
+				break;
+			case INTEGER:
+				IntegerTerm i = (IntegerTerm)t;
+				if(i.isBig()) {
+					put(T_BIG);
+					putString(i.bigIntegerValue().toString());
+				} else {
+					put(T_LONG);
+					putZigzag(i.longValue());
+				}
+				break;
+			case FLOAT:
+				put(T_FLOAT);
+				putDouble(((FloatTerm)t).doubleValue());
+				break;
+			case STRING:
+				put(T_STRING);
+				putString(((StringTerm)t).getValue());
+				break;
+			case COMPOUND:
+				Compound c = (Compound)t;
+				put(T_COMPOUND);
+				putString(c.getName());
+				putVarint(c.getArity());
+				for(int arg = 0 ; arg < c.getArity() ; arg++)
+					putTerm(c.getArg(arg));
+				break;
+			case LIST:
+				ListTerm list = (ListTerm)t;
+				put(list.isProper() ? T_LIST : T_PARTIAL_LIST);
+				putVarint(list.size());
+				for(Term element : list.getElements())
+					putTerm(element);
+				if(!list.isProper())
+					putTerm(list.getTail());
+				break;
+			case VARIABLE:
+				put(T_VARIABLE);
+				putString(((Variable)t).getName());
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * Decodes proofs made by an Encoder, in the order they were encoded
+	 */
+	static final class Decoder {
+		private final List<String> keys = new ArrayList<String>();
+		private byte[] buf;
+		private int pos;
+		
+		/**
+		 * @param data the encoding of one proof
+		 * @return the proof
+		 * @throws IOException if it's not a proof's encoding - the spill file's been damaged
+		 */
+		Proof decode(byte[] data) throws IOException {
+			buf = data;
+			pos = 0;
+			try {
+				return decodeProof();
+			} catch (RuntimeException e) {
+				throw new IOException("corrupt spilled proof " + e.toString(), e);
+			}
+		}
+		
+		private Proof decodeProof() {
+			byte kind = buf[pos++];
+			int n = (int)getVarint();
+			if(kind == KIND_TERM) {
+				Map<String, Term> terms = new LinkedHashMap<String, Term>(n * 2);
+				for(int i = 0 ; i < n ; i++) {
+					String key = getKey();
+					terms.put(key, getTerm());
+				}
+				return new Proof(terms);
+			}
+			
+			JsonObjectBuilder job = jsonProvider.createObjectBuilder();
+			for(int i = 0 ; i < n ; i++) {
+				String key = getKey();
+				job.add(key, getJson());
+			}
+			return new Proof(job.build());
+		}
+		
+		private long getVarint() {
+			long v = 0;
+			int shift = 0;
+			for(;;) {
+				byte b = buf[pos++];
+				v |= (long)(b & 0x7F) << shift;
+				if(b >= 0)
+					return v;
+				shift += 7;
+			}
+		}
+		
+		private long getZigzag() {
+			long v = getVarint();
+			return (v >>> 1) ^ -(v & 1);
+		}
+		
+		private String getString() {
+			int n = (int)getVarint();
+			String s = new String(buf, pos, n, StandardCharsets.UTF_8);
+			pos += n;
+			return s;
+		}
+		
+		private double getDouble() {
+			long bits = 0;
+			for(int i = 0 ; i < 8 ; i++)
+				bits |= (buf[pos++] & 0xFFL) << (8 * i);
+			return Double.longBitsToDouble(bits);
+		}
+		
+		private String getKey() {
+			int n = (int)getVarint();
+			if(n == 0) {
+				String key = getString();
+				keys.add(key);
+				return key;
+			}
+			return keys.get(n - 1);
+		}
+		
+		private JsonValue getJson() {
+			byte tag = buf[pos++];
+			switch(tag) {
+			case J_NULL:
+				return JsonValue.NULL;
+			case J_TRUE:
+				return JsonValue.TRUE;
+			case J_FALSE:
+				return JsonValue.FALSE;
+			case J_LONG:
+				return jsonProvider.createValue(getZigzag());
+			case J_DECIMAL:
+				return jsonProvider.createValue(new BigDecimal(getString()));
+			case J_STRING:
+				return jsonProvider.createValue(getString());
+			case J_ARRAY:
+				int n = (int)getVarint();
+				JsonArrayBuilder jab = jsonProvider.createArrayBuilder();
+				for(int i = 0 ; i < n ; i++)
+					jab.add(getJson());
+				return jab.build();
+			case J_OBJECT:
+				int m = (int)getVarint();
+				JsonObjectBuilder job = jsonProvider.createObjectBuilder();
+				for(int i = 0 ; i < m ; i++) {
+					String key = getString();
+					job.add(key, getJson());
+				}
+				return job.build();
+			default:
+				throw new IllegalStateException("corrupt spill file, json tag " + Integer.toString(tag));
+			}
+		}
+		
+		private Term getTerm() {
+			byte tag = buf[pos++];
+			switch(tag) {
+			case T_ATOM:
+				return new Atom(getString());
+			case T_LONG:
+				return new IntegerTerm(getZigzag());
+			case T_BIG:
+				return new IntegerTerm(new BigInteger(getString()));
+			case T_FLOAT:
+				return new FloatTerm(getDouble());
+			case T_STRING:
+				return new StringTerm(getString());
+			case T_COMPOUND:
+				String name = getString();
+				Term[] args = new Term[(int)getVarint()];
+				for(int i = 0 ; i < args.length ; i++)
+					args[i] = getTerm();
+				return new Compound(name, args);
+			case T_LIST:
+			case T_PARTIAL_LIST:
+				int n = (int)getVarint();
+				List<Term> elements = new ArrayList<Term>(n);
+				for(int i = 0 ; i < n ; i++)
+					elements.add(getTerm());
+				if(tag == T_LIST)
+					return new ListTerm(elements);
+				return new ListTerm(elements, getTerm());
+			case T_VARIABLE:
+				return new Variable(getString());
+			default:
+				throw new IllegalStateException("corrupt spill file, term tag " + Integer.toString(tag));
+			}
+		}
+	}
+	
+	/**
+	 * A rough guess at the heap a proof takes up, for deciding when to spill.
+	 * 
+	 * @param proof the proof
+	 * @return the estimated size in bytes
+	 */
+	static long estimateHeap(Proof proof) {
+		long size = 48;
+		Map<String, Term> terms = proof.rawTerms();
+		if(terms != null) {
+			for(Map.Entry<String, Term> e : terms.entrySet())
+				size += 48 + string(e.getKey()) + term(e.getValue());
+		} else {
+			for(Map.Entry<String, JsonValue> e : proof.getValues().entrySet())
+				size += 48 + string(e.getKey()) + json(e.getValue());
+		}
+		return size;
+	}
+	
+	private static long string(String s) {
+		return 56 + 2L * s.length();
+	}
+	
+	private static long json(JsonValue v) {
+		switch(v.getValueType()) {
+		case STRING:
+			return 16 + string(((JsonString)v).getString());
+		case NUMBER:
+			return 48;
+		case ARRAY:
+			long a = 40;
+			for(JsonValue element : (JsonArray)v)
+				a += 8 + json(element);
+			return a;
+		case OBJECT:
+			long o = 64;
+			for(Map.Entry<String, JsonValue> e : ((JsonObject)v).entrySet())
+				o += 48 + string(e.getKey()) + json(e.getValue());
+			return o;
+		default:
+			return 0;
+		}
+	}
+	
+	private static long term(Term t) {
+		switch(t.getType()) {
+		case ATOM:
+			return 16 + string(((Atom)t).getName());
+		case STRING:
+			return 16 + string(((StringTerm)t).getValue());
+		case COMPOUND:
+			Compound c = (Compound)t;
+			long size = 40 + string(c.getName()) + 8L * c.getArity();
+			for(int i = 0 ; i < c.getArity() ; i++)
+				size += term(c.getArg(i));
+			return size;
+		case LIST:
+			ListTerm list = (ListTerm)t;
+			long l = 64 + 8L * list.size();
+			for(Term element : list.getElements())
+				l += term(element);
+			return list.isProper() ? l : l + term(list.getTail());
+		case VARIABLE:
+			return 16 + string(((Variable)t).getName());
+		default:
+			return 32;
+		}
+	}
+}
@@ -23,14 +23,21 @@ THE SOFTWARE.
  */
 package com.simularity.os.javapengine;
 
+import java.io.IOException;
 import java.util.Iterator;
-import java.util.Vector;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import javax.json.JsonArray;
 import javax.json.JsonObject;
 import javax.json.JsonValue;
 
+import org.reactivestreams.Publisher;
+
+import com.simularity.os.javapengine.exception.PengineNotAvailableException;
 import com.simularity.os.javapengine.exception.PengineNotReadyException;
+import com.simularity.os.javapengine.exception.PengineTimeoutException;
 
 /**
  * @author Anne Ogborn
@@ -41,11 +48,15 @@ import com.simularity.os.javapengine.exception.PengineNotReadyException;
  *  
  */
 public class Query implements Iterator<Proof> {
-
+	/**
+	 * the chunk size collectColumns asks for if it's not told
+	 */
+	public static final int DEFAULT_COLUMN_CHUNK = 10000;
+	
 	private boolean hasMore = true;  // there are more answers on the server
     private boolean succeeded = false; // A solution has yet to be delivered!
 	private Pengine p;
-	private Vector<JsonObject> availProofs = new Vector<JsonObject>();
+	private final ProofBuffer availProofs;
 	
 	/**
 	 * @param pengine the pengine that is making the query
@@ -56,6 +67,7 @@ public class Query implements Iterator<Proof> {
 	 */
 	Query(Pengine pengine, String ask, boolean queryMaster) throws PengineNotReadyException {
 		p = pengine;
+		availProofs = pengine.newProofBuffer();
 		
 		if(queryMaster) {
 			p.doAsk(this, ask);
@@ -72,6 +84,8 @@ public class Query implements Iterator<Proof> {
 	 * never return a non-null in the future.
 	 * 
 	 * Note that we don't throw the PengineNotReadyException. This is to conform to the Iterator interface
+	 * That includes a spilled proof that can't be read back - the query's stopped, so the proofs after it 
+	 * aren't handed out as if nothing was missing. Use {@link #next(long, TimeUnit)} to have it thrown.
 	 * 
 	 * @return  the next proof, or null if not available
 	 */
@@ -88,12 +102,12 @@ public class Query implements Iterator<Proof> {
         }
 		// the was data available
 		if(!availProofs.isEmpty()) {
-			JsonObject data = availProofs.get(0);
-			availProofs.remove(0);
-			if(!hasMore && availProofs.isEmpty())
-				p.iAmFinished(this);
-			
-			return new Proof(data);
+			try {
+				return poll();
+			} catch (PengineNotReadyException e) {
+				e.printStackTrace();
+				return null;
+			}
 		}
 		
 		// we don't have any available and the server's done
@@ -113,11 +127,12 @@ public class Query implements Iterator<Proof> {
 		
 		// if we now have data, we have to do just like above
 		if(!availProofs.isEmpty()) {
-			JsonObject data = availProofs.get(0);
-			availProofs.remove(0);
-			if(!hasMore && availProofs.isEmpty())
-				p.iAmFinished(this);
-			return new Proof(data);
+			try {
+				return poll();
+			} catch (PengineNotReadyException e) {
+				e.printStackTrace();
+				return null;
+			}
 		} else {  // we asked for data and didn't get it, the server must be done
 			if(hasMore)System.err.println("Why is hasMore true here?");
 			
@@ -125,6 +140,164 @@ public class Query implements Iterator<Proof> {
 		}
 	}
 	
+	/**
+	 * return the next proof, or null if there are no more, giving up if the server
+	 * hasn't sent it in time.
+	 * 
+	 * Unlike {@link #next()}, failures are thrown rather than returned as null.
+	 * 
+	 * @param timeout how long to wait, or 0 for the builder's timeout
+	 * @param unit the unit of timeout
+	 * @return the next proof, or null if there are no more
+	 * 
+	 * @throws PengineTimeoutException if the deadline passed. The pengine is destroyed
+	 * @throws PengineNotReadyException if the pengine's been destroyed or is busy with another query
+	 */
+	synchronized public Proof next(long timeout, TimeUnit unit) throws PengineNotReadyException {
+		long prev = p.setDeadline(unit.toNanos(timeout));
+		try {
+			while (!succeeded && hasMore && !p.isDestroyed()) {
+				p.doPullResponse();
+			}
+			if(availProofs.isEmpty() && hasMore) {
+				succeeded = false;
+				p.doNext(this);
+			}
+			return poll();
+		} finally {
+			p.restoreDeadline(prev);
+		}
+	}
+	
+	/**
+	 * return the next proof if one has already been delivered by the server, without
+	 * making a request.
+	 * 
+	 * @return the next buffered proof, or null if none is buffered
+	 * @throws PengineNotAvailableException if a spilled proof can't be read back. The query's stopped, 
+	 *   since the proofs after it can't be handed out as if nothing was missing
+	 */
+	synchronized Proof poll() throws PengineNotReadyException {
+		Proof data;
+		try {
+			data = availProofs.poll();
+		} catch (IOException e) {
+			try {
+				stop();
+			} catch (PengineNotReadyException e2) {
+				hasMore = false;
+				finished();
+			}
+			throw new PengineNotAvailableException("cannot read back a spilled proof " + e.getMessage());
+		}
+		if(data == null)
+			return null;
+		
+		if(!hasMore && availProofs.isEmpty())
+			finished();
+		
+		return data;
+	}
+	
+	/**
+	 * ask the server for up to chunk more proofs, which will then be available via {@link #poll()}
+	 * 
+	 * Does nothing if proofs are already buffered or the server has no more.
+	 * 
+	 * @param chunk the number of proofs to ask for
+	 * 
+	 * @throws PengineNotReadyException if the pengine's been destroyed or is busy with another query
+	 */
+	synchronized void fetch(int chunk) throws PengineNotReadyException {
+		while (!succeeded && hasMore) {
+			p.doPullResponse();
+		}
+		
+		if(!hasMore || !availProofs.isEmpty())
+			return;
+		
+		succeeded = false;
+		p.doNext(this, chunk);
+	}
+	
+	/**
+	 * Get all the remaining proofs as columns, asking the server for chunks of DEFAULT_COLUMN_CHUNK
+	 *
+	 * @see #collectColumns(int)
+	 * @return the remaining solutions
+	 * @throws PengineNotReadyException if the pengine's been destroyed or is busy with another query
+	 */
+	public ResultColumns collectColumns() throws PengineNotReadyException {
+		return collectColumns(DEFAULT_COLUMN_CHUNK);
+	}
+	
+	/**
+	 * Get all the remaining proofs as columns - an int[], long[], double[], or dictionary
+	 * encoded strings per variable - rather than as Proofs.
+	 *
+	 * In the json format the answers are parsed straight into the columns, without
+	 * making a Proof or a JsonObject per solution. Answers the query already had, and answers
+	 * in the prolog format, are copied from their Proofs.
+	 *
+	 * @param chunk the number of solutions to ask the server for at a time
+	 * @return the remaining solutions. The query is finished afterwards
+	 * @throws PengineNotReadyException if the pengine's been destroyed or is busy with another query
+	 */
+	public synchronized ResultColumns collectColumns(int chunk) throws PengineNotReadyException {
+		if(chunk < 1)
+			throw new IllegalArgumentException("chunk must be at least 1");
+		
+		ResultColumns columns = new ResultColumns();
+		for(;;) {
+			while (!succeeded && hasMore) {
+				p.doPullResponse();
+			}
+			
+			for(Proof proof = poll() ; proof != null ; proof = poll())
+				columns.addProof(proof);
+			
+			if(!hasMore)
+				return columns;
+			
+			succeeded = false;
+			columns.ensureCapacity(chunk);
+			if(p.getFormat() == AnswerFormat.JSON)
+				p.doNextColumns(this, chunk, columns);
+			else
+				p.doNext(this, chunk);
+		}
+	}
+	
+	/**
+	 * Get a Reactive Streams publisher of the remaining proofs.
+	 * 
+	 * The subscriber's demand drives the chunk size - a request(n) with nothing buffered sends 
+	 * a single next for up to n answers, and cancelling the subscription stops the query on the slave.
+	 * 
+	 * Requests to the server are made on a shared pool of daemon threads, so the subscriber is never
+	 * blocked waiting for the server. 
+	 * On Java 9 or later, wrap the result with org.reactivestreams.FlowAdapters.toFlowPublisher
+	 * to get a java.util.concurrent.Flow.Publisher
+	 * 
+	 * A query can only be consumed once, so the publisher accepts only a single subscriber.
+	 * 
+	 * @return a publisher of the proofs
+	 */
+	public Publisher<Proof> publisher() {
+		return new QueryPublisher(this, QueryPublisher.defaultExecutor());
+	}
+	
+	/**
+	 * Get a Reactive Streams publisher of the remaining proofs that talks to the server on the
+	 * supplied executor. @see #publisher()
+	 * 
+	 * @param executor  the executor that performs requests and delivers signals to the subscriber
+	 * @return a publisher of the proofs
+	 */
+	public Publisher<Proof> publisher(Executor executor) {
+		return new QueryPublisher(this, executor);
+	}
+	
 	/**
 	 * signal the query that there are no more Proofs of the query available.
 	 * message sent from the http world
@@ -136,7 +309,7 @@ public class Query implements Iterator<Proof> {
 		
 		hasMore = false;
 		if(availProofs.isEmpty())
-			p.iAmFinished(this);
+			finished();
 		
 		// we might be held externally, waiting to deliver last Proof or no-more-Proof result
 	}
@@ -147,7 +320,25 @@ public class Query implements Iterator<Proof> {
 	 * @param newDataPoints
 	 */
 	synchronized void addNewData(JsonArray newDataPoints) {
-		for(Iterator<JsonValue> iter = newDataPoints.listIterator(); iter.hasNext() ; availProofs.add( ((JsonObject)iter.next())));
+		for(JsonValue v : newDataPoints)
+			availProofs.add(new Proof((JsonObject)v));
+	}
+	
+	/**
+	 * @return the buffer the proofs go in, for the http world to fill as it reads a response
+	 */
+	ProofBuffer getProofBuffer() {
+		return availProofs;
+	}
+	
+	/**
+	 * Callback from the http world that we've got new proofs from the slave in the prolog format
+	 * 
+	 * @param newProofs
+	 */
+	synchronized void addNewProofs(List<Proof> newProofs) {
+		for(Proof proof : newProofs)
+			availProofs.add(proof);
 	}
 	
 	/**
@@ -185,8 +376,43 @@ public class Query implements Iterator<Proof> {
             p.doStop();
 		
 		hasMore = false;
+		finished();
+	}
+	
+	/**
+	 * Abort the query at once, even if the server's in the middle of working on it.
+	 * See Pengine.abort()
+	 * 
+	 * @throws PengineNotAvailableException if the abort can't be sent. The pengine is destroyed
+	 */
+	public void abort() throws PengineNotReadyException {
+		p.abort();
+	}
+	
+	/**
+	 * Stop the query on the slave, giving up if the server doesn't answer in time. 
+	 * 
+	 * @param timeout how long to wait, or 0 for the builder's timeout
+	 * @param unit the unit of timeout
+	 * 
+	 * @throws PengineTimeoutException if the deadline passed. The pengine is destroyed
+	 * @throws PengineNotReadyException if the pengine's been destroyed
+	 */
+	public void stop(long timeout, TimeUnit unit) throws PengineNotReadyException {
+		long prev = p.setDeadline(unit.toNanos(timeout));
+		try {
+			stop();
+		} finally {
+			p.restoreDeadline(prev);
+		}
+	}
+	
+	/**
+	 * the query's done, let go of any buffered proofs (deleting the spill file if there is one)
+	 * and tell the pengine
+	 */
+	private void finished() {
 		availProofs.clear();
-		
 		p.iAmFinished(this);
 	}
 
@@ -0,0 +1,313 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.simularity.os.javapengine.exception.CouldNotCreateException;
+import com.simularity.os.javapengine.exception.PengineNotReadyException;
+
+/**
+ * Runs one-shot queries - create, ask, get every answer, destroy - so that identical queries made at the same time 
+ * share one pengine.
+ * 
+ * When many threads ask the same goal of the same server, with the same source text, at once, the first creates 
+ * a pengine and asks the goal; the rest join it. Each gets its own CoalescedQuery, which goes through every answer 
+ * from the first, whenever it joined. Answers are fetched from the server as the fastest of them needs them, 
+ * so the server sees one query. Once a query has all its answers, or fails, or every CoalescedQuery has been stopped, 
+ * the next identical ask starts a new one - nothing is cached.
+ * 
+ * Queries are matched across every QueryCoalescer in the JVM, on the server, application, source text and URL, 
+ * answer format, projection, chunk size and goal.
+ * 
+ * Only coalesce queries that don't change anything on the server, and whose answers don't depend on who asks.
+ * 
+ * <pre>
+ * QueryCoalescer coalescer = new QueryCoalescer(pb);
+ * CoalescedQuery q = coalescer.ask("member(X, [a,b,c])");
+ * for(Proof p = q.next() ; p != null ; p = q.next())
+ *     ...
+ * </pre>
+ * 
+ * @author Anne Ogborn
+ *
+ */
+public class QueryCoalescer {
+	private static final ConcurrentHashMap<String, Flight> inFlight = new ConcurrentHashMap<String, Flight>();
+	
+	private final PengineBuilder builder;
+	// everything but the goal that has to match
+	private final String keyPrefix;
+	private final AtomicLong flights = new AtomicLong();
+	private final AtomicLong joins = new AtomicLong();
+	
+	/**
+	 * @param builder the server, source text and everything else about the queries. It's cloned, and each query's
+	 *   pengine is destroyed at the end of the query
+	 * @throws PengineNotReadyException if the builder can't be cloned
+	 */
+	public QueryCoalescer(PengineBuilder builder) throws PengineNotReadyException {
+		try {
+			this.builder = builder.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new PengineNotReadyException("PengineBuilder must be clonable");
+		}
+		this.builder.setDestroy(true);
+		this.builder.removeAsk();
+		
+		StringBuilder sb = new StringBuilder(256);
+		sb.append(this.builder.getServer()).append('\n');
+		sb.append(this.builder.getApplication()).append('\n');
+		sb.append(digest(this.builder.getSrctext())).append('\n');
+		sb.append(this.builder.getSrcurl()).append('\n');
+		sb.append(this.builder.getFormat()).append('\n');
+		sb.append(Arrays.toString(this.builder.getProjection())).append('\n');
+		sb.append(this.builder.getChunk()).append('\n');
+		keyPrefix = sb.toString();
+	}
+	
+	/**
+	 * @param text the source text, or null
+	 * @return a hex SHA-256 of it, so the key doesn't hold on to a big program
+	 */
+	private static String digest(String text) {
+		if(text == null)
+			return "";
+		return Sha256.hex(text.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Ask a one-shot query, joining an identical one that's in progress if there is one
+	 * 
+	 * @param goal the query
+	 * @return this caller's view of the answers
+	 * 
+	 * @throws CouldNotCreateException if the pengine can't be made - for everyone who asked
+	 * @throws PengineNotReadyException if the builder can't be cloned
+	 * @throws InterruptedException if interrupted while waiting for another thread's pengine to be made
+	 */
+	public CoalescedQuery ask(String goal) throws CouldNotCreateException, PengineNotReadyException, InterruptedException {
+		String key = keyPrefix + goal;
+		for(;;) {
+			Flight flight = new Flight(key);
+			Flight running = inFlight.putIfAbsent(key, flight);
+			if(running == null) {
+				flights.incrementAndGet();
+				return flight.start(builder, goal);
+			}
+			
+			CoalescedQuery query = running.join();
+			if(query != null) {
+				joins.incrementAndGet();
+				return query;
+			}
+			// everyone gave up on it just now, start another
+		}
+	}
+	
+	/**
+	 * @return how many queries were sent to the server
+	 */
+	public long getFlights() {
+		return flights.get();
+	}
+	
+	/**
+	 * @return how many asks joined a query that was already in progress instead
+	 */
+	public long getJoins() {
+		return joins.get();
+	}
+	
+	/**
+	 * One query on the server, and the answers it's given so far
+	 */
+	static final class Flight {
+		private final String key;
+		private final List<Proof> proofs = new ArrayList<Proof>();
+		private Query query = null;
+		private boolean started = false;
+		// got every answer, failed, or abandoned
+		private boolean done = false;
+		// every view stopped before the query was done
+		private boolean abandoned = false;
+		private boolean fetching = false;
+		private Exception failure = null;
+		private int views = 0;
+		
+		private Flight(String key) {
+			this.key = key;
+		}
+		
+		/**
+		 * make the pengine, with the goal as its ask
+		 * 
+		 * @return the first view
+		 */
+		private synchronized CoalescedQuery start(PengineBuilder builder, String goal) 
+				throws CouldNotCreateException, PengineNotReadyException {
+			boolean created = false;
+			try {
+				PengineBuilder b = builder.clone();
+				b.setAsk(goal);
+				query = b.newPengine().getCurrentQuery();
+				if(query == null)
+					finish();
+				views++;
+				created = true;
+				return new CoalescedQuery(this, false);
+			} catch (CloneNotSupportedException e) {
+				failure = new PengineNotReadyException("PengineBuilder must be clonable");
+				throw (PengineNotReadyException)failure;
+			} catch (CouldNotCreateException e) {
+				failure = e;
+				throw e;
+			} catch (RuntimeException e) {
+				failure = e;
+				throw e;
+			} finally {
+				// however it failed, anyone who joined gets the failure instead of a query that isn't there
+				if(!created) {
+					if(failure == null)
+						failure = new PengineNotReadyException("could not start the query");
+					finish();
+				}
+				started = true;
+				notifyAll();
+			}
+		}
+		
+		/**
+		 * @return a new view, or null if everyone's stopped the query
+		 */
+		private synchronized CoalescedQuery join() throws CouldNotCreateException, InterruptedException {
+			while(!started)
+				wait();
+			
+			if(failure instanceof CouldNotCreateException)
+				throw (CouldNotCreateException)failure;
+			if(abandoned)
+				return null;
+			
+			views++;
+			return new CoalescedQuery(this, true);
+		}
+		
+		/**
+		 * @param index the number of the answer wanted, from 0
+		 * @return the answer, fetching it from the server if no one has yet, or null if there are no more
+		 * @throws PengineNotReadyException if the query failed before this answer
+		 */
+		Proof get(int index) throws PengineNotReadyException {
+			synchronized(this) {
+				for(;;) {
+					if(index < proofs.size())
+						return proofs.get(index);
+					if(done) {
+						if(failure != null)
+							throw new PengineNotReadyException("coalesced query failed: " + failure.getMessage());
+						return null;
+					}
+					if(!fetching)
+						break;
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new PengineNotReadyException("interrupted waiting for an answer");
+					}
+				}
+				fetching = true;
+			}
+			
+			Proof proof = null;
+			PengineNotReadyException error = null;
+			try {
+				proof = query.next(0, TimeUnit.MILLISECONDS);
+			} catch (PengineNotReadyException e) {
+				error = e;
+			} finally {
+				synchronized(this) {
+					fetching = false;
+					if(error != null) {
+						failure = error;
+						finish();
+					} else if(proof == null) {
+						finish();
+					} else {
+						proofs.add(proof);
+					}
+					if(views == 0 && !done)
+						abandon();
+					notifyAll();
+				}
+			}
+			return get(index);
+		}
+		
+		/**
+		 * @param index the number of the answer wanted, from 0
+		 * @return true if there is, or might be, such an answer
+		 */
+		synchronized boolean has(int index) {
+			return index < proofs.size() || !done;
+		}
+		
+		/**
+		 * a view's done with the query
+		 */
+		synchronized void leave() {
+			views--;
+			if(views == 0 && !done && !fetching)
+				abandon();
+		}
+		
+		/**
+		 * no one wants any more answers, stop the query on the server
+		 */
+		private void abandon() {
+			abandoned = true;
+			finish();
+			try {
+				query.stop();
+			} catch (PengineNotReadyException e) {
+				// it's gone anyway
+			}
+		}
+		
+		/**
+		 * no one else can join
+		 */
+		private void finish() {
+			done = true;
+			inFlight.remove(key, this);
+		}
+	}
+}
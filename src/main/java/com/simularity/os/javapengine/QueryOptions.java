@@ -0,0 +1,213 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import com.simularity.os.javapengine.exception.SyntaxErrorException;
+import com.simularity.os.javapengine.term.Compound;
+import com.simularity.os.javapengine.term.Term;
+import com.simularity.os.javapengine.term.TermReader;
+import com.simularity.os.javapengine.term.Variable;
+
+/**
+ * Paging, de-duplication and ordering of a query's solutions, done on the server with SWI-Prolog's 
+ * library(solution_sequences), so solutions we'd throw away never cross the wire.
+ * 
+ * The goal is wrapped as limit(Limit, offset(Offset, order_by(Specs, distinct(Witness, Goal)))), 
+ * leaving out the parts that aren't set. So duplicates are removed first, then the solutions are sorted, then 
+ * the page is taken. Without an order the page is of the solutions in the order the goal finds them.
+ * 
+ * <pre>
+ * QueryOptions page = new QueryOptions();
+ * page.setOrderBy("asc(Name)");
+ * page.setOffset(40);
+ * page.setLimit(20);
+ * Query q = p.ask("employee(Name, Position)", page);
+ * </pre>
+ * 
+ * order_by/2 finds every solution before giving the first, and distinct/1,2 remembers every solution it's given, 
+ * so they cost server memory in proportion to the solutions.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+public class QueryOptions {
+	private long limit = -1;
+	private long offset = 0;
+	private boolean distinct = false;
+	// the witness term for distinct/2, or null to use distinct/1
+	private String witness = null;
+	// the list of asc(X) and desc(X) for order_by/2, or null
+	private String orderBy = null;
+	
+	/**
+	 * @return the most solutions to get, or -1 for no limit
+	 */
+	public long getLimit() {
+		return limit;
+	}
+	
+	/**
+	 * @param limit the most solutions to get, or -1 for no limit
+	 */
+	synchronized public void setLimit(long limit) {
+		if(limit < -1)
+			throw new IllegalArgumentException("limit must be -1 or more");
+		this.limit = limit;
+	}
+	
+	/**
+	 * @return the number of solutions skipped
+	 */
+	public long getOffset() {
+		return offset;
+	}
+	
+	/**
+	 * @param offset the number of solutions to skip
+	 */
+	synchronized public void setOffset(long offset) {
+		if(offset < 0)
+			throw new IllegalArgumentException("offset can't be negative");
+		this.offset = offset;
+	}
+	
+	/**
+	 * @return true if duplicate solutions are left out
+	 */
+	public boolean isDistinct() {
+		return distinct;
+	}
+	
+	/**
+	 * Leave out duplicate solutions. 
+	 * 
+	 * @param variables the variables whose values make solutions duplicates, or none for all of the goal's variables
+	 * @throws SyntaxErrorException if one isn't a variable
+	 */
+	synchronized public void setDistinct(String... variables) throws SyntaxErrorException {
+		if(variables.length == 0) {
+			this.witness = null;
+		} else {
+			StringBuilder sb = new StringBuilder("[");
+			for(int i = 0 ; i < variables.length ; i++) {
+				Term t = new TermReader(variables[i]).readGoal();
+				if(!(t instanceof Variable) || ((Variable)t).getName().equals("_"))
+					throw new SyntaxErrorException("distinct " + variables[i] + " must be a variable");
+				if(i > 0)
+					sb.append(',');
+				sb.append(((Variable)t).getName());
+			}
+			this.witness = sb.append(']').toString();
+		}
+		this.distinct = true;
+	}
+	
+	/**
+	 * Keep duplicate solutions, the default
+	 */
+	synchronized public void clearDistinct() {
+		this.distinct = false;
+		this.witness = null;
+	}
+	
+	/**
+	 * Sort the solutions, with order_by/2.
+	 * 
+	 * @param specs each asc(Var) or desc(Var), most significant first. A plain Var is asc(Var). None to leave the 
+	 *   solutions in the order the goal finds them
+	 * @throws SyntaxErrorException if a spec isn't asc(Var), desc(Var) or Var
+	 */
+	synchronized public void setOrderBy(String... specs) throws SyntaxErrorException {
+		if(specs.length == 0) {
+			this.orderBy = null;
+			return;
+		}
+		
+		StringBuilder sb = new StringBuilder("[");
+		for(int i = 0 ; i < specs.length ; i++) {
+			Term t = new TermReader(specs[i]).readGoal();
+			String order = "asc";
+			if(t instanceof Compound && 
+					(((Compound)t).hasFunctor("asc", 1) || ((Compound)t).hasFunctor("desc", 1))) {
+				order = ((Compound)t).getName();
+				t = ((Compound)t).getArg(0);
+			}
+			if(!(t instanceof Variable) || ((Variable)t).getName().equals("_"))
+				throw new SyntaxErrorException("order_by " + specs[i] + " must be asc(Var), desc(Var) or Var");
+			if(i > 0)
+				sb.append(',');
+			sb.append(order).append('(').append(((Variable)t).getName()).append(')');
+		}
+		this.orderBy = sb.append(']').toString();
+	}
+	
+	/**
+	 * @return the order_by/2 specs, like [asc(Name)], or null if the solutions aren't sorted
+	 */
+	public String getOrderBy() {
+		return orderBy;
+	}
+	
+	/**
+	 * @param goal the goal
+	 * @return the goal wrapped to apply these options, or the goal itself if none are set
+	 */
+	public synchronized String wrap(CharSequence goal) {
+		StringBuilder sb = new StringBuilder(goal.length() + 64);
+		int close = 0;
+		if(limit >= 0) {
+			sb.append("limit(").append(limit).append(", ");
+			close++;
+		}
+		if(offset > 0) {
+			sb.append("offset(").append(offset).append(", ");
+			close++;
+		}
+		if(orderBy != null) {
+			sb.append("order_by(").append(orderBy).append(", ");
+			close++;
+		}
+		if(distinct) {
+			sb.append("distinct(");
+			if(witness != null)
+				sb.append(witness).append(", ");
+			close++;
+		}
+		if(close == 0)
+			return goal.toString();
+		
+		sb.append('(').append(goal).append(')');
+		for( ; close > 0 ; close--)
+			sb.append(')');
+		return sb.toString();
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return wrap("Goal");
+	}
+}
@@ -0,0 +1,244 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import com.simularity.os.javapengine.exception.PengineNotReadyException;
+
+/**
+ * Internal Reactive Streams publisher for the proofs of a {@link Query}
+ * 
+ * Subscriber demand is turned into chunked next requests, and all requests to the server
+ * are made by a serialized drain loop running on the executor.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+final class QueryPublisher implements Publisher<Proof> {
+	/**
+	 * the most answers we'll ask for in a single next, however much the subscriber requests
+	 */
+	static final int MAX_CHUNK = 1000;
+	
+	private static ExecutorService defaultExecutor = null;
+	
+	private final Query query;
+	private final Executor executor;
+	private final AtomicBoolean subscribed = new AtomicBoolean(false);
+	
+	/**
+	 * @param query  the query whose proofs we publish
+	 * @param executor  where requests to the server and signals to the subscriber happen
+	 */
+	QueryPublisher(Query query, Executor executor) {
+		this.query = query;
+		this.executor = executor;
+	}
+	
+	/**
+	 * @return the shared pool of daemon threads publishers use by default
+	 */
+	static synchronized Executor defaultExecutor() {
+		if(defaultExecutor == null) {
+			defaultExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger(0);
+				
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "JavaPengine-publisher-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return defaultExecutor;
+	}
+
+	/**
+	 * @see org.reactivestreams.Publisher#subscribe(org.reactivestreams.Subscriber)
+	 */
+	@Override
+	public void subscribe(Subscriber<? super Proof> subscriber) {
+		if(subscriber == null)
+			throw new NullPointerException("subscriber must not be null");
+		
+		if(!subscribed.compareAndSet(false, true)) {
+			subscriber.onSubscribe(new Subscription() {
+				@Override
+				public void request(long n) {
+				}
+
+				@Override
+				public void cancel() {
+				}
+			});
+			subscriber.onError(new IllegalStateException("A Query can only be published to one subscriber"));
+			return;
+		}
+		
+		QuerySubscription subscription = new QuerySubscription(subscriber);
+		subscriber.onSubscribe(subscription);
+		subscription.schedule();
+	}
+	
+	/**
+	 * The subscription. All signals to the subscriber and all calls to the query happen in run(),
+	 * which the work-in-progress counter guarantees is never running twice at once.
+	 */
+	private final class QuerySubscription implements Subscription, Runnable {
+		private final Subscriber<? super Proof> subscriber;
+		private final AtomicLong requested = new AtomicLong(0L);
+		private final AtomicInteger wip = new AtomicInteger(0);
+		private volatile boolean cancelled = false;
+		private volatile Throwable badRequest = null;
+		private boolean done = false;
+		
+		QuerySubscription(Subscriber<? super Proof> subscriber) {
+			this.subscriber = subscriber;
+		}
+		
+		@Override
+		public void request(long n) {
+			if(n <= 0) {
+				badRequest = new IllegalArgumentException("request must be positive (rule 3.9), was " + Long.toString(n));
+			} else {
+				long current;
+				long next;
+				do {
+					current = requested.get();
+					if(current == Long.MAX_VALUE)
+						break;
+					next = current + n;
+					if(next < 0)
+						next = Long.MAX_VALUE;
+				} while(!requested.compareAndSet(current, next));
+			}
+			schedule();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			schedule();
+		}
+		
+		void schedule() {
+			if(wip.getAndIncrement() == 0) {
+				try {
+					executor.execute(this);
+				} catch (RuntimeException e) {
+					wip.set(0);
+					done = true;
+					subscriber.onError(e);
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			int missed = 1;
+			do {
+				drain();
+				missed = wip.addAndGet(-missed);
+			} while(missed != 0);
+		}
+		
+		/**
+		 * deliver what we can, fetching one chunk from the server if the subscriber wants more than we have
+		 */
+		private void drain() {
+			while(!done) {
+				if(cancelled) {
+					done = true;
+					try {
+						query.stop();
+					} catch (PengineNotReadyException e) {
+						// the subscriber's gone, there's nobody to tell
+					}
+					return;
+				}
+				
+				if(badRequest != null) {
+					done = true;
+					stopQuietly();
+					subscriber.onError(badRequest);
+					return;
+				}
+				
+				long demand = requested.get();
+				if(demand == 0)
+					return;
+				
+				Proof proof;
+				try {
+					proof = query.poll();
+				} catch (PengineNotReadyException e) {
+					// a spilled proof's lost, and the query's been stopped
+					done = true;
+					subscriber.onError(e);
+					return;
+				}
+				if(proof != null) {
+					if(demand != Long.MAX_VALUE)
+						requested.decrementAndGet();
+					subscriber.onNext(proof);
+					continue;
+				}
+				
+				if(!query.hasNext()) {
+					done = true;
+					subscriber.onComplete();
+					return;
+				}
+				
+				try {
+					query.fetch((int)Math.min(demand, MAX_CHUNK));
+				} catch (PengineNotReadyException e) {
+					done = true;
+					subscriber.onError(e);
+					return;
+				}
+			}
+		}
+		
+		private void stopQuietly() {
+			try {
+				query.stop();
+			} catch (PengineNotReadyException e) {
+				// we're already reporting an error
+			}
+		}
+	}
+}
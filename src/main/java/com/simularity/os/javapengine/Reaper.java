@@ -0,0 +1,300 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.simularity.os.javapengine.PengineState.PSt;
+
+/**
+ * Destroys pengines in the background, so the caller doesn't wait for the server.
+ * 
+ * Pengines queued by destroyAsync are sent to each server's destroy_all endpoint, many ids to a request. 
+ * If a server doesn't have destroy_all, each is sent destroy instead.
+ * 
+ * The reaper also knows every live pengine, so it can destroy them all at once - for Pengine.destroyAll,
+ * and from a shutdown hook when the JVM exits. Pengines that are garbage collected without being destroyed 
+ * are reported, with where they were made, and destroyed.
+ * 
+ * Java 8 has no java.lang.ref.Cleaner, so this is a PhantomReference and a ReferenceQueue polled by the reaper thread.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+final class Reaper {
+	/**
+	 * the most ids sent in one destroy_all
+	 */
+	static final int BATCH = 100;
+	
+	/**
+	 * connect and read timeout for the reaper's requests, in milliseconds
+	 */
+	static final int TIMEOUT = 10000;
+	
+	private static final ReferenceQueue<Pengine> collected = new ReferenceQueue<Pengine>();
+	private static final Set<Tracked> live = ConcurrentHashMap.<Tracked>newKeySet();
+	private static final LinkedBlockingQueue<Tracked> queue = new LinkedBlockingQueue<Tracked>();
+	private static final AtomicLong leaks = new AtomicLong();
+	private static Thread thread = null;
+	
+	private Reaper() {
+	}
+	
+	/**
+	 * A live pengine, as far as the reaper knows. It doesn't keep the pengine reachable.
+	 */
+	static final class Tracked extends PhantomReference<Pengine> {
+		private final URL destroyAllURL;
+		private final URL sendURL;
+		private final String id;
+		// the pengine's state, so we can tell it's been destroyed without the pengine
+		private final PengineState state;
+		private final Throwable created;
+		
+		private Tracked(Pengine p, URL destroyAllURL, URL sendURL, String id, PengineState state) {
+			super(p, collected);
+			this.destroyAllURL = destroyAllURL;
+			this.sendURL = sendURL;
+			this.id = id;
+			this.state = state;
+			this.created = new Throwable("pengine " + id + " was created here");
+		}
+	}
+	
+	/**
+	 * start tracking a newly created pengine
+	 * 
+	 * @param p the pengine
+	 * @param destroyAllURL its server's destroy_all URL
+	 * @param sendURL its send URL
+	 * @param id its id
+	 * @param state its state
+	 * @return the handle to pass to destroyLater
+	 */
+	static Tracked track(Pengine p, URL destroyAllURL, URL sendURL, String id, PengineState state) {
+		Tracked t = new Tracked(p, destroyAllURL, sendURL, id, state);
+		live.add(t);
+		start();
+		return t;
+	}
+	
+	/**
+	 * destroy a pengine on the server soon. The caller's already marked it destroyed
+	 * 
+	 * @param t the pengine, as returned by track
+	 */
+	static void destroyLater(Tracked t) {
+		if(t == null)
+			return;
+		live.remove(t);
+		queue.add(t);
+	}
+	
+	/**
+	 * @return how many pengines were garbage collected without being destroyed
+	 */
+	static long getLeaks() {
+		return leaks.get();
+	}
+	
+	/**
+	 * Destroy every pengine that isn't destroyed yet, including those waiting on the reaper, and wait
+	 * till the servers have been told
+	 */
+	static void destroyAll() {
+		List<Tracked> batch = new ArrayList<Tracked>();
+		for(Tracked t : live) {
+			live.remove(t);
+			if(!t.state.isIn(PSt.DESTROYED)) {
+				t.state.destroy();
+				batch.add(t);
+			}
+		}
+		queue.drainTo(batch);
+		send(batch);
+	}
+	
+	private static synchronized void start() {
+		if(thread != null)
+			return;
+		
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				reap();
+			}
+		}, "JavaPengine-reaper");
+		thread.setDaemon(true);
+		thread.start();
+		
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				destroyAll();
+			}
+		}, "JavaPengine-shutdown"));
+	}
+	
+	/**
+	 * the reaper thread - send queued destroys as they come, and look for leaks every second
+	 */
+	private static void reap() {
+		List<Tracked> batch = new ArrayList<Tracked>();
+		for(;;) {
+			try {
+				Tracked t = queue.poll(1, TimeUnit.SECONDS);
+				if(t != null) {
+					batch.add(t);
+					queue.drainTo(batch);
+				}
+				
+				for(Reference<? extends Pengine> r = collected.poll() ; r != null ; r = collected.poll()) {
+					Tracked leaked = (Tracked)r;
+					if(live.remove(leaked) && !leaked.state.isIn(PSt.DESTROYED)) {
+						leaks.incrementAndGet();
+						System.err.println("JavaPengine: pengine " + leaked.id + " was garbage collected without being destroyed. Destroying it.");
+						leaked.created.printStackTrace();
+						batch.add(leaked);
+					}
+				}
+				
+				send(batch);
+			} catch (InterruptedException e) {
+				return;
+			} catch (RuntimeException e) {
+				// keep reaping
+				e.printStackTrace();
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+	
+	/**
+	 * destroy a batch of pengines, grouped by server
+	 * 
+	 * @param batch the pengines
+	 */
+	private static void send(List<Tracked> batch) {
+		Map<URL, List<Tracked>> byServer = new LinkedHashMap<URL, List<Tracked>>();
+		for(Tracked t : batch) {
+			List<Tracked> l = byServer.get(t.destroyAllURL);
+			if(l == null) {
+				l = new ArrayList<Tracked>();
+				byServer.put(t.destroyAllURL, l);
+			}
+			l.add(t);
+		}
+		
+		for(Map.Entry<URL, List<Tracked>> e : byServer.entrySet()) {
+			List<Tracked> l = e.getValue();
+			for(int i = 0 ; i < l.size() ; i += BATCH) {
+				List<Tracked> part = l.subList(i, Math.min(l.size(), i + BATCH));
+				try {
+					destroyAll(e.getKey(), part);
+				} catch (IOException ex) {
+					// an older server, or it's gone. One at a time, for what it's worth
+					for(Tracked t : part) {
+						try {
+							request(t.sendURL, "POST", PengineConfig.BODY_DESTROY);
+						} catch (IOException ex2) {
+							// it's gone already, or the server is. Either way the server drops it at its idle limit
+						}
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @param destroyAllURL the server's destroy_all URL
+	 * @param pengines the pengines to destroy, all on that server
+	 * @throws IOException if the server can't be reached or doesn't do destroy_all
+	 */
+	private static void destroyAll(URL destroyAllURL, List<Tracked> pengines) throws IOException {
+		StringBuilder ids = new StringBuilder();
+		for(Tracked t : pengines) {
+			if(ids.length() > 0)
+				ids.append(',');
+			ids.append(t.id);
+		}
+		
+		URL url;
+		try {
+			url = new URL(destroyAllURL.toString() + "?ids=" + URLEncoder.encode(ids.toString(), "UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new IOException(e.getMessage());
+		} catch (MalformedURLException e) {
+			throw new IOException(e.getMessage());
+		}
+		request(url, "GET", null);
+	}
+	
+	private static void request(URL url, String method, byte[] body) throws IOException {
+		HttpURLConnection con = (HttpURLConnection) url.openConnection();
+		con.setConnectTimeout(TIMEOUT);
+		con.setReadTimeout(TIMEOUT);
+		con.setRequestMethod(method);
+		con.setRequestProperty("User-Agent", "JavaPengine");
+		if(body != null) {
+			con.setRequestProperty("Content-type", PengineConfig.CONTENT_TYPE_PROLOG);
+			con.setDoOutput(true);
+			con.setFixedLengthStreamingMode(body.length);
+			try (OutputStream out = con.getOutputStream()) {
+				out.write(body);
+			}
+		}
+		
+		int responseCode = con.getResponseCode();
+		if(responseCode < 200 || responseCode > 299)
+			throw new IOException("bad response code " + Integer.toString(responseCode) + " " + url.toString());
+		
+		// read it all, so the connection can be reused
+		try (InputStream in = con.getInputStream()) {
+			byte[] buf = new byte[1024];
+			while(in.read(buf) >= 0)
+				;
+		}
+	}
+}
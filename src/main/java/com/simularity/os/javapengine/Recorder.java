@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.net.URL;
+
+/**
+ * Reports what the pengine protocol is doing to Java Flight Recorder, so a recording shows which pengine, 
+ * and which step of the protocol, a thread blocked in HttpURLConnection is waiting for.
+ * 
+ * JavaPengine targets Java 8, and jdk.jfr only comes with Java 11 and later and 8u262 and later. So the events are in
+ * JfrRecorder, which is only built on JDK 11 and later (it's in src/jfr/java), and only loaded, by name, 
+ * if jdk.jfr is there. Otherwise, and if the system property
+ * javapengine.jfr is false, every method here does nothing.
+ * 
+ * When nothing is recording, begin returns null and the caller skips the rest, so a request costs a check
+ * of the event's enabled flag.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+abstract class Recorder {
+	static final String CREATE = "create";
+	static final String ASK = "ask";
+	static final String NEXT = "next";
+	static final String STOP = "stop";
+	static final String DESTROY = "destroy";
+	static final String PULL_RESPONSE = "pull_response";
+	static final String KEEPALIVE = "keepalive";
+	
+	/**
+	 * the recorder in use
+	 */
+	static final Recorder RECORDER = load();
+	
+	private static Recorder load() {
+		if("false".equals(System.getProperty("javapengine.jfr")))
+			return new Recorder() {};
+		
+		try {
+			Class.forName("jdk.jfr.Event");
+			return (Recorder)Class.forName("com.simularity.os.javapengine.JfrRecorder").getDeclaredConstructor().newInstance();
+		} catch (Throwable e) {
+			// no flight recorder in this JVM
+			return new Recorder() {};
+		}
+	}
+	
+	/**
+	 * Start timing a request
+	 * 
+	 * @return the event to pass to request, or null if no one's recording requests
+	 */
+	Object begin() {
+		return null;
+	}
+	
+	/**
+	 * Finish and commit the event begin returned. Only call it with a non-null event
+	 * 
+	 * @param event what begin returned
+	 * @param step what the request was, CREATE, ASK and so on
+	 * @param pengineID the pengine's id, or null if it isn't created yet
+	 * @param url the URL the request was sent to
+	 * @param chunk the number of answers asked for, or 0 if that's not part of the request
+	 * @param bytesSent the length of the request body
+	 * @param bytesReceived the length of the response, or -1 if the server didn't say
+	 * @param proofs the number of proofs in the answer
+	 * @param answer the event the server answered with, or null if there wasn't an answer
+	 */
+	void request(Object event, String step, String pengineID, URL url, int chunk, 
+			long bytesSent, long bytesReceived, int proofs, String answer) {
+	}
+	
+	/**
+	 * A request failed and is being sent again
+	 * 
+	 * @param pengineID the pengine's id, or null if it isn't created yet
+	 * @param url the URL the request was sent to
+	 * @param attempt the number of the attempt that failed, from 1
+	 * @param cause why it failed
+	 */
+	void retry(String pengineID, URL url, int attempt, Exception cause) {
+	}
+	
+	/**
+	 * A pengine's state changed
+	 * 
+	 * @param pengineID the pengine's id, or null if it isn't created yet
+	 * @param from the old state
+	 * @param to the new state
+	 */
+	void state(String pengineID, PengineState.PSt from, PengineState.PSt to) {
+	}
+}
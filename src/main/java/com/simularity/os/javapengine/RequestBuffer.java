@@ -0,0 +1,194 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Internal growable byte buffer that request bodies are encoded into.
+ * 
+ * A Pengine keeps one and resets it for each request, so encoding a request body
+ * doesn't allocate once the buffer has grown to fit. Strings are encoded as UTF-8 as they are appended.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+final class RequestBuffer {
+	private byte[] buf;
+	private int len = 0;
+	
+	/**
+	 * @param initialCapacity the initial size of the buffer in bytes
+	 */
+	RequestBuffer(int initialCapacity) {
+		buf = new byte[Math.max(16, initialCapacity)];
+	}
+	
+	/**
+	 * empty the buffer, keeping its storage
+	 * 
+	 * @return this buffer
+	 */
+	RequestBuffer reset() {
+		len = 0;
+		return this;
+	}
+	
+	/**
+	 * @return the number of bytes in the buffer
+	 */
+	int length() {
+		return len;
+	}
+	
+	/**
+	 * @return the backing array. Only the first length() bytes are meaningful
+	 */
+	byte[] array() {
+		return buf;
+	}
+	
+	private void ensure(int extra) {
+		if(len + extra > buf.length) {
+			buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+		}
+	}
+	
+	/**
+	 * append some bytes that are already encoded
+	 * 
+	 * @param bytes the bytes
+	 * @return this buffer
+	 */
+	RequestBuffer append(byte[] bytes) {
+		ensure(bytes.length);
+		System.arraycopy(bytes, 0, buf, len, bytes.length);
+		len += bytes.length;
+		return this;
+	}
+	
+	/**
+	 * append a single ASCII character
+	 * 
+	 * @param c the character, which must be ASCII
+	 * @return this buffer
+	 */
+	RequestBuffer appendAscii(char c) {
+		ensure(1);
+		buf[len++] = (byte)c;
+		return this;
+	}
+	
+	/**
+	 * append a string encoded as UTF-8
+	 * 
+	 * @param s the string
+	 * @return this buffer
+	 */
+	RequestBuffer append(CharSequence s) {
+		int n = s.length();
+		ensure(n);
+		for(int i = 0 ; i < n ; i++) {
+			char c = s.charAt(i);
+			if(c < 0x80) {
+				ensure(1);
+				buf[len++] = (byte)c;
+			} else if(c < 0x800) {
+				ensure(2);
+				buf[len++] = (byte)(0xC0 | (c >> 6));
+				buf[len++] = (byte)(0x80 | (c & 0x3F));
+			} else if(Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				ensure(4);
+				buf[len++] = (byte)(0xF0 | (cp >> 18));
+				buf[len++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+				buf[len++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+				buf[len++] = (byte)(0x80 | (cp & 0x3F));
+			} else if(Character.isSurrogate(c)) {
+				// unpaired surrogate, same as String.getBytes does
+				ensure(1);
+				buf[len++] = (byte)'?';
+			} else {
+				ensure(3);
+				buf[len++] = (byte)(0xE0 | (c >> 12));
+				buf[len++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+				buf[len++] = (byte)(0x80 | (c & 0x3F));
+			}
+		}
+		return this;
+	}
+	
+	/**
+	 * append the decimal representation of an integer
+	 * 
+	 * @param value the value
+	 * @return this buffer
+	 */
+	RequestBuffer append(long value) {
+		if(value == Long.MIN_VALUE) {
+			return append(Long.toString(value));
+		}
+		ensure(20);
+		if(value < 0) {
+			buf[len++] = (byte)'-';
+			value = -value;
+		}
+		int start = len;
+		do {
+			buf[len++] = (byte)('0' + (value % 10));
+			value /= 10;
+		} while(value != 0);
+		
+		// digits went in backwards
+		for(int i = start, j = len - 1 ; i < j ; i++, j--) {
+			byte t = buf[i];
+			buf[i] = buf[j];
+			buf[j] = t;
+		}
+		return this;
+	}
+	
+	/**
+	 * write the contents to a stream
+	 * 
+	 * @param out the stream
+	 * @throws IOException if the stream does
+	 */
+	void writeTo(OutputStream out) throws IOException {
+		out.write(buf, 0, len);
+	}
+
+	/**
+	 * decodes the contents. This allocates, so it's for error messages and debugging
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return new String(buf, 0, len, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,629 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.json.JsonNumber;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.spi.JsonProvider;
+
+import com.simularity.os.javapengine.term.Atom;
+import com.simularity.os.javapengine.term.FloatTerm;
+import com.simularity.os.javapengine.term.IntegerTerm;
+import com.simularity.os.javapengine.term.StringTerm;
+import com.simularity.os.javapengine.term.Term;
+
+/**
+ * The solutions of a query, stored a column per variable rather than a Proof per solution.
+ * 
+ * Each column's type is inferred from the values it gets - integers that fit are an int[], 
+ * then a long[], numbers a double[], atoms and strings are dictionary encoded, each distinct
+ * string stored once and the column an int[] of codes into the dictionary.
+ * If a later value doesn't fit, the column is widened - int to long to double, and a column with
+ * mixed numbers and strings, or compound terms, holds JsonValues.
+ * 
+ * A solution that doesn't bind a variable the others do gets 0, or null for strings and values.
+ * 
+ * Made by Query.collectColumns
+ * 
+ * @author Anne Ogborn
+ *
+ */
+public final class ResultColumns {
+	/**
+	 * How a column is stored
+	 */
+	public enum ColumnType {
+		/** no values yet */
+		EMPTY,
+		/** int[] */
+		INT,
+		/** long[] */
+		LONG,
+		/** double[] */
+		DOUBLE,
+		/** int[] codes into a String[] dictionary */
+		STRING,
+		/** JsonValue[], the same values Proof.getValue returns */
+		VALUE
+	}
+	
+	// the static Json methods look the provider up on every call
+	private static final JsonProvider jsonProvider = JsonProvider.provider();
+	
+	private final List<Column> columns = new ArrayList<Column>();
+	private final Map<String, Column> byName = new HashMap<String, Column>();
+	private int rows = 0;
+	private int capacity = 0;
+	private int column = 0;  // position in the row being added
+	
+	/**
+	 * @return the number of solutions
+	 */
+	public int size() {
+		return rows;
+	}
+	
+	/**
+	 * @return the variable names, in the order they first appeared
+	 */
+	public List<String> getNames() {
+		List<String> names = new ArrayList<String>(columns.size());
+		for(Column c : columns)
+			names.add(c.name);
+		return Collections.unmodifiableList(names);
+	}
+	
+	/**
+	 * @param name the variable name
+	 * @return how the column is stored, or null if there's no such variable
+	 */
+	public ColumnType getType(String name) {
+		Column c = byName.get(name);
+		return c == null ? null : c.type;
+	}
+	
+	/**
+	 * @param name the variable name
+	 * @return the column as ints
+	 * @throws IllegalArgumentException if there's no such column or it's not an INT column
+	 */
+	public int[] getInts(String name) {
+		Column c = column(name);
+		if(c.type != ColumnType.INT && c.type != ColumnType.EMPTY)
+			throw new IllegalArgumentException(name + " is a " + c.type + " column");
+		return c.ints == null ? new int[rows] : Arrays.copyOf(c.ints, rows);
+	}
+	
+	/**
+	 * @param name the variable name
+	 * @return the column as longs
+	 * @throws IllegalArgumentException if there's no such column or it's not an INT or LONG column
+	 */
+	public long[] getLongs(String name) {
+		Column c = column(name);
+		long[] result = new long[rows];
+		switch(c.type) {
+		case EMPTY:
+			break;
+		case INT:
+			for(int i = 0 ; i < rows ; i++)
+				result[i] = c.ints[i];
+			break;
+		case LONG:
+			System.arraycopy(c.longs, 0, result, 0, rows);
+			break;
+		default:
+			throw new IllegalArgumentException(name + " is a " + c.type + " column");
+		}
+		return result;
+	}
+	
+	/**
+	 * @param name the variable name
+	 * @return the column as doubles
+	 * @throws IllegalArgumentException if there's no such column or it's not a numeric column
+	 */
+	public double[] getDoubles(String name) {
+		Column c = column(name);
+		double[] result = new double[rows];
+		switch(c.type) {
+		case EMPTY:
+			break;
+		case INT:
+			for(int i = 0 ; i < rows ; i++)
+				result[i] = c.ints[i];
+			break;
+		case LONG:
+			for(int i = 0 ; i < rows ; i++)
+				result[i] = c.longs[i];
+			break;
+		case DOUBLE:
+			System.arraycopy(c.doubles, 0, result, 0, rows);
+			break;
+		default:
+			throw new IllegalArgumentException(name + " is a " + c.type + " column");
+		}
+		return result;
+	}
+	
+	/**
+	 * @param name the variable name
+	 * @return the codes of a STRING column, indices into getDictionary(name), or -1 where there's no value
+	 * @throws IllegalArgumentException if there's no such column or it's not a STRING column
+	 */
+	public int[] getCodes(String name) {
+		Column c = column(name);
+		if(c.type != ColumnType.STRING)
+			throw new IllegalArgumentException(name + " is a " + c.type + " column");
+		return Arrays.copyOf(c.ints, rows);
+	}
+	
+	/**
+	 * @param name the variable name
+	 * @return the distinct strings of a STRING column, in the order they first appeared
+	 * @throws IllegalArgumentException if there's no such column or it's not a STRING column
+	 */
+	public String[] getDictionary(String name) {
+		Column c = column(name);
+		if(c.type != ColumnType.STRING)
+			throw new IllegalArgumentException(name + " is a " + c.type + " column");
+		return c.dictionary.toArray(new String[c.dictionary.size()]);
+	}
+	
+	/**
+	 * @param name the variable name
+	 * @return a STRING column decoded, one String per solution
+	 * @throws IllegalArgumentException if there's no such column or it's not a STRING column
+	 */
+	public String[] getStrings(String name) {
+		Column c = column(name);
+		if(c.type != ColumnType.STRING)
+			throw new IllegalArgumentException(name + " is a " + c.type + " column");
+		String[] result = new String[rows];
+		for(int i = 0 ; i < rows ; i++)
+			result[i] = c.ints[i] < 0 ? null : c.dictionary.get(c.ints[i]);
+		return result;
+	}
+	
+	/**
+	 * @param name the variable name
+	 * @return any column as JsonValues, as Proof.getValue would give them
+	 * @throws IllegalArgumentException if there's no such column
+	 */
+	public JsonValue[] getValues(String name) {
+		Column c = column(name);
+		JsonValue[] result = new JsonValue[rows];
+		for(int i = 0 ; i < rows ; i++)
+			result[i] = c.value(i);
+		return result;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(rows).append(" solutions");
+		for(Column c : columns)
+			sb.append(' ').append(c.name).append(':').append(c.type);
+		return sb.toString();
+	}
+	
+	private Column column(String name) {
+		Column c = byName.get(name);
+		if(c == null)
+			throw new IllegalArgumentException("no column " + name);
+		return c;
+	}
+	
+	/**
+	 * make room for at least n more solutions - we grow by a chunk at a time
+	 * 
+	 * @param n the number of solutions about to be added
+	 */
+	void ensureCapacity(int n) {
+		if(rows + n <= capacity)
+			return;
+		capacity = Math.max(rows + n, capacity + (capacity >> 1));
+		for(Column c : columns)
+			c.grow(capacity);
+	}
+	
+	/**
+	 * start adding a solution. Follow with the add methods, then endRow
+	 */
+	void startRow() {
+		ensureCapacity(1);
+		column = 0;
+	}
+	
+	/**
+	 * finish a solution, giving any variable it didn't bind the default
+	 */
+	void endRow() {
+		rows++;
+		for(Column c : columns)
+			if(c.count < rows)
+				c.addDefault();
+	}
+	
+	/**
+	 * drop solutions, back to a size we had before
+	 * 
+	 * @param size the number of solutions to keep
+	 */
+	void truncate(int size) {
+		rows = size;
+		for(Column c : columns)
+			c.count = Math.min(c.count, size);
+	}
+	
+	/**
+	 * add a whole solution
+	 * 
+	 * @param proof the solution
+	 */
+	void addProof(Proof proof) {
+		startRow();
+		Map<String, Term> terms = proof.rawTerms();
+		if(terms != null) {
+			for(Map.Entry<String, Term> e : terms.entrySet())
+				addTerm(e.getKey(), e.getValue());
+		} else {
+			for(Map.Entry<String, JsonValue> e : proof.getValues().entrySet())
+				addJson(e.getKey(), e.getValue());
+		}
+		endRow();
+	}
+	
+	/**
+	 * Add the text of a JSON number - what a JsonParser gives us, without making a JsonNumber
+	 * 
+	 * @param name the variable name
+	 * @param text the number as it appears in the JSON
+	 * @param integral true if it has no fraction or exponent
+	 */
+	void addNumber(String name, String text, boolean integral) {
+		if(!integral) {
+			column(name, ColumnType.DOUBLE).addDouble(Double.parseDouble(text));
+		} else if(text.length() < 19) {
+			addLong(name, Long.parseLong(text));
+		} else {
+			addInteger(name, new BigInteger(text));
+		}
+	}
+	
+	/**
+	 * @param name the variable name
+	 * @param value an atom or string
+	 */
+	void addString(String name, String value) {
+		column(name, ColumnType.STRING).addString(value);
+	}
+	
+	/**
+	 * @param name the variable name
+	 * @param value anything else - lists, compounds, and whatever doesn't fit the column's type
+	 */
+	void addValue(String name, JsonValue value) {
+		column(name, ColumnType.VALUE).addValue(value);
+	}
+	
+	/**
+	 * @param name the variable name
+	 * @param value a value from the json format
+	 */
+	void addJson(String name, JsonValue value) {
+		switch(value.getValueType()) {
+		case NUMBER:
+			JsonNumber n = (JsonNumber)value;
+			if(!n.isIntegral())
+				column(name, ColumnType.DOUBLE).addDouble(n.doubleValue());
+			else
+				addInteger(name, n.bigIntegerValue());
+			break;
+		case STRING:
+			addString(name, ((JsonString)value).getString());
+			break;
+		default:
+			addValue(name, value);
+		}
+	}
+	
+	/**
+	 * @param name the variable name
+	 * @param value a value from the prolog format
+	 */
+	void addTerm(String name, Term value) {
+		switch(value.getType()) {
+		case INTEGER:
+			IntegerTerm i = (IntegerTerm)value;
+			if(i.isBig())
+				addInteger(name, i.bigIntegerValue());
+			else
+				addLong(name, i.longValue());
+			break;
+		case FLOAT:
+			column(name, ColumnType.DOUBLE).addDouble(((FloatTerm)value).doubleValue());
+			break;
+		case ATOM:
+			addString(name, ((Atom)value).getName());
+			break;
+		case STRING:
+			addString(name, ((StringTerm)value).getValue());
+			break;
+		default:
+			addValue(name, value.toJson());
+		}
+	}
+	
+	private void addLong(String name, long value) {
+		if(value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE)
+			column(name, ColumnType.INT).addLong(value);
+		else
+			column(name, ColumnType.LONG).addLong(value);
+	}
+	
+	private void addInteger(String name, BigInteger value) {
+		if(value.bitLength() < 64)
+			addLong(name, value.longValue());
+		else
+			addValue(name, jsonProvider.createValue(new BigDecimal(value)));
+	}
+	
+	/**
+	 * find the column a value goes in, making or widening it so the value fits
+	 * 
+	 * @param name the variable
+	 * @param type the narrowest type that holds the value
+	 * @return the column
+	 */
+	private Column column(String name, ColumnType type) {
+		Column c;
+		// solutions nearly always bind the variables in the same order
+		if(column < columns.size() && columns.get(column).name.equals(name)) {
+			c = columns.get(column);
+		} else {
+			c = byName.get(name);
+			if(c == null) {
+				c = new Column(name, capacity);
+				for(int i = 0 ; i < rows ; i++)
+					c.addDefault();
+				columns.add(c);
+				byName.put(name, c);
+			}
+		}
+		column++;
+		c.widen(type);
+		return c;
+	}
+	
+	/**
+	 * one variable's values
+	 */
+	private static final class Column {
+		private final String name;
+		private ColumnType type = ColumnType.EMPTY;
+		private int count = 0;
+		private int capacity;
+		private int[] ints;
+		private long[] longs;
+		private double[] doubles;
+		private JsonValue[] values;
+		private List<String> dictionary;
+		private Map<String, Integer> codes;
+		
+		private Column(String name, int capacity) {
+			this.name = name;
+			this.capacity = capacity;
+		}
+		
+		/**
+		 * convert the column, if need be, to a type that can hold type
+		 */
+		private void widen(ColumnType to) {
+			if(to == type || type == ColumnType.VALUE)
+				return;
+			
+			switch(type) {
+			case EMPTY:
+				// every value so far is a default, the new type's default is as good
+				int n = count;
+				type = to;
+				count = 0;
+				switch(to) {
+				case INT:
+				case STRING:
+					ints = new int[capacity];
+					if(to == ColumnType.STRING) {
+						dictionary = new ArrayList<String>();
+						codes = new HashMap<String, Integer>();
+					}
+					break;
+				case LONG:
+					longs = new long[capacity];
+					break;
+				case DOUBLE:
+					doubles = new double[capacity];
+					break;
+				default:
+					values = new JsonValue[capacity];
+				}
+				for(int i = 0 ; i < n ; i++)
+					addDefault();
+				return;
+				
+			case INT:
+				if(to == ColumnType.LONG) {
+					longs = new long[capacity];
+					for(int i = 0 ; i < count ; i++)
+						longs[i] = ints[i];
+					ints = null;
+					type = ColumnType.LONG;
+					return;
+				}
+				if(to == ColumnType.DOUBLE) {
+					doubles = new double[capacity];
+					for(int i = 0 ; i < count ; i++)
+						doubles[i] = ints[i];
+					ints = null;
+					type = ColumnType.DOUBLE;
+					return;
+				}
+				break;
+				
+			case LONG:
+				if(to == ColumnType.INT)
+					return;
+				if(to == ColumnType.DOUBLE) {
+					doubles = new double[capacity];
+					for(int i = 0 ; i < count ; i++)
+						doubles[i] = longs[i];
+					longs = null;
+					type = ColumnType.DOUBLE;
+					return;
+				}
+				break;
+				
+			case DOUBLE:
+				if(to == ColumnType.INT || to == ColumnType.LONG)
+					return;
+				break;
+				
+			default:
+				break;
+			}
+			
+			// no common numeric type - fall back to json values
+			JsonValue[] v = new JsonValue[capacity];
+			for(int i = 0 ; i < count ; i++)
+				v[i] = value(i);
+			values = v;
+			ints = null;
+			longs = null;
+			doubles = null;
+			dictionary = null;
+			codes = null;
+			type = ColumnType.VALUE;
+		}
+		
+		private void grow(int newCapacity) {
+			capacity = newCapacity;
+			if(ints != null)
+				ints = Arrays.copyOf(ints, newCapacity);
+			if(longs != null)
+				longs = Arrays.copyOf(longs, newCapacity);
+			if(doubles != null)
+				doubles = Arrays.copyOf(doubles, newCapacity);
+			if(values != null)
+				values = Arrays.copyOf(values, newCapacity);
+		}
+		
+		private void addLong(long v) {
+			switch(type) {
+			case INT:
+				ints[count++] = (int)v;
+				break;
+			case LONG:
+				longs[count++] = v;
+				break;
+			case DOUBLE:
+				doubles[count++] = v;
+				break;
+			default:
+				values[count++] = jsonProvider.createValue(v);
+			}
+		}
+		
+		private void addDouble(double v) {
+			if(type == ColumnType.DOUBLE)
+				doubles[count++] = v;
+			else
+				values[count++] = jsonProvider.createValue(v);
+		}
+		
+		private void addString(String s) {
+			if(type != ColumnType.STRING) {
+				values[count++] = jsonProvider.createValue(s);
+				return;
+			}
+			Integer code = codes.get(s);
+			if(code == null) {
+				code = dictionary.size();
+				dictionary.add(s);
+				codes.put(s, code);
+			}
+			ints[count++] = code;
+		}
+		
+		private void addValue(JsonValue v) {
+			values[count++] = v;
+		}
+		
+		private void addDefault() {
+			switch(type) {
+			case EMPTY:
+				count++;
+				break;
+			case STRING:
+				ints[count++] = -1;
+				break;
+			case INT:
+			case LONG:
+			case DOUBLE:
+				// arrays are zeroed, but truncate may have left old values
+				addLong(0);
+				break;
+			case VALUE:
+				values[count++] = null;
+				break;
+			}
+		}
+		
+		private JsonValue value(int i) {
+			switch(type) {
+			case INT:
+				return jsonProvider.createValue(ints[i]);
+			case LONG:
+				return jsonProvider.createValue(longs[i]);
+			case DOUBLE:
+				return jsonProvider.createValue(doubles[i]);
+			case STRING:
+				return ints[i] < 0 ? null : jsonProvider.createValue(dictionary.get(ints[i]));
+			case VALUE:
+				return values[i];
+			default:
+				return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,173 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A temp file of length prefixed records, written at the end and read from the front.
+ * 
+ * The file is memory mapped a segment at a time, so reads and writes are memory copies
+ * and the OS decides what's actually in RAM. A record may straddle two segments.
+ * When every record has been read the file is rewound, so a query that's consumed
+ * about as fast as it's produced keeps reusing the same few segments.
+ * 
+ * Not thread safe, ProofBuffer synchronizes.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+final class SpillFile {
+	static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+	
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+	private final byte[] lengthBytes = new byte[4];
+	private byte[] readBuf = new byte[256];
+	private long writePos = 0;
+	private long readPos = 0;
+	private int count = 0;
+	
+	/**
+	 * @param directory where to make the file, or null for the default temp directory
+	 * @throws IOException if the file can't be made
+	 */
+	SpillFile(File directory) throws IOException {
+		file = File.createTempFile("javapengine", ".spill", directory);
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+	}
+	
+	/**
+	 * append a record
+	 * 
+	 * @param data the bytes
+	 * @param length how many of them
+	 * @throws IOException if the file can't grow
+	 */
+	void write(byte[] data, int length) throws IOException {
+		lengthBytes[0] = (byte)(length >>> 24);
+		lengthBytes[1] = (byte)(length >>> 16);
+		lengthBytes[2] = (byte)(length >>> 8);
+		lengthBytes[3] = (byte)length;
+		writePos = copy(writePos, lengthBytes, 4, true);
+		writePos = copy(writePos, data, length, true);
+		count++;
+	}
+	
+	/**
+	 * remove the oldest record
+	 * 
+	 * @return the record's bytes, in an array reused by the next call, or null if there are none
+	 * @throws IOException if the file can't be read
+	 */
+	byte[] read() throws IOException {
+		if(count == 0)
+			return null;
+		
+		readPos = copy(readPos, lengthBytes, 4, false);
+		int length = ((lengthBytes[0] & 0xFF) << 24) | ((lengthBytes[1] & 0xFF) << 16) |
+				((lengthBytes[2] & 0xFF) << 8) | (lengthBytes[3] & 0xFF);
+		if(length < 0 || length > writePos - readPos)
+			throw new IOException("corrupt spill file " + file + ", record of " + Integer.toString(length) + " bytes");
+		if(readBuf.length < length)
+			readBuf = new byte[Math.max(length, readBuf.length * 2)];
+		readPos = copy(readPos, readBuf, length, false);
+		
+		if(--count == 0) {
+			readPos = 0;
+			writePos = 0;
+		}
+		return readBuf;
+	}
+	
+	/**
+	 * @return how many records are waiting to be read
+	 */
+	int size() {
+		return count;
+	}
+	
+	/**
+	 * @return how many bytes are waiting to be read
+	 */
+	long bytes() {
+		return writePos - readPos;
+	}
+	
+	/**
+	 * unmap, close and delete the file. The mappings go when they're garbage collected, 
+	 * so on some platforms the file can only be deleted at exit.
+	 */
+	void close() {
+		segments.clear();
+		try {
+			channel.close();
+			raf.close();
+		} catch (IOException e) {
+			System.err.println("cannot close spill file " + file + " " + e.getMessage());
+		}
+		if(!file.delete())
+			file.deleteOnExit();
+	}
+	
+	private long copy(long pos, byte[] data, int length, boolean write) throws IOException {
+		int off = 0;
+		while(off < length) {
+			int seg = (int)(pos / SEGMENT_SIZE);
+			int segPos = (int)(pos % SEGMENT_SIZE);
+			int n = Math.min(length - off, SEGMENT_SIZE - segPos);
+			MappedByteBuffer buf = segment(seg);
+			buf.position(segPos);
+			if(write)
+				buf.put(data, off, n);
+			else
+				buf.get(data, off, n);
+			off += n;
+			pos += n;
+		}
+		return pos;
+	}
+	
+	private MappedByteBuffer segment(int seg) throws IOException {
+		while(segments.size() <= seg) {
+			segments.add(channel.map(FileChannel.MapMode.READ_WRITE,
+					(long)segments.size() * SEGMENT_SIZE, SEGMENT_SIZE));
+		}
+		return segments.get(seg);
+	}
+	
+	@Override
+	public String toString() {
+		return file.getPath() + " " + Integer.toString(count) + " proofs " + Long.toString(bytes()) + " bytes";
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.io.IOException;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonBuilderFactory;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+
+/**
+ * Reads a json format answer with a parser, putting each solution into a query's ProofBuffer as it's read.
+ * 
+ * What's returned is the answer without its solutions, which the usual answer handling 
+ * can deal with - it sees a success with no data. The response is never all in memory at once - 
+ * only one solution's JsonObject at a time, and with a heap budget the buffer spills the ones past it.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+final class StreamedAnswer {
+	private static final JsonBuilderFactory jsonBuilderFactory = Json.createBuilderFactory(null);
+	
+	/**
+	 * only static members
+	 */
+	private StreamedAnswer() {
+	}
+	
+	/**
+	 * Read an answer. If it can't be read, no solutions are added.
+	 * 
+	 * @param parser a parser at the start of the answer
+	 * @param proofs where to put the solutions. Must be empty, as a query's is whenever it asks for more
+	 * @return the answer, without the solutions
+	 * 
+	 * @throws IOException if the answer isn't a json event
+	 */
+	static JsonObject read(JsonParser parser, ProofBuffer proofs) throws IOException {
+		try {
+			if(!parser.hasNext() || parser.next() != Event.START_OBJECT)
+				throw new IOException("answer is not a json object");
+			return readEvent(parser, proofs);
+		} catch (JsonException e) {
+			proofs.clear();
+			throw new IOException("cannot parse answer " + e.getMessage(), e);
+		} catch (IOException e) {
+			proofs.clear();
+			throw e;
+		}
+	}
+	
+	/**
+	 * read an event object, the parser just past its start. destroy events carry the last answer 
+	 * as their data, which is read the same way
+	 */
+	private static JsonObject readEvent(JsonParser parser, ProofBuffer proofs) throws IOException {
+		JsonObjectBuilder job = jsonBuilderFactory.createObjectBuilder();
+		String event = null;
+		boolean hadSolutions = false;
+		
+		// the keys can come in any order, so we don't know it's a success until we're done
+		for(Event e = parser.next() ; e != Event.END_OBJECT ; e = parser.next()) {
+			String key = parser.getString();
+			Event value = parser.next();
+			if(key.equals("data") && value == Event.START_ARRAY) {
+				JsonArrayBuilder data = readSolutions(parser, proofs);
+				if(data == null)
+					hadSolutions = true;
+				else
+					job.add(key, data);
+			} else if(key.equals("data") && value == Event.START_OBJECT) {
+				job.add(key, readEvent(parser, proofs));
+			} else {
+				JsonValue v = parser.getValue();
+				if(key.equals("event") && value == Event.VALUE_STRING)
+					event = parser.getString();
+				job.add(key, v);
+			}
+		}
+		
+		if(hadSolutions && !"success".equals(event)) {
+			// only success has solutions. An output event can send a list of objects - give it back
+			job.add("data", takeBack(proofs, jsonBuilderFactory.createArrayBuilder()));
+		}
+		return job.build();
+	}
+	
+	/**
+	 * @return null if every element was an object, and went into proofs. If not it's not a list
+	 *   of solutions, and this is the whole list, with any proofs taken back out
+	 */
+	private static JsonArrayBuilder readSolutions(JsonParser parser, ProofBuffer proofs) throws IOException {
+		JsonArrayBuilder other = null;
+		for(Event e = parser.next() ; e != Event.END_ARRAY ; e = parser.next()) {
+			if(other == null && e == Event.START_OBJECT) {
+				proofs.add(new Proof(parser.getObject()));
+				continue;
+			}
+			
+			if(other == null)
+				other = takeBack(proofs, jsonBuilderFactory.createArrayBuilder());
+			other.add(parser.getValue());
+		}
+		return other;
+	}
+	
+	private static JsonArrayBuilder takeBack(ProofBuffer proofs, JsonArrayBuilder jab) throws IOException {
+		for(Proof p = proofs.poll() ; p != null ; p = proofs.poll())
+			jab.add(p.getValues());
+		proofs.clear();
+		return jab;
+	}
+}
@@ -0,0 +1,280 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records every request pengines send, with the response and how long it took, to an append-only file,
+ * to replay later with tools.ReplayServer - benchmarking against real traffic without a Prolog server.
+ * 
+ * Turn it on with PengineBuilder.setTrafficLog. One log can be shared by any number of pengines and threads.
+ * 
+ * The file is binary - a header, then for each exchange the start (nanoseconds since the log was opened), 
+ * the latency in nanoseconds, the HTTP status, the URL, and the request and response bodies, 
+ * each as a length and its bytes. Requests that never got a response aren't recorded.
+ * 
+ * Recording reads each response into memory before it's parsed, so leave it off when measuring 
+ * the client's own memory use.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+public final class TrafficLog implements Closeable {
+	/**
+	 * the start of every traffic log, "JPTR"
+	 */
+	static final int MAGIC = 0x4a505452;
+	static final int VERSION = 1;
+	
+	private final File file;
+	private final DataOutputStream out;
+	private final long opened = System.nanoTime();
+	private long exchanges = 0;
+	private boolean closed = false;
+	
+	/**
+	 * One recorded request and its response
+	 */
+	public static final class Exchange {
+		private final long start;
+		private final long latency;
+		private final int status;
+		private final String url;
+		private final byte[] request;
+		private final byte[] response;
+		
+		private Exchange(long start, long latency, int status, String url, byte[] request, byte[] response) {
+			this.start = start;
+			this.latency = latency;
+			this.status = status;
+			this.url = url;
+			this.request = request;
+			this.response = response;
+		}
+		
+		/**
+		 * @return when the request was sent, in nanoseconds since its log was opened
+		 */
+		public long getStart() {
+			return start;
+		}
+		
+		/**
+		 * @return nanoseconds from sending the request to having read the whole response
+		 */
+		public long getLatency() {
+			return latency;
+		}
+		
+		/**
+		 * @return the HTTP status of the response
+		 */
+		public int getStatus() {
+			return status;
+		}
+		
+		/**
+		 * @return the URL the request was sent to
+		 */
+		public String getURL() {
+			return url;
+		}
+		
+		/**
+		 * @return the UTF-8 request body
+		 */
+		public byte[] getRequest() {
+			return request.clone();
+		}
+		
+		/**
+		 * @return the UTF-8 response body
+		 */
+		public byte[] getResponse() {
+			return response.clone();
+		}
+	}
+	
+	/**
+	 * Open a log, adding to the file if it's already a traffic log
+	 * 
+	 * @param file the file to record to
+	 * @throws IOException if the file can't be written, or isn't a traffic log
+	 */
+	public TrafficLog(File file) throws IOException {
+		this.file = file;
+		boolean exists = file.length() > 0;
+		if(exists)
+			checkHeader(file);
+		
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 65536));
+		if(!exists) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.flush();
+		}
+	}
+	
+	private static DataInputStream checkHeader(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+		try {
+			if(in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException(file.getPath() + " is not a JavaPengine traffic log");
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+		return in;
+	}
+	
+	/**
+	 * @return the file being recorded to
+	 */
+	public File getFile() {
+		return file;
+	}
+	
+	/**
+	 * @return how many exchanges have been recorded since the log was opened
+	 */
+	public synchronized long getExchanges() {
+		return exchanges;
+	}
+	
+	/**
+	 * Read the response of a request and record the exchange
+	 * 
+	 * @param url the URL the request was sent to
+	 * @param body the request body
+	 * @param length the length of the body
+	 * @param con the connection, with the response waiting to be read
+	 * @param start System.nanoTime() when the request was started
+	 * @return the response body, to be read in place of the connection's
+	 * @throws IOException if the response can't be read
+	 */
+	InputStream record(URL url, byte[] body, int length, HttpURLConnection con, long start) throws IOException {
+		int status = con.getResponseCode();
+		InputStream in = status >= 400 ? con.getErrorStream() : con.getInputStream();
+		ByteArrayOutputStream response = new ByteArrayOutputStream(4096);
+		if(in != null) {
+			try {
+				byte[] buf = new byte[8192];
+				for(int n = in.read(buf) ; n >= 0 ; n = in.read(buf))
+					response.write(buf, 0, n);
+			} finally {
+				in.close();
+			}
+		}
+		long latency = System.nanoTime() - start;
+		byte[] bytes = response.toByteArray();
+		
+		synchronized(this) {
+			if(!closed) {
+				out.writeLong(start - opened);
+				out.writeLong(latency);
+				out.writeInt(status);
+				out.writeUTF(url.toString());
+				out.writeInt(length);
+				out.write(body, 0, length);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+				// whole exchanges only, so a crash leaves a log that can be read up to there
+				out.flush();
+				exchanges++;
+			}
+		}
+		return new ByteArrayInputStream(bytes);
+	}
+	
+	/**
+	 * Stop recording. Later exchanges are dropped
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if(closed)
+			return;
+		closed = true;
+		out.close();
+	}
+	
+	/**
+	 * Read a traffic log
+	 * 
+	 * @param file the log
+	 * @return the exchanges, in the order they were recorded. If the file was written by more than one TrafficLog,
+	 *   each one's start times count from when it was opened
+	 * @throws IOException if the file can't be read or isn't a traffic log. A partly written last exchange is left out
+	 */
+	public static List<Exchange> read(File file) throws IOException {
+		List<Exchange> exchanges = new ArrayList<Exchange>();
+		try (DataInputStream in = checkHeader(file)) {
+			for(;;) {
+				long start;
+				try {
+					start = in.readLong();
+				} catch (EOFException e) {
+					break;
+				}
+				try {
+					long latency = in.readLong();
+					int status = in.readInt();
+					String url = in.readUTF();
+					byte[] request = new byte[in.readInt()];
+					in.readFully(request);
+					byte[] response = new byte[in.readInt()];
+					in.readFully(response);
+					exchanges.add(new Exchange(start, latency, status, url, request, response));
+				} catch (EOFException e) {
+					break;
+				}
+			}
+		}
+		return exchanges;
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "traffic log " + file.getPath();
+	}
+}
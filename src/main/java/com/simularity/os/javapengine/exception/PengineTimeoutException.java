@@ -0,0 +1,47 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine.exception;
+
+/**
+ * @author Anne Ogborn
+ *
+ * thrown when a request to the server didn't finish by its deadline - either the socket
+ * timed out, or the server stopped the goal at the time limit it was sent with.
+ * 
+ * The pengine is destroyed - we can't know what state the server left it in - and a 
+ * destroy is sent to the server in the background so the slave is freed.
+ * 
+ */
+public class PengineTimeoutException extends PengineNotAvailableException {
+
+	private static final long serialVersionUID = -6206187384137741190L;
+
+	/**
+	 * @param string
+	 */
+	public PengineTimeoutException(String string) {
+		super(string);
+	}
+
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine.term;
+
+import javax.json.JsonValue;
+
+/**
+ * A Prolog atom
+ * 
+ * @author Anne Ogborn
+ *
+ */
+public final class Atom extends Term {
+	private final String name;
+	
+	/**
+	 * @param name the text of the atom
+	 */
+	public Atom(String name) {
+		if(name == null)
+			throw new NullPointerException("atom name must not be null");
+		this.name = name;
+	}
+	
+	/**
+	 * @return the text of the atom, unquoted
+	 */
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public TermType getType() {
+		return TermType.ATOM;
+	}
+
+	@Override
+	public JsonValue toJson() {
+		return jsonProvider.createValue(name);
+	}
+
+	@Override
+	void write(StringBuilder sb) {
+		TermWriter.writeAtom(sb, name);
+	}
+
+	@Override
+	public int hashCode() {
+		return name.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof Atom && ((Atom)obj).name.equals(name);
+	}
+}
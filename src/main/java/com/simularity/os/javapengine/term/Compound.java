@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine.term;
+
+import java.util.Arrays;
+
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonValue;
+
+/**
+ * A Prolog compound term, name(Arg1, Arg2, ...)
+ * 
+ * Lists are {@link ListTerm}s, not compounds.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+public final class Compound extends Term {
+	private final String name;
+	private final Term[] args;
+	
+	/**
+	 * @param name the functor name
+	 * @param args the arguments. There must be at least one
+	 */
+	public Compound(String name, Term... args) {
+		if(name == null)
+			throw new NullPointerException("functor name must not be null");
+		if(args.length == 0)
+			throw new IllegalArgumentException("a compound needs at least one argument - use an Atom");
+		this.name = name;
+		this.args = args.clone();
+	}
+	
+	/**
+	 * @return the functor name
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * @return the number of arguments
+	 */
+	public int getArity() {
+		return args.length;
+	}
+	
+	/**
+	 * @param i the argument number, starting from 0 (unlike arg/3)
+	 * @return the argument
+	 */
+	public Term getArg(int i) {
+		return args[i];
+	}
+	
+	/**
+	 * @param name a functor name
+	 * @param arity an arity
+	 * @return true if this compound is name/arity
+	 */
+	public boolean hasFunctor(String name, int arity) {
+		return this.args.length == arity && this.name.equals(name);
+	}
+
+	@Override
+	public TermType getType() {
+		return TermType.COMPOUND;
+	}
+
+	@Override
+	public JsonValue toJson() {
+		JsonArrayBuilder jargs = jsonProvider.createArrayBuilder();
+		for(Term arg : args)
+			jargs.add(arg.toJson());
+		return jsonProvider.createObjectBuilder().add("functor", name).add("args", jargs).build();
+	}
+
+	@Override
+	void write(StringBuilder sb) {
+		TermWriter.writeAtom(sb, name);
+		sb.append('(');
+		for(int i = 0 ; i < args.length ; i++) {
+			if(i > 0)
+				sb.append(',');
+			args[i].write(sb);
+		}
+		sb.append(')');
+	}
+
+	@Override
+	public int hashCode() {
+		return name.hashCode() * 31 + Arrays.hashCode(args);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(!(obj instanceof Compound))
+			return false;
+		Compound other = (Compound)obj;
+		return name.equals(other.name) && Arrays.equals(args, other.args);
+	}
+}
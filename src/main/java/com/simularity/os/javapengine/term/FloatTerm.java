@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine.term;
+
+import javax.json.JsonValue;
+
+/**
+ * A Prolog float
+ * 
+ * @author Anne Ogborn
+ *
+ */
+public final class FloatTerm extends Term {
+	private final double value;
+	
+	/**
+	 * @param value the value
+	 */
+	public FloatTerm(double value) {
+		this.value = value;
+	}
+	
+	/**
+	 * @return the value
+	 */
+	public double doubleValue() {
+		return value;
+	}
+	
+	/**
+	 * format a double the way SWI-Prolog reads it - always with a dot, and 1.0Inf or 1.5NaN
+	 * for the special values
+	 * 
+	 * @param d the value
+	 * @return the Prolog text
+	 */
+	static String format(double d) {
+		if(Double.isNaN(d))
+			return "1.5NaN";
+		if(Double.isInfinite(d))
+			return d > 0 ? "1.0Inf" : "-1.0Inf";
+		return Double.toString(d);
+	}
+
+	@Override
+	public TermType getType() {
+		return TermType.FLOAT;
+	}
+
+	@Override
+	public JsonValue toJson() {
+		return jsonDouble(value);
+	}
+
+	@Override
+	void write(StringBuilder sb) {
+		sb.append(format(value));
+	}
+
+	@Override
+	public int hashCode() {
+		return Double.hashCode(value);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof FloatTerm && Double.compare(((FloatTerm)obj).value, value) == 0;
+	}
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine.term;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import javax.json.JsonValue;
+
+/**
+ * A Prolog integer. Prolog integers are unbounded, so this holds a long when the value
+ * fits and a BigInteger when it doesn't.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+public final class IntegerTerm extends Term {
+	private final long value;
+	private final BigInteger big;  // null unless the value doesn't fit in a long
+	
+	/**
+	 * @param value the value
+	 */
+	public IntegerTerm(long value) {
+		this.value = value;
+		this.big = null;
+	}
+	
+	/**
+	 * @param value the value
+	 */
+	public IntegerTerm(BigInteger value) {
+		if(value.bitLength() < 64) {
+			this.value = value.longValue();
+			this.big = null;
+		} else {
+			this.value = value.longValue();
+			this.big = value;
+		}
+	}
+	
+	/**
+	 * @return true if the value doesn't fit in a long
+	 */
+	public boolean isBig() {
+		return big != null;
+	}
+	
+	/**
+	 * @return the value, truncated to the low 64 bits if it's big
+	 */
+	public long longValue() {
+		return value;
+	}
+	
+	/**
+	 * @return the value
+	 * 
+	 * @throws ArithmeticException if the value doesn't fit in an int
+	 */
+	public int intValueExact() {
+		if(big != null || value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+			throw new ArithmeticException("integer " + toString() + " does not fit in an int");
+		return (int)value;
+	}
+	
+	/**
+	 * @return the value
+	 */
+	public BigInteger bigIntegerValue() {
+		return big != null ? big : BigInteger.valueOf(value);
+	}
+
+	@Override
+	public TermType getType() {
+		return TermType.INTEGER;
+	}
+
+	@Override
+	public JsonValue toJson() {
+		if(big != null)
+			return jsonProvider.createValue(new BigDecimal(big));
+		return jsonProvider.createValue(value);
+	}
+
+	@Override
+	void write(StringBuilder sb) {
+		if(big != null)
+			sb.append(big.toString());
+		else
+			sb.append(value);
+	}
+
+	@Override
+	public int hashCode() {
+		return big != null ? big.hashCode() : Long.hashCode(value);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(!(obj instanceof IntegerTerm))
+			return false;
+		IntegerTerm other = (IntegerTerm)obj;
+		if(big != null || other.big != null)
+			return bigIntegerValue().equals(other.bigIntegerValue());
+		return value == other.value;
+	}
+}
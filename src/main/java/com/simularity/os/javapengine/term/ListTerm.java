@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine.term;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonValue;
+
+/**
+ * A Prolog list, [a, b, c]. The empty list [] is a ListTerm with no elements.
+ * 
+ * Partial lists, [a, b | T], have a tail that isn't [].
+ * 
+ * @author Anne Ogborn
+ *
+ */
+public final class ListTerm extends Term {
+	/**
+	 * the empty list, []
+	 */
+	public static final ListTerm EMPTY = new ListTerm(Collections.<Term>emptyList());
+	
+	private final List<Term> elements;
+	private final Term tail;  // null for a proper list
+	
+	/**
+	 * make a proper list
+	 * 
+	 * @param elements the elements
+	 */
+	public ListTerm(List<? extends Term> elements) {
+		this(elements, null);
+	}
+	
+	/**
+	 * make a list with a tail, [E1, E2 | Tail]
+	 * 
+	 * @param elements the elements
+	 * @param tail the tail, or null (or []) for a proper list
+	 */
+	public ListTerm(List<? extends Term> elements, Term tail) {
+		List<Term> copy = new ArrayList<Term>(elements);
+		if(tail instanceof ListTerm) {
+			// flatten [a | [b, c]] to [a, b, c]
+			ListTerm lt = (ListTerm)tail;
+			copy.addAll(lt.elements);
+			tail = lt.tail;
+		}
+		this.elements = Collections.unmodifiableList(copy);
+		this.tail = tail;
+	}
+	
+	/**
+	 * @return the elements, not including any tail
+	 */
+	public List<Term> getElements() {
+		return elements;
+	}
+	
+	/**
+	 * @return the number of elements
+	 */
+	public int size() {
+		return elements.size();
+	}
+	
+	/**
+	 * @param i the index, from 0
+	 * @return the element
+	 */
+	public Term get(int i) {
+		return elements.get(i);
+	}
+	
+	/**
+	 * @return true if this is a proper list, ending in []
+	 */
+	public boolean isProper() {
+		return tail == null;
+	}
+	
+	/**
+	 * @return the tail of a partial list, or null if this is a proper list
+	 */
+	public Term getTail() {
+		return tail;
+	}
+
+	@Override
+	public TermType getType() {
+		return TermType.LIST;
+	}
+
+	@Override
+	public JsonValue toJson() {
+		JsonArrayBuilder jab = jsonProvider.createArrayBuilder();
+		for(Term t : elements)
+			jab.add(t.toJson());
+		if(tail != null)
+			jab.add(tail.toJson());
+		return jab.build();
+	}
+
+	@Override
+	void write(StringBuilder sb) {
+		sb.append('[');
+		for(int i = 0 ; i < elements.size() ; i++) {
+			if(i > 0)
+				sb.append(',');
+			elements.get(i).write(sb);
+		}
+		if(tail != null) {
+			sb.append('|');
+			tail.write(sb);
+		}
+		sb.append(']');
+	}
+
+	@Override
+	public int hashCode() {
+		return elements.hashCode() * 31 + (tail == null ? 0 : tail.hashCode());
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(!(obj instanceof ListTerm))
+			return false;
+		ListTerm other = (ListTerm)obj;
+		return elements.equals(other.elements) && 
+				(tail == null ? other.tail == null : tail.equals(other.tail));
+	}
+}
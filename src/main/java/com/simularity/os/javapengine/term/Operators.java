@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine.term;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Internal table of SWI-Prolog's default operators, which the {@link TermReader} uses.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+final class Operators {
+	static final int XFX = 0;
+	static final int XFY = 1;
+	static final int YFX = 2;
+	static final int FY = 3;
+	static final int FX = 4;
+	
+	/**
+	 * a single operator definition
+	 */
+	static final class Op {
+		final int priority;
+		final int type;
+		
+		Op(int priority, int type) {
+			this.priority = priority;
+			this.type = type;
+		}
+		
+		/**
+		 * @return the highest priority the left argument can have
+		 */
+		int leftMax() {
+			return type == YFX ? priority : priority - 1;
+		}
+		
+		/**
+		 * @return the highest priority the right (or only) argument can have
+		 */
+		int rightMax() {
+			return (type == XFY || type == FY) ? priority : priority - 1;
+		}
+	}
+	
+	private static final Map<String, Op> infix = new HashMap<String, Op>();
+	private static final Map<String, Op> prefix = new HashMap<String, Op>();
+	
+	static {
+		infix(1200, XFX, ":-", "-->");
+		prefix(1200, FX, ":-", "?-");
+		infix(1100, XFY, ";");
+		infix(1105, XFY, "|");
+		infix(1050, XFY, "->", "*->");
+		infix(1000, XFY, ",");
+		infix(990, XFX, ":=");
+		prefix(900, FY, "\\+");
+		infix(700, XFX, "=", "\\=", "==", "\\==", "@<", "@>", "@=<", "@>=", "=..", "is", 
+				"=:=", "=\\=", "<", ">", "=<", ">=", ">:<", ":<", "as", "=@=", "\\=@=", "?=");
+		infix(600, XFY, ":");
+		infix(500, YFX, "+", "-", "/\\", "\\/", "xor");
+		prefix(500, FX, "?");
+		infix(400, YFX, "*", "/", "//", "rdiv", "<<", ">>", "mod", "rem", "div");
+		infix(200, XFX, "**");
+		infix(200, XFY, "^");
+		prefix(200, FY, "-", "+", "\\");
+		infix(100, YFX, ".");
+		prefix(1, FX, "$");
+		prefix(1150, FX, "dynamic", "discontiguous", "initialization", "meta_predicate", 
+				"module_transparent", "multifile", "public", "thread_local", "table");
+	}
+	
+	/**
+	 * only static methods
+	 */
+	private Operators() {
+	}
+	
+	private static void infix(int priority, int type, String... names) {
+		for(String name : names)
+			infix.put(name, new Op(priority, type));
+	}
+	
+	private static void prefix(int priority, int type, String... names) {
+		for(String name : names)
+			prefix.put(name, new Op(priority, type));
+	}
+	
+	/**
+	 * @param name an atom
+	 * @return its infix definition, or null if it isn't an infix operator
+	 */
+	static Op infix(String name) {
+		return infix.get(name);
+	}
+	
+	/**
+	 * @param name an atom
+	 * @return its prefix definition, or null if it isn't a prefix operator
+	 */
+	static Op prefix(String name) {
+		return prefix.get(name);
+	}
+}
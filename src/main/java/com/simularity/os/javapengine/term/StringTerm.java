@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine.term;
+
+import javax.json.JsonValue;
+
+/**
+ * A Prolog string - SWI-Prolog's "real string" type, written in double quotes
+ * 
+ * @author Anne Ogborn
+ *
+ */
+public final class StringTerm extends Term {
+	private final String value;
+	
+	/**
+	 * @param value the text of the string
+	 */
+	public StringTerm(String value) {
+		if(value == null)
+			throw new NullPointerException("string must not be null");
+		this.value = value;
+	}
+	
+	/**
+	 * @return the text of the string
+	 */
+	public String getValue() {
+		return value;
+	}
+
+	@Override
+	public TermType getType() {
+		return TermType.STRING;
+	}
+
+	@Override
+	public JsonValue toJson() {
+		return jsonProvider.createValue(value);
+	}
+
+	@Override
+	void write(StringBuilder sb) {
+		TermWriter.writeString(sb, value);
+	}
+
+	@Override
+	public int hashCode() {
+		return value.hashCode() * 31 + 1;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof StringTerm && ((StringTerm)obj).value.equals(value);
+	}
+}
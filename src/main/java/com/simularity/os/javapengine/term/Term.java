@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine.term;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.json.JsonArray;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.spi.JsonProvider;
+
+/**
+ * A Prolog term, as returned by a pengine using the prolog answer format.
+ * 
+ * Terms are immutable. toString() writes the term in canonical Prolog syntax, quoted so that
+ * it reads back as the same term.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+public abstract class Term {
+	/**
+	 * for toJson. The static Json methods look the provider up on every call
+	 */
+	static final JsonProvider jsonProvider = JsonProvider.provider();
+
+	/**
+	 * only the classes in this package are terms
+	 */
+	Term() {
+		super();
+	}
+	
+	/**
+	 * @return what kind of term this is
+	 */
+	public abstract TermType getType();
+	
+	/**
+	 * Convert to JSON the way the Pengines json answer format does - atoms and strings become JSON strings,
+	 * lists become arrays, and compounds become {"functor": name, "args": [...]} 
+	 * 
+	 * @return the JSON representation
+	 */
+	public abstract JsonValue toJson();
+	
+	/**
+	 * write this term in canonical, quoted Prolog syntax
+	 * 
+	 * @param sb where to write it
+	 */
+	abstract void write(StringBuilder sb);
+	
+	/**
+	 * @return the term in canonical, quoted Prolog syntax
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		write(sb);
+		return sb.toString();
+	}
+	
+	/**
+	 * Convert a value from the Pengines json answer format to a term.
+	 * 
+	 * The json format doesn't distinguish atoms from strings, so JSON strings become atoms.
+	 * 
+	 * @param value the JSON value
+	 * @return the term
+	 */
+	public static Term fromJson(JsonValue value) {
+		switch(value.getValueType()) {
+		case STRING:
+			return new Atom(((JsonString)value).getString());
+		case NUMBER:
+			JsonNumber num = (JsonNumber)value;
+			if(num.isIntegral()) {
+				BigInteger big = num.bigIntegerValue();
+				if(big.bitLength() < 64)
+					return new IntegerTerm(big.longValue());
+				return new IntegerTerm(big);
+			}
+			return new FloatTerm(num.doubleValue());
+		case ARRAY:
+			List<Term> elements = new ArrayList<Term>();
+			for(Iterator<JsonValue> iter = ((JsonArray)value).iterator() ; iter.hasNext() ; )
+				elements.add(fromJson(iter.next()));
+			return new ListTerm(elements);
+		case OBJECT:
+			JsonObject obj = (JsonObject)value;
+			if(obj.containsKey("functor") && obj.containsKey("args")) {
+				JsonArray jargs = obj.getJsonArray("args");
+				Term[] args = new Term[jargs.size()];
+				for(int i = 0 ; i < args.length ; i++)
+					args[i] = fromJson(jargs.get(i));
+				return new Compound(obj.getString("functor"), args);
+			}
+			// any other object becomes json([Key=Value, ...]), as library(http/json) reads it
+			List<Term> pairs = new ArrayList<Term>();
+			for(Map.Entry<String, JsonValue> e : obj.entrySet())
+				pairs.add(new Compound("=", new Atom(e.getKey()), fromJson(e.getValue())));
+			return new Compound("json", new ListTerm(pairs));
+		case TRUE:
+			return new Atom("true");
+		case FALSE:
+			return new Atom("false");
+		default:
+			return new Atom("null");
+		}
+	}
+	
+	/**
+	 * @param d a double
+	 * @return d as JSON, using a number when JSON can represent it
+	 */
+	static JsonValue jsonDouble(double d) {
+		if(Double.isNaN(d) || Double.isInfinite(d))
+			return jsonProvider.createValue(FloatTerm.format(d));
+		return jsonProvider.createValue(BigDecimal.valueOf(d));
+	}
+}
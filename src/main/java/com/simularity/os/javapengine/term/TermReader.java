@@ -0,0 +1,756 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine.term;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.simularity.os.javapengine.exception.SyntaxErrorException;
+import com.simularity.os.javapengine.term.Operators.Op;
+
+/**
+ * A hand written reader for Prolog terms in standard syntax.
+ * 
+ * It understands quoted atoms, strings, back quoted codes, numbers in all the usual notations,
+ * variables, lists, curly terms and SWI-Prolog's default operators. It doesn't
+ * understand dicts, or operators defined by op/3.
+ * 
+ * Reads a sequence of terms, each ended by a full stop, from a String.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+public final class TermReader {
+	private static final int T_EOF = 0;
+	private static final int T_END = 1;
+	private static final int T_NAME = 2;
+	private static final int T_QNAME = 3;
+	private static final int T_VAR = 4;
+	private static final int T_NUMBER = 5;
+	private static final int T_STRING = 6;
+	private static final int T_BACKQUOTE = 7;
+	private static final int T_PUNCT = 8;
+	
+	private final String text;
+	private final int length;
+	private int pos = 0;
+	
+	// the current token
+	private int type = T_EOF;
+	private String tokText = null;
+	private char tokChar = 0;
+	private Term tokValue = null;
+	private boolean layoutBefore = false;
+	private int tokStart = 0;
+	
+	// priority of the term parse() just returned
+	private int termPriority = 0;
+	
+	private Map<String, Variable> variables = new LinkedHashMap<String, Variable>();
+	
+	/**
+	 * @param text the Prolog text to read terms from
+	 */
+	public TermReader(String text) {
+		this.text = text;
+		this.length = text.length();
+	}
+	
+	/**
+	 * Read exactly one term. The full stop after it is optional.
+	 * 
+	 * @param text the Prolog text
+	 * @return the term
+	 * 
+	 * @throws SyntaxErrorException if the text isn't a single valid term
+	 */
+	public static Term parse(String text) throws SyntaxErrorException {
+		TermReader reader = new TermReader(text);
+		Term t = reader.read();
+		if(t == null)
+			throw new SyntaxErrorException("No term in \"" + text + "\"");
+		reader.expectEndOfText();
+		return t;
+	}
+	
+	/**
+	 * Read the next term. 
+	 * 
+	 * @return the term, or null if there are no more terms in the text
+	 * 
+	 * @throws SyntaxErrorException if the text isn't valid Prolog
+	 */
+	public Term read() throws SyntaxErrorException {
+		variables = new LinkedHashMap<String, Variable>();
+		advance();
+		if(type == T_EOF)
+			return null;
+		
+		Term t = parse(1200);
+		if(type != T_END && type != T_EOF)
+			throw error("operator expected");
+		return t;
+	}
+	
+	/**
+	 * Read a goal - exactly one term, with no full stop after it, since the goal of a query
+	 * is put inside ask((Goal), Options). getVariables() then gives the goal's variables.
+	 * 
+	 * @return the goal
+	 * 
+	 * @throws SyntaxErrorException if the text isn't a single valid term with no full stop
+	 */
+	public Term readGoal() throws SyntaxErrorException {
+		Term t = read();
+		if(t == null)
+			throw error("goal expected");
+		if(type != T_EOF)
+			throw error("a goal must not end with a full stop");
+		return t;
+	}
+	
+	/**
+	 * Split text at its ? placeholders. A placeholder is a ? token on its own. So ?- and ?= are still atoms,
+	 * and a ? inside quotes or a comment is just a character.
+	 * 
+	 * @param text the Prolog text
+	 * @return the text around the placeholders - one more string than there are placeholders
+	 * 
+	 * @throws SyntaxErrorException if the text can't be split into tokens, eg an unterminated quoted atom
+	 */
+	public static String[] splitPlaceholders(String text) throws SyntaxErrorException {
+		TermReader reader = new TermReader(text);
+		List<String> segments = new ArrayList<String>();
+		int segment = 0;
+		for(reader.advance() ; reader.type != T_EOF ; reader.advance()) {
+			if(reader.type == T_NAME && reader.tokText.equals("?")) {
+				segments.add(text.substring(segment, reader.tokStart));
+				segment = reader.pos;
+			}
+		}
+		segments.add(text.substring(segment));
+		return segments.toArray(new String[segments.size()]);
+	}
+	
+	/**
+	 * After reading a term, check there's nothing but layout after it
+	 * 
+	 * @throws SyntaxErrorException if there's more text
+	 */
+	void expectEndOfText() throws SyntaxErrorException {
+		if(type == T_END)
+			advance();
+		if(type != T_EOF)
+			throw error("end of text expected");
+	}
+	
+	/**
+	 * @return the named variables in the last term read, in order of their first appearance.
+	 * The anonymous variable _ isn't included
+	 */
+	public Map<String, Variable> getVariables() {
+		return Collections.unmodifiableMap(variables);
+	}
+	
+	private SyntaxErrorException error(String message) {
+		int from = Math.max(0, tokStart - 20);
+		int to = Math.min(length, tokStart + 20);
+		return new SyntaxErrorException("Syntax error: " + message + " at character " + 
+				Integer.toString(tokStart) + " near \"" + text.substring(from, to) + "\"");
+	}
+	
+	/* ---------------- parser ---------------- */
+	
+	private boolean isPunct(char c) {
+		return type == T_PUNCT && tokChar == c;
+	}
+	
+	private void expect(char c) throws SyntaxErrorException {
+		if(!isPunct(c))
+			throw error(c + " expected");
+		advance();
+	}
+	
+	private Term parse(int maxPrec) throws SyntaxErrorException {
+		Term left = parsePrimary(maxPrec);
+		int leftPrec = termPriority;
+		
+		for(;;) {
+			String name;
+			if(type == T_NAME || type == T_QNAME) {
+				name = tokText;
+			} else if(type == T_PUNCT && (tokChar == ',' || tokChar == '|')) {
+				name = tokChar == ',' ? "," : "|";
+			} else {
+				break;
+			}
+			
+			Op op = Operators.infix(name);
+			if(op == null || op.priority > maxPrec || leftPrec > op.leftMax())
+				break;
+			
+			advance();
+			Term right = parse(op.rightMax());
+			left = new Compound(name.equals("|") ? ";" : name, left, right);
+			leftPrec = op.priority;
+		}
+		
+		termPriority = leftPrec;
+		return left;
+	}
+	
+	private Term parsePrimary(int maxPrec) throws SyntaxErrorException {
+		Term t;
+		termPriority = 0;
+		
+		switch(type) {
+		case T_NUMBER:
+			t = tokValue;
+			advance();
+			return t;
+			
+		case T_VAR:
+			t = variable(tokText);
+			advance();
+			return t;
+			
+		case T_STRING:
+			t = new StringTerm(tokText);
+			advance();
+			return t;
+			
+		case T_BACKQUOTE:
+			List<Term> codes = new ArrayList<Term>(tokText.length());
+			for(int i = 0 ; i < tokText.length() ; ) {
+				int cp = tokText.codePointAt(i);
+				codes.add(new IntegerTerm(cp));
+				i += Character.charCount(cp);
+			}
+			advance();
+			return new ListTerm(codes);
+			
+		case T_PUNCT:
+			switch(tokChar) {
+			case '(':
+				advance();
+				t = parse(1200);
+				expect(')');
+				termPriority = 0;
+				return t;
+				
+			case '[':
+				advance();
+				if(isPunct(']')) {
+					advance();
+					return ListTerm.EMPTY;
+				}
+				return parseList();
+				
+			case '{':
+				advance();
+				if(isPunct('}')) {
+					advance();
+					return nameTerm("{}", false, maxPrec);
+				}
+				t = parse(1200);
+				expect('}');
+				termPriority = 0;
+				return new Compound("{}", t);
+				
+			default:
+				throw error("unexpected " + tokChar);
+			}
+			
+		case T_NAME:
+		case T_QNAME:
+			String name = tokText;
+			boolean quoted = type == T_QNAME;
+			advance();
+			return nameTerm(name, quoted, maxPrec);
+			
+		case T_END:
+			throw error("unexpected end of clause");
+			
+		default:
+			throw error("unexpected end of text");
+		}
+	}
+	
+	/**
+	 * having read a name, read whatever term it starts - an atom, a compound, a negative number or a prefix operator term
+	 */
+	private Term nameTerm(String name, boolean quoted, int maxPrec) throws SyntaxErrorException {
+		if(isPunct('(') && !layoutBefore) {
+			advance();
+			List<Term> args = new ArrayList<Term>(4);
+			args.add(parse(999));
+			while(isPunct(',')) {
+				advance();
+				args.add(parse(999));
+			}
+			expect(')');
+			termPriority = 0;
+			return new Compound(name, args.toArray(new Term[args.size()]));
+		}
+		
+		if(!quoted && type == T_NUMBER && !layoutBefore && name.equals("-")) {
+			Term num = tokValue;
+			advance();
+			termPriority = 0;
+			return negate(num);
+		}
+		
+		Op pre = quoted ? null : Operators.prefix(name);
+		if(pre != null && canStartTerm()) {
+			int priority = pre.priority;
+			int argMax = pre.rightMax();
+			if(priority > maxPrec) {
+				priority = maxPrec;
+				argMax = Math.min(argMax, maxPrec);
+			}
+			Term arg = parse(argMax);
+			termPriority = priority;
+			return new Compound(name, arg);
+		}
+		
+		termPriority = 0;
+		return new Atom(name);
+	}
+	
+	/**
+	 * @return true if the current token can start the argument of a prefix operator
+	 */
+	private boolean canStartTerm() {
+		switch(type) {
+		case T_EOF:
+		case T_END:
+			return false;
+		case T_PUNCT:
+			return tokChar == '(' || tokChar == '[' || tokChar == '{';
+		case T_NAME:
+			// - = x  is  =(-, x)
+			return Operators.infix(tokText) == null || Operators.prefix(tokText) != null;
+		default:
+			return true;
+		}
+	}
+	
+	private Term parseList() throws SyntaxErrorException {
+		List<Term> elements = new ArrayList<Term>();
+		elements.add(parse(999));
+		while(isPunct(',')) {
+			advance();
+			elements.add(parse(999));
+		}
+		Term tail = null;
+		if(isPunct('|')) {
+			advance();
+			tail = parse(999);
+		}
+		expect(']');
+		termPriority = 0;
+		return new ListTerm(elements, tail);
+	}
+	
+	private Variable variable(String name) {
+		if(name.equals("_"))
+			return new Variable(name);
+		
+		Variable v = variables.get(name);
+		if(v == null) {
+			v = new Variable(name);
+			variables.put(name, v);
+		}
+		return v;
+	}
+	
+	private static Term negate(Term num) {
+		if(num instanceof FloatTerm)
+			return new FloatTerm(-((FloatTerm)num).doubleValue());
+		
+		IntegerTerm i = (IntegerTerm)num;
+		if(i.isBig() || i.longValue() == Long.MIN_VALUE)
+			return new IntegerTerm(i.bigIntegerValue().negate());
+		return new IntegerTerm(-i.longValue());
+	}
+	
+	/* ---------------- tokenizer ---------------- */
+	
+	private void advance() throws SyntaxErrorException {
+		layoutBefore = skipLayout();
+		tokStart = pos;
+		
+		if(pos >= length) {
+			type = T_EOF;
+			return;
+		}
+		
+		char c = text.charAt(pos);
+		if(c >= '0' && c <= '9') {
+			readNumber();
+			return;
+		}
+		if(c == '_' || Character.isUpperCase(c) || Character.isTitleCase(c)) {
+			tokText = readAlnum();
+			type = T_VAR;
+			return;
+		}
+		if(TermWriter.isAtomStart(c)) {
+			tokText = readAlnum();
+			type = T_NAME;
+			return;
+		}
+		
+		switch(c) {
+		case '\'':
+			tokText = readQuoted('\'');
+			type = T_QNAME;
+			return;
+		case '"':
+			tokText = readQuoted('"');
+			type = T_STRING;
+			return;
+		case '`':
+			tokText = readQuoted('`');
+			type = T_BACKQUOTE;
+			return;
+		case '(': case ')': case '[': case ']': case '{': case '}': case ',': case '|':
+			pos++;
+			tokChar = c;
+			type = T_PUNCT;
+			return;
+		case '!':
+			pos++;
+			tokText = "!";
+			type = T_NAME;
+			return;
+		case ';':
+			pos++;
+			tokText = ";";
+			type = T_NAME;
+			return;
+		default:
+			break;
+		}
+		
+		if(TermWriter.isSymbolChar(c)) {
+			int start = pos;
+			while(pos < length && TermWriter.isSymbolChar(text.charAt(pos)))
+				pos++;
+			
+			if(pos - start == 1 && c == '.' && 
+					(pos >= length || Character.isWhitespace(text.charAt(pos)) || text.charAt(pos) == '%')) {
+				type = T_END;
+				return;
+			}
+			tokText = text.substring(start, pos);
+			type = T_NAME;
+			return;
+		}
+		
+		throw error("illegal character '" + c + "'");
+	}
+	
+	/**
+	 * skip white space and comments
+	 * 
+	 * @return true if we skipped anything
+	 * @throws SyntaxErrorException if there's an unterminated block comment
+	 */
+	private boolean skipLayout() throws SyntaxErrorException {
+		int start = pos;
+		while(pos < length) {
+			char c = text.charAt(pos);
+			if(Character.isWhitespace(c)) {
+				pos++;
+			} else if(c == '%') {
+				while(pos < length && text.charAt(pos) != '\n')
+					pos++;
+			} else if(c == '/' && pos + 1 < length && text.charAt(pos + 1) == '*') {
+				int close = text.indexOf("*/", pos + 2);
+				if(close < 0) {
+					tokStart = pos;
+					throw error("unterminated block comment");
+				}
+				pos = close + 2;
+			} else {
+				break;
+			}
+		}
+		return pos > start;
+	}
+	
+	private String readAlnum() {
+		int start = pos++;
+		while(pos < length && TermWriter.isAlnum(text.charAt(pos)))
+			pos++;
+		return text.substring(start, pos);
+	}
+	
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+	
+	private void readNumber() throws SyntaxErrorException {
+		type = T_NUMBER;
+		int start = pos;
+		
+		if(text.charAt(pos) == '0' && pos + 1 < length) {
+			char n = text.charAt(pos + 1);
+			if(n == '\'') {
+				pos += 2;
+				if(pos >= length)
+					throw error("unexpected end of text in character code");
+				int code;
+				char q = text.charAt(pos);
+				if(q == '\\') {
+					pos++;
+					code = readEscape();
+					if(code < 0)
+						throw error("bad escape in character code");
+				} else if(q == '\'' && pos + 1 < length && text.charAt(pos + 1) == '\'') {
+					pos += 2;
+					code = '\'';
+				} else {
+					code = text.codePointAt(pos);
+					pos += Character.charCount(code);
+				}
+				tokValue = new IntegerTerm(code);
+				return;
+			}
+			
+			int radix = n == 'x' ? 16 : n == 'o' ? 8 : n == 'b' ? 2 : 0;
+			if(radix != 0 && pos + 2 < length && Character.digit(text.charAt(pos + 2), radix) >= 0) {
+				pos += 2;
+				int digits = pos;
+				while(pos < length && Character.digit(text.charAt(pos), radix) >= 0)
+					pos++;
+				tokValue = new IntegerTerm(new BigInteger(text.substring(digits, pos), radix));
+				return;
+			}
+		}
+		
+		boolean underscores = skipDigits();
+		boolean isFloat = false;
+		
+		if(pos + 1 < length && text.charAt(pos) == '.' && isDigit(text.charAt(pos + 1))) {
+			isFloat = true;
+			pos++;
+			underscores |= skipDigits();
+		}
+		if(pos < length && (text.charAt(pos) == 'e' || text.charAt(pos) == 'E')) {
+			int e = pos + 1;
+			if(e < length && (text.charAt(e) == '+' || text.charAt(e) == '-'))
+				e++;
+			if(e < length && isDigit(text.charAt(e))) {
+				isFloat = true;
+				pos = e;
+				skipDigits();
+			}
+		}
+		
+		String digits = text.substring(start, pos);
+		if(underscores)
+			digits = digits.replace("_", "");
+		
+		if(isFloat) {
+			if(text.startsWith("Inf", pos)) {
+				pos += 3;
+				tokValue = new FloatTerm(Double.POSITIVE_INFINITY);
+			} else if(text.startsWith("NaN", pos)) {
+				pos += 3;
+				tokValue = new FloatTerm(Double.NaN);
+			} else {
+				tokValue = new FloatTerm(Double.parseDouble(digits));
+			}
+		} else if(digits.length() < 19) {
+			tokValue = new IntegerTerm(Long.parseLong(digits));
+		} else {
+			tokValue = new IntegerTerm(new BigInteger(digits));
+		}
+	}
+	
+	/**
+	 * skip a run of digits, which may have SWI-Prolog's _ digit group separators
+	 * 
+	 * @return true if there were separators
+	 */
+	private boolean skipDigits() {
+		boolean underscores = false;
+		while(pos < length) {
+			char c = text.charAt(pos);
+			if(isDigit(c)) {
+				pos++;
+			} else if(c == '_' && pos + 1 < length && isDigit(text.charAt(pos + 1))) {
+				underscores = true;
+				pos++;
+			} else {
+				break;
+			}
+		}
+		return underscores;
+	}
+	
+	/**
+	 * read a quoted item, starting at the opening quote
+	 * 
+	 * @param quote the quote character
+	 * @return the contents, with escapes processed
+	 * @throws SyntaxErrorException if it's not terminated or has a bad escape
+	 */
+	private String readQuoted(char quote) throws SyntaxErrorException {
+		pos++;
+		int segment = pos;
+		StringBuilder sb = null;
+		
+		for(;;) {
+			if(pos >= length)
+				throw error("unterminated quoted");
+			
+			char c = text.charAt(pos);
+			if(c == quote) {
+				if(pos + 1 < length && text.charAt(pos + 1) == quote) {
+					if(sb == null)
+						sb = new StringBuilder();
+					sb.append(text, segment, pos + 1);
+					pos += 2;
+					segment = pos;
+					continue;
+				}
+				
+				String result;
+				if(sb == null) {
+					result = text.substring(segment, pos);
+				} else {
+					sb.append(text, segment, pos);
+					result = sb.toString();
+				}
+				pos++;
+				return result;
+			}
+			
+			if(c == '\\') {
+				if(sb == null)
+					sb = new StringBuilder();
+				sb.append(text, segment, pos);
+				pos++;
+				int cp = readEscape();
+				if(cp >= 0)
+					sb.appendCodePoint(cp);
+				segment = pos;
+				continue;
+			}
+			
+			pos++;
+		}
+	}
+	
+	/**
+	 * read an escape sequence, starting just after the backslash
+	 * 
+	 * @return the code point, or -1 for a \ newline continuation
+	 * @throws SyntaxErrorException if it's not a valid escape
+	 */
+	private int readEscape() throws SyntaxErrorException {
+		if(pos >= length)
+			throw error("unterminated escape sequence");
+		
+		char c = text.charAt(pos++);
+		switch(c) {
+		case 'n': return '\n';
+		case 't': return '\t';
+		case 'r': return '\r';
+		case 'a': return 7;
+		case 'b': return '\b';
+		case 'f': return '\f';
+		case 'v': return 11;
+		case 'e': return 27;
+		case 's': return ' ';
+		case '0': case '1': case '2': case '3': case '4': case '5': case '6': case '7':
+			pos--;
+			return readCodeEscape(8, '\\');
+		case 'x':
+			return readCodeEscape(16, '\\');
+		case 'u':
+			return readFixedEscape(4);
+		case 'U':
+			return readFixedEscape(8);
+		case '\n':
+			return -1;
+		case '\\': case '\'': case '"': case '`':
+			return c;
+		default:
+			throw error("undefined escape sequence \\" + c);
+		}
+	}
+	
+	private int readCodeEscape(int radix, char terminator) throws SyntaxErrorException {
+		int start = pos;
+		while(pos < length && Character.digit(text.charAt(pos), radix) >= 0)
+			pos++;
+		if(pos == start)
+			throw error("bad escape sequence");
+		int code;
+		try {
+			code = Integer.parseInt(text.substring(start, pos), radix);
+		} catch (NumberFormatException e) {
+			// too many digits for an int
+			throw error("escape sequence out of range");
+		}
+		// the closing \ is optional in SWI-Prolog
+		if(pos < length && text.charAt(pos) == terminator)
+			pos++;
+		return checkCodePoint(code);
+	}
+	
+	private int readFixedEscape(int digits) throws SyntaxErrorException {
+		if(pos + digits > length)
+			throw error("bad unicode escape");
+		long code = 0;
+		for(int i = 0 ; i < digits ; i++) {
+			int d = Character.digit(text.charAt(pos + i), 16);
+			if(d < 0)
+				throw error("bad unicode escape");
+			code = code * 16 + d;
+		}
+		if(code > Character.MAX_CODE_POINT)
+			throw error("escape sequence out of range");
+		pos += digits;
+		return checkCodePoint((int)code);
+	}
+	
+	/**
+	 * @return code, if it's a code point appendCodePoint will take
+	 * @throws SyntaxErrorException if it's not
+	 */
+	private int checkCodePoint(int code) throws SyntaxErrorException {
+		if(!Character.isValidCodePoint(code))
+			throw error("escape sequence out of range");
+		return code;
+	}
+}
@@ -0,0 +1,249 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine.term;
+
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes Prolog syntax, quoting and escaping so that the text reads back as the same term.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+public final class TermWriter {
+	
+	/**
+	 * only static methods
+	 */
+	private TermWriter() {
+	}
+	
+	/**
+	 * @param c a character
+	 * @return true if c is one of the Prolog symbol characters, which make up atoms like =.. and \+
+	 */
+	static boolean isSymbolChar(char c) {
+		switch(c) {
+		case '#': case '$': case '&': case '*': case '+': case '-': case '.': case '/': case ':':
+		case '<': case '=': case '>': case '?': case '@': case '^': case '~': case '\\':
+			return true;
+		default:
+			return false;
+		}
+	}
+	
+	/**
+	 * @param c a character
+	 * @return true if c can appear after the first character of an unquoted atom or a variable name
+	 */
+	static boolean isAlnum(char c) {
+		return c == '_' || Character.isLetterOrDigit(c);
+	}
+	
+	/**
+	 * @param c a character
+	 * @return true if an unquoted atom can start with c
+	 */
+	static boolean isAtomStart(char c) {
+		return Character.isLetter(c) && !Character.isUpperCase(c) && !Character.isTitleCase(c);
+	}
+	
+	/**
+	 * @param name the text of an atom
+	 * @return true if the atom must be written in single quotes
+	 */
+	public static boolean needsQuotes(String name) {
+		int n = name.length();
+		if(n == 0)
+			return true;
+		
+		char c = name.charAt(0);
+		if(isAtomStart(c)) {
+			for(int i = 1 ; i < n ; i++) {
+				if(!isAlnum(name.charAt(i)))
+					return true;
+			}
+			return false;
+		}
+		
+		if(isSymbolChar(c)) {
+			for(int i = 1 ; i < n ; i++) {
+				if(!isSymbolChar(name.charAt(i)))
+					return true;
+			}
+			// a lone . would end the clause, and /* would start a comment
+			return name.equals(".") || name.startsWith("/*");
+		}
+		
+		// unquoted, [] is the empty list, not an atom
+		return !(name.equals("!") || name.equals(";") || name.equals("{}"));
+	}
+	
+	/**
+	 * append an atom, quoted if need be
+	 * 
+	 * @param sb where to write it
+	 * @param name the text of the atom
+	 * @return sb
+	 */
+	public static StringBuilder writeAtom(StringBuilder sb, String name) {
+		if(needsQuotes(name)) 
+			writeQuoted(sb, name, '\'');
+		else
+			sb.append(name);
+		return sb;
+	}
+	
+	/**
+	 * append a double quoted string
+	 * 
+	 * @param sb where to write it
+	 * @param value the text of the string
+	 * @return sb
+	 */
+	public static StringBuilder writeString(StringBuilder sb, String value) {
+		writeQuoted(sb, value, '"');
+		return sb;
+	}
+	
+	private static void writeQuoted(StringBuilder sb, String s, char quote) {
+		sb.append(quote);
+		for(int i = 0, n = s.length() ; i < n ; i++) {
+			char c = s.charAt(i);
+			switch(c) {
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			default:
+				if(c == quote) {
+					sb.append('\\').append(c);
+				} else if(c < 0x20 || c == 0x7F) {
+					sb.append("\\x").append(Integer.toHexString(c)).append('\\');
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+		sb.append(quote);
+	}
+	
+	/**
+	 * append a Java value as a Prolog term, so it can be put into a goal without worrying about quotes.
+	 * 
+	 * <ul>
+	 * <li>Terms are written in canonical form. Atoms that are operators get parentheses.</li>
+	 * <li>Strings and Characters become atoms. Use a StringTerm for a Prolog string.</li>
+	 * <li>Integer, Long, Short, Byte, BigInteger and the atomic integers become integers</li>
+	 * <li>Double, Float and BigDecimal become floats. A BigDecimal is written with all its digits, not
+	 * rounded to a double first</li>
+	 * <li>Booleans become the atoms true and false</li>
+	 * <li>arrays and Iterables become lists of their elements</li>
+	 * </ul>
+	 * 
+	 * @param sb where to write it
+	 * @param value the value
+	 * @return sb
+	 * 
+	 * @throws IllegalArgumentException if the value is null or of some other type
+	 */
+	public static StringBuilder writeValue(StringBuilder sb, Object value) {
+		if(value instanceof Atom && isOperator(((Atom)value).getName())) {
+			sb.append('(');
+			((Atom)value).write(sb);
+			return sb.append(')');
+		}
+		if(value instanceof String && isOperator((String)value)) {
+			sb.append('(');
+			writeAtom(sb, (String)value);
+			return sb.append(')');
+		}
+		writeElement(sb, value);
+		return sb;
+	}
+	
+	private static boolean isOperator(String name) {
+		return Operators.infix(name) != null || Operators.prefix(name) != null;
+	}
+	
+	private static void writeElement(StringBuilder sb, Object value) {
+		if(value == null)
+			throw new IllegalArgumentException("null has no Prolog equivalent");
+		
+		if(value instanceof Term) {
+			((Term)value).write(sb);
+		} else if(value instanceof String) {
+			writeAtom(sb, (String)value);
+		} else if(value instanceof Character) {
+			writeAtom(sb, value.toString());
+		} else if(value instanceof Integer || value instanceof Long || value instanceof Short || 
+				value instanceof Byte || value instanceof AtomicInteger || value instanceof AtomicLong) {
+			sb.append(((Number)value).longValue());
+		} else if(value instanceof BigInteger) {
+			sb.append(value.toString());
+		} else if(value instanceof BigDecimal) {
+			BigDecimal d = (BigDecimal)value;
+			sb.append(d.toPlainString());
+			// 12 would be read as an integer
+			if(d.scale() <= 0)
+				sb.append(".0");
+		} else if(value instanceof Double || value instanceof Float) {
+			sb.append(FloatTerm.format(((Number)value).doubleValue()));
+		} else if(value instanceof Boolean) {
+			sb.append(((Boolean)value).booleanValue() ? "true" : "false");
+		} else if(value instanceof Iterable) {
+			sb.append('[');
+			boolean first = true;
+			for(Object element : (Iterable<?>)value) {
+				if(!first)
+					sb.append(',');
+				first = false;
+				writeElement(sb, element);
+			}
+			sb.append(']');
+		} else if(value.getClass().isArray()) {
+			sb.append('[');
+			for(int i = 0, n = Array.getLength(value) ; i < n ; i++) {
+				if(i > 0)
+					sb.append(',');
+				writeElement(sb, Array.get(value, i));
+			}
+			sb.append(']');
+		} else {
+			throw new IllegalArgumentException("can't write a " + value.getClass().getName() + " as a Prolog term");
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine.term;
+
+import javax.json.JsonValue;
+
+/**
+ * A Prolog variable. 
+ * 
+ * Variables in an answer are unbound - the Prolog system only gives them a name like _G123 or _123.
+ * Two variables are the same object only if they came from the same term and had the same name.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+public final class Variable extends Term {
+	private final String name;
+	
+	/**
+	 * @param name the variable name, an underscore or capital letter followed by letters, digits and underscores
+	 * 
+	 * @throws IllegalArgumentException if name isn't a valid variable name
+	 */
+	public Variable(String name) {
+		if(name == null)
+			throw new NullPointerException("variable name must not be null");
+		if(!isVariableName(name))
+			throw new IllegalArgumentException("not a variable name: " + name);
+		this.name = name;
+	}
+	
+	private static boolean isVariableName(String name) {
+		if(name.isEmpty())
+			return false;
+		char c = name.charAt(0);
+		if(c != '_' && !Character.isUpperCase(c) && !Character.isTitleCase(c))
+			return false;
+		for(int i = 1 ; i < name.length() ; i++) {
+			if(!TermWriter.isAlnum(name.charAt(i)))
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * @return the variable name
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * @return true if this is the anonymous variable, _, or a variable whose name starts with _
+	 */
+	public boolean isAnonymous() {
+		return name.startsWith("_");
+	}
+
+	@Override
+	public TermType getType() {
+		return TermType.VARIABLE;
+	}
+
+	@Override
+	public JsonValue toJson() {
+		return jsonProvider.createValue(name);
+	}
+
+	@Override
+	void write(StringBuilder sb) {
+		sb.append(name);
+	}
+}
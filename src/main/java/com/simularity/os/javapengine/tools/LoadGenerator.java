@@ -0,0 +1,486 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine.tools;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonBuilderFactory;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+
+import com.simularity.os.javapengine.LatencyHistogram;
+import com.simularity.os.javapengine.Pengine;
+import com.simularity.os.javapengine.PengineBuilder;
+import com.simularity.os.javapengine.PenginePool;
+import com.simularity.os.javapengine.Query;
+
+/**
+ * Command line load generator for a pengines server. 
+ * 
+ * Runs the goals in a query file, one per line (blank lines and lines starting with # are skipped), 
+ * round robin, for a warmup phase and then a measured phase, and reports throughput, latency percentiles
+ * and errors per phase, as text or JSON.
+ * 
+ * In the closed loop mode, --concurrency threads each run a query, wait for all its answers, and run the next.
+ * In the open loop mode, queries start at --rate per second whether or not earlier ones have finished, on up
+ * to --concurrency threads. Latency is measured from when a query should have started, so a server that falls 
+ * behind shows it in the percentiles instead of quietly slowing the arrivals (coordinated omission). Closed loop
+ * latencies are corrected the HdrHistogram way if --expected-interval is given. Service time - from when the query 
+ * was actually sent - is reported too.
+ * 
+ * <pre>
+ * java -cp javapengine.jar:javax.json.jar com.simularity.os.javapengine.tools.LoadGenerator \
+ *     --server http://localhost:3030/ --queries queries.pl --mode open --rate 50 --concurrency 16 --pool 8
+ * </pre>
+ * 
+ * Run it with no arguments for the options.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+public final class LoadGenerator {
+	private static final JsonBuilderFactory jsonBuilderFactory = Json.createBuilderFactory(null);
+	
+	private static final String USAGE = 
+			"usage: LoadGenerator --server URL --queries FILE [options]\n" +
+			"  --mode closed|open         closed: fixed concurrency (default), open: fixed arrival rate\n" +
+			"  --concurrency N            closed: threads running queries, open: most queries at once (default 4)\n" +
+			"  --rate R                   open: queries started per second\n" +
+			"  --warmup S                 seconds of warmup, not counted in the results (default 10)\n" +
+			"  --duration S               seconds measured (default 60)\n" +
+			"  --chunk N                  answers per request (default 1)\n" +
+			"  --pool N                   run queries on a pool of N persistent pengines (default 0, a pengine per query)\n" +
+			"  --destroy true|false       without a pool: true, pengines destroy themselves after the query (default),\n" +
+			"                             false, each is destroyed with an explicit request afterwards\n" +
+			"  --timeout MS               deadline for each request to the server (default none)\n" +
+			"  --expected-interval MS     closed: correct for coordinated omission with this interval between queries\n" +
+			"  --output text|json         report format (default text)\n";
+	
+	private final PengineBuilder builder;
+	private final List<String> goals;
+	private final boolean open;
+	private final int concurrency;
+	private final double rate;
+	private final long warmup;
+	private final long duration;
+	private final boolean destroy;
+	private final long expectedInterval;
+	private final PenginePool pool;
+	private final AtomicInteger nextGoal = new AtomicInteger(0);
+	
+	/**
+	 * The statistics of one phase of a run
+	 */
+	private static final class Phase {
+		private final String name;
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final LatencyHistogram service = new LatencyHistogram();
+		private final AtomicLong ok = new AtomicLong();
+		private final AtomicLong answers = new AtomicLong();
+		private final ConcurrentHashMap<String, AtomicLong> errors = new ConcurrentHashMap<String, AtomicLong>();
+		private volatile long start;
+		private volatile long end;
+		
+		private Phase(String name) {
+			this.name = name;
+		}
+		
+		private void error(Throwable e) {
+			String kind = e.getClass().getSimpleName();
+			if(e.getCause() != null)
+				kind = kind + "/" + e.getCause().getClass().getSimpleName();
+			AtomicLong n = errors.get(kind);
+			if(n == null) {
+				AtomicLong mine = new AtomicLong();
+				n = errors.putIfAbsent(kind, mine);
+				if(n == null)
+					n = mine;
+			}
+			n.incrementAndGet();
+		}
+		
+		private long errorCount() {
+			long n = 0;
+			for(AtomicLong e : errors.values())
+				n += e.get();
+			return n;
+		}
+		
+		private double seconds() {
+			return (end - start) / 1e9;
+		}
+	}
+	
+	private LoadGenerator(Map<String, String> opts) throws IOException {
+		builder = new PengineBuilder();
+		builder.setServer(required(opts, "server"));
+		builder.setChunk(intOption(opts, "chunk", 1));
+		long timeout = longOption(opts, "timeout", 0);
+		if(timeout > 0)
+			builder.setTimeout(timeout, TimeUnit.MILLISECONDS);
+		
+		goals = readGoals(required(opts, "queries"));
+		String mode = option(opts, "mode", "closed");
+		if(!mode.equals("open") && !mode.equals("closed"))
+			throw new IllegalArgumentException("--mode must be open or closed");
+		open = mode.equals("open");
+		concurrency = intOption(opts, "concurrency", 4);
+		rate = open ? Double.parseDouble(required(opts, "rate")) : 0.0;
+		if(open && rate <= 0.0)
+			throw new IllegalArgumentException("--rate must be more than 0");
+		warmup = TimeUnit.SECONDS.toNanos(longOption(opts, "warmup", 10));
+		duration = TimeUnit.SECONDS.toNanos(longOption(opts, "duration", 60));
+		destroy = Boolean.parseBoolean(option(opts, "destroy", "true"));
+		expectedInterval = TimeUnit.MILLISECONDS.toNanos(longOption(opts, "expected-interval", 0));
+		
+		int poolSize = intOption(opts, "pool", 0);
+		try {
+			pool = poolSize > 0 ? new PenginePool(builder, poolSize) : null;
+		} catch (Exception e) {
+			throw new IllegalArgumentException("can't make the pool " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * @param args the options, see the usage
+	 */
+	public static void main(String[] args) {
+		Map<String, String> opts = new TreeMap<String, String>();
+		for(int i = 0 ; i < args.length ; i += 2) {
+			if(!args[i].startsWith("--") || i + 1 >= args.length) {
+				System.err.print(USAGE);
+				System.exit(2);
+			}
+			opts.put(args[i].substring(2), args[i + 1]);
+		}
+		
+		LoadGenerator gen;
+		try {
+			gen = new LoadGenerator(opts);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.print(USAGE);
+			System.exit(2);
+			return;
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(2);
+			return;
+		}
+		
+		List<Phase> phases;
+		try {
+			phases = gen.run();
+		} catch (InterruptedException e) {
+			System.err.println("interrupted");
+			System.exit(1);
+			return;
+		}
+		
+		if(option(opts, "output", "text").equals("json"))
+			System.out.println(gen.toJson(phases).toString());
+		else
+			System.out.print(gen.toText(phases));
+		System.exit(0);
+	}
+	
+	/**
+	 * run the warmup and measured phases
+	 * 
+	 * @return the phases
+	 * @throws InterruptedException if interrupted
+	 */
+	private List<Phase> run() throws InterruptedException {
+		List<Phase> phases = new ArrayList<Phase>();
+		if(warmup > 0)
+			phases.add(new Phase("warmup"));
+		phases.add(new Phase("measured"));
+		
+		ExecutorService workers = Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger(0);
+			
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "LoadGenerator-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		
+		for(Phase phase : phases) {
+			long length = phase.name.equals("warmup") ? warmup : duration;
+			phase.start = System.nanoTime();
+			if(open)
+				runOpen(workers, phase, phase.start + length);
+			else
+				runClosed(workers, phase, phase.start + length);
+			phase.end = System.nanoTime();
+		}
+		
+		// let the stragglers finish, they're counted in the phase they started in
+		workers.shutdown();
+		workers.awaitTermination(1, TimeUnit.MINUTES);
+		if(pool != null)
+			pool.close();
+		return phases;
+	}
+	
+	/**
+	 * fixed concurrency - each thread runs a query after the last one's done
+	 */
+	private void runClosed(ExecutorService workers, final Phase phase, final long end) throws InterruptedException {
+		final AtomicInteger running = new AtomicInteger(concurrency);
+		for(int i = 0 ; i < concurrency ; i++) {
+			workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while(System.nanoTime() < end) {
+							long start = System.nanoTime();
+							runOne(phase, start, start);
+						}
+					} finally {
+						synchronized(running) {
+							running.decrementAndGet();
+							running.notifyAll();
+						}
+					}
+				}
+			});
+		}
+		synchronized(running) {
+			while(running.get() > 0)
+				running.wait();
+		}
+	}
+	
+	/**
+	 * fixed arrival rate - queries are started on schedule, whether or not the earlier ones are done
+	 */
+	private void runOpen(ExecutorService workers, final Phase phase, long end) {
+		long period = (long)(1e9 / rate);
+		for(long intended = phase.start ; intended < end ; intended += period) {
+			for(long wait = intended - System.nanoTime() ; wait > 0 ; wait = intended - System.nanoTime())
+				LockSupport.parkNanos(wait);
+			
+			final long scheduled = intended;
+			workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					runOne(phase, scheduled, System.nanoTime());
+				}
+			});
+		}
+	}
+	
+	/**
+	 * run one query to the end and record how it went
+	 * 
+	 * @param phase the phase it counts in
+	 * @param intended System.nanoTime() it should have started at
+	 * @param start System.nanoTime() it really started at
+	 */
+	private void runOne(Phase phase, long intended, long start) {
+		String goal = goals.get(Math.abs(nextGoal.getAndIncrement() % goals.size()));
+		try {
+			phase.answers.addAndGet(query(goal));
+			phase.ok.incrementAndGet();
+		} catch (Exception e) {
+			phase.error(e);
+		}
+		
+		long done = System.nanoTime();
+		phase.service.record(done - start);
+		if(open)
+			phase.latency.record(done - intended);
+		else
+			phase.latency.recordCorrected(done - start, expectedInterval);
+	}
+	
+	/**
+	 * @param goal the query
+	 * @return the number of answers
+	 * @throws Exception whatever went wrong
+	 */
+	private long query(String goal) throws Exception {
+		if(pool != null) {
+			Pengine p = pool.borrow();
+			try {
+				return drain(p.ask(goal));
+			} finally {
+				pool.release(p);
+			}
+		}
+		
+		if(destroy) {
+			PengineBuilder b = builder.clone();
+			b.setDestroy(true);
+			b.setAsk(goal);
+			Pengine p = b.newPengine();
+			try {
+				return drain(p.getCurrentQuery());
+			} finally {
+				if(!p.isDestroyed())
+					p.destroy();
+			}
+		}
+		
+		PengineBuilder b = builder.clone();
+		b.setDestroy(false);
+		Pengine p = b.newPengine();
+		try {
+			return drain(p.ask(goal));
+		} finally {
+			p.destroy();
+		}
+	}
+	
+	private static long drain(Query q) throws Exception {
+		long n = 0;
+		if(q == null)
+			return n;
+		while(q.next(0, TimeUnit.MILLISECONDS) != null)
+			n++;
+		return n;
+	}
+	
+	private String toText(List<Phase> phases) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(open ? String.format("open loop, %.1f queries/s, at most %d at once%n", rate, concurrency) :
+				String.format("closed loop, %d threads%n", concurrency));
+		for(Phase phase : phases) {
+			long n = phase.ok.get() + phase.errorCount();
+			sb.append(String.format("%s: %.1fs, %d queries, %.1f queries/s, %d answers, %d errors%n", 
+					phase.name, phase.seconds(), n, n / phase.seconds(), phase.answers.get(), phase.errorCount()));
+			sb.append("  latency ").append(phase.latency.toString()).append('\n');
+			sb.append("  service ").append(phase.service.toString()).append('\n');
+			for(Map.Entry<String, AtomicLong> e : new TreeMap<String, AtomicLong>(phase.errors).entrySet())
+				sb.append("  ").append(e.getKey()).append(' ').append(e.getValue().get()).append('\n');
+		}
+		return sb.toString();
+	}
+	
+	private JsonObject toJson(List<Phase> phases) {
+		JsonArrayBuilder jphases = jsonBuilderFactory.createArrayBuilder();
+		for(Phase phase : phases) {
+			long n = phase.ok.get() + phase.errorCount();
+			JsonObjectBuilder errors = jsonBuilderFactory.createObjectBuilder();
+			for(Map.Entry<String, AtomicLong> e : new TreeMap<String, AtomicLong>(phase.errors).entrySet())
+				errors.add(e.getKey(), e.getValue().get());
+			jphases.add(jsonBuilderFactory.createObjectBuilder()
+					.add("name", phase.name)
+					.add("seconds", phase.seconds())
+					.add("queries", n)
+					.add("throughput", n / phase.seconds())
+					.add("answers", phase.answers.get())
+					.add("errors", errors)
+					.add("latency", toJson(phase.latency))
+					.add("service", toJson(phase.service)));
+		}
+		
+		JsonObjectBuilder job = jsonBuilderFactory.createObjectBuilder()
+				.add("mode", open ? "open" : "closed")
+				.add("concurrency", concurrency);
+		if(open)
+			job.add("rate", rate);
+		return job.add("phases", jphases).build();
+	}
+	
+	/**
+	 * @return the histogram's percentiles, in milliseconds
+	 */
+	private static JsonObjectBuilder toJson(LatencyHistogram h) {
+		return jsonBuilderFactory.createObjectBuilder()
+				.add("count", h.getCount())
+				.add("mean", h.getMean() / 1e6)
+				.add("p50", h.getPercentile(50.0) / 1e6)
+				.add("p90", h.getPercentile(90.0) / 1e6)
+				.add("p99", h.getPercentile(99.0) / 1e6)
+				.add("p99.9", h.getPercentile(99.9) / 1e6)
+				.add("max", h.getMax() / 1e6);
+	}
+	
+	private static List<String> readGoals(String file) throws IOException {
+		List<String> goals = new ArrayList<String>();
+		try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+			for(String line = r.readLine() ; line != null ; line = r.readLine()) {
+				line = line.trim();
+				if(line.isEmpty() || line.startsWith("#"))
+					continue;
+				// a goal can be written as a clause, with its full stop
+				if(line.endsWith("."))
+					line = line.substring(0, line.length() - 1);
+				goals.add(line);
+			}
+		}
+		if(goals.isEmpty())
+			throw new IOException("no queries in " + file);
+		return goals;
+	}
+	
+	private static String option(Map<String, String> opts, String name, String dflt) {
+		String v = opts.get(name);
+		return v == null ? dflt : v;
+	}
+	
+	private static String required(Map<String, String> opts, String name) {
+		String v = opts.get(name);
+		if(v == null)
+			throw new IllegalArgumentException("--" + name + " is required");
+		return v;
+	}
+	
+	private static int intOption(Map<String, String> opts, String name, int dflt) {
+		return (int)longOption(opts, name, dflt);
+	}
+	
+	private static long longOption(Map<String, String> opts, String name, long dflt) {
+		String v = opts.get(name);
+		if(v == null)
+			return dflt;
+		try {
+			return Long.parseLong(v);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("--" + name + " must be a number");
+		}
+	}
+}
@@ -0,0 +1,403 @@
+/**
+ * Copyright (c) 2016 Simularity Inc.
+ * 
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ * 
+ */
+package com.simularity.os.javapengine.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.simularity.os.javapengine.TrafficLog;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves pengine conversations recorded with a TrafficLog (see PengineBuilder.setTrafficLog), so a client 
+ * can be benchmarked against real traffic - the real answers, chunks and sizes - without a Prolog server.
+ * 
+ * <pre>
+ * java -cp javapengine.jar com.simularity.os.javapengine.tools.ReplayServer \
+ *     --recording traffic.log --port 3030 --latency-scale 1.0
+ * </pre>
+ * 
+ * The recording is split into conversations, one per pengine, starting with its create. A create is answered 
+ * with a recorded conversation whose create had the same body, taking each such conversation in turn, or if there
+ * are none, with the next of all of them. Each later request on that pengine is answered with the conversation's 
+ * next recorded response, whatever the request is - a request that's different from the recorded one is counted 
+ * as a mismatch. The recorded pengine id is replaced with a new one, so a conversation can be replayed by many 
+ * clients at once. destroy_all and abort are answered with true.
+ * 
+ * Each response is sent the recorded latency, times --latency-scale, after its request arrived. 0 sends
+ * them as fast as possible.
+ * 
+ * @author Anne Ogborn
+ *
+ */
+public final class ReplayServer implements HttpHandler {
+	private static final String USAGE = 
+			"usage: ReplayServer --recording FILE [options]\n" +
+			"  --port N                   port to listen on (default 3030)\n" +
+			"  --latency-scale S          multiply recorded latencies by S, 0 for none (default 1)\n";
+	
+	private static final Pattern JSON_ID = Pattern.compile("\"id\"\\s*:\\s*\"((?:[^\"\\\\]|\\\\.)*)\"");
+	private static final Pattern PROLOG_ID = Pattern.compile("^\\s*\\w+\\(\\s*(?:'((?:[^'\\\\]|\\\\.|'')*)'|(\\w+))");
+	private static final Pattern ID_PARAM = Pattern.compile("(?:^|&)id=([^&]*)");
+	
+	/**
+	 * one pengine's recorded requests, from its create on
+	 */
+	private static final class Conversation {
+		private final String id;
+		private final List<TrafficLog.Exchange> exchanges = new ArrayList<TrafficLog.Exchange>();
+		
+		Conversation(String id) {
+			this.id = id;
+		}
+	}
+	
+	/**
+	 * a conversation being replayed to a client
+	 */
+	private static final class Replay {
+		private final Conversation conversation;
+		private final String id;
+		private int next = 1;
+		
+		Replay(Conversation conversation, String id) {
+			this.conversation = conversation;
+			this.id = id;
+		}
+	}
+	
+	private final double latencyScale;
+	private final List<Conversation> conversations = new ArrayList<Conversation>();
+	private final Map<String, List<Conversation>> byCreate = new HashMap<String, List<Conversation>>();
+	private final ConcurrentHashMap<String, AtomicInteger> turns = new ConcurrentHashMap<String, AtomicInteger>();
+	private final AtomicInteger nextAny = new AtomicInteger();
+	private final AtomicLong ids = new AtomicLong();
+	private final ConcurrentHashMap<String, Replay> live = new ConcurrentHashMap<String, Replay>();
+	private final AtomicLong served = new AtomicLong();
+	private final AtomicLong mismatches = new AtomicLong();
+	private final AtomicLong unknown = new AtomicLong();
+	
+	/**
+	 * @param exchanges the recording
+	 * @param latencyScale what to multiply the recorded latencies by
+	 */
+	public ReplayServer(List<TrafficLog.Exchange> exchanges, double latencyScale) {
+		this.latencyScale = latencyScale;
+		
+		Map<String, Conversation> byId = new LinkedHashMap<String, Conversation>();
+		for(TrafficLog.Exchange e : exchanges) {
+			String path = path(e.getURL());
+			if(path.endsWith("/create")) {
+				String id = createdId(e.getResponse());
+				if(id == null)
+					continue;
+				Conversation c = new Conversation(id);
+				c.exchanges.add(e);
+				byId.put(id, c);
+				conversations.add(c);
+				
+				String body = new String(e.getRequest(), StandardCharsets.UTF_8);
+				List<Conversation> same = byCreate.get(body);
+				if(same == null) {
+					same = new ArrayList<Conversation>();
+					byCreate.put(body, same);
+				}
+				same.add(c);
+			} else {
+				Conversation c = byId.get(idParam(query(e.getURL())));
+				if(c != null)
+					c.exchanges.add(e);
+			}
+		}
+	}
+	
+	/**
+	 * @return the number of conversations in the recording
+	 */
+	public int getConversations() {
+		return conversations.size();
+	}
+	
+	/**
+	 * @return the number of requests answered from the recording
+	 */
+	public long getServed() {
+		return served.get();
+	}
+	
+	/**
+	 * @return the number of requests that weren't the same as the recorded request they were answered with
+	 */
+	public long getMismatches() {
+		return mismatches.get();
+	}
+	
+	/**
+	 * @return the number of requests for pengines the server didn't know, or past the end of their conversation
+	 */
+	public long getUnknown() {
+		return unknown.get();
+	}
+	
+	/**
+	 * @param args the options, see the usage
+	 */
+	public static void main(String[] args) {
+		Map<String, String> opts = new TreeMap<String, String>();
+		for(int i = 0 ; i < args.length ; i += 2) {
+			if(!args[i].startsWith("--") || i + 1 >= args.length) {
+				System.err.print(USAGE);
+				System.exit(2);
+			}
+			opts.put(args[i].substring(2), args[i + 1]);
+		}
+		if(!opts.containsKey("recording")) {
+			System.err.print(USAGE);
+			System.exit(2);
+		}
+		
+		final ReplayServer replay;
+		HttpServer server;
+		try {
+			int port = Integer.parseInt(opts.containsKey("port") ? opts.get("port") : "3030");
+			double scale = Double.parseDouble(opts.containsKey("latency-scale") ? opts.get("latency-scale") : "1");
+			if(scale < 0)
+				throw new NumberFormatException("--latency-scale can't be negative");
+			
+			replay = new ReplayServer(TrafficLog.read(new File(opts.get("recording"))), scale);
+			server = replay.start(port);
+		} catch (NumberFormatException e) {
+			System.err.println(e.getMessage());
+			System.err.print(USAGE);
+			System.exit(2);
+			return;
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+			return;
+		}
+		
+		System.out.println("replaying " + Integer.toString(replay.getConversations()) + " conversations on port " + 
+				Integer.toString(server.getAddress().getPort()));
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				System.out.println("served " + Long.toString(replay.getServed()) + ", mismatched " + 
+						Long.toString(replay.getMismatches()) + ", unknown " + Long.toString(replay.getUnknown()));
+			}
+		}));
+	}
+	
+	/**
+	 * Start serving
+	 * 
+	 * @param port the port, or 0 for any free one
+	 * @return the running server. Stop it when you're done
+	 * @throws IOException if the port can't be bound
+	 */
+	public HttpServer start(int port) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext("/", this);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+		return server;
+	}
+	
+	@Override
+	public void handle(HttpExchange http) throws IOException {
+		long arrived = System.nanoTime();
+		try {
+			URI uri = http.getRequestURI();
+			String path = uri.getPath();
+			byte[] body = readAll(http.getRequestBody());
+			
+			if(path.endsWith("/destroy_all") || path.endsWith("/abort")) {
+				respond(http, 200, "true".getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+			
+			TrafficLog.Exchange e;
+			String id;
+			String recordedId;
+			if(path.endsWith("/create")) {
+				Conversation c = choose(new String(body, StandardCharsets.UTF_8));
+				if(c == null) {
+					unknown.incrementAndGet();
+					respond(http, 404, new byte[0]);
+					return;
+				}
+				recordedId = c.id;
+				id = c.id + "_r" + Long.toString(ids.incrementAndGet());
+				e = c.exchanges.get(0);
+				if(c.exchanges.size() > 1)
+					live.put(id, new Replay(c, id));
+			} else {
+				Replay r = live.get(idParam(uri.getRawQuery()));
+				e = null;
+				if(r != null) {
+					synchronized(r) {
+						if(r.next < r.conversation.exchanges.size())
+							e = r.conversation.exchanges.get(r.next++);
+						if(r.next >= r.conversation.exchanges.size())
+							live.remove(r.id, r);
+					}
+				}
+				if(e == null) {
+					unknown.incrementAndGet();
+					respond(http, 404, new byte[0]);
+					return;
+				}
+				id = r.id;
+				recordedId = r.conversation.id;
+			}
+			
+			if(!Arrays.equals(body, e.getRequest()))
+				mismatches.incrementAndGet();
+			served.incrementAndGet();
+			
+			String response = new String(e.getResponse(), StandardCharsets.UTF_8).replace(recordedId, id);
+			long wait = arrived + (long)(e.getLatency() * latencyScale) - System.nanoTime();
+			if(wait > 0)
+				TimeUnit.NANOSECONDS.sleep(wait);
+			respond(http, e.getStatus(), response.getBytes(StandardCharsets.UTF_8));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			respond(http, 503, new byte[0]);
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			respond(http, 500, new byte[0]);
+		}
+	}
+	
+	/**
+	 * @param createBody the body of a create request
+	 * @return the conversation to replay for it, or null if there are none
+	 */
+	private Conversation choose(String createBody) {
+		List<Conversation> same = byCreate.get(createBody);
+		if(same != null) {
+			AtomicInteger turn = turns.get(createBody);
+			if(turn == null) {
+				turns.putIfAbsent(createBody, new AtomicInteger());
+				turn = turns.get(createBody);
+			}
+			return same.get(Math.abs(turn.getAndIncrement() % same.size()));
+		}
+		
+		if(conversations.isEmpty())
+			return null;
+		mismatches.incrementAndGet();
+		return conversations.get(Math.abs(nextAny.getAndIncrement() % conversations.size()));
+	}
+	
+	private static void respond(HttpExchange http, int status, byte[] body) throws IOException {
+		boolean json = body.length > 0 && body[0] == '{';
+		http.getResponseHeaders().add("Content-Type", json ? "application/json; charset=UTF-8" : "text/plain; charset=UTF-8");
+		http.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+		try (OutputStream out = http.getResponseBody()) {
+			out.write(body);
+		}
+	}
+	
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+		byte[] buf = new byte[8192];
+		for(int n = in.read(buf) ; n >= 0 ; n = in.read(buf))
+			out.write(buf, 0, n);
+		return out.toByteArray();
+	}
+	
+	/**
+	 * @param response the response to a create, in either format
+	 * @return the id of the pengine it made, or null if it doesn't say
+	 */
+	private static String createdId(byte[] response) {
+		String text = new String(response, StandardCharsets.UTF_8);
+		Matcher m = JSON_ID.matcher(text);
+		if(m.find())
+			return m.group(1);
+		m = PROLOG_ID.matcher(text);
+		if(m.find())
+			return m.group(1) != null ? m.group(1) : m.group(2);
+		return null;
+	}
+	
+	/**
+	 * @param query the raw query string of a URL, or null
+	 * @return the decoded id parameter, or null if there isn't one
+	 */
+	private static String idParam(String query) {
+		if(query == null)
+			return null;
+		Matcher m = ID_PARAM.matcher(query);
+		if(!m.find())
+			return null;
+		try {
+			return URLDecoder.decode(m.group(1), "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			return m.group(1);
+		}
+	}
+	
+	private static String path(String url) {
+		try {
+			return new URL(url).getPath();
+		} catch (IOException e) {
+			return url;
+		}
+	}
+	
+	private static String query(String url) {
+		try {
+			return new URL(url).getQuery();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+}